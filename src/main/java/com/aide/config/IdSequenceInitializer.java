@@ -0,0 +1,58 @@
+package com.aide.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Moves the id sequences past the ids already in use. Tables created before the entities
+ * switched from IDENTITY to pooled sequences already hold rows, while {@code ddl-auto}
+ * creates the sequences starting at 1.
+ */
+@Component
+@Slf4j
+public class IdSequenceInitializer {
+
+    // allocation sizes match the @SequenceGenerator of each entity
+    private static final List<IdSequence> SEQUENCES = List.of(
+            new IdSequence("documents", "documents_seq", 10),
+            new IdSequence("document_chunks", "document_chunks_seq", 100),
+            new IdSequence("document_texts", "document_texts_seq", 10),
+            new IdSequence("embedding_cache", "embedding_cache_seq", 100)
+    );
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean postgres;
+
+    // the EntityManagerFactory dependency makes this run after Hibernate has updated the schema
+    public IdSequenceInitializer(
+            JdbcTemplate jdbcTemplate,
+            EntityManagerFactory entityManagerFactory,
+            @Value("${spring.datasource.url:}") String datasourceUrl
+    ) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.postgres = datasourceUrl.startsWith("jdbc:postgresql:");
+    }
+
+    @PostConstruct
+    void alignSequences() {
+        if (!postgres) {
+            return;
+        }
+        for (IdSequence sequence : SEQUENCES) {
+            Long value = jdbcTemplate.queryForObject(
+                    "select setval('" + sequence.name() + "', greatest((select last_value from " + sequence.name() + "), "
+                            + "(select coalesce(max(id), 0) from " + sequence.table() + ") + " + sequence.allocationSize() + "))",
+                    Long.class);
+            log.debug("Sequence {} aligned with table {} at {}", sequence.name(), sequence.table(), value);
+        }
+    }
+
+    private record IdSequence(String table, String name, int allocationSize) {
+    }
+}
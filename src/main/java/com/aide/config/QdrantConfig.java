@@ -0,0 +1,35 @@
+package com.aide.config;
+
+import com.aide.service.dto.qdrant.QdrantIndexSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class QdrantConfig {
+
+    /**
+     * Storage and index settings of the Qdrant collection, shared by both transports. They are applied
+     * when the collection is created and, when they differ, to an existing collection on first use.
+     */
+    @Bean
+    public QdrantIndexSettings qdrantIndexSettings(
+            @Value("${qdrant.index.quantization:none}") String quantization,
+            @Value("${qdrant.index.always-ram:true}") boolean alwaysRam,
+            @Value("${qdrant.index.on-disk:false}") boolean onDisk,
+            @Value("${qdrant.index.hnsw.m:16}") int hnswM,
+            @Value("${qdrant.index.hnsw.ef-construct:100}") int hnswEfConstruct,
+            @Value("${qdrant.search.oversampling:2.0}") double oversampling,
+            @Value("${qdrant.search.rescore:true}") boolean rescore
+    ) {
+        return new QdrantIndexSettings(
+                QdrantIndexSettings.Quantization.parse(quantization),
+                alwaysRam,
+                onDisk,
+                hnswM,
+                hnswEfConstruct,
+                oversampling,
+                rescore
+        );
+    }
+}
@@ -0,0 +1,34 @@
+package com.aide.config;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+/**
+ * Gives searches and writes their own read timeout while both share one {@link HttpClient}, and with it
+ * one pool of keep-alive connections: a search should fail fast, a large upsert batch may take a while.
+ */
+class QdrantRequestFactory implements ClientHttpRequestFactory {
+
+    private final JdkClientHttpRequestFactory searches;
+    private final JdkClientHttpRequestFactory writes;
+
+    QdrantRequestFactory(HttpClient httpClient, Duration searchTimeout, Duration writeTimeout) {
+        this.searches = new JdkClientHttpRequestFactory(httpClient);
+        this.searches.setReadTimeout(searchTimeout);
+        this.writes = new JdkClientHttpRequestFactory(httpClient);
+        this.writes.setReadTimeout(writeTimeout);
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        boolean search = uri.getPath() != null && uri.getPath().endsWith("/points/search");
+        return (search ? searches : writes).createRequest(uri, httpMethod);
+    }
+}
@@ -1,14 +1,36 @@
 package com.aide.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+
 @Configuration
 public class WebClientsConfig {
 
+    /**
+     * HTTP client for Qdrant on the JDK client: pooled keep-alive connections, HTTP/2 where the server
+     * negotiates it, a connect timeout, separate read timeouts for searches and for writes, gzip and
+     * per-endpoint latency metrics (see {@link QdrantHttpInterceptor}).
+     */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate qdrantRestTemplate(
+            MeterRegistry meterRegistry,
+            @Value("${qdrant.http.connect-timeout:5s}") Duration connectTimeout,
+            @Value("${qdrant.http.search-timeout:10s}") Duration searchTimeout,
+            @Value("${qdrant.http.write-timeout:60s}") Duration writeTimeout,
+            @Value("${qdrant.http.compress-requests:false}") boolean compressRequests
+    ) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .build();
+        RestTemplate restTemplate = new RestTemplate(new QdrantRequestFactory(httpClient, searchTimeout, writeTimeout));
+        restTemplate.getInterceptors().add(new QdrantHttpInterceptor(meterRegistry, compressRequests));
+        return restTemplate;
     }
-}
\ No newline at end of file
+}
@@ -1,6 +1,6 @@
 package com.aide.controller;
 
-import com.aide.controller.dto.UploadResponse;
+import com.aide.controller.dto.IngestionJobResponse;
 import com.aide.service.DocumentService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
@@ -26,9 +26,9 @@ public class DocumentController {
     }
 
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    @ResponseStatus(HttpStatus.CREATED)
-    @Operation(summary = "Upload document", description = "Upload a PDF or text document for processing")
-    public UploadResponse uploadDocument(
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @Operation(summary = "Upload document", description = "Upload a PDF or text document and queue it for background processing")
+    public IngestionJobResponse uploadDocument(
             @RequestParam("file") MultipartFile file,
             @RequestParam(value = "project") @NotBlank String project
     ) {
@@ -41,6 +41,28 @@ public class DocumentController {
         return documentService.uploadDocument(file, project);
     }
 
+    @PutMapping(value = "/{id}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    @Operation(summary = "Update document", description = "Upload a new version of a document; only changed chunks are re-embedded")
+    public IngestionJobResponse updateDocument(
+            @PathVariable Long id,
+            @RequestParam("file") MultipartFile file
+    ) {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("File must not be null or empty");
+        }
+        if (file.getSize() > MAX_FILE_SIZE) {
+            throw new IllegalArgumentException("File size exceeds maximum limit" + (MAX_FILE_SIZE / (1024 * 1024)) + "MB");
+        }
+        return documentService.updateDocument(id, file);
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    @Operation(summary = "Get ingestion job", description = "Report the processing progress of an uploaded document")
+    public IngestionJobResponse getJob(@PathVariable String jobId) {
+        return documentService.getJob(jobId);
+    }
+
     @GetMapping("/{id}")
     @Operation(summary = "Download document", description = "Download a previously uploaded document")
     public ResponseEntity<Resource> downloadDocument(@PathVariable Long id) {
@@ -0,0 +1,23 @@
+package com.aide.controller.dto;
+
+import com.aide.service.dto.IngestionJobStatus;
+
+import java.time.Instant;
+
+public record IngestionJobResponse(
+        String jobId,
+        Long documentId,
+        IngestionJobStatus status,
+        Integer totalChunks,
+        int embeddedChunks,
+        int cachedChunks,
+        int unchangedChunks,
+        int duplicateChunks,
+        int storedChunks,
+        long removedChars,
+        String error,
+        Instant submittedAt,
+        Instant updatedAt,
+        Long duplicateOf
+) {
+}
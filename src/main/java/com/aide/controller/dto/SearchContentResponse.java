@@ -1,5 +1,5 @@
 package com.aide.controller.dto;
 
 public record SearchContentResponse(
-        Long documentId, String documentName, String documentPath, Long chunkId, String content, Double score) {
+        Long documentId, String documentName, String documentPath, Long chunkId, String section, String content, Double score) {
 }
\ No newline at end of file
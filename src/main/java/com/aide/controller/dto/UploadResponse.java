@@ -1,4 +0,0 @@
-package com.aide.controller.dto;
-
-public record UploadResponse(Long documentId, int chunkCount) {
-}
@@ -1,5 +1,6 @@
 package com.aide.model;
 
+import com.aide.service.dto.IngestionJobStatus;
 import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
@@ -11,11 +12,20 @@ import java.time.Instant;
 @Setter
 @NoArgsConstructor
 @Entity
-@Table(name = "documents")
+@Table(
+        name = "documents",
+        // one document per file and project: identical uploads reuse it
+        uniqueConstraints = @UniqueConstraint(name = "uk_documents_project_content_hash", columnNames = {"project", "content_hash"}),
+        indexes = {
+                @Index(name = "idx_documents_content_hash", columnList = "content_hash"),
+                @Index(name = "idx_documents_job_id", columnList = "job_id")
+        }
+)
 public class Document {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "documents_seq")
+    @SequenceGenerator(name = "documents_seq", sequenceName = "documents_seq", allocationSize = 10)
     private Long id;
 
     @Column(nullable = false)
@@ -27,6 +37,30 @@ public class Document {
     @Column(nullable = false)
     private String filePath;
 
+    // SHA-256 of the uploaded bytes; also the name of the stored blob
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(nullable = false)
     private Instant uploadedAt;
+
+    // DocumentText of the current version; set together with ingestedAt
+    private Long textId;
+
+    // set once all chunks are stored in Qdrant; only ingested documents are reused for identical uploads
+    private Instant ingestedAt;
+
+    // last ingestion job of the document; its progress is kept in memory, only the outcome is stored
+    @Column(name = "job_id", length = 36)
+    private String jobId;
+
+    // QUEUED while the job runs, then COMPLETED or FAILED
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private IngestionJobStatus jobStatus;
+
+    @Column(length = 1000)
+    private String jobError;
+
+    private Instant jobUpdatedAt;
 }
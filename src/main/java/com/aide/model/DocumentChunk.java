@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.ColumnDefault;
 
 @Getter
 @Setter
@@ -12,8 +13,10 @@ import lombok.Setter;
 @Table(name = "document_chunks")
 public class DocumentChunk {
 
+    // pooled sequence instead of IDENTITY: Hibernate disables JDBC insert batching for IDENTITY columns
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "document_chunks_seq")
+    @SequenceGenerator(name = "document_chunks_seq", sequenceName = "document_chunks_seq", allocationSize = 100)
     private Long id;
 
     @Column(name = "document_id", nullable = false)
@@ -22,6 +25,29 @@ public class DocumentChunk {
     @Column(nullable = false)
     private Integer chunkIndex;
 
-    @Column(nullable = false, length = 5000)
+    // start (inclusive) and end (exclusive) char offsets into the document's DocumentText
+    private Integer startOffset;
+
+    private Integer endOffset;
+
+    // headings the chunk sits under, e.g. "Installation > Linux"; null outside any heading
+    @Column(length = 1000)
+    private String headingPath;
+
+    // MinHash signature of the content (see NearDuplicateIndex); null for chunks too short to compare
+    @Column(length = 256)
+    private byte[] minhash;
+
+    // Qdrant point of the near-duplicate chunk whose vector this chunk shares; null when the
+    // chunk has its own point, which has the chunk's id
+    private Long pointId;
+
+    // only set for chunks stored before their text was kept in document_texts
+    @Column(length = 5000)
     private String content;
+
+    // chunk stored by a running ingestion job; not searchable until the job publishes the document or swaps in the new version
+    @ColumnDefault("false")
+    @Column(nullable = false)
+    private boolean pending;
 }
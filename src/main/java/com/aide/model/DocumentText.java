@@ -0,0 +1,37 @@
+package com.aide.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+/**
+ * The extracted text of one document version, stored once as {@link DocumentTextBlock}s; chunks reference it by offsets.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(
+        name = "document_texts",
+        indexes = @Index(name = "idx_document_texts_document_id", columnList = "document_id")
+)
+public class DocumentText {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "document_texts_seq")
+    @SequenceGenerator(name = "document_texts_seq", sequenceName = "document_texts_seq", allocationSize = 10)
+    private Long id;
+
+    @Column(name = "document_id", nullable = false)
+    private Long documentId;
+
+    // length of the decompressed text in chars; chunk offsets are char offsets
+    @Column(nullable = false)
+    private Integer length;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+}
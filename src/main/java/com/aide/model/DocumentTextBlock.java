@@ -0,0 +1,36 @@
+package com.aide.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * One compressed block of a {@link DocumentText}, so a chunk can be read without decompressing the whole text.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(
+        name = "document_text_blocks",
+        indexes = @Index(name = "idx_document_text_blocks_text_id", columnList = "text_id, block_index")
+)
+public class DocumentTextBlock {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "document_text_blocks_seq")
+    @SequenceGenerator(name = "document_text_blocks_seq", sequenceName = "document_text_blocks_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(name = "text_id", nullable = false)
+    private Long textId;
+
+    // block n holds chars [n * BLOCK_CHARS, (n + 1) * BLOCK_CHARS) of the text
+    @Column(name = "block_index", nullable = false)
+    private Integer blockIndex;
+
+    // modified UTF-8 (DataOutput.writeUTF), which keeps a surrogate pair split across two blocks intact; deflate-compressed
+    @Column(nullable = false)
+    private byte[] content;
+}
@@ -0,0 +1,43 @@
+package com.aide.model;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+
+@Getter
+@Setter
+@NoArgsConstructor
+@Entity
+@Table(
+        name = "embedding_cache",
+        uniqueConstraints = @UniqueConstraint(
+                name = "uk_embedding_cache_model_dimensions_hash",
+                columnNames = {"model", "dimensions", "content_hash"}
+        )
+)
+public class EmbeddingCacheEntry {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "embedding_cache_seq")
+    @SequenceGenerator(name = "embedding_cache_seq", sequenceName = "embedding_cache_seq", allocationSize = 100)
+    private Long id;
+
+    @Column(nullable = false)
+    private String model;
+
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash;
+
+    @Column(nullable = false)
+    private Integer dimensions;
+
+    // float32 values, little-endian
+    @Column(nullable = false)
+    private byte[] vector;
+
+    @Column(nullable = false)
+    private Instant createdAt;
+}
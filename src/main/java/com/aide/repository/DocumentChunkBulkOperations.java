@@ -0,0 +1,16 @@
+package com.aide.repository;
+
+import com.aide.model.DocumentChunk;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface DocumentChunkBulkOperations {
+
+    /**
+     * Inserts new chunks and assigns their ids. Batches of at least {@code app.ingestion.copy-threshold}
+     * chunks are streamed with PostgreSQL {@code COPY}; smaller ones use batched JDBC inserts.
+     */
+    @Transactional
+    List<DocumentChunk> insertAll(List<DocumentChunk> chunks);
+}
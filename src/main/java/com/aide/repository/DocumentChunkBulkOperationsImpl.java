@@ -0,0 +1,116 @@
+package com.aide.repository;
+
+import com.aide.model.DocumentChunk;
+import jakarta.persistence.EntityManager;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.HexFormat;
+import java.util.List;
+
+public class DocumentChunkBulkOperationsImpl implements DocumentChunkBulkOperations {
+
+    // must match the @SequenceGenerator of DocumentChunk
+    static final String SEQUENCE = "document_chunks_seq";
+    static final int ALLOCATION_SIZE = 100;
+
+    private static final String COPY_SQL = "COPY document_chunks (id, document_id, chunk_index, start_offset, end_offset, heading_path, minhash, point_id, pending) FROM STDIN (FORMAT csv)";
+
+    private final EntityManager entityManager;
+    private final JdbcTemplate jdbcTemplate;
+    private final int copyThreshold;
+    private final boolean postgres;
+
+    public DocumentChunkBulkOperationsImpl(
+            EntityManager entityManager,
+            JdbcTemplate jdbcTemplate,
+            @Value("${app.ingestion.copy-threshold:100}") int copyThreshold,
+            @Value("${spring.datasource.url:}") String datasourceUrl
+    ) {
+        this.entityManager = entityManager;
+        this.jdbcTemplate = jdbcTemplate;
+        this.copyThreshold = copyThreshold;
+        this.postgres = datasourceUrl.startsWith("jdbc:postgresql:");
+    }
+
+    @Override
+    public List<DocumentChunk> insertAll(List<DocumentChunk> chunks) {
+        if (chunks.isEmpty()) {
+            return chunks;
+        }
+        if (postgres && chunks.size() >= copyThreshold) {
+            copy(chunks);
+            return chunks;
+        }
+        chunks.forEach(entityManager::persist);
+        entityManager.flush();
+        return chunks;
+    }
+
+    private void copy(List<DocumentChunk> chunks) {
+        assignIds(chunks);
+        String csv = toCsv(chunks);
+        jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                return connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL, new StringReader(csv));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to copy " + chunks.size() + " chunks into document_chunks", e);
+            }
+        });
+    }
+
+    /**
+     * Takes whole blocks from the pooled sequence, the same way Hibernate does: every
+     * {@code nextval} reserves the {@link #ALLOCATION_SIZE} ids ending at the returned value.
+     */
+    private void assignIds(List<DocumentChunk> chunks) {
+        int blocks = (chunks.size() + ALLOCATION_SIZE - 1) / ALLOCATION_SIZE;
+        List<Long> highValues = jdbcTemplate.queryForList(
+                "select nextval('" + SEQUENCE + "') from generate_series(1, ?)", Long.class, blocks);
+        int next = 0;
+        for (Long high : highValues) {
+            for (long id = high - ALLOCATION_SIZE + 1; id <= high && next < chunks.size(); id++) {
+                chunks.get(next++).setId(id);
+            }
+        }
+    }
+
+    static String toCsv(List<DocumentChunk> chunks) {
+        StringBuilder csv = new StringBuilder();
+        for (DocumentChunk chunk : chunks) {
+            csv.append(chunk.getId()).append(',')
+                    .append(chunk.getDocumentId()).append(',')
+                    .append(chunk.getChunkIndex()).append(',')
+                    .append(chunk.getStartOffset()).append(',')
+                    .append(chunk.getEndOffset()).append(',');
+            appendQuoted(csv, chunk.getHeadingPath());
+            csv.append(',');
+            if (chunk.getMinhash() != null) {
+                // bytea in hex format
+                csv.append("\\x").append(HexFormat.of().formatHex(chunk.getMinhash()));
+            }
+            csv.append(',');
+            if (chunk.getPointId() != null) {
+                csv.append(chunk.getPointId());
+            }
+            csv.append(',')
+                    .append(chunk.isPending())
+                    .append('\n');
+        }
+        return csv.toString();
+    }
+
+    /**
+     * Writes a CSV field that may contain commas and quotes; an unquoted empty field is read as null.
+     */
+    private static void appendQuoted(StringBuilder csv, String value) {
+        if (value == null) {
+            return;
+        }
+        csv.append('"').append(value.replace("\"", "\"\"")).append('"');
+    }
+}
@@ -2,6 +2,66 @@ package com.aide.repository;
 
 import com.aide.model.DocumentChunk;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
-public interface DocumentChunkRepository extends JpaRepository<DocumentChunk, Long> {
+import java.util.Collection;
+import java.util.List;
+
+public interface DocumentChunkRepository extends JpaRepository<DocumentChunk, Long>, DocumentChunkBulkOperations {
+
+    /**
+     * Point and MinHash signature of a chunk that has its own point.
+     */
+    interface Fingerprint {
+        Long getPointId();
+
+        byte[] getMinhash();
+    }
+
+    List<DocumentChunk> findByDocumentIdAndPendingFalse(Long documentId);
+
+    long countByDocumentId(Long documentId);
+
+    /**
+     * Chunks with the given ids plus the near-duplicates sharing their points.
+     */
+    List<DocumentChunk> findByIdInOrPointIdIn(Collection<Long> ids, Collection<Long> pointIds);
+
+    @Query("""
+            select c.id as pointId, c.minhash as minhash from DocumentChunk c, Document d
+            where d.id = c.documentId and d.project = :project and d.ingestedAt is not null
+              and c.minhash is not null and c.pointId is null and c.pending = false""")
+    List<Fingerprint> findFingerprints(@Param("project") String project);
+
+    /**
+     * The given points that still hold the vector of some chunk.
+     */
+    @Query("select distinct coalesce(c.pointId, c.id) from DocumentChunk c where c.id in :pointIds or c.pointId in :pointIds")
+    List<Long> findPointIdsInUse(@Param("pointIds") Collection<Long> pointIds);
+
+    /**
+     * Points of the pending chunks of a document, their own or shared ones.
+     */
+    @Query("select coalesce(c.pointId, c.id) from DocumentChunk c where c.documentId = :documentId and c.pending = true")
+    List<Long> findPendingPointIds(@Param("documentId") Long documentId);
+
+    @Query("select coalesce(c.pointId, c.id) from DocumentChunk c where c.documentId = :documentId")
+    List<Long> findPointIds(@Param("documentId") Long documentId);
+
+    @Modifying
+    @Query("update DocumentChunk c set c.pending = false where c.documentId = :documentId and c.pending = true")
+    int publishPending(@Param("documentId") Long documentId);
+
+    @Modifying
+    @Transactional
+    @Query("delete from DocumentChunk c where c.documentId = :documentId and c.pending = true")
+    int deletePending(@Param("documentId") Long documentId);
+
+    @Modifying
+    @Transactional
+    @Query("delete from DocumentChunk c where c.documentId = :documentId")
+    int deleteByDocument(@Param("documentId") Long documentId);
 }
@@ -1,7 +1,68 @@
 package com.aide.repository;
 
 import com.aide.model.Document;
+import com.aide.service.dto.IngestionJobStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 
 public interface DocumentRepository extends JpaRepository<Document, Long> {
+
+    List<Document> findByContentHashOrderByIdAsc(String contentHash);
+
+    Optional<Document> findByProjectAndContentHash(String project, String contentHash);
+
+    Optional<Document> findByJobId(String jobId);
+
+    /**
+     * Documents whose ingestion job was still running when the application stopped, including
+     * documents uploaded before job statuses were stored that never finished ingesting.
+     */
+    @Query("""
+            select d from Document d
+            where d.jobStatus = com.aide.service.dto.IngestionJobStatus.QUEUED
+               or d.jobStatus is null and d.ingestedAt is null
+            order by d.id""")
+    List<Document> findInterrupted();
+
+    @Modifying
+    @Transactional
+    @Query("""
+            update Document d set d.jobId = :jobId, d.jobStatus = :status, d.jobError = :error, d.jobUpdatedAt = :updatedAt
+            where d.id = :id""")
+    int recordJob(@Param("id") Long id, @Param("jobId") String jobId, @Param("status") IngestionJobStatus status,
+                  @Param("error") String error, @Param("updatedAt") Instant updatedAt);
+
+    /**
+     * Records the outcome of a job, unless a later job of the document has started since.
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+            update Document d set d.jobStatus = :status, d.jobError = :error, d.jobUpdatedAt = :updatedAt
+            where d.id = :id and d.jobId = :jobId""")
+    int endJob(@Param("id") Long id, @Param("jobId") String jobId, @Param("status") IngestionJobStatus status,
+               @Param("error") String error, @Param("updatedAt") Instant updatedAt);
+
+    /**
+     * Starts a new job for a document whose ingestion failed, unless another upload already did.
+     */
+    @Modifying
+    @Transactional
+    @Query("""
+            update Document d set d.jobId = :jobId, d.jobStatus = com.aide.service.dto.IngestionJobStatus.QUEUED,
+                d.jobError = null, d.jobUpdatedAt = :updatedAt
+            where d.id = :id and d.ingestedAt is null and d.jobStatus = com.aide.service.dto.IngestionJobStatus.FAILED""")
+    int retryFailedJob(@Param("id") Long id, @Param("jobId") String jobId, @Param("updatedAt") Instant updatedAt);
+
+    @Modifying
+    @Transactional
+    @Query("update Document d set d.textId = :textId, d.ingestedAt = :ingestedAt where d.id = :id")
+    int markIngested(@Param("id") Long id, @Param("textId") Long textId, @Param("ingestedAt") Instant ingestedAt);
 }
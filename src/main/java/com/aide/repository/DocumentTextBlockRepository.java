@@ -0,0 +1,33 @@
+package com.aide.repository;
+
+import com.aide.model.DocumentTextBlock;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface DocumentTextBlockRepository extends JpaRepository<DocumentTextBlock, Long> {
+
+    List<DocumentTextBlock> findByTextIdOrderByBlockIndexAsc(Long textId);
+
+    /**
+     * Blocks with any of the indexes in any of the texts; callers pick the combinations they asked for.
+     */
+    List<DocumentTextBlock> findByTextIdInAndBlockIndexIn(Collection<Long> textIds, Collection<Integer> blockIndexes);
+
+    @Modifying
+    @Transactional
+    @Query("delete from DocumentTextBlock b where b.textId = :textId")
+    int deleteByText(@Param("textId") Long textId);
+
+    @Modifying
+    @Transactional
+    @Query("""
+            delete from DocumentTextBlock b where b.textId in (
+                select t.id from DocumentText t where t.documentId = :documentId and (:currentId is null or t.id <> :currentId))""")
+    int deleteOfOtherTexts(@Param("documentId") Long documentId, @Param("currentId") Long currentId);
+}
@@ -0,0 +1,19 @@
+package com.aide.repository;
+
+import com.aide.model.DocumentText;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+public interface DocumentTextRepository extends JpaRepository<DocumentText, Long> {
+
+    /**
+     * Deletes the texts of a document other than its current one, e.g. those saved by a job that never committed.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from DocumentText t where t.documentId = :documentId and (:currentId is null or t.id <> :currentId)")
+    int deleteOthers(@Param("documentId") Long documentId, @Param("currentId") Long currentId);
+}
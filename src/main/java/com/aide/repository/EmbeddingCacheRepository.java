@@ -0,0 +1,21 @@
+package com.aide.repository;
+
+import com.aide.model.EmbeddingCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface EmbeddingCacheRepository extends JpaRepository<EmbeddingCacheEntry, Long> {
+
+    List<EmbeddingCacheEntry> findByModelAndDimensionsAndContentHashIn(String model, Integer dimensions, Collection<String> contentHashes);
+
+    @Modifying
+    @Transactional
+    @Query("delete from EmbeddingCacheEntry e where e.model <> :model or e.dimensions <> :dimensions")
+    int deleteByModelNotOrDimensionsNot(@Param("model") String model, @Param("dimensions") int dimensions);
+}
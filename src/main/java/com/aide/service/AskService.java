@@ -12,6 +12,7 @@ public class AskService {
 
     private final SearchService searchService;
     private final GeminiChatService geminiChatService;
+    private final SingleFlight<String, String> answers = new SingleFlight<>("Gemini answer");
 
     public AskService(
             SearchService searchService,
@@ -33,14 +34,15 @@ public class AskService {
         String context = buildContext(searchResult);
         // Build strict prompt
         String prompt = buildPrompt(context, question);
-        // Call Gemini
-        String answer = geminiChatService.generateAnswer(prompt);
+        // Call Gemini; the same question asked at the same time finds the same context, so the
+        // concurrent askers share one answer
+        String answer = answers.run(prompt, () -> geminiChatService.generateAnswer(prompt));
         return new AskResponse(answer);
     }
 
     private String buildContext(List<SearchContentResponse> searchResult) {
         return searchResult.stream()
-                .map(c -> "[Chunk " + c.chunkId() + "]\n" + c.content())
+                .map(c -> "[Chunk " + c.chunkId() + "]" + (c.section() != null ? " " + c.section() : "") + "\n" + c.content())
                 .collect(Collectors.joining("\n\n"));
     }
 
@@ -6,43 +6,114 @@ import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class ChunkingService {
 
-    private final int chunkSize;
-    private final int overlap;
+    private final Map<String, ChunkingStrategy> strategies = new HashMap<>();
+    private final ChunkingStrategy defaultStrategy;
+    private final Map<String, ChunkingStrategy> projectStrategies = new HashMap<>();
 
     @Autowired
     public ChunkingService(
             @Value("${app.chunking.size:500}") int chunkSize,
-            @Value("${app.chunking.overlap:50}") int overlap
+            @Value("${app.chunking.overlap:50}") int overlap,
+            @Value("${app.chunking.max-tokens:128}") int maxTokens,
+            @Value("${app.chunking.overlap-tokens:16}") int overlapTokens,
+            @Value("${app.chunking.section-size:2000}") int sectionSize,
+            @Value("${app.chunking.strategy:fixed}") String defaultStrategy,
+            @Value("${app.chunking.project-strategies:}") String projectStrategies
     ) {
-        this.chunkSize = chunkSize;
-        this.overlap = overlap;
+        if (chunkSize <= 0 || overlap < 0 || overlap >= chunkSize) {
+            throw new IllegalArgumentException("chunk size must be positive and overlap must be smaller than the chunk size");
+        }
+        if (maxTokens <= 0 || overlapTokens < 0 || overlapTokens >= maxTokens) {
+            throw new IllegalArgumentException("max tokens must be positive and overlap tokens must be smaller than max tokens");
+        }
+        if (sectionSize <= overlap) {
+            throw new IllegalArgumentException("section size must be larger than the overlap");
+        }
+        register(new FixedSizeChunkingStrategy(chunkSize, overlap));
+        register(new SentenceChunkingStrategy(chunkSize, overlap));
+        register(new TokenBudgetChunkingStrategy(maxTokens, overlapTokens));
+        register(new StructureChunkingStrategy(sectionSize, overlap));
+        this.defaultStrategy = strategy(defaultStrategy);
+        // "project=strategy" pairs, e.g. "handbook=sentence,api=token"
+        for (String entry : projectStrategies.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] parts = entry.split("=", 2);
+            if (parts.length != 2 || parts[0].isBlank()) {
+                throw new IllegalArgumentException("Invalid project chunking strategy: " + entry.trim());
+            }
+            this.projectStrategies.put(parts[0].trim(), strategy(parts[1]));
+        }
+    }
+
+    /**
+     * Fixed-size chunking for every project.
+     */
+    public ChunkingService(int chunkSize, int overlap) {
+        this(chunkSize, overlap, 128, 16, 2000, FixedSizeChunkingStrategy.NAME, "");
     }
 
     public List<String> chunk(String text) {
+        return chunk(text, defaultStrategy);
+    }
+
+    public List<String> chunk(String text, String project) {
+        return chunk(text, strategyFor(project));
+    }
+
+    /**
+     * Streaming variant of {@link #chunk}: feed text as it is extracted and receive chunks, as offsets
+     * into the text, views of their content and their heading paths, as soon as they are complete.
+     */
+    public IncrementalChunker newChunker(IncrementalChunker.Sink sink) {
+        return new IncrementalChunker(defaultStrategy, sink);
+    }
+
+    public IncrementalChunker newChunker(String project, IncrementalChunker.Sink sink) {
+        return new IncrementalChunker(strategyFor(project), sink);
+    }
+
+    /**
+     * Like {@link #newChunker(String, IncrementalChunker.Sink)}, leaving out heading paths unless
+     * {@code headings} says the text marks its headings.
+     */
+    public IncrementalChunker newChunker(String project, boolean headings, IncrementalChunker.Sink sink) {
+        return new IncrementalChunker(strategyFor(project), headings, sink);
+    }
+
+    public ChunkingStrategy strategyFor(String project) {
+        return projectStrategies.getOrDefault(project, defaultStrategy);
+    }
+
+    private List<String> chunk(String text, ChunkingStrategy strategy) {
         if (text == null || text.isBlank()) {
             return Collections.emptyList();
         }
 
         List<String> chunks = new ArrayList<>();
-        int start = 0;
-        int length = text.length();
-
-        while (start < length) {
-            int end = Math.min(start + chunkSize, length);
-            chunks.add(text.substring(start, end));
+        IncrementalChunker chunker = new IncrementalChunker(strategy, (start, end, content, headingPath) -> chunks.add(content.toString()));
+        chunker.append(text);
+        chunker.finish();
+        return chunks;
+    }
 
-            if (end == length) {
-                break;
-            }
+    private void register(ChunkingStrategy strategy) {
+        strategies.put(strategy.name(), strategy);
+    }
 
-            start = end - overlap;
+    private ChunkingStrategy strategy(String name) {
+        ChunkingStrategy strategy = strategies.get(name.trim());
+        if (strategy == null) {
+            throw new IllegalArgumentException("Unknown chunking strategy: " + name.trim() + "; expected one of " + strategies.keySet());
         }
-
-        return chunks;
+        return strategy;
     }
 }
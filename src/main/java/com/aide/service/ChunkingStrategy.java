@@ -0,0 +1,28 @@
+package com.aide.service;
+
+/**
+ * Decides where chunks start and end. An {@link IncrementalChunker} asks its strategy about the
+ * text it has buffered so far; implementations scan that {@link CharSequence} in place, without
+ * copying it or allocating per character, and keep no state, so one instance serves every document.
+ */
+public interface ChunkingStrategy {
+
+    /**
+     * Name that selects the strategy in configuration ({@code app.chunking.strategy}).
+     */
+    String name();
+
+    /**
+     * End (exclusive) of the chunk starting at {@code start}. While more input may follow
+     * ({@code complete} is false), the end must lie before {@code text.length()}, or be -1 to wait
+     * for more text; a decision must not change when more text is appended. Once the input
+     * is complete, the rest of the text must be covered by chunks, the last one ending at its length.
+     */
+    int chunkEnd(CharSequence text, int start, boolean complete);
+
+    /**
+     * Start of the chunk that follows {@code [start, end)}: after {@code start} and not after {@code end};
+     * anything before {@code end} is overlap shared with the previous chunk.
+     */
+    int nextStart(CharSequence text, int start, int end);
+}
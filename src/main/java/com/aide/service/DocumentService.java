@@ -1,94 +1,191 @@
 package com.aide.service;
 
-import com.aide.controller.dto.UploadResponse;
+import com.aide.controller.dto.IngestionJobResponse;
 import com.aide.model.Document;
-import com.aide.model.DocumentChunk;
-import com.aide.repository.DocumentChunkRepository;
 import com.aide.repository.DocumentRepository;
-import com.aide.service.dto.IngestionResult;
+import com.aide.service.dto.IngestionJob;
+import com.aide.service.dto.IngestionJobStatus;
+import com.aide.service.dto.StoredFile;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.Instant;
-import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
+import java.util.Optional;
 
 @Service
 public class DocumentService {
 
     private final IngestionService ingestionService;
-    private final ChunkingService chunkingService;
-    private final EmbeddingService embeddingService;
-    private final QdrantService qdrantService;
+    private final IngestionPipeline ingestionPipeline;
     private final DocumentRepository documentRepository;
-    private final DocumentChunkRepository documentChunkRepository;
-
 
     public DocumentService(
             IngestionService ingestionService,
-            ChunkingService chunkingService,
-            EmbeddingService embeddingService,
-            QdrantService qdrantService,
-            DocumentRepository documentRepository,
-            DocumentChunkRepository documentChunkRepository
+            IngestionPipeline ingestionPipeline,
+            DocumentRepository documentRepository
     ) {
         this.ingestionService = ingestionService;
-        this.chunkingService = chunkingService;
-        this.embeddingService = embeddingService;
-        this.qdrantService = qdrantService;
+        this.ingestionPipeline = ingestionPipeline;
         this.documentRepository = documentRepository;
-        this.documentChunkRepository = documentChunkRepository;
     }
 
-    @Transactional
-    public UploadResponse uploadDocument(MultipartFile file, String project) {
+    /**
+     * Stores the upload and queues its ingestion. A byte-identical file of the same project is not ingested
+     * again: the response is the job of the existing document, running or completed, with {@code duplicateOf}
+     * set to its id. The unique key on project and content hash decides which of two concurrent identical
+     * uploads creates the document; the other one gets it as a duplicate.
+     */
+    public IngestionJobResponse uploadDocument(MultipartFile file, String project) {
         //project validation
         String normalizedProject = normalizeProject(project);
 
-        //document ingestion
-        IngestionResult ingestionResult = ingestionService.ingest(file);
+        //store the upload; extraction and embedding run in the background
+        StoredFile storedFile = ingestionService.store(file);
+
+        //identical bytes were ingested, or are being ingested, before: reuse their chunks and vectors
+        List<Document> identical = documentRepository.findByContentHashOrderByIdAsc(storedFile.sha256());
+        Optional<Document> sameProject = identical.stream()
+                .filter(existing -> existing.getProject().equals(normalizedProject))
+                .findFirst();
+        if (sameProject.isPresent()) {
+            return existingDocument(sameProject.get(), storedFile);
+        }
 
-        //save document to DB
+        //save document to DB, with the id of its job reserved so a concurrent duplicate can report it
         Document document = new Document();
         document.setName(file.getOriginalFilename());
         document.setProject(normalizedProject);
-        document.setFilePath(ingestionResult.storedPath().toString());
+        document.setFilePath(storedFile.path().toString());
+        document.setContentHash(storedFile.sha256());
         document.setUploadedAt(Instant.now());
-        document = documentRepository.save(document);
+        document.setJobId(IngestionPipeline.newJobId());
+        document.setJobStatus(IngestionJobStatus.QUEUED);
+        document.setJobUpdatedAt(document.getUploadedAt());
+        try {
+            document = documentRepository.save(document);
+        } catch (DataIntegrityViolationException e) {
+            // an identical upload to the same project saved its document first
+            Document existing = documentRepository.findByProjectAndContentHash(normalizedProject, storedFile.sha256())
+                    .orElseThrow(() -> e);
+            return existingDocument(existing, storedFile);
+        }
+
+        //documents ingested before their text was stored separately are extracted again
+        Optional<Document> source = identical.stream()
+                .filter(existing -> existing.getIngestedAt() != null && existing.getTextId() != null)
+                .findFirst();
+        IngestionJob job = source.isPresent()
+                ? ingestionPipeline.submitCopy(document, source.get())
+                : ingestionPipeline.submit(document, storedFile);
+        return toJobResponse(job, null);
+    }
 
-        //save chunks to DB
-        List<String> chunks = chunkingService.chunk(ingestionResult.text());
-        if (chunks.isEmpty()) {
-            return new UploadResponse(document.getId(), 0);
+    /**
+     * Replaces the file of an ingested document. Only chunks that differ from the previous
+     * version are embedded; the new version becomes searchable all at once when the job completes.
+     */
+    public IngestionJobResponse updateDocument(Long id, MultipartFile file) {
+        Document document = documentRepository.findById(id)
+                .orElseThrow(() -> new IllegalArgumentException("Document not found with id: " + id));
+        if (document.getIngestedAt() == null) {
+            throw new IllegalArgumentException("Document " + id + " has not finished ingesting yet");
         }
-        List<DocumentChunk> chunkEntities = new ArrayList<>(chunks.size());
-        for (int i = 0; i < chunks.size(); i++) {
-            DocumentChunk chunk = new DocumentChunk();
-            chunk.setDocumentId(document.getId());
-            chunk.setChunkIndex(i);
-            chunk.setContent(chunks.get(i));
-            chunkEntities.add(chunk);
+
+        StoredFile storedFile = ingestionService.store(file);
+        if (storedFile.sha256().equals(document.getContentHash())) {
+            return toJobResponse(ingestionPipeline.reuse(document), document.getId());
         }
-        List<DocumentChunk> savedChunks = documentChunkRepository.saveAll(chunkEntities);
+        Optional<Document> identical = documentRepository.findByProjectAndContentHash(document.getProject(), storedFile.sha256());
+        if (identical.isPresent()) {
+            throw new IllegalArgumentException("The new version of document " + id + " is identical to document "
+                    + identical.get().getId() + " of the same project");
+        }
+        return toJobResponse(ingestionPipeline.submitUpdate(document, storedFile), null);
+    }
 
-        for (DocumentChunk chunk : savedChunks) {
-            //get embedding from AI service
-            List<Float> embedding = embeddingService.embed(chunk.getContent());
-            //store embedding vector in Qdrant
-            qdrantService.storeEmbedding(chunk.getId(), document.getId(), normalizedProject, embedding);
+    /**
+     * Progress of a running or recent job; once the job is no longer in memory, e.g. after a restart,
+     * only its outcome as stored on the document.
+     */
+    public IngestionJobResponse getJob(String jobId) {
+        return ingestionPipeline.findJob(jobId)
+                .map(job -> toJobResponse(job, null))
+                .or(() -> documentRepository.findByJobId(jobId).map(document -> toJobResponse(document, null)))
+                .orElseThrow(() -> new IllegalArgumentException("Ingestion job not found with id: " + jobId));
+    }
+
+    /**
+     * Answers an upload identical to an existing document of the same project: with a completed job when the
+     * document is ingested, with its job while that is still running, and by ingesting it again when its
+     * last job failed. The new file name is not recorded; the document keeps its own.
+     */
+    private IngestionJobResponse existingDocument(Document document, StoredFile storedFile) {
+        if (document.getIngestedAt() != null) {
+            return toJobResponse(ingestionPipeline.reuse(document), document.getId());
+        }
+        if (document.getJobStatus() == IngestionJobStatus.FAILED) {
+            String jobId = IngestionPipeline.newJobId();
+            if (documentRepository.retryFailedJob(document.getId(), jobId, Instant.now()) > 0) {
+                document.setJobId(jobId);
+                document.setJobStatus(IngestionJobStatus.QUEUED);
+                document.setJobError(null);
+                return toJobResponse(ingestionPipeline.submit(document, storedFile), null);
+            }
+            // another upload retried it first
+            document = documentRepository.findById(document.getId()).orElse(document);
         }
+        // the job may not be submitted yet, or run on another instance: report what the document records
+        Document existing = document;
+        return Optional.ofNullable(existing.getJobId())
+                .flatMap(ingestionPipeline::findJob)
+                .map(job -> toJobResponse(job, existing.getId()))
+                .orElseGet(() -> toJobResponse(existing, existing.getId()));
+    }
+
+    private IngestionJobResponse toJobResponse(IngestionJob job, Long duplicateOf) {
+        return new IngestionJobResponse(
+                job.getId(),
+                job.getDocumentId(),
+                job.getStatus(),
+                job.getTotalChunks(),
+                job.getEmbeddedChunks(),
+                job.getCachedChunks(),
+                job.getUnchangedChunks(),
+                job.getDuplicateChunks(),
+                job.getStoredChunks(),
+                job.getRemovedChars(),
+                job.getError(),
+                job.getSubmittedAt(),
+                job.getUpdatedAt(),
+                duplicateOf
+        );
+    }
 
-        return new UploadResponse(document.getId(), savedChunks.size());
+    private IngestionJobResponse toJobResponse(Document document, Long duplicateOf) {
+        return new IngestionJobResponse(
+                document.getJobId(),
+                document.getId(),
+                document.getJobStatus(),
+                null,
+                0,
+                0,
+                0,
+                0,
+                0,
+                0,
+                document.getJobError(),
+                document.getUploadedAt(),
+                document.getJobUpdatedAt(),
+                duplicateOf
+        );
     }
 
     private String normalizeProject(String project) {
@@ -106,7 +203,7 @@ public class DocumentService {
         Document document = documentRepository.findById(id)
                 .orElseThrow(() -> new IllegalArgumentException("Document not found with id: " + id));
 
-        Path filePath = getSecurePath(document.getFilePath());
+        Path filePath = ingestionService.resolve(document.getFilePath());
         FileSystemResource resource = new FileSystemResource(filePath);
 
         if (!resource.exists()) {
@@ -119,14 +216,4 @@ public class DocumentService {
                 .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"")
                 .body(resource);
     }
-
-    private Path getSecurePath(String filePath) {
-        Path basePath = Paths.get("./data/docs").toAbsolutePath().normalize();
-        Path fullPath = basePath.resolve(filePath).normalize();
-
-        if (!fullPath.startsWith(basePath)) {
-            throw new IllegalArgumentException("Invalid file path");
-        }
-        return fullPath;
-    }
-}
\ No newline at end of file
+}
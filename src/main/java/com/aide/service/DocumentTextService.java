@@ -0,0 +1,318 @@
+package com.aide.service;
+
+import com.aide.model.DocumentChunk;
+import com.aide.model.DocumentText;
+import com.aide.model.DocumentTextBlock;
+import com.aide.repository.DocumentTextBlockRepository;
+import com.aide.repository.DocumentTextRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Stores the extracted text of a document once, compressed, so chunks only need offsets into it.
+ * The text is split into blocks of {@value #BLOCK_CHARS} chars that are compressed on their own, so a
+ * chunk is read from the one or two blocks it overlaps. Texts are immutable, so recently read blocks are
+ * kept decompressed in a bounded LRU cache.
+ */
+@Service
+public class DocumentTextService {
+
+    // part of the stored format: the blocks of existing texts are found with it
+    static final int BLOCK_CHARS = 16 * 1024;
+
+    private final DocumentTextRepository documentTextRepository;
+    private final DocumentTextBlockRepository documentTextBlockRepository;
+    private final long cacheMaxChars;
+
+    // access-ordered: iteration starts at the least recently used block
+    private final LinkedHashMap<BlockKey, String> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedChars;
+
+    @Autowired
+    public DocumentTextService(
+            DocumentTextRepository documentTextRepository,
+            DocumentTextBlockRepository documentTextBlockRepository,
+            @Value("${app.search.text-cache-chars:16000000}") long cacheMaxChars
+    ) {
+        this.documentTextRepository = documentTextRepository;
+        this.documentTextBlockRepository = documentTextBlockRepository;
+        this.cacheMaxChars = cacheMaxChars;
+    }
+
+    /**
+     * Chars {@code [start, end)} of a text.
+     */
+    public record Slice(Long textId, int start, int end) {
+    }
+
+    public TextWriter newWriter() {
+        return new TextWriter();
+    }
+
+    @Transactional
+    public DocumentText save(Long documentId, TextWriter writer) {
+        DocumentText text = new DocumentText();
+        text.setDocumentId(documentId);
+        text.setLength(writer.length());
+        text.setCreatedAt(Instant.now());
+        DocumentText saved = documentTextRepository.save(text);
+        List<byte[]> blocks = writer.finish();
+        List<DocumentTextBlock> entities = new ArrayList<>(blocks.size());
+        for (int i = 0; i < blocks.size(); i++) {
+            entities.add(block(saved.getId(), i, blocks.get(i)));
+        }
+        documentTextBlockRepository.saveAll(entities);
+        return saved;
+    }
+
+    /**
+     * Gives another document its own copy of a text, without decompressing it.
+     */
+    @Transactional
+    public DocumentText copy(Long textId, Long documentId) {
+        DocumentText source = find(textId);
+        DocumentText text = new DocumentText();
+        text.setDocumentId(documentId);
+        text.setLength(source.getLength());
+        text.setCreatedAt(Instant.now());
+        DocumentText saved = documentTextRepository.save(text);
+        documentTextBlockRepository.saveAll(documentTextBlockRepository.findByTextIdOrderByBlockIndexAsc(textId).stream()
+                .map(block -> block(saved.getId(), block.getBlockIndex(), block.getContent()))
+                .toList());
+        return saved;
+    }
+
+    /**
+     * The whole text, e.g. to chunk it again; search reads {@link #loadSlices slices} instead.
+     */
+    public String load(Long textId) {
+        DocumentText text = find(textId);
+        StringBuilder whole = new StringBuilder(text.getLength());
+        for (DocumentTextBlock block : documentTextBlockRepository.findByTextIdOrderByBlockIndexAsc(textId)) {
+            whole.append(decompressBlock(block.getContent()));
+        }
+        return whole.toString();
+    }
+
+    /**
+     * Reads several slices, decompressing only the blocks they overlap; the uncached blocks are read in one
+     * query. Slices of texts that no longer exist are left out.
+     */
+    public Map<Slice, String> loadSlices(Collection<Slice> slices) {
+        Map<Slice, String> contents = new HashMap<>();
+        Map<BlockKey, String> blocks = new HashMap<>();
+        Set<BlockKey> missing = new LinkedHashSet<>();
+        for (Slice slice : slices) {
+            for (BlockKey key : blocksOf(slice)) {
+                String cached = getCached(key);
+                if (cached != null) {
+                    blocks.put(key, cached);
+                } else {
+                    missing.add(key);
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            Set<Long> textIds = missing.stream().map(BlockKey::textId).collect(Collectors.toSet());
+            Set<Integer> blockIndexes = missing.stream().map(BlockKey::blockIndex).collect(Collectors.toSet());
+            for (DocumentTextBlock stored : documentTextBlockRepository.findByTextIdInAndBlockIndexIn(textIds, blockIndexes)) {
+                BlockKey key = new BlockKey(stored.getTextId(), stored.getBlockIndex());
+                if (missing.remove(key)) {
+                    String block = decompressBlock(stored.getContent());
+                    putCached(key, block);
+                    blocks.put(key, block);
+                }
+            }
+        }
+
+        for (Slice slice : slices) {
+            String content = join(slice, blocks);
+            if (content != null) {
+                contents.put(slice, content);
+            }
+        }
+        return contents;
+    }
+
+    @Transactional
+    public void delete(Long textId) {
+        synchronized (cache) {
+            Iterator<Map.Entry<BlockKey, String>> entries = cache.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<BlockKey, String> entry = entries.next();
+                if (entry.getKey().textId().equals(textId)) {
+                    cachedChars -= entry.getValue().length();
+                    entries.remove();
+                }
+            }
+        }
+        documentTextBlockRepository.deleteByText(textId);
+        documentTextRepository.deleteById(textId);
+    }
+
+    /**
+     * Deletes the texts of a document other than {@code currentTextId}: leftovers of jobs that never committed.
+     */
+    @Transactional
+    public int deleteOthers(Long documentId, Long currentTextId) {
+        documentTextBlockRepository.deleteOfOtherTexts(documentId, currentTextId);
+        return documentTextRepository.deleteOthers(documentId, currentTextId);
+    }
+
+    /**
+     * Content of a chunk: a slice of its document's text, or the text stored with chunks written before offsets existed.
+     */
+    public static String slice(String text, DocumentChunk chunk) {
+        if (chunk.getContent() != null) {
+            return chunk.getContent();
+        }
+        return text.substring(chunk.getStartOffset(), chunk.getEndOffset());
+    }
+
+    private DocumentText find(Long textId) {
+        return documentTextRepository.findById(textId)
+                .orElseThrow(() -> new IllegalStateException("Document text not found with id: " + textId));
+    }
+
+    private static DocumentTextBlock block(Long textId, int blockIndex, byte[] content) {
+        DocumentTextBlock block = new DocumentTextBlock();
+        block.setTextId(textId);
+        block.setBlockIndex(blockIndex);
+        block.setContent(content);
+        return block;
+    }
+
+    private static List<BlockKey> blocksOf(Slice slice) {
+        if (slice.end() <= slice.start()) {
+            return List.of();
+        }
+        List<BlockKey> keys = new ArrayList<>(2);
+        for (int index = slice.start() / BLOCK_CHARS; index <= (slice.end() - 1) / BLOCK_CHARS; index++) {
+            keys.add(new BlockKey(slice.textId(), index));
+        }
+        return keys;
+    }
+
+    /**
+     * The slice cut out of the blocks it overlaps, or null when one of them is missing.
+     */
+    private static String join(Slice slice, Map<BlockKey, String> blocks) {
+        List<BlockKey> keys = blocksOf(slice);
+        if (keys.isEmpty()) {
+            return "";
+        }
+        StringBuilder joined = new StringBuilder();
+        for (BlockKey key : keys) {
+            String block = blocks.get(key);
+            if (block == null) {
+                return null;
+            }
+            joined.append(block);
+        }
+        int offset = keys.get(0).blockIndex() * BLOCK_CHARS;
+        return joined.substring(slice.start() - offset, slice.end() - offset);
+    }
+
+    private String getCached(BlockKey key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+
+    private void putCached(BlockKey key, String text) {
+        if (text.length() > cacheMaxChars) {
+            return;
+        }
+        synchronized (cache) {
+            String previous = cache.put(key, text);
+            cachedChars += text.length() - (previous == null ? 0 : previous.length());
+            Iterator<String> eldest = cache.values().iterator();
+            while (cachedChars > cacheMaxChars && eldest.hasNext()) {
+                cachedChars -= eldest.next().length();
+                eldest.remove();
+            }
+        }
+    }
+
+    private static String decompressBlock(byte[] content) {
+        try (DataInputStream input = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(content)))) {
+            return input.readUTF();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to decompress document text", e);
+        }
+    }
+
+    private record BlockKey(Long textId, int blockIndex) {
+    }
+
+    /**
+     * Compresses text block by block as it is appended, so a document is never held uncompressed in memory.
+     */
+    public static final class TextWriter {
+
+        private final List<byte[]> blocks = new ArrayList<>();
+        private final StringBuilder block = new StringBuilder();
+        private int length;
+
+        private TextWriter() {
+        }
+
+        public void append(CharSequence text) {
+            int from = 0;
+            while (from < text.length()) {
+                int to = Math.min(text.length(), from + BLOCK_CHARS - block.length());
+                block.append(text, from, to);
+                from = to;
+                if (block.length() == BLOCK_CHARS) {
+                    flush();
+                }
+            }
+            length += text.length();
+        }
+
+        public int length() {
+            return length;
+        }
+
+        private List<byte[]> finish() {
+            if (!block.isEmpty()) {
+                flush();
+            }
+            return blocks;
+        }
+
+        // writeUTF takes at most 65535 bytes, three per char at worst
+        private void flush() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+                output.writeUTF(block.toString());
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to compress document text", e);
+            }
+            blocks.add(bytes.toByteArray());
+            block.setLength(0);
+        }
+    }
+}
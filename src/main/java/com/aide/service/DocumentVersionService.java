@@ -0,0 +1,73 @@
+package com.aide.service;
+
+import com.aide.model.Document;
+import com.aide.model.DocumentChunk;
+import com.aide.repository.DocumentChunkRepository;
+import com.aide.repository.DocumentRepository;
+import com.aide.service.dto.DocumentVersion;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+
+@Service
+public class DocumentVersionService {
+
+    private final DocumentRepository documentRepository;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final DocumentTextService documentTextService;
+
+    public DocumentVersionService(
+            DocumentRepository documentRepository,
+            DocumentChunkRepository documentChunkRepository,
+            DocumentTextService documentTextService
+    ) {
+        this.documentRepository = documentRepository;
+        this.documentChunkRepository = documentChunkRepository;
+        this.documentTextService = documentTextService;
+    }
+
+    /**
+     * Makes the pending chunks of a newly ingested document searchable together with its text.
+     */
+    @Transactional
+    public void publish(Long documentId, Long textId) {
+        documentRepository.markIngested(documentId, textId, Instant.now());
+        documentChunkRepository.publishPending(documentId);
+    }
+
+    /**
+     * Replaces the previous version of a document with its pending chunks in one transaction:
+     * search sees either the old or the new chunk set, never a mix of both.
+     */
+    @Transactional
+    public void swap(DocumentVersion version) {
+        Document document = documentRepository.findById(version.documentId())
+                .orElseThrow(() -> new IllegalStateException("Document not found with id: " + version.documentId()));
+        Long previousTextId = document.getTextId();
+        Instant now = Instant.now();
+        document.setName(version.storedFile().fileName());
+        document.setFilePath(version.storedFile().path().toString());
+        document.setContentHash(version.storedFile().sha256());
+        document.setUploadedAt(now);
+        document.setTextId(version.textId());
+        document.setIngestedAt(now);
+
+        if (!version.removedChunkIds().isEmpty()) {
+            documentChunkRepository.deleteAllByIdInBatch(version.removedChunkIds());
+        }
+        for (DocumentChunk chunk : documentChunkRepository.findAllById(version.chunkPositions().keySet())) {
+            DocumentVersion.ChunkPosition position = version.chunkPositions().get(chunk.getId());
+            chunk.setChunkIndex(position.chunkIndex());
+            chunk.setStartOffset(position.startOffset());
+            chunk.setEndOffset(position.endOffset());
+            chunk.setHeadingPath(position.headingPath());
+            // the content now lives in the new text
+            chunk.setContent(null);
+        }
+        documentChunkRepository.publishPending(version.documentId());
+        if (previousTextId != null) {
+            documentTextService.delete(previousTextId);
+        }
+    }
+}
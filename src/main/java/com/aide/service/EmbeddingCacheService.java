@@ -0,0 +1,174 @@
+package com.aide.service;
+
+import com.aide.model.EmbeddingCacheEntry;
+import com.aide.repository.EmbeddingCacheRepository;
+import com.aide.service.dto.CachedEmbeddings;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Persistent embedding cache keyed by (embedding model, dimensions, SHA-256 of the normalized chunk text).
+ * Ingestion asks it first and only sends the misses to Gemini.
+ */
+@Service
+@Slf4j
+public class EmbeddingCacheService {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingService embeddingService;
+    private final EmbeddingCacheRepository embeddingCacheRepository;
+    private final String model;
+    private final int dimensions;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+
+    @Autowired
+    public EmbeddingCacheService(
+            EmbeddingService embeddingService,
+            EmbeddingCacheRepository embeddingCacheRepository,
+            MeterRegistry meterRegistry,
+            @Value("${gemini.embeddings.model}") String model,
+            @Value("${gemini.embeddings.dimensions:3072}") int dimensions
+    ) {
+        this.embeddingService = embeddingService;
+        this.embeddingCacheRepository = embeddingCacheRepository;
+        this.model = model;
+        this.dimensions = dimensions;
+        this.hitCounter = Counter.builder("aide.embedding.cache.requests")
+                .tag("result", "hit")
+                .description("Chunk embeddings served from the embedding cache")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("aide.embedding.cache.requests")
+                .tag("result", "miss")
+                .description("Chunk embeddings that had to be computed by Gemini")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Entries written for another embedding model or dimensionality can never be hit again, so they
+     * are dropped at startup whenever {@code gemini.embeddings.model} or {@code gemini.embeddings.dimensions}
+     * has changed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void evictOtherModels() {
+        int removed = embeddingCacheRepository.deleteByModelNotOrDimensionsNot(model, dimensions);
+        if (removed > 0) {
+            log.info("Removed {} cached embeddings that were not produced by model {} with {} dimensions", removed, model, dimensions);
+        }
+    }
+
+    public CachedEmbeddings embedAll(List<String> texts) {
+        if (texts == null || texts.isEmpty()) {
+            return new CachedEmbeddings(List.of(), 0, 0);
+        }
+
+        List<String> hashes = texts.stream().map(EmbeddingCacheService::contentHash).toList();
+        Map<String, float[]> vectorsByHash = embeddingCacheRepository.findByModelAndDimensionsAndContentHashIn(model, dimensions, hashes).stream()
+                .collect(Collectors.toMap(EmbeddingCacheEntry::getContentHash, entry -> toVector(entry.getVector()), (a, b) -> a));
+
+        // identical texts inside one batch are embedded once
+        Map<String, String> missingTextsByHash = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!vectorsByHash.containsKey(hashes.get(i))) {
+                missingTextsByHash.putIfAbsent(hashes.get(i), texts.get(i));
+            }
+        }
+
+        if (!missingTextsByHash.isEmpty()) {
+            List<String> missingHashes = new ArrayList<>(missingTextsByHash.keySet());
+            List<float[]> computed = embeddingService.embedBatch(new ArrayList<>(missingTextsByHash.values()));
+            List<EmbeddingCacheEntry> entries = new ArrayList<>(computed.size());
+            for (int i = 0; i < missingHashes.size(); i++) {
+                vectorsByHash.put(missingHashes.get(i), computed.get(i));
+                entries.add(newEntry(missingHashes.get(i), computed.get(i)));
+            }
+            saveEntries(entries);
+        }
+
+        int hits = 0;
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String hash : hashes) {
+            vectors.add(vectorsByHash.get(hash));
+            if (!missingTextsByHash.containsKey(hash)) {
+                hits++;
+            }
+        }
+        int misses = texts.size() - hits;
+        hitCounter.increment(hits);
+        missCounter.increment(misses);
+        log.debug("Embedding cache: {} hit(s), {} miss(es) for model {}", hits, misses, model);
+        return new CachedEmbeddings(vectors, hits, misses);
+    }
+
+    private void saveEntries(List<EmbeddingCacheEntry> entries) {
+        try {
+            embeddingCacheRepository.saveAll(entries);
+        } catch (DataIntegrityViolationException e) {
+            // another ingestion cached some of the same texts concurrently; keep whatever is missing
+            for (EmbeddingCacheEntry entry : entries) {
+                try {
+                    embeddingCacheRepository.save(entry);
+                } catch (DataIntegrityViolationException duplicate) {
+                    log.debug("Embedding for hash {} was cached concurrently", entry.getContentHash());
+                }
+            }
+        }
+    }
+
+    private EmbeddingCacheEntry newEntry(String hash, float[] vector) {
+        EmbeddingCacheEntry entry = new EmbeddingCacheEntry();
+        entry.setModel(model);
+        entry.setContentHash(hash);
+        entry.setDimensions(vector.length);
+        entry.setVector(toBytes(vector));
+        entry.setCreatedAt(Instant.now());
+        return entry;
+    }
+
+    /**
+     * Whitespace differences (line wrapping, indentation) do not change the cache key.
+     */
+    static String contentHash(String text) {
+        String normalized = WHITESPACE.matcher(text.strip()).replaceAll(" ");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(normalized.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static byte[] toBytes(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(vector);
+        return buffer.array();
+    }
+
+    static float[] toVector(byte[] bytes) {
+        float[] vector = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+}
@@ -1,50 +1,69 @@
 package com.aide.service;
 
-import com.google.genai.Client;
-import com.google.genai.Models;
 import com.google.genai.errors.ApiException;
 import com.google.genai.types.ContentEmbedding;
 import com.google.genai.types.EmbedContentConfig;
 import com.google.genai.types.EmbedContentResponse;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.ObjIntConsumer;
 
 @Service
 @Slf4j
 public class EmbeddingService {
 
-    private final Models models;
+    /**
+     * Dimensionality {@code gemini-embedding-001} produces when not asked for less.
+     */
+    static final int FULL_DIMENSIONS = 3072;
+
+    private final GeminiClient geminiClient;
     private final String model;
+    private final int batchSize;
+    private final int dimensions;
+    private final EmbedContentConfig config;
 
-    @Autowired
     public EmbeddingService(
-            @Value("${gemini.api-key:}") String apiKey,
-            @Value("${gemini.embeddings.model}") String model
+            GeminiClient geminiClient,
+            @Value("${gemini.embeddings.model}") String model,
+            @Value("${gemini.embeddings.batch-size:100}") int batchSize,
+            @Value("${gemini.embeddings.dimensions:3072}") int dimensions
     ) {
-        this(Client.builder().apiKey(apiKey).build().models, model);
-    }
-
-    EmbeddingService(Models models, String model) {
-        if (models == null) {
+        if (geminiClient == null) {
             throw new IllegalStateException("Gemini client is not configured");
         }
-        this.models = models;
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        if (dimensions <= 0 || dimensions > FULL_DIMENSIONS) {
+            throw new IllegalArgumentException("dimensions must be between 1 and " + FULL_DIMENSIONS);
+        }
+        this.geminiClient = geminiClient;
         this.model = model;
+        this.batchSize = batchSize;
+        this.dimensions = dimensions;
+        this.config = EmbedContentConfig.builder().outputDimensionality(dimensions).build();
     }
 
-    public List<Float> embed(String text) {
+    /**
+     * Embeds one search query, in the interactive lane. The vector has {@code gemini.embeddings.dimensions}
+     * values and is a {@code float[]}: at 3072 dimensions a list of boxed floats takes about five times
+     * the memory and is slower to serialize.
+     */
+    public float[] embed(String text) {
         if (text == null || text.isBlank()) {
             log.error("Text to embed must not be null or blank");
             throw new IllegalArgumentException("Text must not be null or blank");
         }
         EmbedContentResponse response;
         try {
-            response = models.embedContent(model, text, EmbedContentConfig.builder().build());
+            response = geminiClient.call(model, GeminiClient.Lane.INTERACTIVE, true, models -> models.embedContent(model, text, config));
         } catch (ApiException e) {
             String message = Optional.ofNullable(e.message())
                     .filter(msg -> !msg.isBlank())
@@ -66,6 +85,132 @@ public class EmbeddingService {
             throw new IllegalStateException("Empty embedding response from Gemini");
         }
 
-        return embedding;
+        return toVector(embedding);
+    }
+
+    /**
+     * Embeds many texts for ingestion, in the bulk lane.
+     */
+    public List<float[]> embedBatch(List<String> texts) {
+        return embedBatch(texts, GeminiClient.Lane.BULK);
+    }
+
+    /**
+     * Embeds many texts with as few Gemini requests as possible. Texts are sent in groups of
+     * {@code gemini.embeddings.batch-size}; the returned vectors are in the same order as the input.
+     */
+    public List<float[]> embedBatch(List<String> texts, GeminiClient.Lane lane) {
+        return embedBatch(texts, lane, null);
+    }
+
+    /**
+     * Like {@link #embedBatch(List, GeminiClient.Lane)}, but a text Gemini rejects does not fail the
+     * others: once the retries have narrowed a rejection down to it, its failure goes to
+     * {@code onRejected} with its index, and its vector is null.
+     */
+    public List<float[]> embedBatch(List<String> texts, GeminiClient.Lane lane, ObjIntConsumer<RuntimeException> onRejected) {
+        if (texts == null || texts.isEmpty()) {
+            return List.of();
+        }
+        for (String text : texts) {
+            if (text == null || text.isBlank()) {
+                log.error("Text to embed must not be null or blank");
+                throw new IllegalArgumentException("Text must not be null or blank");
+            }
+        }
+
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (int from = 0; from < texts.size(); from += batchSize) {
+            embeddings.addAll(embedGroup(texts.subList(from, Math.min(from + batchSize, texts.size())), from, lane, onRejected));
+        }
+        return embeddings;
+    }
+
+    /**
+     * A rejected or incomplete batch is split in half and retried, so a single bad text
+     * only costs a few extra requests instead of failing the whole group.
+     */
+    private List<float[]> embedGroup(List<String> texts, int offset, GeminiClient.Lane lane, ObjIntConsumer<RuntimeException> onRejected) {
+        EmbedContentResponse response;
+        try {
+            response = geminiClient.call(model, lane, true, models -> models.embedContent(model, texts, config));
+        } catch (ApiException e) {
+            if (texts.size() > 1 && e.code() == 400) {
+                log.warn("Gemini rejected a batch of {} texts, retrying in smaller batches", texts.size());
+                return splitAndEmbed(texts, offset, lane, onRejected);
+            }
+            String message = Optional.ofNullable(e.message())
+                    .filter(msg -> !msg.isBlank())
+                    .orElse("status: " + e.status());
+            log.error("Gemini batch embeddings request failed: {}", message, e);
+            IllegalStateException failure = new IllegalStateException("Gemini embeddings request failed: " + message, e);
+            if (onRejected != null && e.code() == 400) {
+                onRejected.accept(failure, offset);
+                return Collections.singletonList(null);
+            }
+            throw failure;
+        } catch (Exception e) {
+            log.error("Unexpected error calling Gemini embeddings API", e);
+            throw new IllegalStateException("Failed to call Gemini embeddings API", e);
+        }
+
+        List<List<Float>> values = response.embeddings().orElse(List.of()).stream()
+                .map(embedding -> embedding.values().orElse(List.of()))
+                .toList();
+
+        if (values.size() != texts.size() || values.stream().anyMatch(List::isEmpty)) {
+            if (texts.size() > 1) {
+                log.warn("Gemini returned {} usable embeddings for {} texts, retrying in smaller batches", values.size(), texts.size());
+                return splitAndEmbed(texts, offset, lane, onRejected);
+            }
+            log.error("Empty embedding response from Gemini");
+            throw new IllegalStateException("Empty embedding response from Gemini");
+        }
+
+        return values.stream().map(this::toVector).toList();
+    }
+
+    private List<float[]> splitAndEmbed(List<String> texts, int offset, GeminiClient.Lane lane, ObjIntConsumer<RuntimeException> onRejected) {
+        int middle = texts.size() / 2;
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        embeddings.addAll(embedGroup(texts.subList(0, middle), offset, lane, onRejected));
+        embeddings.addAll(embedGroup(texts.subList(middle, texts.size()), offset + middle, lane, onRejected));
+        return embeddings;
+    }
+
+    /**
+     * The Gemini SDK hands out boxed floats; they are unboxed once, right here. The model is trained
+     * so that a prefix of its embedding is itself a usable embedding: a vector longer than requested
+     * is cut to {@code dimensions}, and anything shorter than the full 3072 values is scaled back to
+     * unit length, since Gemini only normalizes the full-size embedding. A shorter vector would not
+     * fit the Qdrant collection, so it is an error.
+     */
+    private float[] toVector(List<Float> values) {
+        if (values.size() < dimensions) {
+            log.error("Gemini returned an embedding of {} values, expected {}", values.size(), dimensions);
+            throw new IllegalStateException("Gemini returned an embedding of " + values.size() + " values, expected " + dimensions);
+        }
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = values.get(i);
+        }
+        if (dimensions < FULL_DIMENSIONS) {
+            normalize(vector);
+        }
+        return vector;
+    }
+
+    private static void normalize(float[] vector) {
+        double sumOfSquares = 0;
+        for (float value : vector) {
+            sumOfSquares += (double) value * value;
+        }
+        if (sumOfSquares == 0) {
+            return;
+        }
+        double norm = Math.sqrt(sumOfSquares);
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) (vector[i] / norm);
+        }
     }
 }
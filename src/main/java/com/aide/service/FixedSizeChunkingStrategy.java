@@ -0,0 +1,36 @@
+package com.aide.service;
+
+/**
+ * Cuts every {@code chunkSize} characters, regardless of word or sentence boundaries.
+ */
+public class FixedSizeChunkingStrategy implements ChunkingStrategy {
+
+    public static final String NAME = "fixed";
+
+    private final int chunkSize;
+    private final int overlap;
+
+    public FixedSizeChunkingStrategy(int chunkSize, int overlap) {
+        this.chunkSize = chunkSize;
+        this.overlap = overlap;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int chunkEnd(CharSequence text, int start, boolean complete) {
+        // a chunk that ends exactly at the current end of input might be the last one; wait for more
+        if (text.length() - start > chunkSize) {
+            return start + chunkSize;
+        }
+        return complete ? text.length() : -1;
+    }
+
+    @Override
+    public int nextStart(CharSequence text, int start, int end) {
+        return end - overlap;
+    }
+}
@@ -1,10 +1,7 @@
 package com.aide.service;
 
-import com.google.genai.Client;
-import com.google.genai.Models;
 import com.google.genai.types.GenerateContentConfig;
 import com.google.genai.types.GenerateContentResponse;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
@@ -13,19 +10,14 @@ import java.util.Optional;
 @Service
 public class GeminiChatService {
 
-    private final Models models;
+    private final GeminiClient geminiClient;
     private final String model;
 
-    @Autowired
     public GeminiChatService(
-            @Value("${gemini.api-key:}") String apiKey,
+            GeminiClient geminiClient,
             @Value("${gemini.chat.model}") String model
     ) {
-        this(Client.builder().apiKey(apiKey).build().models, model);
-    }
-
-    GeminiChatService(Models models, String model) {
-        this.models = models;
+        this.geminiClient = geminiClient;
         this.model = model;
     }
 
@@ -33,7 +25,9 @@ public class GeminiChatService {
         if (prompt == null || prompt.isBlank()) {
             throw new IllegalArgumentException("Prompt must not be null or blank");
         }
-        GenerateContentResponse geminiResp = models.generateContent(model, prompt, GenerateContentConfig.builder().build());
+        // generation is not retried: the tokens of a failed answer may already be billed, and asking again is up to the user
+        GenerateContentResponse geminiResp = geminiClient.call(model, GeminiClient.Lane.INTERACTIVE, false,
+                models -> models.generateContent(model, prompt, GenerateContentConfig.builder().build()));
         return Optional.ofNullable(geminiResp.text()).orElseThrow(() -> new IllegalStateException("Empty response from Gemini."));
     }
 }
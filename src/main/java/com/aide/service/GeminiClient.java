@@ -0,0 +1,402 @@
+package com.aide.service;
+
+import com.google.genai.Client;
+import com.google.genai.Models;
+import com.google.genai.errors.ApiException;
+import com.google.genai.types.HttpOptions;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * The one Gemini client of the application. Every call goes through per-model limits, since Gemini
+ * quotas are per model:
+ * <ul>
+ *     <li>a token bucket of {@code gemini.limits.requests-per-second}, sized to the quota;</li>
+ *     <li>an adaptive concurrency limit that halves on 429/503 and grows by about one per round of
+ *     successful calls, up to {@code gemini.limits.max-concurrency};</li>
+ *     <li>for idempotent calls, retries of throttled and server errors with jittered exponential backoff.</li>
+ * </ul>
+ * Calls are made in a {@link Lane}: interactive calls (search, ask) are served ahead of bulk ingestion,
+ * so a large upload only uses the capacity queries leave over.
+ */
+@Service
+@Slf4j
+public class GeminiClient {
+
+    public enum Lane {
+        /**
+         * A user is waiting: search queries and answers.
+         */
+        INTERACTIVE,
+        /**
+         * Ingestion; takes whatever capacity interactive calls do not need.
+         */
+        BULK
+    }
+
+    private final Models models;
+    private final MeterRegistry meterRegistry;
+    private final double requestsPerSecond;
+    private final int burst;
+    private final int initialConcurrency;
+    private final int maxConcurrency;
+    private final int interactiveWeight;
+    private final int interactiveReserve;
+    private final int maxAttempts;
+    private final Duration backoff;
+    private final Duration maxBackoff;
+    private final Map<String, ModelLimits> limits = new ConcurrentHashMap<>();
+
+    @Autowired
+    public GeminiClient(
+            @Value("${gemini.api-key:}") String apiKey,
+            @Value("${gemini.timeout:PT60S}") Duration timeout,
+            MeterRegistry meterRegistry,
+            @Value("${gemini.limits.requests-per-second:15}") double requestsPerSecond,
+            @Value("${gemini.limits.burst:15}") int burst,
+            @Value("${gemini.limits.initial-concurrency:4}") int initialConcurrency,
+            @Value("${gemini.limits.max-concurrency:16}") int maxConcurrency,
+            @Value("${gemini.limits.interactive-weight:4}") int interactiveWeight,
+            @Value("${gemini.limits.interactive-reserve:1}") int interactiveReserve,
+            @Value("${gemini.retry.max-attempts:4}") int maxAttempts,
+            @Value("${gemini.retry.backoff:500ms}") Duration backoff,
+            @Value("${gemini.retry.max-backoff:10s}") Duration maxBackoff
+    ) {
+        this(
+                Client.builder()
+                        .apiKey(apiKey)
+                        .httpOptions(HttpOptions.builder().timeout(Math.toIntExact(timeout.toMillis())).build())
+                        .build()
+                        .models,
+                meterRegistry, requestsPerSecond, burst, initialConcurrency, maxConcurrency,
+                interactiveWeight, interactiveReserve, maxAttempts, backoff, maxBackoff
+        );
+    }
+
+    GeminiClient(
+            Models models,
+            MeterRegistry meterRegistry,
+            double requestsPerSecond,
+            int burst,
+            int initialConcurrency,
+            int maxConcurrency,
+            int interactiveWeight,
+            int interactiveReserve,
+            int maxAttempts,
+            Duration backoff,
+            Duration maxBackoff
+    ) {
+        if (models == null) {
+            throw new IllegalStateException("Gemini client is not configured");
+        }
+        if (requestsPerSecond > 0 && burst <= 0) {
+            throw new IllegalArgumentException("gemini burst must be positive");
+        }
+        if (maxConcurrency <= 0 || initialConcurrency <= 0 || initialConcurrency > maxConcurrency) {
+            throw new IllegalArgumentException("gemini concurrency must be positive and the initial concurrency must not exceed the maximum");
+        }
+        if (interactiveWeight <= 0 || interactiveReserve < 0 || interactiveReserve >= maxConcurrency) {
+            throw new IllegalArgumentException("gemini interactive weight must be positive and the interactive reserve below the maximum concurrency");
+        }
+        if (maxAttempts <= 0 || backoff.isNegative() || maxBackoff.compareTo(backoff) < 0) {
+            throw new IllegalArgumentException("gemini retry attempts must be positive and the backoff must not exceed max-backoff");
+        }
+        this.models = models;
+        this.meterRegistry = meterRegistry;
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.initialConcurrency = initialConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.interactiveWeight = interactiveWeight;
+        this.interactiveReserve = interactiveReserve;
+        this.maxAttempts = maxAttempts;
+        this.backoff = backoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Runs one request against {@code model} within its limits, scheduled in {@code lane}. Only
+     * {@code idempotent} requests are retried; the last {@link ApiException} is rethrown once the
+     * attempts are used up.
+     */
+    public <T> T call(String model, Lane lane, boolean idempotent, Function<Models, T> request) {
+        ModelLimits modelLimits = limits.computeIfAbsent(model, this::newLimits);
+        for (int attempt = 1; ; attempt++) {
+            long epoch = acquire(modelLimits, lane);
+            T result;
+            try {
+                result = request.apply(models);
+            } catch (ApiException e) {
+                if (isThrottled(e)) {
+                    modelLimits.throttled().increment();
+                    modelLimits.concurrency().onThrottled(epoch);
+                } else {
+                    modelLimits.concurrency().onFailure();
+                }
+                if (!idempotent || !isRetryable(e) || attempt >= maxAttempts) {
+                    throw e;
+                }
+                long delay = backoffNanos(attempt);
+                log.warn("Gemini call to {} failed with status {}, retrying in {} ms (attempt {} of {})",
+                        model, e.code(), TimeUnit.NANOSECONDS.toMillis(delay), attempt, maxAttempts);
+                pause(delay);
+                continue;
+            } catch (RuntimeException | Error e) {
+                modelLimits.concurrency().onFailure();
+                throw e;
+            }
+            modelLimits.concurrency().onSuccess();
+            return result;
+        }
+    }
+
+    double concurrencyLimit(String model) {
+        ModelLimits modelLimits = limits.get(model);
+        return modelLimits == null ? initialConcurrency : modelLimits.concurrency().limit();
+    }
+
+    private long acquire(ModelLimits modelLimits, Lane lane) {
+        LaneMeters meters = modelLimits.lanes().get(lane);
+        long start = System.nanoTime();
+        meters.waiting().incrementAndGet();
+        try {
+            long epoch = modelLimits.concurrency().acquire(lane);
+            if (modelLimits.bucket() != null) {
+                try {
+                    pause(modelLimits.bucket().reserve());
+                } catch (RuntimeException e) {
+                    modelLimits.concurrency().onFailure();
+                    throw e;
+                }
+            }
+            return epoch;
+        } finally {
+            meters.waiting().decrementAndGet();
+            meters.queueWait().record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private ModelLimits newLimits(String model) {
+        TokenBucket bucket = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, burst, System::nanoTime) : null;
+        AdaptiveLimit concurrency = new AdaptiveLimit(initialConcurrency, maxConcurrency, interactiveWeight, interactiveReserve);
+        Gauge.builder("aide.gemini.concurrency.limit", concurrency, AdaptiveLimit::limit)
+                .tag("model", model)
+                .description("Concurrent Gemini calls currently allowed")
+                .register(meterRegistry);
+        Map<Lane, LaneMeters> lanes = new EnumMap<>(Lane.class);
+        for (Lane lane : Lane.values()) {
+            String laneTag = lane.name().toLowerCase();
+            AtomicInteger waiting = new AtomicInteger();
+            Gauge.builder("aide.gemini.queue.depth", waiting, AtomicInteger::get)
+                    .tag("model", model)
+                    .tag("lane", laneTag)
+                    .description("Gemini calls waiting for a concurrency slot or a rate limit token")
+                    .register(meterRegistry);
+            Timer queueWait = Timer.builder("aide.gemini.queue.wait")
+                    .tag("model", model)
+                    .tag("lane", laneTag)
+                    .description("Time Gemini calls waited for a concurrency slot and a rate limit token")
+                    .register(meterRegistry);
+            lanes.put(lane, new LaneMeters(waiting, queueWait));
+        }
+        Counter throttled = Counter.builder("aide.gemini.calls.throttled")
+                .tag("model", model)
+                .description("Gemini calls rejected with 429 or 503")
+                .register(meterRegistry);
+        return new ModelLimits(bucket, concurrency, lanes, throttled);
+    }
+
+    /**
+     * Exponential backoff with jitter: somewhere between half and all of {@code backoff * 2^(attempt-1)},
+     * capped at {@code max-backoff}, so throttled callers do not come back in lockstep.
+     */
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(maxBackoff.toNanos(), backoff.toNanos() << Math.min(attempt - 1, 20));
+        long half = ceiling / 2;
+        return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+    }
+
+    private static boolean isThrottled(ApiException e) {
+        return e.code() == 429 || e.code() == 503;
+    }
+
+    private static boolean isRetryable(ApiException e) {
+        return isThrottled(e) || e.code() == 500 || e.code() == 504;
+    }
+
+    private static void pause(long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to call Gemini", e);
+        }
+    }
+
+    private record ModelLimits(TokenBucket bucket, AdaptiveLimit concurrency, Map<Lane, LaneMeters> lanes, Counter throttled) {
+    }
+
+    private record LaneMeters(AtomicInteger waiting, Timer queueWait) {
+    }
+
+    /**
+     * Hands out {@code requests-per-second} tokens, holding at most {@code burst}. A caller always gets
+     * its token but may have to wait for it; waits queue up behind each other, so the rate holds
+     * under any number of callers.
+     */
+    static final class TokenBucket {
+
+        private final double tokensPerNano;
+        private final double capacity;
+        private final LongSupplier nanoTime;
+        private double tokens;
+        private long refilledAt;
+
+        TokenBucket(double requestsPerSecond, int burst, LongSupplier nanoTime) {
+            this.tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = burst;
+            this.nanoTime = nanoTime;
+            this.tokens = burst;
+            this.refilledAt = nanoTime.getAsLong();
+        }
+
+        /**
+         * Takes a token and returns how many nanoseconds the caller must wait before using it.
+         */
+        synchronized long reserve() {
+            long now = nanoTime.getAsLong();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+            refilledAt = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+        }
+    }
+
+    /**
+     * AIMD concurrency limit shared by the lanes. Each success adds {@code 1/limit}, about one per round
+     * of calls at the limit; a throttled call halves it. Calls that started before the last decrease
+     * were sent under the old limit, so their throttling does not halve it again.
+     * <p>
+     * Free slots go to the waiting lanes by start-time fair queuing, interactive calls weighing
+     * {@code interactiveWeight} times as much as bulk ones. Bulk calls also leave {@code interactiveReserve}
+     * slots free, so a query never queues behind a full slate of ingestion calls; with nothing in flight
+     * a bulk call may always start, so ingestion keeps moving even at a limit of one.
+     */
+    static final class AdaptiveLimit {
+
+        private static final Lane[] LANES = Lane.values();
+
+        private final int maxLimit;
+        private final int interactiveReserve;
+        private final double[] costs = new double[LANES.length];
+        private final double[] finishTags = new double[LANES.length];
+        private final int[] waiting = new int[LANES.length];
+        private double virtualTime;
+        private double limit;
+        private int inFlight;
+        private long epoch;
+
+        AdaptiveLimit(int initialLimit, int maxLimit, int interactiveWeight, int interactiveReserve) {
+            this.limit = initialLimit;
+            this.maxLimit = maxLimit;
+            this.interactiveReserve = interactiveReserve;
+            this.costs[Lane.INTERACTIVE.ordinal()] = 1.0 / interactiveWeight;
+            this.costs[Lane.BULK.ordinal()] = 1.0;
+        }
+
+        /**
+         * Waits until {@code lane} gets a slot and returns the epoch the call starts in.
+         */
+        synchronized long acquire(Lane lane) {
+            int index = lane.ordinal();
+            waiting[index]++;
+            try {
+                while (!mayStart(lane)) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                waiting[index]--;
+                notifyAll();
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting to call Gemini", e);
+            }
+            waiting[index]--;
+            virtualTime = startTag(lane);
+            finishTags[index] = virtualTime + costs[index];
+            inFlight++;
+            return epoch;
+        }
+
+        private boolean mayStart(Lane lane) {
+            if (!hasRoom(lane)) {
+                return false;
+            }
+            double start = startTag(lane);
+            for (Lane other : LANES) {
+                if (other == lane || waiting[other.ordinal()] == 0 || !hasRoom(other)) {
+                    continue;
+                }
+                double otherStart = startTag(other);
+                if (otherStart < start || (otherStart == start && other.ordinal() < lane.ordinal())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean hasRoom(Lane lane) {
+            int slots = (int) limit;
+            if (inFlight >= slots) {
+                return false;
+            }
+            return lane == Lane.INTERACTIVE || inFlight == 0 || inFlight + 1 + interactiveReserve <= slots;
+        }
+
+        private double startTag(Lane lane) {
+            return Math.max(finishTags[lane.ordinal()], virtualTime);
+        }
+
+        synchronized void onSuccess() {
+            inFlight--;
+            limit = Math.min(maxLimit, limit + 1 / limit);
+            notifyAll();
+        }
+
+        synchronized void onThrottled(long startedIn) {
+            inFlight--;
+            if (startedIn == epoch) {
+                limit = Math.max(1, limit / 2);
+                epoch++;
+            }
+            notifyAll();
+        }
+
+        synchronized void onFailure() {
+            inFlight--;
+            notifyAll();
+        }
+
+        synchronized double limit() {
+            return limit;
+        }
+    }
+}
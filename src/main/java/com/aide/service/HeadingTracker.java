@@ -0,0 +1,178 @@
+package com.aide.service;
+
+/**
+ * Follows the Markdown headings of the text an {@link IncrementalChunker} is fed ("#" to "######"
+ * at the start of a line, outside code fences) to give each chunk its heading path, e.g.
+ * "Installation > Linux". PDF headings are written in the same form at extraction.
+ * <p>
+ * The markers stay in the stored text, which is chunked again when a document is copied or
+ * updated, but are taken out of chunk content with {@link #stripMarkers} before it is embedded
+ * or shown: the heading path already carries the structure.
+ */
+final class HeadingTracker {
+
+    static final int MAX_LEVEL = 6;
+    // "######" plus the space after it
+    static final int MAX_MARKER_LENGTH = MAX_LEVEL + 1;
+    // longer titles are cut; with six levels a path stays within the heading_path column
+    static final int MAX_TITLE_LENGTH = 150;
+    private static final String SEPARATOR = " > ";
+
+    private final String[] titles = new String[MAX_LEVEL];
+    // absolute offset of the first character not scanned yet
+    private int scanned;
+    private boolean atLineStart = true;
+    private boolean inFence;
+
+    int scanned() {
+        return scanned;
+    }
+
+    /**
+     * Whether the buffer holds enough text to track the chunk {@code [from, to)} (relative to the
+     * buffer) the same way it would be tracked over the whole text: the heading markers of every
+     * line before {@code to}, and the full title of a heading on or before the line of {@code from}.
+     */
+    static boolean canTrack(CharSequence buffer, int from, int to) {
+        if (buffer.length() < to + MAX_MARKER_LENGTH) {
+            return false;
+        }
+        int titleEnd = from + MAX_MARKER_LENGTH + MAX_TITLE_LENGTH;
+        if (buffer.length() >= titleEnd) {
+            return true;
+        }
+        for (int i = from; i < buffer.length(); i++) {
+            if (buffer.charAt(i) == '\n') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Heading path of the chunk {@code [from, to)}: the headings on or before its first line, cut
+     * back above the level of any heading inside the chunk (a chunk packing sibling sections gets
+     * their parent's path). Null when the chunk is not under any heading.
+     */
+    String pathOf(CharSequence buffer, int bufferOffset, int from, int to) {
+        advance(buffer, bufferOffset, from + 1);
+
+        int depth = MAX_LEVEL;
+        boolean fence = inFence;
+        boolean lineStart = atLineStart;
+        for (int i = from + 1; i < to; i++) {
+            if (lineStart) {
+                if (isFence(buffer, i)) {
+                    fence = !fence;
+                } else if (!fence) {
+                    int level = headingLevel(buffer, i);
+                    if (level > 0) {
+                        depth = Math.min(depth, level - 1);
+                    }
+                }
+            }
+            lineStart = buffer.charAt(i) == '\n';
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (int level = 0; level < depth; level++) {
+            if (titles[level] != null) {
+                if (!path.isEmpty()) {
+                    path.append(SEPARATOR);
+                }
+                path.append(titles[level]);
+            }
+        }
+        return path.isEmpty() ? null : path.toString();
+    }
+
+    /**
+     * Applies the headings of all lines starting before {@code end} (relative to the buffer).
+     */
+    private void advance(CharSequence buffer, int bufferOffset, int end) {
+        for (int i = scanned - bufferOffset; i < end; i++) {
+            if (atLineStart) {
+                if (isFence(buffer, i)) {
+                    inFence = !inFence;
+                } else if (!inFence) {
+                    int level = headingLevel(buffer, i);
+                    if (level > 0) {
+                        String title = title(buffer, i + level + 1);
+                        titles[level - 1] = title.isEmpty() ? null : title;
+                        for (int deeper = level; deeper < MAX_LEVEL; deeper++) {
+                            titles[deeper] = null;
+                        }
+                    }
+                }
+            }
+            atLineStart = buffer.charAt(i) == '\n';
+        }
+        scanned = Math.max(scanned, bufferOffset + end);
+    }
+
+    /**
+     * The text without the "#" markers of its headings, e.g. "# Install\nRun it." becomes
+     * "Install\nRun it.". Returns the text itself when it has none, and when only markers would be left.
+     */
+    static String stripMarkers(String text) {
+        StringBuilder stripped = null;
+        boolean fence = false;
+        int copied = 0;
+        for (int lineStart = 0; lineStart < text.length(); ) {
+            if (isFence(text, lineStart)) {
+                fence = !fence;
+            } else if (!fence) {
+                int level = headingLevel(text, lineStart);
+                if (level > 0) {
+                    if (stripped == null) {
+                        stripped = new StringBuilder(text.length());
+                    }
+                    stripped.append(text, copied, lineStart);
+                    copied = lineStart + level + 1;
+                }
+            }
+            int lineEnd = text.indexOf('\n', lineStart);
+            lineStart = lineEnd < 0 ? text.length() : lineEnd + 1;
+        }
+        if (stripped == null) {
+            return text;
+        }
+        stripped.append(text, copied, text.length());
+        return stripped.toString().isBlank() ? text : stripped.toString();
+    }
+
+    /**
+     * Level of the ATX heading starting at {@code lineStart}, or 0 when the line is no heading.
+     */
+    static int headingLevel(CharSequence text, int lineStart) {
+        int level = 0;
+        while (level < MAX_LEVEL && lineStart + level < text.length() && text.charAt(lineStart + level) == '#') {
+            level++;
+        }
+        int after = lineStart + level;
+        if (level == 0 || after >= text.length()) {
+            return 0;
+        }
+        char next = text.charAt(after);
+        return next == ' ' || next == '\t' ? level : 0;
+    }
+
+    /**
+     * Whether the line starting at {@code lineStart} opens or closes a fenced code block.
+     */
+    static boolean isFence(CharSequence text, int lineStart) {
+        if (lineStart + 3 > text.length()) {
+            return false;
+        }
+        char first = text.charAt(lineStart);
+        return (first == '`' || first == '~') && text.charAt(lineStart + 1) == first && text.charAt(lineStart + 2) == first;
+    }
+
+    private static String title(CharSequence text, int from) {
+        int end = from;
+        while (end < text.length() && end - from < MAX_TITLE_LENGTH && text.charAt(end) != '\n') {
+            end++;
+        }
+        return text.subSequence(from, end).toString().strip();
+    }
+}
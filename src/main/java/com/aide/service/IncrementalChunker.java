@@ -0,0 +1,105 @@
+package com.aide.service;
+
+import java.nio.CharBuffer;
+
+/**
+ * Chunker fed piece by piece (e.g. one PDF page range at a time); its {@link ChunkingStrategy}
+ * decides where chunks end. A chunk is handed to the sink as soon as it is complete; only the
+ * unfinished tail and the overlap carried into the next chunk are buffered. The emitted chunks are
+ * identical to {@link ChunkingService#chunk} over the concatenated text, and so are their heading
+ * paths. Heading paths are only tracked for text that marks headings (Markdown and PDFs).
+ */
+public class IncrementalChunker {
+
+    /**
+     * Receives each chunk as char offsets into the whole text plus a view of its content. The view
+     * reads the chunker's buffer and is only valid during the call; copy it to keep it. The heading
+     * path is null for text outside any Markdown heading, and when headings are not tracked.
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void accept(int start, int end, CharSequence content, String headingPath);
+    }
+
+    private final ChunkingStrategy strategy;
+    private final Sink sink;
+    private final StringBuilder buffer = new StringBuilder();
+    // null when the text has no headings
+    private final HeadingTracker headings;
+
+    // offset of buffer[0] in the whole text
+    private int bufferOffset;
+    private int start;
+    private boolean hasContent;
+    private int chunkCount;
+
+    IncrementalChunker(ChunkingStrategy strategy, Sink sink) {
+        this(strategy, true, sink);
+    }
+
+    IncrementalChunker(ChunkingStrategy strategy, boolean trackHeadings, Sink sink) {
+        this.strategy = strategy;
+        this.sink = sink;
+        this.headings = trackHeadings ? new HeadingTracker() : null;
+    }
+
+    public void append(CharSequence text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        if (!hasContent) {
+            hasContent = !isBlank(text);
+        }
+        buffer.append(text);
+        // blank input produces no chunks at all, so nothing is emitted until real content shows up
+        if (hasContent) {
+            drain(false);
+        }
+    }
+
+    public void finish() {
+        if (hasContent) {
+            drain(true);
+        }
+        bufferOffset += buffer.length();
+        buffer.setLength(0);
+        start = 0;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    private void drain(boolean complete) {
+        while (start < buffer.length()) {
+            int end = strategy.chunkEnd(buffer, start, complete);
+            if (end < 0 || !complete && headings != null && !HeadingTracker.canTrack(buffer, start, end)) {
+                break;
+            }
+            emit(start, end);
+            start = end == buffer.length() ? end : strategy.nextStart(buffer, start, end);
+        }
+        // the heading tracker still reads from where it stopped scanning
+        int consumed = headings == null ? start : Math.min(start, headings.scanned() - bufferOffset);
+        if (consumed > 0) {
+            buffer.delete(0, consumed);
+            bufferOffset += consumed;
+            start -= consumed;
+        }
+    }
+
+    private void emit(int from, int to) {
+        chunkCount++;
+        String headingPath = headings == null ? null : headings.pathOf(buffer, bufferOffset, from, to);
+        sink.accept(bufferOffset + from, bufferOffset + to, CharBuffer.wrap(buffer, from, to), headingPath);
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
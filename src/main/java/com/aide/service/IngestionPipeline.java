@@ -0,0 +1,743 @@
+package com.aide.service;
+
+import com.aide.model.Document;
+import com.aide.model.DocumentChunk;
+import com.aide.repository.DocumentChunkRepository;
+import com.aide.repository.DocumentRepository;
+import com.aide.service.dto.CachedEmbeddings;
+import com.aide.service.dto.ChunkEmbedding;
+import com.aide.service.dto.DocumentVersion;
+import com.aide.service.dto.IngestionJob;
+import com.aide.service.dto.IngestionJobStatus;
+import com.aide.service.dto.StoredFile;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background ingestion: extract (with incremental chunking) → persist chunks → embed → upsert.
+ * Every stage has its own worker pool and a bounded queue; a stage that hands work to a full
+ * queue blocks, so a slow stage throttles the ones in front of it instead of buffering whole documents.
+ * Job progress lives in memory; the document keeps the job id and its outcome.
+ */
+@Service
+@Slf4j
+public class IngestionPipeline {
+
+    // length of Document.jobError
+    private static final int MAX_ERROR_LENGTH = 1000;
+
+    private final IngestionService ingestionService;
+    private final ChunkingService chunkingService;
+    private final EmbeddingCacheService embeddingCacheService;
+    private final VectorStore vectorStore;
+    private final DocumentChunkRepository documentChunkRepository;
+    private final DocumentRepository documentRepository;
+    private final DocumentVersionService documentVersionService;
+    private final DocumentTextService documentTextService;
+    private final NearDuplicateIndex nearDuplicateIndex;
+    private final int batchSize;
+    private final Duration jobRetention;
+
+    private final ThreadPoolExecutor extractStage;
+    private final ThreadPoolExecutor chunkStage;
+    private final ThreadPoolExecutor embedStage;
+    private final ThreadPoolExecutor upsertStage;
+
+    private final Map<String, IngestionJob> jobs = new ConcurrentHashMap<>();
+    private final Map<Long, Revision> revisions = new ConcurrentHashMap<>();
+    // DocumentText saved by a job, until the job commits or is discarded
+    private final Map<String, Long> texts = new ConcurrentHashMap<>();
+    // last point upserted by a new document's job, for the consistency barrier of a job that ends on near-duplicates
+    private final Map<String, ChunkEmbedding> anchors = new ConcurrentHashMap<>();
+
+    @Autowired
+    public IngestionPipeline(
+            IngestionService ingestionService,
+            ChunkingService chunkingService,
+            EmbeddingCacheService embeddingCacheService,
+            VectorStore vectorStore,
+            DocumentChunkRepository documentChunkRepository,
+            DocumentRepository documentRepository,
+            DocumentVersionService documentVersionService,
+            DocumentTextService documentTextService,
+            NearDuplicateIndex nearDuplicateIndex,
+            @Value("${app.ingestion.pipeline.batch-size:100}") int batchSize,
+            @Value("${app.ingestion.pipeline.queue-capacity:64}") int queueCapacity,
+            @Value("${app.ingestion.pipeline.extract-concurrency:2}") int extractConcurrency,
+            @Value("${app.ingestion.pipeline.chunk-concurrency:2}") int chunkConcurrency,
+            @Value("${app.ingestion.pipeline.embed-concurrency:4}") int embedConcurrency,
+            @Value("${app.ingestion.pipeline.upsert-concurrency:2}") int upsertConcurrency,
+            @Value("${app.ingestion.pipeline.job-retention:PT1H}") Duration jobRetention
+    ) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.ingestionService = ingestionService;
+        this.chunkingService = chunkingService;
+        this.embeddingCacheService = embeddingCacheService;
+        this.vectorStore = vectorStore;
+        this.documentChunkRepository = documentChunkRepository;
+        this.documentRepository = documentRepository;
+        this.documentVersionService = documentVersionService;
+        this.documentTextService = documentTextService;
+        this.nearDuplicateIndex = nearDuplicateIndex;
+        this.batchSize = batchSize;
+        this.jobRetention = jobRetention;
+        this.extractStage = newStage("extract", extractConcurrency, queueCapacity, IngestionPipeline::rejectWhenFull);
+        this.chunkStage = newStage("chunk", chunkConcurrency, queueCapacity, IngestionPipeline::enqueueBlocking);
+        this.embedStage = newStage("embed", embedConcurrency, queueCapacity, IngestionPipeline::enqueueBlocking);
+        this.upsertStage = newStage("upsert", upsertConcurrency, queueCapacity, IngestionPipeline::enqueueBlocking);
+    }
+
+    /**
+     * Queues the ingestion of a new document, as the job whose id is reserved on the document if there is
+     * one. Fails with a {@link RejectedExecutionException} when the extract queue is full, rather than
+     * holding up the caller.
+     */
+    public IngestionJob submit(Document document, StoredFile storedFile) {
+        return submit(document, storedFile, false);
+    }
+
+    private IngestionJob submit(Document document, StoredFile storedFile, boolean waitForRoom) {
+        IngestionJob job = register(document, document.getJobId());
+        record(job);
+        admit(job, () -> extract(job, storedFile), waitForRoom);
+        return job;
+    }
+
+    /**
+     * Ingests a byte-identical copy of an already ingested document: its text is copied instead of
+     * extracted, and the vectors of its chunks come from the embedding cache.
+     */
+    public IngestionJob submitCopy(Document document, Document source) {
+        IngestionJob job = register(document, document.getJobId());
+        record(job);
+        boolean headings = IngestionService.hasHeadings(document.getName(), null);
+        admit(job, () -> copy(job, source, headings), false);
+        return job;
+    }
+
+    /**
+     * Ingests a new version of an already ingested document. Chunks identical to a chunk of the
+     * previous version keep their row and Qdrant point; only the others are embedded and stored,
+     * as pending chunks that {@link DocumentVersionService#swap} makes searchable at the end.
+     */
+    public IngestionJob submitUpdate(Document document, StoredFile storedFile) {
+        IngestionJob job = register(document, null);
+        Revision revision = new Revision(job.getId(), storedFile);
+        if (revisions.putIfAbsent(document.getId(), revision) != null) {
+            jobs.remove(job.getId());
+            throw new IllegalArgumentException("Document " + document.getId() + " is already being updated");
+        }
+        record(job);
+        admit(job, () -> {
+            // leftovers of an update that failed earlier
+            documentChunkRepository.deletePending(document.getId());
+            String previousText = document.getTextId() == null ? null : documentTextService.load(document.getTextId());
+            revision.load(documentChunkRepository.findByDocumentIdAndPendingFalse(document.getId()), previousText);
+            extract(job, storedFile);
+        }, false);
+        return job;
+    }
+
+    /**
+     * Reports an identical upload to the same project as an already completed job for the existing document.
+     * The job is not recorded on the document, whose own job may still be running.
+     */
+    public IngestionJob reuse(Document document) {
+        IngestionJob job = register(document, null);
+        int chunks = Math.toIntExact(documentChunkRepository.countByDocumentId(document.getId()));
+        job.chunked(chunks);
+        job.embedded(chunks, chunks);
+        job.stored(chunks);
+        job.complete();
+        return job;
+    }
+
+    /**
+     * A fresh id for a job that is reserved on its document before the job is submitted.
+     */
+    public static String newJobId() {
+        return UUID.randomUUID().toString();
+    }
+
+    public Optional<IngestionJob> findJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    /**
+     * Picks up the jobs a restart interrupted. Their pending chunks, points and texts are dropped; a new
+     * document is then ingested again from its stored file, while an update is marked failed and the
+     * previous version stays searchable. Jobs only run in the instance they were submitted to, so this
+     * assumes a single instance ingests documents.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeInterruptedJobs() {
+        for (Document document : documentRepository.findInterrupted()) {
+            try {
+                resume(document);
+            } catch (RuntimeException e) {
+                log.error("Could not resume the ingestion of document {}", document.getId(), e);
+                documentRepository.recordJob(document.getId(), document.getJobId(), IngestionJobStatus.FAILED,
+                        truncate("Could not resume after a restart: " + e.getMessage()), Instant.now());
+            }
+        }
+    }
+
+    private void resume(Document document) {
+        boolean ingested = document.getIngestedAt() != null;
+        // every chunk of a document that was never ingested belongs to the interrupted job
+        List<Long> pointIds = ingested
+                ? documentChunkRepository.findPendingPointIds(document.getId())
+                : documentChunkRepository.findPointIds(document.getId());
+        if (ingested) {
+            documentChunkRepository.deletePending(document.getId());
+        } else {
+            documentChunkRepository.deleteByDocument(document.getId());
+        }
+        releasePoints(document.getProject(), pointIds);
+        documentTextService.deleteOthers(document.getId(), document.getTextId());
+        if (ingested) {
+            // the file of the interrupted update is not recorded
+            documentRepository.endJob(document.getId(), document.getJobId(), IngestionJobStatus.FAILED,
+                    "Interrupted by a restart", Instant.now());
+            log.info("Discarded the interrupted update of document {}", document.getId());
+            return;
+        }
+        StoredFile storedFile = ingestionService.reopen(document.getFilePath(), document.getName(), document.getContentHash());
+        // startup is not a request: wait for room rather than fail the job
+        IngestionJob job = submit(document, storedFile, true);
+        log.info("Resumed the ingestion of document {} as job {}", document.getId(), job.getId());
+    }
+
+    /**
+     * Extraction streams page ranges straight into an incremental chunker, so chunks start
+     * flowing to the later stages while the rest of the document is still being parsed. The text
+     * itself is compressed alongside and stored once; chunk rows only keep offsets into it.
+     */
+    private void extract(IngestionJob job, StoredFile storedFile) {
+        job.advanceTo(IngestionJobStatus.EXTRACTING);
+        boolean headings = IngestionService.hasHeadings(storedFile.fileName(), storedFile.contentType());
+        ChunkBatcher batcher = new ChunkBatcher(job, headings);
+        IncrementalChunker chunker = chunkingService.newChunker(job.getProject(), headings, batcher::add);
+        DocumentTextService.TextWriter text = documentTextService.newWriter();
+        long removedChars = ingestionService.extract(storedFile, piece -> {
+            text.append(piece);
+            chunker.append(piece);
+        });
+        chunker.finish();
+        job.normalized(removedChars);
+        log.debug("Removed {} characters of boilerplate and whitespace from document {}", removedChars, job.getDocumentId());
+        // saved before the chunk count is known, so the text is there by the time the job commits
+        texts.put(job.getId(), documentTextService.save(job.getDocumentId(), text).getId());
+        if (job.isFailed()) {
+            // a later stage failed while the text was being saved; nothing will commit it now
+            discard(job);
+            return;
+        }
+        batcher.finish();
+    }
+
+    /**
+     * The copied text is chunked again rather than taking over the source's chunks: the projects may
+     * use different chunking strategies, and with the same one the chunks come out identical anyway.
+     */
+    private void copy(IngestionJob job, Document source, boolean headings) {
+        job.advanceTo(IngestionJobStatus.EXTRACTING);
+        texts.put(job.getId(), documentTextService.copy(source.getTextId(), job.getDocumentId()).getId());
+        ChunkBatcher batcher = new ChunkBatcher(job, headings);
+        IncrementalChunker chunker = chunkingService.newChunker(job.getProject(), headings, batcher::add);
+        chunker.append(documentTextService.load(source.getTextId()));
+        chunker.finish();
+        batcher.finish();
+    }
+
+    /**
+     * Stores a batch of chunks. A chunk that is a near-duplicate of one already stored in the
+     * project shares that chunk's point and skips the embed and upsert stages.
+     */
+    private void persist(IngestionJob job, List<ChunkText> chunks, int firstIndex, boolean headings) {
+        job.advanceTo(IngestionJobStatus.CHUNKING);
+        Revision revision = revisionOf(job);
+        List<DocumentChunk> chunkEntities = new ArrayList<>(chunks.size());
+        List<String> contents = new ArrayList<>(chunks.size());
+        int unchanged = 0;
+        int duplicates = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ChunkText text = chunks.get(i);
+            if (revision != null && revision.keep(text, firstIndex + i)) {
+                unchanged++;
+                continue;
+            }
+            DocumentChunk chunk = new DocumentChunk();
+            chunk.setDocumentId(job.getDocumentId());
+            chunk.setChunkIndex(firstIndex + i);
+            chunk.setStartOffset(text.start());
+            chunk.setEndOffset(text.end());
+            chunk.setHeadingPath(text.headingPath());
+            // searchable only once the job commits
+            chunk.setPending(true);
+            // heading markers are only there for the chunker; in plain text a leading "#" is content
+            String content = headings ? HeadingTracker.stripMarkers(text.content()) : text.content();
+            if (nearDuplicateIndex.isEnabled()) {
+                chunk.setMinhash(NearDuplicateIndex.signature(content));
+                chunk.setPointId(nearDuplicateIndex.findPoint(job.getProject(), job.getId(), chunk.getMinhash()));
+            }
+            chunkEntities.add(chunk);
+            contents.add(content);
+        }
+        if (!chunkEntities.isEmpty()) {
+            List<DocumentChunk> savedChunks = documentChunkRepository.insertAll(chunkEntities);
+            if (revision != null) {
+                revision.added(savedChunks);
+            }
+            List<DocumentChunk> toEmbed = new ArrayList<>(savedChunks.size());
+            List<String> toEmbedContents = new ArrayList<>(savedChunks.size());
+            for (int i = 0; i < savedChunks.size(); i++) {
+                if (savedChunks.get(i).getPointId() == null) {
+                    toEmbed.add(savedChunks.get(i));
+                    toEmbedContents.add(contents.get(i));
+                } else {
+                    duplicates++;
+                }
+            }
+            if (!toEmbed.isEmpty()) {
+                runStage(embedStage, job, () -> embed(job, toEmbed, toEmbedContents));
+            }
+        }
+        if (unchanged > 0) {
+            job.unchanged(unchanged);
+        }
+        if (duplicates > 0) {
+            job.deduplicated(duplicates);
+        }
+        if (unchanged + duplicates > 0 && job.stored(unchanged + duplicates)) {
+            if (revision == null) {
+                // the points of earlier batches may have been upserted without waiting
+                ChunkEmbedding anchor = anchors.get(job.getId());
+                if (anchor != null) {
+                    vectorStore.awaitApplied(anchor);
+                }
+            }
+            finish(job);
+        }
+    }
+
+    private void embed(IngestionJob job, List<DocumentChunk> batch, List<String> contents) {
+        job.advanceTo(IngestionJobStatus.EMBEDDING);
+        CachedEmbeddings vectors = embeddingCacheService.embedAll(contents);
+        List<ChunkEmbedding> embedded = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            embedded.add(new ChunkEmbedding(batch.get(i).getId(), job.getDocumentId(), job.getProject(), vectors.vectors().get(i)));
+        }
+        job.embedded(embedded.size(), vectors.hits());
+        Map<Long, byte[]> signatures = new HashMap<>();
+        for (DocumentChunk chunk : batch) {
+            if (chunk.getMinhash() != null) {
+                signatures.put(chunk.getId(), chunk.getMinhash());
+            }
+        }
+        runStage(upsertStage, job, () -> upsert(job, embedded, signatures));
+    }
+
+    private void upsert(IngestionJob job, List<ChunkEmbedding> embedded, Map<Long, byte[]> signatures) {
+        job.advanceTo(IngestionJobStatus.UPSERTING);
+        // an update may finish on a batch of unchanged chunks with no point to wait on, so it waits for every batch
+        boolean update = revisionOf(job) != null;
+        vectorStore.storeEmbeddings(embedded, update);
+        // only now can later chunks of this job share these points; other jobs once it commits
+        nearDuplicateIndex.stage(job.getId(), signatures);
+        if (job.isFailed()) {
+            // failed while the batch was stored: its discard may already have dropped what the job staged
+            // and deleted the pending chunks and their points before these points were written
+            nearDuplicateIndex.discard(job.getId());
+            releaseLatePoints(job, embedded);
+            return;
+        }
+        if (!update) {
+            anchors.put(job.getId(), embedded.get(embedded.size() - 1));
+        }
+        if (job.stored(embedded.size())) {
+            if (!update) {
+                // the document's last batch: wait until every point of the document is searchable
+                vectorStore.awaitApplied(embedded.get(embedded.size() - 1));
+            }
+            finish(job);
+        }
+    }
+
+    private void finish(IngestionJob job) {
+        anchors.remove(job.getId());
+        commit(job);
+        job.complete();
+    }
+
+    /**
+     * Makes the stored chunks searchable: publishes the chunks of a new document, or swaps in the new version of an updated one.
+     */
+    private void commit(IngestionJob job) {
+        Revision revision = revisionOf(job);
+        Long textId = texts.remove(job.getId());
+        if (revision == null) {
+            documentVersionService.publish(job.getDocumentId(), textId);
+            nearDuplicateIndex.publish(job.getProject(), job.getId());
+            recordOutcome(job, IngestionJobStatus.COMPLETED);
+            return;
+        }
+        DocumentVersion version = revision.toVersion(job.getDocumentId(), textId);
+        documentVersionService.swap(version);
+        nearDuplicateIndex.publish(job.getProject(), job.getId());
+        recordOutcome(job, IngestionJobStatus.COMPLETED);
+        revisions.remove(job.getDocumentId(), revision);
+        try {
+            releasePoints(job.getProject(), revision.removedPoints());
+        } catch (RuntimeException e) {
+            // their rows are gone, so search already skips these points
+            log.warn("Could not delete {} outdated point(s) of document {}", version.removedChunkIds().size(), job.getDocumentId(), e);
+        }
+        log.info("Updated document {}: {} chunk(s) unchanged, {} new, {} removed",
+                job.getDocumentId(), job.getUnchangedChunks(), revision.addedCount(), version.removedChunkIds().size());
+    }
+
+    /**
+     * Drops the text, the pending chunks and their points of a failed job; for an update the previous
+     * version stays searchable.
+     */
+    private void discard(IngestionJob job) {
+        recordOutcome(job, IngestionJobStatus.FAILED);
+        anchors.remove(job.getId());
+        nearDuplicateIndex.discard(job.getId());
+        Long textId = texts.remove(job.getId());
+        if (textId != null) {
+            try {
+                documentTextService.delete(textId);
+            } catch (RuntimeException e) {
+                log.warn("Could not delete text {} of document {}", textId, job.getDocumentId(), e);
+            }
+        }
+        Revision revision = revisionOf(job);
+        if (revision != null) {
+            revisions.remove(job.getDocumentId(), revision);
+        }
+        try {
+            List<Long> pointIds = documentChunkRepository.findPendingPointIds(job.getDocumentId());
+            documentChunkRepository.deletePending(job.getDocumentId());
+            releasePoints(job.getProject(), pointIds);
+        } catch (RuntimeException e) {
+            log.warn("Could not clean up pending chunks of document {}", job.getDocumentId(), e);
+        }
+    }
+
+    /**
+     * Deletes the points of a batch that were stored after its job failed, unless the job's pending chunks
+     * still refer to them, in which case its discard deletes them later.
+     */
+    private void releaseLatePoints(IngestionJob job, List<ChunkEmbedding> embedded) {
+        try {
+            releasePoints(job.getProject(), embedded.stream().map(ChunkEmbedding::chunkId).toList());
+        } catch (RuntimeException e) {
+            log.warn("Could not delete {} point(s) stored after job {} failed", embedded.size(), job.getId(), e);
+        }
+    }
+
+    /**
+     * Deletes the points no chunk refers to any more; a point may still be shared by near-duplicates
+     * in other documents.
+     */
+    private void releasePoints(String project, List<Long> pointIds) {
+        if (pointIds.isEmpty()) {
+            return;
+        }
+        List<Long> inUse = documentChunkRepository.findPointIdsInUse(pointIds);
+        List<Long> unused = pointIds.stream().distinct().filter(pointId -> !inUse.contains(pointId)).toList();
+        nearDuplicateIndex.remove(project, unused);
+        vectorStore.deletePoints(unused);
+    }
+
+    private void record(IngestionJob job) {
+        documentRepository.recordJob(job.getDocumentId(), job.getId(), job.getStatus(), null, job.getUpdatedAt());
+    }
+
+    /**
+     * Stores how a job ended; the job itself has already ended either way, so a failure is only logged.
+     */
+    private void recordOutcome(IngestionJob job, IngestionJobStatus status) {
+        try {
+            documentRepository.endJob(job.getDocumentId(), job.getId(), status, truncate(job.getError()), Instant.now());
+        } catch (RuntimeException e) {
+            log.warn("Could not record the outcome of ingestion job {} for document {}", job.getId(), job.getDocumentId(), e);
+        }
+    }
+
+    private static String truncate(String error) {
+        return error == null || error.length() <= MAX_ERROR_LENGTH ? error : error.substring(0, MAX_ERROR_LENGTH);
+    }
+
+    private Revision revisionOf(IngestionJob job) {
+        Revision revision = revisions.get(job.getDocumentId());
+        return revision != null && revision.jobId.equals(job.getId()) ? revision : null;
+    }
+
+    private IngestionJob register(Document document, String reservedJobId) {
+        pruneFinishedJobs();
+
+        String jobId = reservedJobId != null ? reservedJobId : newJobId();
+        IngestionJob job = new IngestionJob(jobId, document.getId(), document.getProject());
+        jobs.put(job.getId(), job);
+        log.debug("Submitted ingestion job {} for document {}", job.getId(), document.getId());
+        return job;
+    }
+
+    /**
+     * Hands a task to the next stage. Once a job has failed, its remaining batches are dropped.
+     */
+    private void runStage(ThreadPoolExecutor stage, IngestionJob job, Runnable task) {
+        try {
+            stage.execute(guarded(job, task));
+        } catch (RejectedExecutionException e) {
+            log.error("Ingestion job {} could not be scheduled", job.getId(), e);
+            job.fail(e.getMessage());
+            discard(job);
+        }
+    }
+
+    /**
+     * Hands a new job to the extract stage. Back-pressure only applies between stages: when the extract
+     * queue is full the job fails at once and the {@link RejectedExecutionException} reaches the caller,
+     * unless it asks to wait for room.
+     */
+    private void admit(IngestionJob job, Runnable task, boolean waitForRoom) {
+        Runnable guarded = guarded(job, task);
+        try {
+            try {
+                extractStage.execute(guarded);
+            } catch (RejectedExecutionException full) {
+                // a full queue means every extract worker has been started, so the task will be taken from it
+                if (!waitForRoom || extractStage.isShutdown()) {
+                    throw full;
+                }
+                enqueueBlocking(guarded, extractStage);
+            }
+        } catch (RejectedExecutionException e) {
+            log.warn("Ingestion job {} for document {} was not accepted: {}", job.getId(), job.getDocumentId(), e.getMessage());
+            job.fail(e.getMessage());
+            discard(job);
+            throw e;
+        }
+    }
+
+    private Runnable guarded(IngestionJob job, Runnable task) {
+        return () -> {
+            if (job.isFailed()) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("Ingestion job {} failed for document {}", job.getId(), job.getDocumentId(), e);
+                job.fail(e.getMessage());
+                discard(job);
+            }
+        };
+    }
+
+    /**
+     * Groups streamed chunks into batches for the chunk stage. The last batch is held back until
+     * the total is known, so the job can never look finished while chunks are still arriving.
+     */
+    private final class ChunkBatcher {
+
+        private final IngestionJob job;
+        private final boolean headings;
+        private List<ChunkText> pending = new ArrayList<>(batchSize);
+        private int firstIndex;
+        private int count;
+
+        private ChunkBatcher(IngestionJob job, boolean headings) {
+            this.job = job;
+            this.headings = headings;
+        }
+
+        private void add(int start, int end, CharSequence content, String headingPath) {
+            if (job.isFailed()) {
+                throw new IllegalStateException("Ingestion job " + job.getId() + " was aborted");
+            }
+            if (pending.size() == batchSize) {
+                dispatch();
+            }
+            // the chunker reuses its buffer, so the content is copied before the chunk is queued
+            pending.add(new ChunkText(start, end, content.toString(), headingPath));
+            count++;
+        }
+
+        private void finish() {
+            if (count == 0) {
+                commit(job);
+            }
+            job.chunked(count);
+            if (!pending.isEmpty()) {
+                dispatch();
+            }
+        }
+
+        private void dispatch() {
+            List<ChunkText> batch = pending;
+            int batchFirstIndex = firstIndex;
+            runStage(chunkStage, job, () -> persist(job, batch, batchFirstIndex, headings));
+            firstIndex += batch.size();
+            pending = new ArrayList<>(batchSize);
+        }
+    }
+
+    /**
+     * A chunk as offsets into the document's text, with its content for embedding and its heading path.
+     */
+    private record ChunkText(int start, int end, String content, String headingPath) {
+    }
+
+    /**
+     * Diff state of a document update. Chunk-stage workers match batches concurrently, so access is synchronized.
+     */
+    private static final class Revision {
+
+        private final String jobId;
+        private final StoredFile storedFile;
+        // chunk ids of the previous version by content; duplicates are matched one by one
+        private final Map<String, ArrayDeque<Long>> previousChunks = new HashMap<>();
+        // point of every previous chunk, its own or a shared one
+        private final Map<Long, Long> previousPoints = new HashMap<>();
+        private final Map<Long, DocumentVersion.ChunkPosition> chunkPositions = new HashMap<>();
+        private int addedCount;
+
+        private Revision(String jobId, StoredFile storedFile) {
+            this.jobId = jobId;
+            this.storedFile = storedFile;
+        }
+
+        private synchronized void load(List<DocumentChunk> chunks, String previousText) {
+            for (DocumentChunk chunk : chunks) {
+                String content = DocumentTextService.slice(previousText, chunk);
+                previousChunks.computeIfAbsent(content, key -> new ArrayDeque<>()).add(chunk.getId());
+                previousPoints.put(chunk.getId(), pointOf(chunk));
+            }
+        }
+
+        /**
+         * Carries a previous chunk with the same content over to the new version at {@code index}.
+         */
+        private synchronized boolean keep(ChunkText chunk, int index) {
+            ArrayDeque<Long> candidates = previousChunks.get(chunk.content());
+            if (candidates == null || candidates.isEmpty()) {
+                return false;
+            }
+            chunkPositions.put(candidates.poll(), new DocumentVersion.ChunkPosition(index, chunk.start(), chunk.end(), chunk.headingPath()));
+            return true;
+        }
+
+        private synchronized void added(List<DocumentChunk> chunks) {
+            addedCount += chunks.size();
+        }
+
+        /**
+         * Points of the previous chunks that were not carried over.
+         */
+        private synchronized List<Long> removedPoints() {
+            return previousChunks.values().stream().flatMap(ArrayDeque::stream).map(previousPoints::get).toList();
+        }
+
+        private synchronized int addedCount() {
+            return addedCount;
+        }
+
+        private synchronized DocumentVersion toVersion(Long documentId, Long textId) {
+            List<Long> removed = previousChunks.values().stream().flatMap(ArrayDeque::stream).toList();
+            return new DocumentVersion(documentId, storedFile, textId, Map.copyOf(chunkPositions), removed);
+        }
+
+        private static Long pointOf(DocumentChunk chunk) {
+            return chunk.getPointId() != null ? chunk.getPointId() : chunk.getId();
+        }
+    }
+
+    private void pruneFinishedJobs() {
+        Instant cutoff = Instant.now().minus(jobRetention);
+        jobs.values().removeIf(job -> job.getStatus().isTerminal() && job.getUpdatedAt().isBefore(cutoff));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        for (ThreadPoolExecutor stage : List.of(extractStage, chunkStage, embedStage, upsertStage)) {
+            stage.shutdown();
+        }
+        for (ThreadPoolExecutor stage : List.of(extractStage, chunkStage, embedStage, upsertStage)) {
+            try {
+                if (!stage.awaitTermination(10, TimeUnit.SECONDS)) {
+                    stage.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stage.shutdownNow();
+            }
+        }
+    }
+
+    private static ThreadPoolExecutor newStage(String name, int concurrency, int queueCapacity, RejectedExecutionHandler whenFull) {
+        if (concurrency <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("Ingestion stage " + name + " requires positive concurrency and queue capacity");
+        }
+        return new ThreadPoolExecutor(
+                concurrency,
+                concurrency,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("ingest-" + name + "-", 0).daemon(true).factory(),
+                whenFull
+        );
+    }
+
+    /**
+     * Admission control for new jobs: a full extract queue turns requests away instead of parking them.
+     */
+    private static void rejectWhenFull(Runnable task, ThreadPoolExecutor executor) {
+        throw new RejectedExecutionException(executor.isShutdown()
+                ? "Ingestion pipeline is shut down"
+                : "Ingestion queue is full, try again later");
+    }
+
+    /**
+     * Back-pressure between stages: instead of rejecting work when a stage queue is full, wait for room.
+     */
+    private static void enqueueBlocking(Runnable task, ThreadPoolExecutor executor) {
+        if (executor.isShutdown()) {
+            throw new RejectedExecutionException("Ingestion pipeline is shut down");
+        }
+        try {
+            executor.getQueue().put(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for ingestion capacity", e);
+        }
+    }
+}
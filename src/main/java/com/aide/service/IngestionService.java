@@ -1,7 +1,9 @@
 package com.aide.service;
 
-import com.aide.service.dto.IngestionResult;
+import com.aide.service.dto.StoredFile;
+import jakarta.annotation.PreDestroy;
 import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.RandomAccessReadBuffer;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -10,56 +12,179 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 @Service
 public class IngestionService {
 
+    private static final int TEXT_BUFFER_SIZE = 64 * 1024;
+
     private final Path storageDirectory;
+    private final int pdfPagesPerBatch;
+    private final int pdfParallelism;
+    private final boolean normalize;
+    private final ExecutorService pdfExecutor;
 
     @Autowired
-    public IngestionService(@Value("${app.ingestion.docs-path:./data/docs}") String storageDirectory) {
+    public IngestionService(
+            @Value("${app.ingestion.docs-path:./data/docs}") String storageDirectory,
+            @Value("${app.ingestion.pdf.pages-per-batch:8}") int pdfPagesPerBatch,
+            @Value("${app.ingestion.pdf.parallelism:4}") int pdfParallelism,
+            @Value("${app.ingestion.normalize:true}") boolean normalize
+    ) {
+        if (pdfPagesPerBatch <= 0) {
+            throw new IllegalArgumentException("pdfPagesPerBatch must be positive");
+        }
+        if (pdfParallelism <= 0) {
+            throw new IllegalArgumentException("pdfParallelism must be positive");
+        }
         this.storageDirectory = Paths.get(storageDirectory).toAbsolutePath().normalize();
+        this.pdfPagesPerBatch = pdfPagesPerBatch;
+        this.pdfParallelism = pdfParallelism;
+        this.normalize = normalize;
+        this.pdfExecutor = pdfParallelism > 1
+                ? Executors.newFixedThreadPool(pdfParallelism, Thread.ofPlatform().name("pdf-extract-", 0).daemon(true).factory())
+                : null;
     }
 
-    public IngestionResult ingest(MultipartFile file) {
+    /**
+     * Persists the uploaded file to the storage directory without extracting it,
+     * so the caller can hand extraction off to a background worker.
+     * Files are stored by content as {@code <docs-path>/ab/cd/<sha256>}: uploads with the same
+     * name no longer overwrite each other, and identical uploads share one blob.
+     */
+    public StoredFile store(MultipartFile file) {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("File must not be null or empty");
         }
 
         String fileName = Optional.ofNullable(file.getOriginalFilename()).map(Paths::get).map(Path::getFileName).map(Path::toString).orElseThrow(() -> new IllegalArgumentException("File name is required"));
 
+        String lowerCaseName = fileName.toLowerCase(Locale.ROOT);
+        if (!isPdf(file.getContentType(), lowerCaseName) && !isText(file.getContentType(), lowerCaseName)) {
+            throw new IllegalArgumentException("Unsupported file type: " + fileName);
+        }
+
         createStorageDirectory();
 
-        Path destination = storageDirectory.resolve(fileName);
+        Path partial = storageDirectory.resolve(".upload-" + UUID.randomUUID() + ".part");
 
-        try (InputStream inputStream = file.getInputStream()) {
-            Files.copy(inputStream, destination, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            // renames the container's spooled temp file when it lives on the same file system
+            file.transferTo(partial);
+            MappedByteBuffer content = map(partial);
+            String sha256 = sha256(content);
+            Path blob = blobPath(sha256);
+            if (Files.exists(blob)) {
+                Files.delete(partial);
+            } else {
+                Files.createDirectories(blob.getParent());
+                Files.move(partial, blob, StandardCopyOption.ATOMIC_MOVE);
+            }
+            return new StoredFile(blob, fileName, file.getContentType(), sha256, content.capacity());
         } catch (IOException e) {
+            deleteQuietly(partial);
             throw new IllegalStateException("Failed to save file: " + fileName, e);
         }
+    }
+
+    /**
+     * Resolves a stored file path (a blob path, or a legacy {@code <docs-path>/<file name>})
+     * and refuses anything outside the storage directory.
+     */
+    public Path resolve(String storedPath) {
+        Path fullPath = storageDirectory.resolve(storedPath).normalize();
+        if (!fullPath.startsWith(storageDirectory)) {
+            throw new IllegalArgumentException("Invalid file path");
+        }
+        return fullPath;
+    }
 
+    /**
+     * An already stored file, for extracting it again.
+     */
+    public StoredFile reopen(String storedPath, String fileName, String sha256) {
+        Path path = resolve(storedPath);
+        try {
+            return new StoredFile(path, fileName, null, sha256, Files.size(path));
+        } catch (IOException e) {
+            throw new IllegalStateException("File not found on disk: " + path, e);
+        }
+    }
+
+    /**
+     * Streams the extracted text to {@code sink} piece by piece: PDFs in ranges of
+     * {@code app.ingestion.pdf.pages-per-batch} pages (extracted on up to
+     * {@code app.ingestion.pdf.parallelism} threads), text files in fixed-size buffers.
+     * The file is memory-mapped, so its pages are read straight from the page cache that
+     * {@link #store} has just filled, and memory use depends on the size of a piece, not of
+     * the document.
+     * <p>
+     * Unless {@code app.ingestion.normalize} is off, the text is cleaned up on the way: PDF page
+     * headers and footers, found once for the whole document, are dropped from every page range
+     * and whitespace is collapsed (see {@link TextNormalizer}).
+     *
+     * @return number of characters removed by the clean-up
+     */
+    public long extract(StoredFile storedFile, Consumer<String> sink) {
+        String fileName = storedFile.fileName();
         String lowerCaseName = fileName.toLowerCase(Locale.ROOT);
-        String text;
+        boolean pdf = isPdf(storedFile.contentType(), lowerCaseName);
+        if (!pdf && !isText(storedFile.contentType(), lowerCaseName)) {
+            throw new IllegalArgumentException("Unsupported file type: " + fileName);
+        }
+        TextNormalizer normalizer = normalize ? new TextNormalizer() : null;
+        Consumer<String> target = normalizer == null ? sink : piece -> {
+            String normalized = normalizer.normalize(piece);
+            if (!normalized.isEmpty()) {
+                sink.accept(normalized);
+            }
+        };
         try {
-            if (isPdf(file, lowerCaseName)) {
-                text = extractPdfText(destination);
-            } else if (isText(file, lowerCaseName)) {
-                text = Files.readString(destination);
+            MappedByteBuffer content = map(storedFile.path());
+            long removedChars = 0;
+            if (pdf) {
+                removedChars = extractPdfText(content, fileName, target);
             } else {
-                throw new IllegalArgumentException("Unsupported file type: " + fileName);
+                extractPlainText(content, target);
             }
+            if (normalizer != null) {
+                normalizer.finish();
+                removedChars += normalizer.removedChars();
+            }
+            return removedChars;
         } catch (IOException e) {
             throw new IllegalStateException("Failed to extract text from file: " + fileName, e);
         }
-
-        return new IngestionResult(text, destination);
     }
 
     private void createStorageDirectory() {
@@ -70,20 +195,173 @@ public class IngestionService {
         }
     }
 
-    private boolean isPdf(MultipartFile file, String lowerCaseName) {
-        String contentType = file.getContentType();
+    /**
+     * Whether the text extracted from a file marks its headings with "#": Markdown as written, and PDFs,
+     * whose headings are found by their layout. In plain text such a line is just text, e.g. a comment.
+     */
+    public static boolean hasHeadings(String fileName, String contentType) {
+        String lowerCaseName = fileName == null ? "" : fileName.toLowerCase(Locale.ROOT);
+        return isPdf(contentType, lowerCaseName)
+                || lowerCaseName.endsWith(".md")
+                || (contentType != null && contentType.equalsIgnoreCase("text/markdown"));
+    }
+
+    private static boolean isPdf(String contentType, String lowerCaseName) {
         return lowerCaseName.endsWith(".pdf") || (contentType != null && contentType.equalsIgnoreCase("application/pdf"));
     }
 
-    private boolean isText(MultipartFile file, String lowerCaseName) {
-        String contentType = file.getContentType();
-        return lowerCaseName.endsWith(".txt") || (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("text"));
+    private static boolean isText(String contentType, String lowerCaseName) {
+        return lowerCaseName.endsWith(".txt") || lowerCaseName.endsWith(".md") || (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith("text"));
+    }
+
+    private Path blobPath(String sha256) {
+        return storageDirectory.resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static String sha256(ByteBuffer content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(content.duplicate());
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // nothing left to clean up
+        }
+    }
+
+    /**
+     * Every {@link PDDocument} reads the shared mapping through its own buffer view.
+     */
+    private static PDDocument loadPdf(ByteBuffer content) throws IOException {
+        return Loader.loadPDF(new RandomAccessReadBuffer(content.duplicate()));
+    }
+
+    /**
+     * @return characters of page headers and footers dropped
+     */
+    private long extractPdfText(ByteBuffer content, String fileName, Consumer<String> sink) throws IOException {
+        try (PDDocument document = loadPdf(content)) {
+            int pageCount = document.getNumberOfPages();
+            int segmentCount = (pageCount + pdfPagesPerBatch - 1) / pdfPagesPerBatch;
+            Set<String> repeatedLines = normalize ? PdfLayoutTextStripper.repeatedLines(document) : Set.of();
+            if (pdfExecutor != null && segmentCount > 1) {
+                return extractPdfTextInParallel(content, fileName, pageCount, segmentCount, repeatedLines, sink);
+            }
+            PdfLayoutTextStripper stripper = new PdfLayoutTextStripper(repeatedLines);
+            long removedChars = 0;
+            for (int segment = 0; segment < segmentCount; segment++) {
+                sink.accept(extractSegment(document, stripper, segment, pageCount));
+                removedChars += stripper.getRemovedChars();
+            }
+            return removedChars;
+        }
+    }
+
+    /**
+     * Workers claim page segments in order, each with its own {@link PDDocument} and
+     * {@link PDFTextStripper} (neither is thread-safe), while the calling thread hands the
+     * results to the sink in page order. A worker may only run {@code 2 × parallelism}
+     * segments ahead of the sink, which bounds the text held in memory; because segments are
+     * claimed in order, the segment the sink is waiting for is always claimed or claimable.
+     */
+    private long extractPdfTextInParallel(ByteBuffer content, String fileName, int pageCount, int segmentCount,
+                                          Set<String> repeatedLines, Consumer<String> sink) {
+        List<CompletableFuture<String>> segments = new ArrayList<>(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments.add(new CompletableFuture<>());
+        }
+        Semaphore window = new Semaphore(2 * pdfParallelism);
+        AtomicInteger nextSegment = new AtomicInteger();
+        AtomicBoolean stopped = new AtomicBoolean();
+        LongAdder removedChars = new LongAdder();
+
+        int workers = Math.min(pdfParallelism, segmentCount);
+        for (int i = 0; i < workers; i++) {
+            pdfExecutor.execute(() -> {
+                try (PDDocument document = loadPdf(content)) {
+                    PdfLayoutTextStripper stripper = new PdfLayoutTextStripper(repeatedLines);
+                    while (true) {
+                        window.acquire();
+                        int segment = nextSegment.getAndIncrement();
+                        if (segment >= segmentCount || stopped.get()) {
+                            return;
+                        }
+                        String text = extractSegment(document, stripper, segment, pageCount);
+                        removedChars.add(stripper.getRemovedChars());
+                        segments.get(segment).complete(text);
+                    }
+                } catch (Exception e) {
+                    if (e instanceof InterruptedException) {
+                        Thread.currentThread().interrupt();
+                    }
+                    segments.forEach(segment -> segment.completeExceptionally(e));
+                }
+            });
+        }
+
+        try {
+            for (CompletableFuture<String> segment : segments) {
+                sink.accept(segment.join());
+                window.release();
+            }
+            return removedChars.sum();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Failed to extract PDF text from " + fileName, e.getCause());
+        } finally {
+            // wake up workers still waiting for the window so they can exit
+            stopped.set(true);
+            window.release(segmentCount + workers);
+        }
+    }
+
+    private String extractSegment(PDDocument document, PDFTextStripper stripper, int segment, int pageCount) throws IOException {
+        int firstPage = segment * pdfPagesPerBatch + 1;
+        stripper.setStartPage(firstPage);
+        stripper.setEndPage(Math.min(firstPage + pdfPagesPerBatch - 1, pageCount));
+        return stripper.getText(document);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (pdfExecutor != null) {
+            pdfExecutor.shutdownNow();
+        }
+    }
+
+    private void extractPlainText(ByteBuffer content, Consumer<String> sink) throws IOException {
+        // decodes strictly like Files.newBufferedReader: malformed UTF-8 is an error
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+        ByteBuffer input = content.duplicate();
+        CharBuffer buffer = CharBuffer.allocate(TEXT_BUFFER_SIZE);
+        CoderResult result;
+        do {
+            result = decoder.decode(input, buffer, true);
+            if (result.isError()) {
+                result.throwException();
+            }
+            drain(buffer, sink);
+        } while (result.isOverflow());
+        decoder.flush(buffer);
+        drain(buffer, sink);
     }
 
-    private String extractPdfText(Path pdfPath) throws IOException {
-        try (PDDocument document = Loader.loadPDF(pdfPath.toFile())) {
-            PDFTextStripper stripper = new PDFTextStripper();
-            return stripper.getText(document);
+    private static void drain(CharBuffer buffer, Consumer<String> sink) {
+        if (buffer.position() > 0) {
+            sink.accept(buffer.flip().toString());
+            buffer.clear();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,325 @@
+package com.aide.service;
+
+import com.aide.repository.DocumentChunkRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-project MinHash LSH index over the chunks that own a Qdrant point. A new chunk whose
+ * estimated Jaccard similarity to an indexed one (over their three-word shingles) reaches
+ * {@code app.dedup.min-similarity} is a near-duplicate and can share that point instead of being
+ * embedded.
+ * <p>
+ * A signature holds {@value #SIGNATURE_SIZE} min-hashes, split into {@value #BANDS} bands; only
+ * chunks agreeing on a whole band are compared. Two chunks are candidates with probability
+ * {@code 1 - (1 - J^4)^16}: above 99% from a similarity of 0.7, so lower thresholds miss some
+ * near-duplicates. A project's index is loaded from the database on first use.
+ * <p>
+ * Points of a running job are staged under the job, where only its own later chunks find them,
+ * and join the project's index when the job commits; a failed job's points are never shared. The
+ * index lives in memory, so another instance only sees chunks committed before it loaded the
+ * project.
+ */
+@Service
+@Slf4j
+public class NearDuplicateIndex {
+
+    static final int SIGNATURE_SIZE = 64;
+    static final int BANDS = 16;
+    private static final int ROWS = SIGNATURE_SIZE / BANDS;
+    // chunks of fewer words are too short to tell near-duplicates from merely similar text
+    static final int MIN_WORDS = 8;
+    private static final int SHINGLE_WORDS = 3;
+    // FNV-1a, for the words
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long[] SEEDS = new long[SIGNATURE_SIZE];
+
+    static {
+        for (int i = 0; i < SIGNATURE_SIZE; i++) {
+            SEEDS[i] = mix(0x9e3779b97f4a7c15L * (i + 1));
+        }
+    }
+
+    private final DocumentChunkRepository documentChunkRepository;
+    private final boolean enabled;
+    private final double minSimilarity;
+    private final Map<String, ProjectIndex> projects = new ConcurrentHashMap<>();
+    // points stored by running jobs, by job id
+    private final Map<String, ProjectIndex> staged = new ConcurrentHashMap<>();
+
+    @Autowired
+    public NearDuplicateIndex(
+            DocumentChunkRepository documentChunkRepository,
+            @Value("${app.dedup.enabled:true}") boolean enabled,
+            @Value("${app.dedup.min-similarity:0.8}") double minSimilarity
+    ) {
+        if (minSimilarity <= 0 || minSimilarity > 1) {
+            throw new IllegalArgumentException("min similarity must be greater than 0 and at most 1");
+        }
+        this.documentChunkRepository = documentChunkRepository;
+        this.enabled = enabled;
+        this.minSimilarity = minSimilarity;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Point of an indexed chunk that is a near-duplicate of the chunk with this signature, the most
+     * similar one if there are several, falling back to the points staged by the job; or null.
+     */
+    public Long findPoint(String project, String jobId, byte[] signature) {
+        if (!enabled || signature == null) {
+            return null;
+        }
+        int[] minHashes = decode(signature);
+        Long pointId = index(project).find(minHashes);
+        if (pointId == null && jobId != null) {
+            ProjectIndex jobIndex = staged.get(jobId);
+            pointId = jobIndex == null ? null : jobIndex.find(minHashes);
+        }
+        return pointId;
+    }
+
+    /**
+     * Indexes chunks of a running job whose points are stored, for the job's own later chunks only.
+     */
+    public void stage(String jobId, Map<Long, byte[]> signaturesByPoint) {
+        if (!enabled || signaturesByPoint.isEmpty()) {
+            return;
+        }
+        ProjectIndex index = staged.computeIfAbsent(jobId, key -> {
+            // nothing to load: a job starts out with no points
+            ProjectIndex jobIndex = new ProjectIndex();
+            jobIndex.loaded.complete(null);
+            return jobIndex;
+        });
+        signaturesByPoint.forEach((pointId, signature) -> index.add(pointId, decode(signature)));
+    }
+
+    /**
+     * Moves the points staged by a committed job into its project's index.
+     */
+    public void publish(String project, String jobId) {
+        ProjectIndex jobIndex = staged.remove(jobId);
+        if (jobIndex == null) {
+            return;
+        }
+        ProjectIndex index = index(project);
+        jobIndex.signatures.forEach(index::add);
+    }
+
+    /**
+     * Drops the points staged by a failed job.
+     */
+    public void discard(String jobId) {
+        staged.remove(jobId);
+    }
+
+    /**
+     * Forgets deleted points, so no new chunk is pointed at them.
+     */
+    public void remove(String project, Collection<Long> pointIds) {
+        ProjectIndex index = projects.get(project);
+        if (index != null) {
+            pointIds.forEach(index::remove);
+        }
+    }
+
+    /**
+     * The project's index, loaded by the first caller outside the map, so loading one project does
+     * not hold up the others; callers for the same project wait for it.
+     */
+    private ProjectIndex index(String project) {
+        ProjectIndex index = projects.get(project);
+        if (index == null) {
+            ProjectIndex created = new ProjectIndex();
+            index = projects.putIfAbsent(project, created);
+            if (index == null) {
+                index = created;
+                load(project, created);
+            }
+        }
+        index.awaitLoaded(project);
+        return index;
+    }
+
+    private void load(String project, ProjectIndex index) {
+        List<DocumentChunkRepository.Fingerprint> fingerprints;
+        try {
+            fingerprints = documentChunkRepository.findFingerprints(project);
+        } catch (RuntimeException e) {
+            // the next caller loads again
+            projects.remove(project, index);
+            index.failLoading(e);
+            throw e;
+        }
+        Map<Long, int[]> signatures = new HashMap<>();
+        fingerprints.forEach(fingerprint -> signatures.put(fingerprint.getPointId(), decode(fingerprint.getMinhash())));
+        index.finishLoading(signatures);
+        log.debug("Loaded {} chunk fingerprint(s) of project {}", fingerprints.size(), project);
+    }
+
+    /**
+     * MinHash signature of the text's overlapping three-word shingles, with words compared
+     * case-insensitively and punctuation ignored, as stored in {@code document_chunks.minhash}.
+     * Null for texts of fewer than {@link #MIN_WORDS} words.
+     */
+    public static byte[] signature(CharSequence text) {
+        int[] minHashes = new int[SIGNATURE_SIZE];
+        Arrays.fill(minHashes, Integer.MAX_VALUE);
+        long[] window = new long[SHINGLE_WORDS];
+        int words = 0;
+        long word = FNV_OFFSET;
+        boolean inWord = false;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word = (word ^ Character.toLowerCase(c)) * FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                window[words % SHINGLE_WORDS] = word;
+                words++;
+                if (words >= SHINGLE_WORDS) {
+                    long shingle = 0;
+                    for (int w = words - SHINGLE_WORDS; w < words; w++) {
+                        shingle = shingle * 31 + window[w % SHINGLE_WORDS];
+                    }
+                    for (int h = 0; h < SIGNATURE_SIZE; h++) {
+                        minHashes[h] = Math.min(minHashes[h], (int) (mix(shingle ^ SEEDS[h]) >>> 33));
+                    }
+                }
+                word = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+        if (words < MIN_WORDS) {
+            return null;
+        }
+        ByteBuffer encoded = ByteBuffer.allocate(SIGNATURE_SIZE * Integer.BYTES);
+        encoded.asIntBuffer().put(minHashes);
+        return encoded.array();
+    }
+
+    private static int[] decode(byte[] signature) {
+        int[] minHashes = new int[SIGNATURE_SIZE];
+        ByteBuffer.wrap(signature).asIntBuffer().get(minHashes);
+        return minHashes;
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long bandKey(int[] minHashes, int band) {
+        long key = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            key = mix(key * 31 + minHashes[row]);
+        }
+        return key;
+    }
+
+    private final class ProjectIndex {
+
+        // band key -> points whose signature has that band
+        private final Map<Long, List<Long>> buckets = new HashMap<>();
+        private final Map<Long, int[]> signatures = new HashMap<>();
+        private final CompletableFuture<Void> loaded = new CompletableFuture<>();
+        // points removed while the fingerprints were being read, which may still list them
+        private final Set<Long> removedWhileLoading = new HashSet<>();
+
+        private synchronized void finishLoading(Map<Long, int[]> fingerprints) {
+            fingerprints.forEach((pointId, minHashes) -> {
+                if (!removedWhileLoading.contains(pointId)) {
+                    add(pointId, minHashes);
+                }
+            });
+            removedWhileLoading.clear();
+            loaded.complete(null);
+        }
+
+        private void failLoading(RuntimeException e) {
+            loaded.completeExceptionally(e);
+        }
+
+        private void awaitLoaded(String project) {
+            try {
+                loaded.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Could not load the chunk fingerprints of project " + project, e.getCause());
+            }
+        }
+
+        private synchronized Long find(int[] minHashes) {
+            Long closest = null;
+            int closestMatches = (int) Math.ceil(minSimilarity * SIGNATURE_SIZE) - 1;
+            for (int band = 0; band < BANDS; band++) {
+                for (Long pointId : buckets.getOrDefault(bandKey(minHashes, band), List.of())) {
+                    int matches = matches(signatures.get(pointId), minHashes);
+                    if (matches > closestMatches || matches == closestMatches && closest != null && pointId < closest) {
+                        closest = pointId;
+                        closestMatches = matches;
+                    }
+                }
+            }
+            return closest;
+        }
+
+        private synchronized void add(Long pointId, int[] minHashes) {
+            if (signatures.putIfAbsent(pointId, minHashes) != null) {
+                return;
+            }
+            for (int band = 0; band < BANDS; band++) {
+                buckets.computeIfAbsent(bandKey(minHashes, band), key -> new ArrayList<>(1)).add(pointId);
+            }
+        }
+
+        private synchronized void remove(Long pointId) {
+            if (!loaded.isDone()) {
+                removedWhileLoading.add(pointId);
+            }
+            int[] minHashes = signatures.remove(pointId);
+            if (minHashes == null) {
+                return;
+            }
+            for (int band = 0; band < BANDS; band++) {
+                long key = bandKey(minHashes, band);
+                List<Long> bucket = buckets.get(key);
+                bucket.remove(pointId);
+                if (bucket.isEmpty()) {
+                    buckets.remove(key);
+                }
+            }
+        }
+
+        private static int matches(int[] a, int[] b) {
+            int matches = 0;
+            for (int i = 0; i < SIGNATURE_SIZE; i++) {
+                if (a[i] == b[i]) {
+                    matches++;
+                }
+            }
+            return matches;
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.aide.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDFontDescriptor;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.pdfbox.text.TextPosition;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * {@link PDFTextStripper} that uses the layout of the extracted pages:
+ * <ul>
+ *     <li>Page headers and footers can be dropped: lines among the first or last few of a page
+ *     that recur on at least half of the pages of the document, compared with their digits masked
+ *     so that page numbers and dates match. {@link #repeatedLines(PDDocument)} finds them once per
+ *     document, so every page range is cleaned the same way whatever its size.</li>
+ *     <li>Headings are marked the way Markdown does, so they can be followed by the chunker: short
+ *     lines set in a font clearly larger than the body text become "#" to "###" by size, and short
+ *     all-bold lines the next level down. Chunk content is embedded and shown without the markers
+ *     (see {@link HeadingTracker#stripMarkers}).</li>
+ * </ul>
+ * Headings are found within one {@link #getText} call at a time, i.e. one page range; the body size
+ * is the size most of its text is set in. Text without either comes out exactly as
+ * {@link PDFTextStripper} writes it.
+ */
+class PdfLayoutTextStripper extends PDFTextStripper {
+
+    private static final float HEADING_SIZE_RATIO = 1.15f;
+    private static final int MAX_SIZE_LEVELS = 3;
+    private static final int MAX_HEADING_LENGTH = 120;
+    // lines at either end of a page that may be a header or footer
+    private static final int PAGE_EDGE_LINES = 3;
+    // pages read to find the repeated lines, spread over the document
+    private static final int MAX_SAMPLED_PAGES = 16;
+
+    // repetition keys of the lines to drop
+    private final Set<String> repeatedKeys;
+    // pages each edge line was seen on, while sampling
+    private final Map<String, Set<Integer>> pagesByKey;
+    private final List<Line> lines = new ArrayList<>();
+    // number of characters set in each font size, rounded to half a point
+    private final Map<Float, Integer> charsBySize = new HashMap<>();
+    private StringWriter text;
+    private Line line;
+    private int chars;
+    private int boldChars;
+    private int removedChars;
+
+    /**
+     * @param repeatedKeys headers and footers to drop, from {@link #repeatedLines(PDDocument)}
+     */
+    PdfLayoutTextStripper(Set<String> repeatedKeys) {
+        this(repeatedKeys, null);
+    }
+
+    private PdfLayoutTextStripper(Set<String> repeatedKeys, Map<String, Set<Integer>> pagesByKey) {
+        this.repeatedKeys = repeatedKeys;
+        this.pagesByKey = pagesByKey;
+    }
+
+    /**
+     * The page headers and footers of a document, as repetition keys: edge lines that recur on at
+     * least half of up to {@value #MAX_SAMPLED_PAGES} pages spread evenly over it, and on at least two.
+     * A single page has nothing to compare with, so nothing is dropped from it.
+     */
+    static Set<String> repeatedLines(PDDocument document) throws IOException {
+        int pages = document.getNumberOfPages();
+        if (pages < 2) {
+            return Set.of();
+        }
+        Map<String, Set<Integer>> pagesByKey = new HashMap<>();
+        PdfLayoutTextStripper sampler = new PdfLayoutTextStripper(Set.of(), pagesByKey);
+        Set<Integer> sampled = new TreeSet<>();
+        int samples = Math.min(pages, MAX_SAMPLED_PAGES);
+        for (int i = 0; i < samples; i++) {
+            sampled.add(1 + (int) ((long) i * (pages - 1) / Math.max(1, samples - 1)));
+        }
+        for (int page : sampled) {
+            sampler.setStartPage(page);
+            sampler.setEndPage(page);
+            sampler.getText(document);
+        }
+        int minPages = Math.max(2, (sampled.size() + 1) / 2);
+        Set<String> repeated = new HashSet<>();
+        pagesByKey.forEach((key, keyPages) -> {
+            if (keyPages.size() >= minPages) {
+                repeated.add(key);
+            }
+        });
+        return repeated;
+    }
+
+    /**
+     * Characters of page headers and footers dropped by the last {@link #getText} call.
+     */
+    int getRemovedChars() {
+        return removedChars;
+    }
+
+    @Override
+    public void writeText(PDDocument document, Writer output) throws IOException {
+        text = new StringWriter();
+        lines.clear();
+        charsBySize.clear();
+        line = null;
+        chars = 0;
+        boldChars = 0;
+        removedChars = 0;
+        try {
+            super.writeText(document, text);
+            endLine();
+            if (pagesByKey != null) {
+                edgeLines(text.getBuffer()).forEach((candidate, key) ->
+                        pagesByKey.computeIfAbsent(key, k -> new HashSet<>()).add(candidate.page));
+                return;
+            }
+            writeMarked(output);
+        } finally {
+            text = null;
+            lines.clear();
+        }
+    }
+
+    @Override
+    protected void writeString(String string, List<TextPosition> textPositions) throws IOException {
+        if (line == null) {
+            line = new Line(getCurrentPageNo(), text.getBuffer().length());
+        }
+        for (TextPosition position : textPositions) {
+            int length = position.getUnicode().length();
+            float size = Math.round(position.getFontSizeInPt() * 2) / 2f;
+            boolean bold = isBold(position.getFont());
+            charsBySize.merge(size, length, Integer::sum);
+            chars += length;
+            line.minSize = Math.min(line.minSize, size);
+            line.chars += length;
+            if (bold) {
+                boldChars += length;
+                line.boldChars += length;
+            }
+        }
+        super.writeString(string, textPositions);
+    }
+
+    @Override
+    protected void writeLineSeparator() throws IOException {
+        endLine();
+        super.writeLineSeparator();
+    }
+
+    @Override
+    protected void writeParagraphStart() throws IOException {
+        endLine();
+        super.writeParagraphStart();
+    }
+
+    @Override
+    protected void writeParagraphEnd() throws IOException {
+        endLine();
+        super.writeParagraphEnd();
+    }
+
+    @Override
+    protected void writePageEnd() throws IOException {
+        endLine();
+        super.writePageEnd();
+    }
+
+    private void endLine() {
+        if (line != null) {
+            line.end = text.getBuffer().length();
+            lines.add(line);
+            line = null;
+        }
+    }
+
+    private void writeMarked(Writer output) throws IOException {
+        StringBuffer buffer = text.getBuffer();
+        Set<Line> repeated = repeatedLines(buffer);
+        float bodySize = bodySize();
+        // heading sizes, largest first
+        TreeSet<Float> headingSizes = new TreeSet<>((a, b) -> Float.compare(b, a));
+        for (Line candidate : lines) {
+            if (!repeated.contains(candidate) && candidate.minSize >= bodySize * HEADING_SIZE_RATIO && isHeadingText(buffer, candidate)) {
+                headingSizes.add(candidate.minSize);
+            }
+        }
+        int sizeLevels = Math.min(headingSizes.size(), MAX_SIZE_LEVELS);
+        // bold only stands out when most of the text is not bold
+        boolean boldHeadings = boldChars * 2 < chars;
+
+        String lineSeparator = getLineSeparator();
+        int written = 0;
+        for (Line candidate : lines) {
+            if (repeated.contains(candidate)) {
+                // the line goes with its line break
+                int end = candidate.end;
+                if (end + lineSeparator.length() <= buffer.length()
+                        && buffer.substring(end, end + lineSeparator.length()).equals(lineSeparator)) {
+                    end += lineSeparator.length();
+                }
+                output.append(buffer, written, candidate.start);
+                removedChars += end - candidate.start;
+                written = end;
+                continue;
+            }
+            int level = 0;
+            if (headingSizes.contains(candidate.minSize) && isHeadingText(buffer, candidate)) {
+                level = Math.min(headingSizes.headSet(candidate.minSize).size() + 1, MAX_SIZE_LEVELS);
+            } else if (boldHeadings && candidate.chars > 0 && candidate.boldChars == candidate.chars && isHeadingText(buffer, candidate)) {
+                level = sizeLevels + 1;
+            }
+            if (level > 0) {
+                output.append(buffer, written, candidate.start);
+                output.append("#".repeat(level)).append(' ');
+                written = candidate.start;
+            }
+        }
+        output.append(buffer, written, buffer.length());
+    }
+
+    private Set<Line> repeatedLines(CharSequence buffer) {
+        if (repeatedKeys.isEmpty()) {
+            return Set.of();
+        }
+        Set<Line> repeated = new HashSet<>();
+        edgeLines(buffer).forEach((candidate, key) -> {
+            if (repeatedKeys.contains(key)) {
+                repeated.add(candidate);
+            }
+        });
+        return repeated;
+    }
+
+    /**
+     * The first and last few lines of every page, with their repetition keys.
+     */
+    private Map<Line, String> edgeLines(CharSequence buffer) {
+        Map<Integer, List<Line>> linesByPage = new LinkedHashMap<>();
+        for (Line candidate : lines) {
+            linesByPage.computeIfAbsent(candidate.page, page -> new ArrayList<>()).add(candidate);
+        }
+        Map<Line, String> keys = new HashMap<>();
+        for (List<Line> pageLines : linesByPage.values()) {
+            for (int i = 0; i < pageLines.size(); i++) {
+                if (i >= PAGE_EDGE_LINES && i < pageLines.size() - PAGE_EDGE_LINES) {
+                    continue;
+                }
+                Line candidate = pageLines.get(i);
+                String key = repetitionKey(buffer, candidate);
+                if (!key.isEmpty()) {
+                    keys.put(candidate, key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * The line with digits masked and whitespace collapsed, so "Page 3 of 40" matches "Page 4 of 40".
+     */
+    private static String repetitionKey(CharSequence buffer, Line line) {
+        StringBuilder key = new StringBuilder(line.end - line.start);
+        boolean space = false;
+        for (int i = line.start; i < line.end; i++) {
+            char c = buffer.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = !key.isEmpty();
+            } else {
+                if (space) {
+                    key.append(' ');
+                    space = false;
+                }
+                key.append(Character.isDigit(c) ? '0' : c);
+            }
+        }
+        return key.toString();
+    }
+
+    private float bodySize() {
+        float bodySize = 0;
+        int mostChars = 0;
+        for (Map.Entry<Float, Integer> entry : charsBySize.entrySet()) {
+            if (entry.getValue() > mostChars) {
+                bodySize = entry.getKey();
+                mostChars = entry.getValue();
+            }
+        }
+        return bodySize;
+    }
+
+    private static boolean isHeadingText(CharSequence buffer, Line line) {
+        if (line.end - line.start > MAX_HEADING_LENGTH) {
+            return false;
+        }
+        for (int i = line.start; i < line.end; i++) {
+            if (Character.isLetter(buffer.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isBold(PDFont font) {
+        if (font == null) {
+            return false;
+        }
+        PDFontDescriptor descriptor = font.getFontDescriptor();
+        if (descriptor != null && (descriptor.isForceBold() || descriptor.getFontWeight() >= 700)) {
+            return true;
+        }
+        return font.getName() != null && font.getName().toLowerCase(Locale.ROOT).contains("bold");
+    }
+
+    /**
+     * A line of the extracted text, as offsets into it, with the page and fonts it is set in.
+     */
+    private static final class Line {
+
+        private final int page;
+        private final int start;
+        private int end;
+        private float minSize = Float.MAX_VALUE;
+        private int chars;
+        private int boldChars;
+
+        private Line(int page, int start) {
+            this.page = page;
+            this.start = start;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.aide.service;
+
+import com.aide.service.dto.ChunkEmbedding;
+import com.aide.service.dto.qdrant.QdrantIndexSettings;
+import com.aide.service.dto.qdrant.search.SearchResult;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.qdrant.client.QdrantClient;
+import io.qdrant.client.QdrantGrpcClient;
+import io.qdrant.client.grpc.Collections.BinaryQuantization;
+import io.qdrant.client.grpc.Collections.CollectionConfig;
+import io.qdrant.client.grpc.Collections.CollectionInfo;
+import io.qdrant.client.grpc.Collections.CreateCollection;
+import io.qdrant.client.grpc.Collections.Disabled;
+import io.qdrant.client.grpc.Collections.Distance;
+import io.qdrant.client.grpc.Collections.HnswConfigDiff;
+import io.qdrant.client.grpc.Collections.QuantizationConfig;
+import io.qdrant.client.grpc.Collections.QuantizationConfigDiff;
+import io.qdrant.client.grpc.Collections.QuantizationType;
+import io.qdrant.client.grpc.Collections.ScalarQuantization;
+import io.qdrant.client.grpc.Collections.UpdateCollection;
+import io.qdrant.client.grpc.Collections.VectorParams;
+import io.qdrant.client.grpc.Collections.VectorParamsDiff;
+import io.qdrant.client.grpc.Collections.VectorsConfig;
+import io.qdrant.client.grpc.Collections.VectorsConfigDiff;
+import io.qdrant.client.grpc.JsonWithInt;
+import io.qdrant.client.grpc.Points.DeletePoints;
+import io.qdrant.client.grpc.Points.Filter;
+import io.qdrant.client.grpc.Points.PointStruct;
+import io.qdrant.client.grpc.Points.PointsIdsList;
+import io.qdrant.client.grpc.Points.PointsSelector;
+import io.qdrant.client.grpc.Points.QuantizationSearchParams;
+import io.qdrant.client.grpc.Points.ScoredPoint;
+import io.qdrant.client.grpc.Points.SearchParams;
+import io.qdrant.client.grpc.Points.SearchPoints;
+import io.qdrant.client.grpc.Points.UpsertPoints;
+import io.qdrant.client.grpc.Points.Vector;
+import io.qdrant.client.grpc.Points.Vectors;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static io.qdrant.client.ConditionFactory.matchKeyword;
+import static io.qdrant.client.PointIdFactory.id;
+import static io.qdrant.client.ValueFactory.value;
+import static io.qdrant.client.WithPayloadSelectorFactory.enable;
+
+/**
+ * {@link VectorStore} on Qdrant's gRPC API ({@code qdrant.transport=grpc}). Vectors travel as packed
+ * protobuf floats instead of JSON text, and all calls share one persistent HTTP/2 channel, so concurrent
+ * upsert batches and searches are multiplexed over a single connection. Points, payload and collection
+ * are the same as with {@link QdrantService}; either transport can serve a collection the other filled.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "qdrant.transport", havingValue = "grpc")
+public class QdrantGrpcService extends QdrantVectorStore {
+
+    private final QdrantClient client;
+
+    @Autowired
+    public QdrantGrpcService(
+            @Value("${qdrant.grpc.host:localhost}") String host,
+            @Value("${qdrant.grpc.port:6334}") int port,
+            @Value("${qdrant.grpc.use-tls:false}") boolean useTls,
+            @Value("${qdrant.grpc.timeout:30s}") Duration timeout,
+            @Value("${qdrant.collection:aide}") String collectionName,
+            @Value("${gemini.embeddings.dimensions:3072}") int vectorSize,
+            @Value("${app.search.score-threshold:0.65}") double scoreThreshold,
+            @Value("${qdrant.upsert.batch-size:256}") int upsertBatchSize,
+            @Value("${qdrant.upsert.max-in-flight:4}") int maxInFlightUpserts,
+            @Value("${qdrant.upsert.async:true}") boolean asyncUpserts,
+            QdrantIndexSettings indexSettings
+    ) {
+        this(
+                new QdrantClient(QdrantGrpcClient.newBuilder(channel(host, port, useTls), true).withTimeout(timeout).build()),
+                collectionName, vectorSize, scoreThreshold, upsertBatchSize, maxInFlightUpserts, asyncUpserts, indexSettings
+        );
+    }
+
+    QdrantGrpcService(
+            QdrantClient client,
+            String collectionName,
+            int vectorSize,
+            double scoreThreshold,
+            int upsertBatchSize,
+            int maxInFlightUpserts,
+            boolean asyncUpserts,
+            QdrantIndexSettings indexSettings
+    ) {
+        super(collectionName, vectorSize, scoreThreshold, upsertBatchSize, maxInFlightUpserts, asyncUpserts, indexSettings);
+        this.client = client;
+    }
+
+    /**
+     * One channel for the life of the application. Keepalive pings notice a dead connection while
+     * it is in use, instead of leaving calls to run into their deadline.
+     */
+    private static ManagedChannel channel(String host, int port, boolean useTls) {
+        ManagedChannelBuilder<?> builder = ManagedChannelBuilder.forAddress(requireNonBlank(host, "qdrant grpc host must not be null or blank"), port)
+                .keepAliveTime(60, TimeUnit.SECONDS);
+        if (useTls) {
+            builder.useTransportSecurity();
+        } else {
+            builder.usePlaintext();
+        }
+        return builder.build();
+    }
+
+    /**
+     * Batches share the channel, so they are multiplexed over one connection rather than taking a thread each.
+     */
+    @Override
+    protected CompletableFuture<Void> upsert(List<ChunkEmbedding> embeddings, boolean wait) {
+        log.debug("Upserting {} embedding(s) into collection {} (wait={})", embeddings.size(), collectionName, wait);
+        ListenableFuture<?> call = client.upsertAsync(UpsertPoints.newBuilder()
+                .setCollectionName(collectionName)
+                .addAllPoints(embeddings.stream().map(QdrantGrpcService::toPoint).toList())
+                .setWait(wait)
+                .build());
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Futures.addCallback(call, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object response) {
+                result.complete(null);
+            }
+
+            @Override
+            public void onFailure(Throwable failure) {
+                log.error("Failed to upsert {} embeddings into Qdrant collection {}", embeddings.size(), collectionName, failure);
+                result.completeExceptionally(failure(failure, "upsert embeddings into Qdrant"));
+            }
+        }, MoreExecutors.directExecutor());
+        result.whenComplete((ignored, failure) -> {
+            if (result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    protected void delete(List<Long> pointIds) {
+        PointsIdsList.Builder ids = PointsIdsList.newBuilder();
+        pointIds.forEach(pointId -> ids.addIds(id(pointId)));
+        await(client.deleteAsync(DeletePoints.newBuilder()
+                .setCollectionName(collectionName)
+                .setPoints(PointsSelector.newBuilder().setPoints(ids))
+                .setWait(true)
+                .build()), "delete points from Qdrant");
+    }
+
+    @Override
+    protected List<SearchResult> search(float[] vector, int topK, String project) {
+        SearchPoints.Builder request = SearchPoints.newBuilder()
+                .setCollectionName(collectionName)
+                .setLimit(topK)
+                .setFilter(Filter.newBuilder().addMust(matchKeyword("project", project)))
+                .setWithPayload(enable(true));
+        if (indexSettings.quantized()) {
+            request.setParams(SearchParams.newBuilder().setQuantization(QuantizationSearchParams.newBuilder()
+                    .setRescore(indexSettings.rescore())
+                    .setOversampling(indexSettings.oversampling())));
+        }
+        for (float component : vector) {
+            request.addVector(component);
+        }
+
+        List<ScoredPoint> points;
+        try {
+            points = await(client.searchAsync(request.build()), "search in Qdrant");
+        } catch (IllegalStateException e) {
+            if (Status.fromThrowable(e).getCode() == Status.Code.NOT_FOUND) {
+                log.debug("Collection {} not found during search; returning empty results", collectionName);
+                return List.of();
+            }
+            log.error("Failed to search in Qdrant collection {}", collectionName, e);
+            throw e;
+        }
+        return points.stream()
+                .map(this::toSearchResult)
+                .flatMap(Optional::stream)
+                .toList();
+    }
+
+    private static PointStruct toPoint(ChunkEmbedding embedding) {
+        Vector.Builder data = Vector.newBuilder();
+        for (float component : embedding.vector()) {
+            data.addData(component);
+        }
+        return PointStruct.newBuilder()
+                .setId(id(embedding.chunkId()))
+                .setVectors(Vectors.newBuilder().setVector(data))
+                .putPayload("chunkId", value(embedding.chunkId()))
+                .putPayload("documentId", value(embedding.documentId()))
+                .putPayload("project", value(embedding.project()))
+                .build();
+    }
+
+    private Optional<SearchResult> toSearchResult(ScoredPoint point) {
+        Map<String, JsonWithInt.Value> payload = point.getPayloadMap();
+        String project = Optional.ofNullable(payload.get("project"))
+                .filter(value -> value.getKindCase() == JsonWithInt.Value.KindCase.STRING_VALUE)
+                .map(JsonWithInt.Value::getStringValue)
+                .orElse(null);
+        return toSearchResult(point.getId().hasNum() ? point.getId().getNum() : null,
+                toLong(payload.get("chunkId")), toLong(payload.get("documentId")), project, point.getScore());
+    }
+
+    private static Long toLong(JsonWithInt.Value value) {
+        if (value == null) {
+            return null;
+        }
+        return switch (value.getKindCase()) {
+            case INTEGER_VALUE -> value.getIntegerValue();
+            case STRING_VALUE -> {
+                try {
+                    yield Long.parseLong(value.getStringValue());
+                } catch (NumberFormatException nfe) {
+                    yield null;
+                }
+            }
+            default -> null;
+        };
+    }
+
+    @Override
+    protected Optional<CollectionState> describeCollection() {
+        if (!await(client.collectionExistsAsync(collectionName), "check collection " + collectionName)) {
+            return Optional.empty();
+        }
+
+        CollectionInfo info = await(client.getCollectionInfoAsync(collectionName), "check collection " + collectionName);
+        CollectionConfig config = info.getConfig();
+        VectorsConfig vectors = config.getParams().getVectorsConfig();
+        Integer shards = config.getParams().getShardNumber() > 0 ? config.getParams().getShardNumber() : null;
+        if (!vectors.hasParams()) {
+            return Optional.of(new CollectionState(null, shards, null));
+        }
+        if (!config.hasHnswConfig() || !config.getHnswConfig().hasM() || !config.getHnswConfig().hasEfConstruct()) {
+            return Optional.of(new CollectionState(vectors.getParams().getSize(), shards, null));
+        }
+        QuantizationConfig quantization = config.getQuantizationConfig();
+        QdrantIndexSettings current = reportedIndexSettings(
+                quantization.hasScalar() ? QdrantIndexSettings.Quantization.SCALAR
+                        : quantization.hasBinary() ? QdrantIndexSettings.Quantization.BINARY
+                        : QdrantIndexSettings.Quantization.NONE,
+                quantization.hasScalar() ? quantization.getScalar().getAlwaysRam() : quantization.getBinary().getAlwaysRam(),
+                vectors.getParams().getOnDisk(),
+                (int) config.getHnswConfig().getM(),
+                (int) config.getHnswConfig().getEfConstruct()
+        );
+        return Optional.of(new CollectionState(vectors.getParams().getSize(), shards, current));
+    }
+
+    @Override
+    protected void createCollection() {
+        CreateCollection.Builder request = CreateCollection.newBuilder()
+                .setCollectionName(collectionName)
+                .setShardNumber(1)
+                .setVectorsConfig(VectorsConfig.newBuilder().setParams(VectorParams.newBuilder()
+                        .setSize(vectorSize)
+                        .setDistance(Distance.Cosine)
+                        .setOnDisk(indexSettings.onDisk())))
+                .setHnswConfig(hnswConfig());
+        if (indexSettings.quantized()) {
+            request.setQuantizationConfig(quantizationConfig());
+        }
+        await(client.createCollectionAsync(request.build()), "create collection " + collectionName);
+    }
+
+    @Override
+    protected void updateCollection() {
+        QuantizationConfigDiff.Builder quantizationDiff = QuantizationConfigDiff.newBuilder();
+        if (indexSettings.quantization() == QdrantIndexSettings.Quantization.SCALAR) {
+            quantizationDiff.setScalar(quantizationConfig().getScalar());
+        } else if (indexSettings.quantization() == QdrantIndexSettings.Quantization.BINARY) {
+            quantizationDiff.setBinary(quantizationConfig().getBinary());
+        } else {
+            quantizationDiff.setDisabled(Disabled.getDefaultInstance());
+        }
+        await(client.updateCollectionAsync(UpdateCollection.newBuilder()
+                .setCollectionName(collectionName)
+                .setVectorsConfig(VectorsConfigDiff.newBuilder().setParams(VectorParamsDiff.newBuilder().setOnDisk(indexSettings.onDisk())))
+                .setHnswConfig(hnswConfig())
+                .setQuantizationConfig(quantizationDiff)
+                .build()), "update collection " + collectionName);
+    }
+
+    private HnswConfigDiff hnswConfig() {
+        return HnswConfigDiff.newBuilder()
+                .setM(indexSettings.hnswM())
+                .setEfConstruct(indexSettings.hnswEfConstruct())
+                .build();
+    }
+
+    private QuantizationConfig quantizationConfig() {
+        return switch (indexSettings.quantization()) {
+            case SCALAR -> QuantizationConfig.newBuilder().setScalar(ScalarQuantization.newBuilder()
+                    .setType(QuantizationType.Int8)
+                    .setAlwaysRam(indexSettings.alwaysRam())).build();
+            case BINARY -> QuantizationConfig.newBuilder().setBinary(BinaryQuantization.newBuilder()
+                    .setAlwaysRam(indexSettings.alwaysRam())).build();
+            case NONE -> QuantizationConfig.getDefaultInstance();
+        };
+    }
+
+    /**
+     * Waits for a call; failures come out as {@link IllegalStateException} caused by the gRPC status exception.
+     */
+    private <T> T await(ListenableFuture<T> future, String action) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while trying to " + action, e);
+        } catch (ExecutionException e) {
+            throw failure(e.getCause(), action);
+        }
+    }
+
+    private IllegalStateException failure(Throwable cause, String action) {
+        Status status = Status.fromThrowable(cause);
+        return new IllegalStateException(String.format("Failed to %s (status %s) in collection %s: %s",
+                action, status.getCode(), collectionName, Optional.ofNullable(status.getDescription()).orElse("<empty>")), cause);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        client.close();
+    }
+}
@@ -1,17 +1,27 @@
 package com.aide.service;
 
+import com.aide.service.dto.ChunkEmbedding;
 import com.aide.service.dto.qdrant.QdrantConstants;
+import com.aide.service.dto.qdrant.QdrantIndexSettings;
+import com.aide.service.dto.qdrant.collection.CollectionInfoResponse;
 import com.aide.service.dto.qdrant.collection.CreateCollectionRequest;
+import com.aide.service.dto.qdrant.collection.HnswConfig;
+import com.aide.service.dto.qdrant.collection.QuantizationConfig;
+import com.aide.service.dto.qdrant.collection.UpdateCollectionRequest;
 import com.aide.service.dto.qdrant.collection.VectorsConfig;
+import com.aide.service.dto.qdrant.embedding.DeletePointsRequest;
 import com.aide.service.dto.qdrant.embedding.PointStruct;
 import com.aide.service.dto.qdrant.embedding.QdrantPayload;
 import com.aide.service.dto.qdrant.embedding.UpsertPointsRequest;
 import com.aide.service.dto.qdrant.search.*;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestClientResponseException;
@@ -19,81 +29,95 @@ import org.springframework.web.client.RestTemplate;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * {@link VectorStore} on Qdrant's REST API, JSON over {@code qdrantRestTemplate}.
+ */
 @Service
 @Slf4j
-public class QdrantService {
+@ConditionalOnProperty(name = "qdrant.transport", havingValue = "rest", matchIfMissing = true)
+public class QdrantService extends QdrantVectorStore {
 
     private static final Logger log = LoggerFactory.getLogger(QdrantService.class);
 
     private final RestTemplate restTemplate;
-    private final String collectionName;
     private final String collectionUrl;
     private final String pointsUrl;
-    private final AtomicBoolean collectionEnsured = new AtomicBoolean(false);
-    private final double scoreThreshold;
+    private final ExecutorService upsertExecutor;
 
     @Autowired
     public QdrantService(
-            RestTemplate restTemplate,
+            @Qualifier("qdrantRestTemplate") RestTemplate restTemplate,
             @Value("${qdrant.url:http://localhost:6333}") String baseUrl,
             @Value("${qdrant.collection:aide}") String collectionName,
-            @Value("${app.search.score-threshold:0.65}") double scoreThreshold
+            @Value("${gemini.embeddings.dimensions:3072}") int vectorSize,
+            @Value("${app.search.score-threshold:0.65}") double scoreThreshold,
+            @Value("${qdrant.upsert.batch-size:256}") int upsertBatchSize,
+            @Value("${qdrant.upsert.max-in-flight:4}") int maxInFlightUpserts,
+            @Value("${qdrant.upsert.async:true}") boolean asyncUpserts,
+            QdrantIndexSettings indexSettings
     ) {
+        super(collectionName, vectorSize, scoreThreshold, upsertBatchSize, maxInFlightUpserts, asyncUpserts, indexSettings);
         this.restTemplate = restTemplate;
         String normalizedBaseUrl = trimTrailingSlash(requireNonBlank(baseUrl, "qdrant base url must not be null or blank"));
-        this.collectionName = requireNonBlank(collectionName, "collectionName must not be null or blank");
         this.collectionUrl = normalizedBaseUrl + "/collections/" + this.collectionName;
         this.pointsUrl = this.collectionUrl + "/points";
-        this.scoreThreshold = scoreThreshold;
+        this.upsertExecutor = Executors.newFixedThreadPool(
+                maxInFlightUpserts,
+                Thread.ofPlatform().name("qdrant-upsert-", 0).daemon(true).factory()
+        );
     }
 
-    public void storeEmbedding(Long chunkId, Long documentId, String project, List<Float> vector) {
-        String normalizedProject = normalizeProject(project);
-        validatePayload(chunkId, documentId, normalizedProject, vector);
-        ensureCollectionExists();
-
-        PointStruct point = new PointStruct(chunkId, vector, new QdrantPayload(chunkId, documentId, normalizedProject));
-        UpsertPointsRequest request = new UpsertPointsRequest(List.of(point));
+    @Override
+    protected CompletableFuture<Void> upsert(List<ChunkEmbedding> embeddings, boolean wait) {
+        List<PointStruct> points = embeddings.stream()
+                .map(embedding -> new PointStruct(embedding.chunkId(), embedding.vector(),
+                        new QdrantPayload(embedding.chunkId(), embedding.documentId(), embedding.project())))
+                .toList();
+        return CompletableFuture.runAsync(() -> upsertPoints(points, wait), upsertExecutor);
+    }
 
+    private void upsertPoints(List<PointStruct> points, boolean wait) {
+        String url = pointsUrl + "?wait=" + wait;
         try {
-            log.debug("Upserting {} embedding(s) into collection {} with vector length {}", request.points().size(), collectionName, vector.size());
-            restTemplate.put(pointsUrl, request);
+            log.debug("Upserting {} embedding(s) into collection {} (wait={})", points.size(), collectionName, wait);
+            restTemplate.put(url, new UpsertPointsRequest(points));
         } catch (RestClientResponseException e) {
-            log.error("Failed to upsert embedding into Qdrant collection {}", collectionName, e);
-            throw new IllegalStateException(buildError("PUT", pointsUrl, e, "upsert embedding into Qdrant"), e);
+            log.error("Failed to upsert {} embeddings into Qdrant collection {}", points.size(), collectionName, e);
+            throw new IllegalStateException(buildError("PUT", url, e, "upsert embeddings into Qdrant"), e);
         }
     }
 
-    public List<SearchResult> searchSimilar(List<Float> vector, int topK, String project) {
-        if (topK <= 0) {
-            log.error("topK must be positive, but was {}", topK);
-            throw new IllegalArgumentException("topK must be positive");
+    @Override
+    protected void delete(List<Long> pointIds) {
+        String url = pointsUrl + "/delete?wait=true";
+        try {
+            restTemplate.postForObject(url, new DeletePointsRequest(pointIds), Object.class);
+        } catch (RestClientResponseException e) {
+            log.error("Failed to delete {} points from Qdrant collection {}", pointIds.size(), collectionName, e);
+            throw new IllegalStateException(buildError("POST", url, e, "delete points from Qdrant"), e);
         }
-        validateVector(vector);
-        String normalizedProject = normalizeProject(project);
-        ensureCollectionExists();
+    }
 
-        QdrantCondition condition = new QdrantCondition("project", new QdrantMatch(normalizedProject));
-        SearchRequest request = new SearchRequest(vector, topK, true, new QdrantFilter(List.of(condition)));
+    @Override
+    protected List<SearchResult> search(float[] vector, int topK, String project) {
+        QdrantCondition condition = new QdrantCondition("project", new QdrantMatch(project));
+        SearchRequest request = new SearchRequest(vector, topK, true, new QdrantFilter(List.of(condition)), searchParams());
 
-        long start = System.currentTimeMillis();
         try {
             SearchResponse response = restTemplate.postForObject(pointsUrl + "/search", request, SearchResponse.class);
-            List<ScoredPoint> points = Optional.ofNullable(response)
+            return Optional.ofNullable(response)
                     .map(SearchResponse::result)
-                    .orElse(Collections.emptyList());
-
-            List<SearchResult> results = points.stream()
-                    .filter(scoredPoint -> scoredPoint.score() > scoreThreshold)
+                    .orElse(Collections.emptyList())
+                    .stream()
                     .map(this::toSearchResult)
                     .flatMap(Optional::stream)
                     .toList();
-
-            log.debug("Search in collection {} returned {} results in {} ms", collectionName, results.size(), System.currentTimeMillis() - start);
-            return results;
         } catch (HttpClientErrorException.NotFound notFound) {
             log.debug("Collection {} not found during search; returning empty results", collectionName);
             return Collections.emptyList();
@@ -109,23 +133,7 @@ public class QdrantService {
             log.debug("Skipping search result because payload is null (id={})", point.id());
             return Optional.empty();
         }
-
-        Long chunkId = payload.chunkId();
-        if (chunkId == null) {
-            chunkId = toLong(point.id());
-        }
-        Long documentId = payload.documentId();
-        String project = Optional.ofNullable(payload.project())
-                .map(String::trim)
-                .filter(value -> !value.isEmpty())
-                .orElse(null);
-
-        if (chunkId == null || documentId == null || project == null) {
-            log.debug("Skipping search result because required payload is missing (id={}, payload={})", point.id(), payload);
-            return Optional.empty();
-        }
-
-        return Optional.of(new SearchResult(chunkId, documentId, project, point.score()));
+        return toSearchResult(toLong(point.id()), payload.chunkId(), payload.documentId(), payload.project(), point.score());
     }
 
     private Long toLong(Object value) {
@@ -142,72 +150,96 @@ public class QdrantService {
         return null;
     }
 
-    private void ensureCollectionExists() {
-        if (collectionEnsured.get()) {
-            return;
+    @Override
+    protected Optional<CollectionState> describeCollection() {
+        CollectionInfoResponse info;
+        try {
+            info = restTemplate.getForObject(collectionUrl, CollectionInfoResponse.class);
+        } catch (HttpClientErrorException.NotFound notFound) {
+            return Optional.empty();
+        } catch (RestClientResponseException e) {
+            log.error("Failed to check Qdrant collection {}", collectionName, e);
+            throw new IllegalStateException(buildError("GET", collectionUrl, e, "check collection " + collectionName), e);
         }
 
-        synchronized (collectionEnsured) {
-            if (collectionEnsured.get()) {
-                return;
-            }
-
-            verifyOrCreateCollection();
-            collectionEnsured.set(true);
+        Optional<CollectionInfoResponse.Config> config = Optional.ofNullable(info)
+                .map(CollectionInfoResponse::result)
+                .map(CollectionInfoResponse.Result::config);
+        Optional<CollectionInfoResponse.Params> params = config.map(CollectionInfoResponse.Config::params);
+        Optional<VectorsConfig> vectors = params.map(CollectionInfoResponse.Params::vectors);
+        Long size = vectors.map(VectorsConfig::size).map(Integer::longValue).orElse(null);
+        Integer shards = params.map(CollectionInfoResponse.Params::shardNumber).orElse(null);
+        HnswConfig hnsw = config.map(CollectionInfoResponse.Config::hnswConfig).orElse(null);
+        if (hnsw == null || hnsw.m() == null || hnsw.efConstruct() == null) {
+            return Optional.of(new CollectionState(size, shards, null));
         }
+        QuantizationConfig.Scalar scalar = config.map(CollectionInfoResponse.Config::quantizationConfig).map(QuantizationConfig::scalar).orElse(null);
+        QuantizationConfig.Binary binary = config.map(CollectionInfoResponse.Config::quantizationConfig).map(QuantizationConfig::binary).orElse(null);
+        QdrantIndexSettings current = reportedIndexSettings(
+                scalar != null ? QdrantIndexSettings.Quantization.SCALAR
+                        : binary != null ? QdrantIndexSettings.Quantization.BINARY
+                        : QdrantIndexSettings.Quantization.NONE,
+                Boolean.TRUE.equals(scalar != null ? scalar.alwaysRam() : binary != null ? binary.alwaysRam() : null),
+                vectors.map(VectorsConfig::onDisk).orElse(false),
+                hnsw.m(),
+                hnsw.efConstruct()
+        );
+        return Optional.of(new CollectionState(size, shards, current));
     }
 
-    private void verifyOrCreateCollection() {
+    @Override
+    protected void createCollection() {
+        CreateCollectionRequest request = new CreateCollectionRequest(
+                new VectorsConfig(vectorSize, QdrantConstants.DISTANCE_COSINE, indexSettings.onDisk()),
+                1,
+                new HnswConfig(indexSettings.hnswM(), indexSettings.hnswEfConstruct()),
+                quantizationConfig()
+        );
         try {
-            restTemplate.getForObject(collectionUrl, Object.class);
-        } catch (HttpClientErrorException.NotFound notFound) {
-            CreateCollectionRequest request = new CreateCollectionRequest(
-                    new VectorsConfig(QdrantConstants.VECTOR_SIZE, QdrantConstants.DISTANCE_COSINE)
-            );
-            try {
-                restTemplate.put(collectionUrl, request);
-                log.debug("Created Qdrant collection {}", collectionName);
-            } catch (RestClientResponseException createError) {
-                log.error("Failed to create Qdrant collection {}", collectionName, createError);
-                throw new IllegalStateException(buildError("PUT", collectionUrl, createError, "create collection " + collectionName), createError);
-            }
+            restTemplate.put(collectionUrl, request);
         } catch (RestClientResponseException e) {
-            log.error("Failed to check Qdrant collection {}", collectionName, e);
-            throw new IllegalStateException(buildError("HEAD", collectionUrl, e, "check collection " + collectionName), e);
+            log.error("Failed to create Qdrant collection {}", collectionName, e);
+            throw new IllegalStateException(buildError("PUT", collectionUrl, e, "create collection " + collectionName), e);
         }
     }
 
-    private void validatePayload(Long chunkId, Long documentId, String project, List<Float> vector) {
-        if (chunkId == null) {
-            throw new IllegalArgumentException("chunkId must not be null");
-        }
-        if (documentId == null) {
-            throw new IllegalArgumentException("documentId must not be null");
-        }
-        if (project == null || project.isBlank()) {
-            throw new IllegalArgumentException("project must not be null or blank");
+    @Override
+    protected void updateCollection() {
+        UpdateCollectionRequest request = new UpdateCollectionRequest(
+                Map.of("", new UpdateCollectionRequest.VectorParamsDiff(indexSettings.onDisk())),
+                new HnswConfig(indexSettings.hnswM(), indexSettings.hnswEfConstruct()),
+                indexSettings.quantized() ? quantizationConfig() : UpdateCollectionRequest.QUANTIZATION_DISABLED
+        );
+        try {
+            restTemplate.patchForObject(collectionUrl, request, Object.class);
+        } catch (RestClientResponseException e) {
+            log.error("Failed to update index settings of Qdrant collection {}", collectionName, e);
+            throw new IllegalStateException(buildError("PATCH", collectionUrl, e, "update collection " + collectionName), e);
         }
-        validateVector(vector);
     }
 
-    private void validateVector(List<Float> vector) {
-        if (vector == null || vector.isEmpty()) {
-            throw new IllegalArgumentException("vector must not be null or empty");
-        }
-        if (vector.size() != QdrantConstants.VECTOR_SIZE) {
-            throw new IllegalArgumentException("vector must have size " + QdrantConstants.VECTOR_SIZE);
-        }
+    private QuantizationConfig quantizationConfig() {
+        return switch (indexSettings.quantization()) {
+            case NONE -> null;
+            case SCALAR -> new QuantizationConfig(new QuantizationConfig.Scalar(QuantizationConfig.INT8, indexSettings.alwaysRam()), null);
+            case BINARY -> new QuantizationConfig(null, new QuantizationConfig.Binary(indexSettings.alwaysRam()));
+        };
     }
 
-    private String normalizeProject(String project) {
-        if (project == null) {
-            throw new IllegalArgumentException("project must not be null or blank");
+    /**
+     * Quantized collections are searched on the quantized vectors; the best {@code limit * oversampling}
+     * candidates are then rescored with the originals, which keeps recall close to unquantized search.
+     */
+    private SearchParams searchParams() {
+        if (!indexSettings.quantized()) {
+            return null;
         }
-        String trimmed = project.trim();
-        if (trimmed.isEmpty()) {
-            throw new IllegalArgumentException("project must not be null or blank");
-        }
-        return trimmed;
+        return new SearchParams(new SearchParams.Quantization(indexSettings.rescore(), indexSettings.oversampling()));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        upsertExecutor.shutdown();
     }
 
     private String buildError(String method, String url, RestClientResponseException e, String action) {
@@ -233,11 +265,4 @@ public class QdrantService {
         }
         return url;
     }
-
-    private String requireNonBlank(String value, String message) {
-        if (value == null || value.isBlank()) {
-            throw new IllegalArgumentException(message);
-        }
-        return value.trim();
-    }
 }
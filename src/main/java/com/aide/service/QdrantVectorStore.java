@@ -0,0 +1,320 @@
+package com.aide.service;
+
+import com.aide.service.dto.ChunkEmbedding;
+import com.aide.service.dto.qdrant.QdrantIndexSettings;
+import com.aide.service.dto.qdrant.search.SearchResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * What the Qdrant transports have in common: validation, batching, the consistency barrier, the collection
+ * checks and the score threshold. Subclasses only put requests on the wire and read the answers.
+ */
+@Slf4j
+abstract class QdrantVectorStore implements VectorStore {
+
+    protected final String collectionName;
+    protected final int vectorSize;
+    protected final QdrantIndexSettings indexSettings;
+    private final double scoreThreshold;
+    private final int upsertBatchSize;
+    private final int maxInFlightUpserts;
+    private final boolean asyncUpserts;
+    private final AtomicBoolean collectionEnsured = new AtomicBoolean(false);
+    private volatile boolean sharded;
+
+    protected QdrantVectorStore(
+            String collectionName,
+            int vectorSize,
+            double scoreThreshold,
+            int upsertBatchSize,
+            int maxInFlightUpserts,
+            boolean asyncUpserts,
+            QdrantIndexSettings indexSettings
+    ) {
+        this.collectionName = requireNonBlank(collectionName, "collectionName must not be null or blank");
+        if (vectorSize <= 0) {
+            throw new IllegalArgumentException("vector size must be positive");
+        }
+        this.vectorSize = vectorSize;
+        this.scoreThreshold = scoreThreshold;
+        if (upsertBatchSize <= 0 || maxInFlightUpserts <= 0) {
+            throw new IllegalArgumentException("qdrant upsert batch size and max in-flight requests must be positive");
+        }
+        this.upsertBatchSize = upsertBatchSize;
+        this.maxInFlightUpserts = maxInFlightUpserts;
+        this.asyncUpserts = asyncUpserts;
+        this.indexSettings = indexSettings;
+    }
+
+    /**
+     * Collection parameters as Qdrant reports them; a field is null when Qdrant did not report it.
+     */
+    protected record CollectionState(Long vectorSize, Integer shardNumber, QdrantIndexSettings indexSettings) {
+    }
+
+    /**
+     * Sends one upsert request; the future fails with an {@link IllegalStateException} describing the failure.
+     */
+    protected abstract CompletableFuture<Void> upsert(List<ChunkEmbedding> embeddings, boolean wait);
+
+    /**
+     * Deletes the points and waits until they are gone.
+     */
+    protected abstract void delete(List<Long> pointIds);
+
+    /**
+     * Nearest points of the project, before the score threshold; empty when the collection does not exist.
+     */
+    protected abstract List<SearchResult> search(float[] vector, int topK, String project);
+
+    /**
+     * The existing collection, or empty when there is none.
+     */
+    protected abstract Optional<CollectionState> describeCollection();
+
+    protected abstract void createCollection();
+
+    protected abstract void updateCollection();
+
+    @Override
+    public void storeEmbedding(Long chunkId, Long documentId, String project, float[] vector) {
+        ChunkEmbedding embedding = validated(new ChunkEmbedding(chunkId, documentId, project, vector));
+        ensureCollectionExists();
+        join(upsert(List.of(embedding), true));
+    }
+
+    /**
+     * Stores embeddings in batches of {@code qdrant.upsert.batch-size}, keeping up to
+     * {@code qdrant.upsert.max-in-flight} batches in flight. With {@code qdrant.upsert.async}
+     * the batches are sent with {@code wait=false}, so Qdrant only acknowledges them; pass
+     * {@code awaitApplied} to follow them with a consistency barrier (see {@link #awaitApplied}).
+     * On a collection with several shards the barrier does not hold, so every batch waits instead.
+     */
+    @Override
+    public void storeEmbeddings(List<ChunkEmbedding> embeddings, boolean awaitApplied) {
+        if (embeddings == null || embeddings.isEmpty()) {
+            return;
+        }
+        List<ChunkEmbedding> points = new ArrayList<>(embeddings.size());
+        for (ChunkEmbedding embedding : embeddings) {
+            points.add(validated(embedding));
+        }
+        ensureCollectionExists();
+
+        boolean wait = !asyncUpserts || sharded;
+        Deque<CompletableFuture<Void>> inFlight = new ArrayDeque<>();
+        try {
+            for (int from = 0; from < points.size(); from += upsertBatchSize) {
+                if (inFlight.size() == maxInFlightUpserts) {
+                    join(inFlight.removeFirst());
+                }
+                inFlight.addLast(upsert(points.subList(from, Math.min(from + upsertBatchSize, points.size())), wait));
+            }
+            while (!inFlight.isEmpty()) {
+                join(inFlight.removeFirst());
+            }
+        } catch (RuntimeException e) {
+            inFlight.forEach(future -> future.cancel(true));
+            throw e;
+        }
+
+        if (awaitApplied && !wait) {
+            awaitApplied(points.get(points.size() - 1));
+        }
+    }
+
+    /**
+     * Consistency barrier for {@code wait=false} upserts: re-upserts one already stored point
+     * with {@code wait=true}. Qdrant applies the updates of a shard in order, so this returns
+     * only after every earlier acknowledged upsert is searchable, provided the collection has a
+     * single shard: across shards nothing orders the anchor after the other points. Collections
+     * created here get one shard; {@link #storeEmbeddings} stops relying on the barrier when an
+     * existing collection has more.
+     */
+    @Override
+    public void awaitApplied(ChunkEmbedding anchor) {
+        ChunkEmbedding embedding = validated(anchor);
+        ensureCollectionExists();
+        join(upsert(List.of(embedding), true));
+    }
+
+    /**
+     * Deletes points by id in batches of {@code qdrant.upsert.batch-size} and waits until they are gone.
+     */
+    @Override
+    public void deletePoints(List<Long> pointIds) {
+        if (pointIds == null || pointIds.isEmpty()) {
+            return;
+        }
+        ensureCollectionExists();
+        for (int from = 0; from < pointIds.size(); from += upsertBatchSize) {
+            List<Long> batch = pointIds.subList(from, Math.min(from + upsertBatchSize, pointIds.size()));
+            log.debug("Deleting {} point(s) from collection {}", batch.size(), collectionName);
+            delete(batch);
+        }
+    }
+
+    @Override
+    public List<SearchResult> searchSimilar(float[] vector, int topK, String project) {
+        if (topK <= 0) {
+            log.error("topK must be positive, but was {}", topK);
+            throw new IllegalArgumentException("topK must be positive");
+        }
+        validateVector(vector);
+        String normalizedProject = normalizeProject(project);
+        ensureCollectionExists();
+
+        long start = System.currentTimeMillis();
+        List<SearchResult> results = search(vector, topK, normalizedProject).stream()
+                .filter(result -> result.score() > scoreThreshold)
+                .toList();
+        log.debug("Search in collection {} returned {} results in {} ms", collectionName, results.size(), System.currentTimeMillis() - start);
+        return results;
+    }
+
+    /**
+     * A search hit from the point id and its payload; the chunk id falls back to the point id.
+     * Empty when the payload lacks the document or project.
+     */
+    protected Optional<SearchResult> toSearchResult(Long pointId, Long chunkId, Long documentId, String project, double score) {
+        Long resolvedChunkId = chunkId != null ? chunkId : pointId;
+        String trimmedProject = Optional.ofNullable(project)
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .orElse(null);
+        if (resolvedChunkId == null || documentId == null || trimmedProject == null) {
+            log.debug("Skipping search result because required payload is missing (id={}, chunkId={}, documentId={}, project={})",
+                    pointId, chunkId, documentId, project);
+            return Optional.empty();
+        }
+        return Optional.of(new SearchResult(resolvedChunkId, documentId, trimmedProject, score));
+    }
+
+    /**
+     * Index settings of an existing collection, with the configured search parameters.
+     */
+    protected QdrantIndexSettings reportedIndexSettings(
+            QdrantIndexSettings.Quantization quantization,
+            boolean alwaysRam,
+            boolean onDisk,
+            int hnswM,
+            int hnswEfConstruct
+    ) {
+        return new QdrantIndexSettings(quantization, alwaysRam, onDisk, hnswM, hnswEfConstruct,
+                indexSettings.oversampling(), indexSettings.rescore());
+    }
+
+    private void ensureCollectionExists() {
+        if (collectionEnsured.get()) {
+            return;
+        }
+
+        synchronized (collectionEnsured) {
+            if (collectionEnsured.get()) {
+                return;
+            }
+
+            verifyOrCreateCollection();
+            collectionEnsured.set(true);
+        }
+    }
+
+    /**
+     * Creates the collection for {@code gemini.embeddings.dimensions}-sized vectors, or checks that the
+     * existing one was created for the same size. Vectors of another size cannot be mixed into it:
+     * after changing the dimensions, point {@code qdrant.collection} at a new collection and re-ingest.
+     * Either way the collection gets the configured {@link QdrantIndexSettings}: an existing collection is
+     * updated in place, and Qdrant keeps serving searches from the old segments while it re-quantizes,
+     * moves vectors and rebuilds the HNSW graph in the background.
+     */
+    private void verifyOrCreateCollection() {
+        Optional<CollectionState> existing = describeCollection();
+        if (existing.isEmpty()) {
+            createCollection();
+            log.debug("Created Qdrant collection {}", collectionName);
+            return;
+        }
+
+        CollectionState state = existing.get();
+        if (state.vectorSize() == null) {
+            log.debug("Qdrant did not report the vector parameters of collection {}", collectionName);
+        } else if (state.vectorSize() != vectorSize) {
+            log.error("Qdrant collection {} holds vectors of size {}, but embeddings have {} dimensions", collectionName, state.vectorSize(), vectorSize);
+            throw new IllegalStateException(String.format(
+                    "Qdrant collection %s holds vectors of size %d, but gemini.embeddings.dimensions is %d; "
+                            + "configure a new qdrant.collection for this size and re-ingest the documents",
+                    collectionName, state.vectorSize(), vectorSize));
+        }
+
+        if (state.shardNumber() != null && state.shardNumber() > 1) {
+            log.warn("Qdrant collection {} has {} shards; upserts will wait until they are applied", collectionName, state.shardNumber());
+            sharded = true;
+        }
+
+        if (state.indexSettings() == null) {
+            log.debug("Qdrant did not report the index settings of collection {}", collectionName);
+            return;
+        }
+        if (!indexSettings.sameIndexAs(state.indexSettings())) {
+            log.info("Updating index settings of Qdrant collection {} from {} to {}", collectionName, state.indexSettings(), indexSettings);
+            updateCollection();
+        }
+    }
+
+    private ChunkEmbedding validated(ChunkEmbedding embedding) {
+        String normalizedProject = normalizeProject(embedding.project());
+        if (embedding.chunkId() == null) {
+            throw new IllegalArgumentException("chunkId must not be null");
+        }
+        if (embedding.documentId() == null) {
+            throw new IllegalArgumentException("documentId must not be null");
+        }
+        validateVector(embedding.vector());
+        return normalizedProject.equals(embedding.project())
+                ? embedding
+                : new ChunkEmbedding(embedding.chunkId(), embedding.documentId(), normalizedProject, embedding.vector());
+    }
+
+    private void validateVector(float[] vector) {
+        if (vector == null || vector.length == 0) {
+            throw new IllegalArgumentException("vector must not be null or empty");
+        }
+        if (vector.length != vectorSize) {
+            throw new IllegalArgumentException("vector must have size " + vectorSize);
+        }
+    }
+
+    private String normalizeProject(String project) {
+        if (project == null || project.isBlank()) {
+            throw new IllegalArgumentException("project must not be null or blank");
+        }
+        return project.trim();
+    }
+
+    private static void join(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException("Failed to upsert embeddings into Qdrant", e.getCause());
+        }
+    }
+
+    static String requireNonBlank(String value, String message) {
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException(message);
+        }
+        return value.trim();
+    }
+}
@@ -0,0 +1,170 @@
+package com.aide.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-batches query embeddings: texts arriving within {@code window} of the first one, up to
+ * {@code max-size}, are sent to Gemini in one batch request, and every caller gets its own vector.
+ * Under concurrent search load this trades at most one window of latency for far fewer requests.
+ * A window of zero or a batch size of one embeds every query on its own.
+ */
+@Service
+@Slf4j
+public class QueryEmbeddingBatcher {
+
+    private final EmbeddingService embeddingService;
+    private final Duration window;
+    private final int maxBatchSize;
+    private final DistributionSummary batchSizes;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread gatherer;
+    private final ExecutorService senders;
+    private volatile boolean shutdown;
+
+    @Autowired
+    public QueryEmbeddingBatcher(
+            EmbeddingService embeddingService,
+            MeterRegistry meterRegistry,
+            @Value("${app.search.embedding-batch.window:5ms}") Duration window,
+            @Value("${app.search.embedding-batch.max-size:32}") int maxBatchSize,
+            @Value("${app.search.embedding-batch.concurrency:4}") int concurrency
+    ) {
+        if (window.isNegative() || maxBatchSize <= 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("query embedding batch window must not be negative, batch size and concurrency must be positive");
+        }
+        this.embeddingService = embeddingService;
+        this.window = window;
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizes = DistributionSummary.builder("aide.query.embedding.batch.size")
+                .description("Queries embedded per Gemini request")
+                .register(meterRegistry);
+        if (isBatching()) {
+            this.senders = Executors.newFixedThreadPool(
+                    concurrency,
+                    Thread.ofPlatform().name("query-embed-", 0).daemon(true).factory()
+            );
+            this.gatherer = Thread.ofPlatform().name("query-embed-batcher").daemon(true).start(this::gather);
+        } else {
+            this.senders = null;
+            this.gatherer = null;
+        }
+    }
+
+    public float[] embed(String text) {
+        if (!isBatching()) {
+            batchSizes.record(1);
+            return embeddingService.embed(text);
+        }
+        if (text == null || text.isBlank()) {
+            throw new IllegalArgumentException("Text must not be null or blank");
+        }
+        Request request = new Request(text, new CompletableFuture<>());
+        queue.add(request);
+        if (shutdown) {
+            // the gatherer may have stopped before seeing the request
+            request.result().completeExceptionally(new IllegalStateException("Query embedding batcher is shut down"));
+        }
+        try {
+            return request.result().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private boolean isBatching() {
+        return !window.isZero() && maxBatchSize > 1;
+    }
+
+    /**
+     * Collects the next batch: waits for a first request, then for more until the window since it
+     * closes or the batch is full, and hands the batch to a sender.
+     */
+    private void gather() {
+        while (!shutdown) {
+            List<Request> batch = new ArrayList<>(maxBatchSize);
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + window.toNanos();
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Request next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                fail(batch, new IllegalStateException("Query embedding batcher is shut down"));
+                return;
+            }
+            try {
+                senders.execute(() -> send(batch));
+            } catch (RejectedExecutionException e) {
+                fail(batch, new IllegalStateException("Query embedding batcher is shut down", e));
+            }
+        }
+    }
+
+    /**
+     * A query Gemini rejects fails on its own: the batch is bisected down to it and the other
+     * queries still get their vectors.
+     */
+    private void send(List<Request> batch) {
+        batchSizes.record(batch.size());
+        List<float[]> vectors;
+        try {
+            vectors = embeddingService.embedBatch(batch.stream().map(Request::text).toList(), GeminiClient.Lane.INTERACTIVE,
+                    (rejection, index) -> batch.get(index).result().completeExceptionally(rejection));
+        } catch (RuntimeException e) {
+            fail(batch, e);
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            if (vectors.get(i) != null) {
+                batch.get(i).result().complete(vectors.get(i));
+            }
+        }
+    }
+
+    private static void fail(List<Request> batch, RuntimeException e) {
+        batch.forEach(request -> request.result().completeExceptionally(e));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        shutdown = true;
+        if (gatherer == null) {
+            return;
+        }
+        gatherer.interrupt();
+        senders.shutdown();
+        List<Request> pending = new ArrayList<>();
+        queue.drainTo(pending);
+        fail(pending, new IllegalStateException("Query embedding batcher is shut down"));
+    }
+
+    private record Request(String text, CompletableFuture<float[]> result) {
+    }
+}
@@ -0,0 +1,183 @@
+package com.aide.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory LRU cache of search query embeddings, keyed by embedding model and whitespace-normalized
+ * query. Search traffic repeats the same questions a lot, and a hit skips the Gemini round trip.
+ * Entries expire {@code ttl} after they were embedded and are evicted least recently used first once
+ * the cache holds {@code max-entries} queries or its estimated size exceeds {@code max-bytes}.
+ * Concurrent misses for the same query share one Gemini request.
+ */
+@Service
+@Slf4j
+public class QueryEmbeddingCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    // object headers, the map node, the key record and the entry, roughly
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private final QueryEmbeddingBatcher queryEmbeddingBatcher;
+    private final String model;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final Duration ttl;
+    private final Clock clock;
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final SingleFlight<Key, float[]> inFlight = new SingleFlight<>("query embedding");
+
+    // access-ordered: iteration starts at the least recently used query
+    private final LinkedHashMap<Key, Entry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    @Autowired
+    public QueryEmbeddingCache(
+            QueryEmbeddingBatcher queryEmbeddingBatcher,
+            MeterRegistry meterRegistry,
+            @Value("${gemini.embeddings.model}") String model,
+            @Value("${app.search.query-cache.max-entries:10000}") int maxEntries,
+            @Value("${app.search.query-cache.max-bytes:67108864}") long maxBytes,
+            @Value("${app.search.query-cache.ttl:PT1H}") Duration ttl
+    ) {
+        this(queryEmbeddingBatcher, meterRegistry, model, maxEntries, maxBytes, ttl, Clock.systemUTC());
+    }
+
+    QueryEmbeddingCache(
+            QueryEmbeddingBatcher queryEmbeddingBatcher,
+            MeterRegistry meterRegistry,
+            String model,
+            int maxEntries,
+            long maxBytes,
+            Duration ttl,
+            Clock clock
+    ) {
+        if (maxEntries < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("query cache limits must not be negative");
+        }
+        if (ttl.isNegative()) {
+            throw new IllegalArgumentException("query cache ttl must not be negative");
+        }
+        this.queryEmbeddingBatcher = queryEmbeddingBatcher;
+        this.model = model;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+        this.clock = clock;
+        this.hitCounter = Counter.builder("aide.query.embedding.cache.requests")
+                .tag("result", "hit")
+                .description("Query embeddings served from the in-memory cache")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("aide.query.embedding.cache.requests")
+                .tag("result", "miss")
+                .description("Query embeddings that had to be computed by Gemini")
+                .register(meterRegistry);
+        Gauge.builder("aide.query.embedding.cache.size", this, QueryEmbeddingCache::size)
+                .description("Queries held in the query embedding cache")
+                .register(meterRegistry);
+        Gauge.builder("aide.query.embedding.cache.bytes", this, QueryEmbeddingCache::bytes)
+                .description("Estimated memory used by the query embedding cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Embedding of the query, from the cache when the same query was embedded recently. Queries that
+     * only differ in whitespace share an entry; the normalized query is what gets embedded. Every
+     * caller gets its own copy of the vector, so changing it does not touch the cached one.
+     */
+    public float[] embed(String query) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Text must not be null or blank");
+        }
+        Key key = new Key(model, WHITESPACE.matcher(query.strip()).replaceAll(" "));
+        float[] cached = get(key);
+        if (cached != null) {
+            hitCounter.increment();
+            return cached.clone();
+        }
+        missCounter.increment();
+        // concurrent misses for the query get the same array, and it is the one being cached
+        return inFlight.run(key, () -> {
+            float[] embedding = queryEmbeddingBatcher.embed(key.query());
+            put(key, embedding);
+            return embedding;
+        }).clone();
+    }
+
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    long bytes() {
+        synchronized (cache) {
+            return cachedBytes;
+        }
+    }
+
+    private float[] get(Key key) {
+        synchronized (cache) {
+            Entry entry = cache.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(clock.millis())) {
+                remove(key);
+                return null;
+            }
+            return entry.vector();
+        }
+    }
+
+    private void put(Key key, float[] vector) {
+        Entry entry = new Entry(vector, clock.millis() + ttl.toMillis(), estimateBytes(key, vector));
+        if (maxEntries == 0 || entry.bytes() > maxBytes) {
+            return;
+        }
+        synchronized (cache) {
+            Entry previous = cache.put(key, entry);
+            cachedBytes += entry.bytes() - (previous == null ? 0 : previous.bytes());
+            Iterator<Entry> eldest = cache.values().iterator();
+            while ((cache.size() > maxEntries || cachedBytes > maxBytes) && eldest.hasNext()) {
+                cachedBytes -= eldest.next().bytes();
+                eldest.remove();
+            }
+        }
+        log.debug("Cached the embedding of a {}-character query", key.query().length());
+    }
+
+    private void remove(Key key) {
+        Entry removed = cache.remove(key);
+        if (removed != null) {
+            cachedBytes -= removed.bytes();
+        }
+    }
+
+    private static int estimateBytes(Key key, float[] vector) {
+        return ENTRY_OVERHEAD_BYTES + key.query().length() * Character.BYTES + vector.length * Float.BYTES;
+    }
+
+    private record Key(String model, String query) {
+    }
+
+    private record Entry(float[] vector, long expiresAt, int bytes) {
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -11,6 +11,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -19,24 +21,28 @@ import java.util.stream.Collectors;
 @Service
 public class SearchService {
 
-    private final EmbeddingService embeddingService;
-    private final QdrantService qdrantService;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final VectorStore vectorStore;
     private final DocumentChunkRepository documentChunkRepository;
     private final DocumentRepository documentRepository;
+    private final DocumentTextService documentTextService;
     private final int searchLimit;
+    private final SingleFlight<SearchKey, List<SearchResult>> searches = new SingleFlight<>("Qdrant search");
 
     @Autowired
     public SearchService(
-            EmbeddingService embeddingService,
-            QdrantService qdrantService,
+            QueryEmbeddingCache queryEmbeddingCache,
+            VectorStore vectorStore,
             DocumentChunkRepository documentChunkRepository,
             DocumentRepository documentRepository,
+            DocumentTextService documentTextService,
             @Value("${app.search.default-limit:5}") int searchLimit
     ) {
-        this.embeddingService = embeddingService;
-        this.qdrantService = qdrantService;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.vectorStore = vectorStore;
         this.documentChunkRepository = documentChunkRepository;
         this.documentRepository = documentRepository;
+        this.documentTextService = documentTextService;
         this.searchLimit = searchLimit;
     }
 
@@ -45,45 +51,90 @@ public class SearchService {
         String normalizedQuery = normalizeQuery(query);
         String normalizedProject = normalizeProject(project);
 
-        List<Float> embedding = embeddingService.embed(normalizedQuery);
-        List<SearchResult> matches = qdrantService.searchSimilar(embedding, searchLimit, normalizedProject);
+        float[] embedding = queryEmbeddingCache.embed(normalizedQuery);
+        // identical searches running at the same time share one Qdrant request
+        List<SearchResult> matches = searches.run(new SearchKey(normalizedQuery, normalizedProject),
+                () -> vectorStore.searchSimilar(embedding, searchLimit, normalizedProject));
         if (matches.isEmpty()) {
             return List.of();
         }
 
-        Map<Long, DocumentChunk> chunksById = documentChunkRepository.findAllById(
-                        matches.stream().map(SearchResult::chunkId).toList()
-                ).stream()
-                .collect(Collectors.toMap(DocumentChunk::getId, chunk -> chunk));
+        // a point belongs to its own chunk and to the near-duplicates sharing its vector; the match is shown
+        // once, as its own chunk when that is still searchable
+        List<Long> pointIds = matches.stream().map(SearchResult::chunkId).toList();
+        Map<Long, List<DocumentChunk>> chunksByPoint = documentChunkRepository.findByIdInOrPointIdIn(pointIds, pointIds).stream()
+                .sorted(Comparator.comparing((DocumentChunk chunk) -> chunk.getPointId() != null).thenComparing(DocumentChunk::getId))
+                .collect(Collectors.groupingBy(SearchService::pointOf));
 
         // Fetch all documents for the chunks
-        List<Long> documentIds = chunksById.values().stream()
+        List<Long> documentIds = chunksByPoint.values().stream()
+                .flatMap(List::stream)
                 .map(DocumentChunk::getDocumentId)
                 .distinct()
                 .toList();
         Map<Long, Document> documentsById = documentRepository.findAllById(documentIds).stream()
                 .collect(Collectors.toMap(Document::getId, doc -> doc));
 
-        return matches.stream()
-                .map(match -> toSearchResult(match, chunksById.get(match.chunkId()), documentsById))
+        // a match is shown as its first chunk that is searchable
+        Map<SearchResult, DocumentChunk> shown = new LinkedHashMap<>();
+        for (SearchResult match : matches) {
+            chunksByPoint.getOrDefault(match.chunkId(), List.of()).stream()
+                    .filter(chunk -> isSearchable(chunk, documentsById))
+                    .findFirst()
+                    .ifPresent(chunk -> shown.put(match, chunk));
+        }
+
+        // chunks only hold offsets; their content is read from the (cached) blocks of the document texts
+        Map<DocumentTextService.Slice, String> slices = documentTextService.loadSlices(shown.values().stream()
+                .filter(chunk -> chunk.getContent() == null)
+                .map(chunk -> sliceOf(chunk, documentsById))
+                .toList());
+
+        return shown.entrySet().stream()
+                .map(entry -> toSearchResult(entry.getKey(), entry.getValue(), documentsById, slices))
                 .filter(Objects::nonNull)
                 .toList();
     }
 
-    private SearchContentResponse toSearchResult(SearchResult match, DocumentChunk chunk, Map<Long, Document> documentsById) {
-        if (chunk == null) {
-            return null;
+    private static Long pointOf(DocumentChunk chunk) {
+        return chunk.getPointId() != null ? chunk.getPointId() : chunk.getId();
+    }
+
+    private static boolean isSearchable(DocumentChunk chunk, Map<Long, Document> documentsById) {
+        // chunks of a job that has not committed yet
+        if (chunk.isPending()) {
+            return false;
         }
         Document document = documentsById.get(chunk.getDocumentId());
-        if (document == null) {
+        return document != null && (chunk.getContent() != null || document.getTextId() != null);
+    }
+
+    private static DocumentTextService.Slice sliceOf(DocumentChunk chunk, Map<Long, Document> documentsById) {
+        return new DocumentTextService.Slice(documentsById.get(chunk.getDocumentId()).getTextId(), chunk.getStartOffset(), chunk.getEndOffset());
+    }
+
+    private record SearchKey(String query, String project) {
+    }
+
+    private SearchContentResponse toSearchResult(
+            SearchResult match,
+            DocumentChunk chunk,
+            Map<Long, Document> documentsById,
+            Map<DocumentTextService.Slice, String> slices
+    ) {
+        Document document = documentsById.get(chunk.getDocumentId());
+        // inline content of chunks written before offsets existed
+        String content = chunk.getContent() != null ? chunk.getContent() : slices.get(sliceOf(chunk, documentsById));
+        if (content == null) {
             return null;
         }
         return new SearchContentResponse(
                 document.getId(),
                 document.getName(),
                 document.getFilePath(),
-                match.chunkId(),
-                chunk.getContent(),
+                chunk.getId(),
+                chunk.getHeadingPath(),
+                IngestionService.hasHeadings(document.getName(), null) ? HeadingTracker.stripMarkers(content) : content,
                 match.score()
         );
     }
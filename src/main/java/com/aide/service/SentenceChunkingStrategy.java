@@ -0,0 +1,70 @@
+package com.aide.service;
+
+/**
+ * Chunks of at most {@code maxChars} characters that end at the latest paragraph break, or else the
+ * latest sentence end, or else the latest word boundary in the second half of the chunk. Only text
+ * without any boundary there (a very long token) is cut at {@code maxChars}. The overlap starts at a word.
+ */
+public class SentenceChunkingStrategy implements ChunkingStrategy {
+
+    public static final String NAME = "sentence";
+
+    private final int maxChars;
+    private final int overlap;
+
+    public SentenceChunkingStrategy(int maxChars, int overlap) {
+        this.maxChars = maxChars;
+        this.overlap = overlap;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int chunkEnd(CharSequence text, int start, boolean complete) {
+        int limit = start + maxChars;
+        if (text.length() <= limit) {
+            return complete ? text.length() : -1;
+        }
+        // one backward scan: the first paragraph break wins, the first sentence end and word boundary are remembered
+        int sentenceEnd = -1;
+        int wordEnd = -1;
+        for (int end = limit; end > start + maxChars / 2 && end - 2 >= start; end--) {
+            char last = text.charAt(end - 1);
+            if (!Character.isWhitespace(last)) {
+                continue;
+            }
+            char beforeLast = text.charAt(end - 2);
+            if (last == '\n' && (beforeLast == '\n' || beforeLast == '\r' && end - 3 >= start && text.charAt(end - 3) == '\n')) {
+                return end;
+            }
+            if (sentenceEnd < 0 && (beforeLast == '.' || beforeLast == '!' || beforeLast == '?')) {
+                sentenceEnd = end;
+            }
+            if (wordEnd < 0) {
+                wordEnd = end;
+            }
+        }
+        if (sentenceEnd > 0) {
+            return sentenceEnd;
+        }
+        return wordEnd > 0 ? wordEnd : limit;
+    }
+
+    @Override
+    public int nextStart(CharSequence text, int start, int end) {
+        if (overlap == 0) {
+            return end;
+        }
+        int from = Math.max(start + 1, end - overlap);
+        for (int next = from; next < end; next++) {
+            if (Character.isWhitespace(text.charAt(next - 1)) && !Character.isWhitespace(text.charAt(next))) {
+                return next;
+            }
+        }
+        // no word starts within the overlap
+        return end;
+    }
+}
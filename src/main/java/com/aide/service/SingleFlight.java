@@ -0,0 +1,64 @@
+package com.aide.service;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical calls: while a computation for a key is running, callers with the
+ * same key wait for it and get its result (or its exception) instead of starting their own. Nothing
+ * is kept once the computation finishes; later callers compute again.
+ */
+@Slf4j
+final class SingleFlight<K, V> {
+
+    private final String name;
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    SingleFlight(String name) {
+        this.name = name;
+    }
+
+    V run(K key, Supplier<V> computation) {
+        CompletableFuture<V> call = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, call);
+        if (running != null) {
+            log.debug("Joining the {} already in flight", name);
+            return await(running);
+        }
+        // the key is released before the waiters are woken, so none of them sees a finished call still registered
+        V value;
+        try {
+            value = computation.get();
+        } catch (RuntimeException | Error e) {
+            inFlight.remove(key, call);
+            call.completeExceptionally(e);
+            throw e;
+        }
+        inFlight.remove(key, call);
+        call.complete(value);
+        return value;
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    private V await(CompletableFuture<V> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+}
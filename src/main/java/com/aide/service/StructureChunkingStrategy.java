@@ -0,0 +1,67 @@
+package com.aide.service;
+
+/**
+ * Packs whole sections, from one Markdown heading to the next, into chunks of up to
+ * {@code maxChars} characters; a chunk ends right before the last heading that still fits and
+ * has text before it. A section too long for one chunk is split at sentences like
+ * {@link SentenceChunkingStrategy}.
+ * Code fences are only recognised when they open inside the scanned window.
+ */
+public class StructureChunkingStrategy implements ChunkingStrategy {
+
+    public static final String NAME = "structure";
+
+    private final int maxChars;
+    private final SentenceChunkingStrategy withinSection;
+
+    public StructureChunkingStrategy(int maxChars, int overlap) {
+        this.maxChars = maxChars;
+        this.withinSection = new SentenceChunkingStrategy(maxChars, overlap);
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int chunkEnd(CharSequence text, int start, boolean complete) {
+        int limit = start + maxChars;
+        // a heading starting at the limit is only recognisable with its marker buffered
+        if (text.length() <= limit + HeadingTracker.MAX_MARKER_LENGTH) {
+            if (!complete) {
+                return -1;
+            }
+            if (text.length() <= limit) {
+                return text.length();
+            }
+        }
+        int lastHeading = -1;
+        boolean inFence = false;
+        // a heading right after blank lines would end a chunk with nothing to embed
+        boolean hasContent = false;
+        for (int i = start; i < limit; i++) {
+            char c = text.charAt(i);
+            if (c != '\n') {
+                hasContent |= !Character.isWhitespace(c);
+                continue;
+            }
+            int lineStart = i + 1;
+            if (HeadingTracker.isFence(text, lineStart)) {
+                inFence = !inFence;
+            } else if (!inFence && hasContent && HeadingTracker.headingLevel(text, lineStart) > 0) {
+                lastHeading = lineStart;
+            }
+        }
+        return lastHeading > 0 ? lastHeading : withinSection.chunkEnd(text, start, complete);
+    }
+
+    @Override
+    public int nextStart(CharSequence text, int start, int end) {
+        // sections do not overlap; the parts of a split section do
+        if (text.charAt(end - 1) == '\n' && HeadingTracker.headingLevel(text, end) > 0) {
+            return end;
+        }
+        return withinSection.nextStart(text, start, end);
+    }
+}
@@ -0,0 +1,72 @@
+package com.aide.service;
+
+/**
+ * Collapses whitespace in extracted text fed piece by piece: runs of spaces and tabs inside a line
+ * become one space, whitespace at the end of a line (including the "\r" of "\r\n") is dropped, and
+ * at most one blank line is kept between paragraphs. Indentation is left alone, so code blocks and
+ * Markdown structure survive. The output does not depend on where the pieces are split.
+ */
+final class TextNormalizer {
+
+    // spaces and tabs seen since the last character written, not written yet
+    private final StringBuilder pendingSpace = new StringBuilder();
+    private final StringBuilder output = new StringBuilder();
+    private boolean atLineStart = true;
+    private int lineBreaks;
+    private long removedChars;
+
+    /**
+     * Normalized text for the next piece. Whitespace at the end of the piece is held back until it
+     * is known whether a line break or the end of the text follows.
+     */
+    String normalize(CharSequence piece) {
+        output.setLength(0);
+        for (int i = 0; i < piece.length(); i++) {
+            char c = piece.charAt(i);
+            if (c == '\n') {
+                removedChars += pendingSpace.length();
+                pendingSpace.setLength(0);
+                atLineStart = true;
+                // two line breaks make a blank line; more add nothing
+                if (++lineBreaks > 2) {
+                    removedChars++;
+                } else {
+                    output.append(c);
+                }
+            } else if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                pendingSpace.append(c);
+            } else {
+                writePendingSpace();
+                output.append(c);
+                atLineStart = false;
+                lineBreaks = 0;
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * Drops the whitespace held back at the end of the text.
+     */
+    void finish() {
+        removedChars += pendingSpace.length();
+        pendingSpace.setLength(0);
+    }
+
+    long removedChars() {
+        return removedChars;
+    }
+
+    private void writePendingSpace() {
+        if (pendingSpace.isEmpty()) {
+            return;
+        }
+        if (atLineStart || pendingSpace.length() == 1 && pendingSpace.charAt(0) == ' ') {
+            output.append(pendingSpace);
+        } else {
+            output.append(' ');
+            removedChars += pendingSpace.length() - 1;
+        }
+        pendingSpace.setLength(0);
+    }
+}
@@ -0,0 +1,76 @@
+package com.aide.service;
+
+/**
+ * Chunks that fit an approximate token budget and end at a word boundary. Tokens are estimated the
+ * way BPE tokenizers roughly split text: a run of letters or digits costs one token per four
+ * characters, every other visible character one token, and whitespace nothing.
+ */
+public class TokenBudgetChunkingStrategy implements ChunkingStrategy {
+
+    public static final String NAME = "token";
+
+    private final int maxTokens;
+    private final int overlapTokens;
+
+    public TokenBudgetChunkingStrategy(int maxTokens, int overlapTokens) {
+        this.maxTokens = maxTokens;
+        this.overlapTokens = overlapTokens;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int chunkEnd(CharSequence text, int start, boolean complete) {
+        int tokens = 0;
+        int runLength = 0;
+        int wordStart = start;
+        for (int i = start; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int cost;
+            if (Character.isLetterOrDigit(c)) {
+                cost = runLength % 4 == 0 ? 1 : 0;
+                runLength++;
+            } else {
+                cost = Character.isWhitespace(c) ? 0 : 1;
+                runLength = 0;
+            }
+            if (tokens + cost > maxTokens) {
+                // cut before the word that does not fit, unless it is the only word of the chunk
+                return wordStart > start ? wordStart : i;
+            }
+            tokens += cost;
+            if (Character.isWhitespace(c)) {
+                wordStart = i + 1;
+            }
+        }
+        return complete ? text.length() : -1;
+    }
+
+    @Override
+    public int nextStart(CharSequence text, int start, int end) {
+        if (overlapTokens == 0) {
+            return end;
+        }
+        // walk back from the end until the overlap budget is reached, but never past the middle of the chunk
+        int tokens = 0;
+        int runLength = 0;
+        int middle = start + (end - start) / 2;
+        for (int i = end - 1; i > middle; i--) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                tokens += runLength % 4 == 0 ? 1 : 0;
+                runLength++;
+            } else {
+                tokens += Character.isWhitespace(c) ? 0 : 1;
+                runLength = 0;
+            }
+            if (tokens >= overlapTokens && Character.isWhitespace(text.charAt(i - 1)) && !Character.isWhitespace(c)) {
+                return i;
+            }
+        }
+        return end;
+    }
+}
@@ -0,0 +1,45 @@
+package com.aide.service;
+
+import com.aide.service.dto.ChunkEmbedding;
+import com.aide.service.dto.qdrant.search.SearchResult;
+
+import java.util.List;
+
+/**
+ * Where chunk vectors are stored and searched. Points are keyed by chunk id and carry the chunk id,
+ * document id and project as payload. The transport is chosen with {@code qdrant.transport}:
+ * {@code rest} ({@link QdrantService}, the default) or {@code grpc} ({@link QdrantGrpcService}).
+ */
+public interface VectorStore {
+
+    void storeEmbedding(Long chunkId, Long documentId, String project, float[] vector);
+
+    /**
+     * Stores many embeddings and returns once all of them are applied.
+     */
+    default void storeEmbeddings(List<ChunkEmbedding> embeddings) {
+        storeEmbeddings(embeddings, true);
+    }
+
+    /**
+     * Stores many embeddings; unless {@code awaitApplied} is set they may only be acknowledged,
+     * not yet searchable, when this returns.
+     */
+    void storeEmbeddings(List<ChunkEmbedding> embeddings, boolean awaitApplied);
+
+    /**
+     * Consistency barrier: returns once every embedding stored before is searchable.
+     * The anchor must be an already stored embedding; it is stored again.
+     */
+    void awaitApplied(ChunkEmbedding anchor);
+
+    /**
+     * Deletes points by id and waits until they are gone.
+     */
+    void deletePoints(List<Long> pointIds);
+
+    /**
+     * Up to {@code topK} points of the project most similar to the vector, above {@code app.search.score-threshold}.
+     */
+    List<SearchResult> searchSimilar(float[] vector, int topK, String project);
+}
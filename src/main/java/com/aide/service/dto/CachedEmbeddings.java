@@ -0,0 +1,6 @@
+package com.aide.service.dto;
+
+import java.util.List;
+
+public record CachedEmbeddings(List<float[]> vectors, int hits, int misses) {
+}
@@ -0,0 +1,4 @@
+package com.aide.service.dto;
+
+public record ChunkEmbedding(Long chunkId, Long documentId, String project, float[] vector) {
+}
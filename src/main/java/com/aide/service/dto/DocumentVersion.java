@@ -0,0 +1,20 @@
+package com.aide.service.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything needed to swap in a new version of a document: its new file and text, the new
+ * position of every chunk carried over unchanged, and the chunks that no longer exist.
+ */
+public record DocumentVersion(
+        Long documentId,
+        StoredFile storedFile,
+        Long textId,
+        Map<Long, ChunkPosition> chunkPositions,
+        List<Long> removedChunkIds
+) {
+
+    public record ChunkPosition(int chunkIndex, int startOffset, int endOffset, String headingPath) {
+    }
+}
@@ -0,0 +1,171 @@
+package com.aide.service.dto;
+
+import java.time.Instant;
+
+/**
+ * Progress of one document travelling through the ingestion pipeline.
+ * Stages update it from different worker threads, so all access is synchronized.
+ */
+public class IngestionJob {
+
+    private final String id;
+    private final Long documentId;
+    private final String project;
+    private final Instant submittedAt;
+
+    private IngestionJobStatus status = IngestionJobStatus.QUEUED;
+    private Integer totalChunks;
+    private int embeddedChunks;
+    private int cachedChunks;
+    private int unchangedChunks;
+    private int duplicateChunks;
+    private int storedChunks;
+    private long removedChars;
+    private String error;
+    private Instant updatedAt;
+
+    public IngestionJob(String id, Long documentId, String project) {
+        this.id = id;
+        this.documentId = documentId;
+        this.project = project;
+        this.submittedAt = Instant.now();
+        this.updatedAt = submittedAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Long getDocumentId() {
+        return documentId;
+    }
+
+    public String getProject() {
+        return project;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public synchronized IngestionJobStatus getStatus() {
+        return status;
+    }
+
+    public synchronized Integer getTotalChunks() {
+        return totalChunks;
+    }
+
+    public synchronized int getEmbeddedChunks() {
+        return embeddedChunks;
+    }
+
+    public synchronized int getCachedChunks() {
+        return cachedChunks;
+    }
+
+    public synchronized int getUnchangedChunks() {
+        return unchangedChunks;
+    }
+
+    public synchronized int getDuplicateChunks() {
+        return duplicateChunks;
+    }
+
+    public synchronized int getStoredChunks() {
+        return storedChunks;
+    }
+
+    public synchronized long getRemovedChars() {
+        return removedChars;
+    }
+
+    public synchronized String getError() {
+        return error;
+    }
+
+    public synchronized Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public synchronized boolean isFailed() {
+        return status == IngestionJobStatus.FAILED;
+    }
+
+    /**
+     * Moves the job forward to the given stage. Batches of one document are processed
+     * by several stages at once, so a stage that is already behind is ignored.
+     */
+    public synchronized void advanceTo(IngestionJobStatus stage) {
+        if (status.isTerminal() || stage.ordinal() <= status.ordinal()) {
+            return;
+        }
+        status = stage;
+        updatedAt = Instant.now();
+    }
+
+    /**
+     * Records the characters of boilerplate and redundant whitespace removed from the extracted text.
+     */
+    public synchronized void normalized(long removed) {
+        removedChars = removed;
+        updatedAt = Instant.now();
+    }
+
+    public synchronized void chunked(int total) {
+        totalChunks = total;
+        updatedAt = Instant.now();
+        if (total == 0) {
+            complete();
+        }
+    }
+
+    public synchronized void embedded(int count, int fromCache) {
+        embeddedChunks += count;
+        cachedChunks += fromCache;
+        updatedAt = Instant.now();
+    }
+
+    /**
+     * Records chunks of a document update that match a chunk of the previous version and keep its vector.
+     */
+    public synchronized void unchanged(int count) {
+        unchangedChunks += count;
+        updatedAt = Instant.now();
+    }
+
+    /**
+     * Records chunks that are near-duplicates of a chunk already stored in the project and share its vector.
+     */
+    public synchronized void deduplicated(int count) {
+        duplicateChunks += count;
+        updatedAt = Instant.now();
+    }
+
+    /**
+     * Records stored chunks and returns {@code true} for exactly the call that stored the last one.
+     */
+    public synchronized boolean stored(int count) {
+        int before = storedChunks;
+        storedChunks += count;
+        updatedAt = Instant.now();
+        return totalChunks != null && before < totalChunks && storedChunks >= totalChunks;
+    }
+
+    public synchronized void complete() {
+        if (status.isTerminal()) {
+            return;
+        }
+        status = IngestionJobStatus.COMPLETED;
+        updatedAt = Instant.now();
+    }
+
+    public synchronized void fail(String message) {
+        if (status.isTerminal()) {
+            return;
+        }
+        status = IngestionJobStatus.FAILED;
+        error = message;
+        updatedAt = Instant.now();
+    }
+}
@@ -0,0 +1,15 @@
+package com.aide.service.dto;
+
+public enum IngestionJobStatus {
+    QUEUED,
+    EXTRACTING,
+    CHUNKING,
+    EMBEDDING,
+    UPSERTING,
+    COMPLETED,
+    FAILED;
+
+    public boolean isTerminal() {
+        return this == COMPLETED || this == FAILED;
+    }
+}
@@ -1,6 +0,0 @@
-package com.aide.service.dto;
-
-import java.nio.file.Path;
-
-public record IngestionResult(String text, Path storedPath) {
-}
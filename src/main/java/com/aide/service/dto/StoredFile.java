@@ -0,0 +1,10 @@
+package com.aide.service.dto;
+
+import java.nio.file.Path;
+
+/**
+ * An upload that has been moved into the storage directory, with the SHA-256 digest
+ * and size of its content.
+ */
+public record StoredFile(Path path, String fileName, String contentType, String sha256, long size) {
+}
@@ -2,7 +2,6 @@ package com.aide.service.dto.qdrant;
 
 public final class QdrantConstants {
 
-    public static final int VECTOR_SIZE = 3072;
     public static final String DISTANCE_COSINE = "Cosine";
 
     private QdrantConstants() {
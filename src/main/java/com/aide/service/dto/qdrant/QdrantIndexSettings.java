@@ -0,0 +1,80 @@
+package com.aide.service.dto.qdrant;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * How the collection stores and indexes vectors ({@code qdrant.index.*}) and how searches use
+ * quantized vectors ({@code qdrant.search.*}).
+ *
+ * @param quantization    vector quantization; {@code SCALAR} keeps one int8 per dimension (4x smaller),
+ *                        {@code BINARY} one bit (32x smaller)
+ * @param alwaysRam       keep the quantized vectors in RAM, also when the originals are on disk
+ * @param onDisk          keep the original float32 vectors on disk (memory-mapped) instead of in RAM
+ * @param hnswM           edges per node of the HNSW graph
+ * @param hnswEfConstruct candidates considered while building the HNSW graph
+ * @param oversampling    with quantization, fetch {@code limit * oversampling} candidates for rescoring
+ * @param rescore         with quantization, re-rank the candidates by their original vectors
+ */
+public record QdrantIndexSettings(
+        Quantization quantization,
+        boolean alwaysRam,
+        boolean onDisk,
+        int hnswM,
+        int hnswEfConstruct,
+        double oversampling,
+        boolean rescore
+) {
+
+    /**
+     * Qdrant's own defaults: full float32 vectors in RAM, {@code m = 16}, {@code ef_construct = 100}.
+     */
+    public static final QdrantIndexSettings DEFAULTS = new QdrantIndexSettings(Quantization.NONE, true, false, 16, 100, 1.0, true);
+
+    public QdrantIndexSettings {
+        if (quantization == null) {
+            throw new IllegalArgumentException("quantization must not be null");
+        }
+        if (hnswM < 0) {
+            throw new IllegalArgumentException("hnsw m must not be negative");
+        }
+        if (hnswEfConstruct < 4) {
+            throw new IllegalArgumentException("hnsw ef_construct must be at least 4");
+        }
+        if (oversampling < 1.0) {
+            throw new IllegalArgumentException("oversampling must be at least 1");
+        }
+    }
+
+    public boolean quantized() {
+        return quantization != Quantization.NONE;
+    }
+
+    /**
+     * Whether a collection built with {@code other} stores and indexes vectors as these settings ask;
+     * search parameters are not compared.
+     */
+    public boolean sameIndexAs(QdrantIndexSettings other) {
+        return quantization == other.quantization
+                && (!quantized() || alwaysRam == other.alwaysRam)
+                && onDisk == other.onDisk
+                && hnswM == other.hnswM
+                && hnswEfConstruct == other.hnswEfConstruct;
+    }
+
+    public enum Quantization {
+        NONE, SCALAR, BINARY;
+
+        public static Quantization parse(String name) {
+            if (name == null || name.isBlank()) {
+                return NONE;
+            }
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown quantization: " + name.trim() + "; expected one of "
+                        + Arrays.toString(values()).toLowerCase(Locale.ROOT), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.aide.service.dto.qdrant.collection;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * The part of {@code GET /collections/{name}} needed to check the vector parameters, shard count and index settings of an existing collection.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record CollectionInfoResponse(Result result) {
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Result(Config config) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Config(
+            Params params,
+            @JsonProperty("hnsw_config") HnswConfig hnswConfig,
+            @JsonProperty("quantization_config") QuantizationConfig quantizationConfig
+    ) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Params(VectorsConfig vectors, @JsonProperty("shard_number") Integer shardNumber) {
+    }
+}
@@ -1,4 +1,13 @@
 package com.aide.service.dto.qdrant.collection;
 
-public record CreateCollectionRequest(VectorsConfig vectors) {
-}
\ No newline at end of file
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record CreateCollectionRequest(
+        VectorsConfig vectors,
+        @JsonProperty("shard_number") Integer shardNumber,
+        @JsonProperty("hnsw_config") HnswConfig hnswConfig,
+        @JsonProperty("quantization_config") QuantizationConfig quantizationConfig
+) {
+}
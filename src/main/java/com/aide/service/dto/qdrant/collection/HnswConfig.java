@@ -0,0 +1,10 @@
+package com.aide.service.dto.qdrant.collection;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record HnswConfig(Integer m, @JsonProperty("ef_construct") Integer efConstruct) {
+}
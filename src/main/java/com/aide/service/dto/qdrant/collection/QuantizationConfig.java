@@ -0,0 +1,25 @@
+package com.aide.service.dto.qdrant.collection;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * {@code quantization_config} of a collection: one of {@code scalar} or {@code binary}.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record QuantizationConfig(Scalar scalar, Binary binary) {
+
+    public static final String INT8 = "int8";
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Scalar(String type, @JsonProperty("always_ram") Boolean alwaysRam) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Binary(@JsonProperty("always_ram") Boolean alwaysRam) {
+    }
+}
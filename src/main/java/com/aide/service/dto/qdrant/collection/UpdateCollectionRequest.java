@@ -0,0 +1,23 @@
+package com.aide.service.dto.qdrant.collection;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Map;
+
+/**
+ * {@code PATCH /collections/{name}}. The unnamed vector is addressed by the empty name in {@code vectors};
+ * {@code quantization_config} is a {@link QuantizationConfig} or {@link #QUANTIZATION_DISABLED}.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record UpdateCollectionRequest(
+        Map<String, VectorParamsDiff> vectors,
+        @JsonProperty("hnsw_config") HnswConfig hnswConfig,
+        @JsonProperty("quantization_config") Object quantizationConfig
+) {
+
+    public static final String QUANTIZATION_DISABLED = "Disabled";
+
+    public record VectorParamsDiff(@JsonProperty("on_disk") Boolean onDisk) {
+    }
+}
@@ -1,4 +1,10 @@
 package com.aide.service.dto.qdrant.collection;
 
-public record VectorsConfig(int size, String distance) {
-}
\ No newline at end of file
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record VectorsConfig(int size, String distance, @JsonProperty("on_disk") Boolean onDisk) {
+}
@@ -0,0 +1,6 @@
+package com.aide.service.dto.qdrant.embedding;
+
+import java.util.List;
+
+public record DeletePointsRequest(List<Long> points) {
+}
@@ -1,6 +1,7 @@
 package com.aide.service.dto.qdrant.embedding;
 
-import java.util.List;
-
-public record PointStruct(Object id, List<Float> vector, QdrantPayload payload) {
+/**
+ * A point to upsert. Jackson writes the {@code float[]} vector as a plain JSON array without boxing.
+ */
+public record PointStruct(Object id, float[] vector, QdrantPayload payload) {
 }
\ No newline at end of file
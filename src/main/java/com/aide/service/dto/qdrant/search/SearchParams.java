@@ -0,0 +1,10 @@
+package com.aide.service.dto.qdrant.search;
+
+/**
+ * Search-time {@code params}; only sent for quantized collections.
+ */
+public record SearchParams(Quantization quantization) {
+
+    public record Quantization(boolean rescore, double oversampling) {
+    }
+}
@@ -1,13 +1,14 @@
 package com.aide.service.dto.qdrant.search;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import java.util.List;
-
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record SearchRequest(
-        List<Float> vector,
+        float[] vector,
         int limit,
         @JsonProperty("with_payload") boolean withPayload,
-        QdrantFilter filter
+        QdrantFilter filter,
+        SearchParams params
 ) {
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package com.aide.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+class QdrantHttpInterceptorTest {
+
+    private static final String BASE_URL = "http://localhost:6333/collections/aide";
+
+    private SimpleMeterRegistry meterRegistry;
+    private RestTemplate restTemplate;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        restTemplate = new RestTemplate();
+    }
+
+    @Test
+    void shouldInflateGzipResponsesAndTimeRequestsPerEndpoint() throws IOException {
+        restTemplate.getInterceptors().add(new QdrantHttpInterceptor(meterRegistry, false));
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        server.expect(once(), requestTo(BASE_URL + "/points/search"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(header("Accept-Encoding", "gzip"))
+                .andRespond(withSuccess(gzip("{\"result\":[]}"), MediaType.APPLICATION_JSON).header("Content-Encoding", "gzip"));
+
+        Map<String, Object> response = restTemplate.exchange(BASE_URL + "/points/search", HttpMethod.POST, new HttpEntity<>(Map.of("limit", 5)),
+                new ParameterizedTypeReference<Map<String, Object>>() {
+                }).getBody();
+
+        assertThat(response).containsKey("result");
+        assertThat(meterRegistry.get("aide.qdrant.requests").tags("method", "POST", "endpoint", "points/search", "status", "200").timer().count())
+                .isEqualTo(1);
+        server.verify();
+    }
+
+    @Test
+    void shouldCompressLargeRequestBodiesWhenEnabled() throws IOException {
+        restTemplate.getInterceptors().add(new QdrantHttpInterceptor(meterRegistry, true));
+        MockRestServiceServer server = MockRestServiceServer.bindTo(restTemplate).build();
+        String vector = "0.1,".repeat(QdrantHttpInterceptor.MIN_COMPRESSED_BYTES);
+        server.expect(once(), requestTo(BASE_URL + "/points?wait=false"))
+                .andExpect(header("Content-Encoding", "gzip"))
+                .andExpect(request -> assertThat(gunzip(((MockClientHttpRequest) request).getBodyAsBytes())).contains(vector))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo(BASE_URL))
+                .andExpect(headerDoesNotExist("Content-Encoding"))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        restTemplate.put(BASE_URL + "/points?wait=false", Map.of("vector", vector));
+        restTemplate.put(BASE_URL, Map.of("size", 768));
+
+        server.verify();
+        assertThat(meterRegistry.get("aide.qdrant.requests").tags("method", "PUT", "endpoint", "collection").timer().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void endpointShouldLeaveOutTheCollectionName() {
+        assertThat(QdrantHttpInterceptor.endpoint("/collections/aide")).isEqualTo("collection");
+        assertThat(QdrantHttpInterceptor.endpoint("/collections/aide/points")).isEqualTo("points");
+        assertThat(QdrantHttpInterceptor.endpoint("/collections/aide/points/delete")).isEqualTo("points/delete");
+        assertThat(QdrantHttpInterceptor.endpoint("/healthz")).isEqualTo("other");
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
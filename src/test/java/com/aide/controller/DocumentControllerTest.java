@@ -1,12 +1,14 @@
 package com.aide.controller;
 
-import com.aide.controller.dto.UploadResponse;
+import com.aide.controller.dto.IngestionJobResponse;
 import com.aide.service.DocumentService;
+import com.aide.service.dto.IngestionJobStatus;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.webmvc.test.autoconfigure.WebMvcTest;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockMultipartFile;
@@ -15,6 +17,8 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.RejectedExecutionException;
 
 import static org.mockito.Mockito.*;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -31,23 +35,70 @@ class DocumentControllerTest {
     private DocumentService documentService;
 
     @Test
-    void uploadDocumentShouldProcessAndReturnIds() throws Exception {
+    void uploadDocumentShouldQueueJobAndReturnAccepted() throws Exception {
         MockMultipartFile file = new MockMultipartFile("file", "sample.txt", "text/plain", "sample content".getBytes());
 
         when(documentService.uploadDocument(file, "demo"))
-                .thenReturn(new UploadResponse(100L, 2));
+                .thenReturn(jobResponse("job-1", IngestionJobStatus.QUEUED, null, 0, 0));
 
         mockMvc.perform(multipart("/api/documents")
                         .file(file)
                         .param("project", "demo")
                         .contentType(MediaType.MULTIPART_FORM_DATA))
-                .andExpect(status().isCreated())
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.jobId").value("job-1"))
                 .andExpect(jsonPath("$.documentId").value(100))
-                .andExpect(jsonPath("$.chunkCount").value(2));
+                .andExpect(jsonPath("$.status").value("QUEUED"));
 
         verify(documentService).uploadDocument(file, "demo");
     }
 
+    @Test
+    void getJobShouldReturnProgress() throws Exception {
+        when(documentService.getJob("job-1"))
+                .thenReturn(jobResponse("job-1", IngestionJobStatus.EMBEDDING, 10, 4, 2));
+
+        mockMvc.perform(get("/api/documents/jobs/{jobId}", "job-1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status").value("EMBEDDING"))
+                .andExpect(jsonPath("$.totalChunks").value(10))
+                .andExpect(jsonPath("$.embeddedChunks").value(4))
+                .andExpect(jsonPath("$.storedChunks").value(2));
+
+        verify(documentService).getJob("job-1");
+    }
+
+    @Test
+    void updateDocumentShouldQueueJobAndReturnAccepted() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "sample.txt", "text/plain", "new content".getBytes());
+
+        when(documentService.updateDocument(100L, file))
+                .thenReturn(jobResponse("job-2", IngestionJobStatus.QUEUED, null, 0, 0));
+
+        mockMvc.perform(multipart(HttpMethod.PUT, "/api/documents/{id}", 100L)
+                        .file(file)
+                        .contentType(MediaType.MULTIPART_FORM_DATA))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.jobId").value("job-2"))
+                .andExpect(jsonPath("$.documentId").value(100));
+
+        verify(documentService).updateDocument(100L, file);
+    }
+
+    @Test
+    void uploadDocumentShouldAnswerServiceUnavailableWhenIngestionIsAtCapacity() throws Exception {
+        MockMultipartFile file = new MockMultipartFile("file", "sample.txt", "text/plain", "sample content".getBytes());
+        when(documentService.uploadDocument(any(), eq("demo")))
+                .thenThrow(new RejectedExecutionException("Ingestion queue is full, try again later"));
+
+        mockMvc.perform(multipart("/api/documents")
+                        .file(file)
+                        .param("project", "demo")
+                        .contentType(MediaType.MULTIPART_FORM_DATA))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(jsonPath("$.message").value("Ingestion queue is full, try again later"));
+    }
+
     @Test
     void uploadDocumentShouldFailWhenFileEmpty() throws Exception {
         MockMultipartFile file = new MockMultipartFile("file", "sample.txt", "text/plain", new byte[]{});
@@ -103,4 +154,9 @@ class DocumentControllerTest {
 
         verify(documentService).downloadDocument(documentId);
     }
+
+    private IngestionJobResponse jobResponse(String jobId, IngestionJobStatus status, Integer total, int embedded, int stored) {
+        Instant now = Instant.now();
+        return new IngestionJobResponse(jobId, 100L, status, total, embedded, 0, 0, 0, stored, 0, null, now, now, null);
+    }
 }
\ No newline at end of file
@@ -33,8 +33,8 @@ class SearchControllerTest {
     void searchShouldReturnResults() throws Exception {
         SearchContentRequest request = new SearchContentRequest("hello", "demo");
         List<SearchContentResponse> results = List.of(
-                new SearchContentResponse(1L, "doc1.txt", "/path/to/doc1.txt", 1L, "chunk-1", 0.9d),
-                new SearchContentResponse(2L, "doc2.txt", "/path/to/doc2.txt", 2L, "chunk-2", 0.8d)
+                new SearchContentResponse(1L, "doc1.txt", "/path/to/doc1.txt", 1L, null, "chunk-1", 0.9d),
+                new SearchContentResponse(2L, "doc2.txt", "/path/to/doc2.txt", 2L, null, "chunk-2", 0.8d)
         );
         when(searchService.searchContent("hello", "demo")).thenReturn(results);
 
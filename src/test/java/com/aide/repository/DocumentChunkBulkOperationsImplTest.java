@@ -0,0 +1,102 @@
+package com.aide.repository;
+
+import com.aide.model.DocumentChunk;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DocumentChunkBulkOperationsImplTest {
+
+    private EntityManager entityManager;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        entityManager = mock(EntityManager.class);
+        jdbcTemplate = mock(JdbcTemplate.class);
+    }
+
+    @Test
+    void insertAllShouldUseBatchedInsertsBelowCopyThreshold() {
+        DocumentChunkBulkOperationsImpl operations = new DocumentChunkBulkOperationsImpl(entityManager, jdbcTemplate, 3, "jdbc:postgresql://localhost/aide");
+        List<DocumentChunk> chunks = List.of(chunk(0), chunk(1));
+
+        operations.insertAll(chunks);
+
+        verify(entityManager).persist(chunks.get(0));
+        verify(entityManager).persist(chunks.get(1));
+        verify(entityManager).flush();
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void insertAllShouldCopyLargeBatchesWithIdsFromSequenceBlocks() {
+        DocumentChunkBulkOperationsImpl operations = new DocumentChunkBulkOperationsImpl(entityManager, jdbcTemplate, 3, "jdbc:postgresql://localhost/aide");
+        when(jdbcTemplate.queryForList(contains(DocumentChunkBulkOperationsImpl.SEQUENCE), eq(Long.class), eq(1))).thenReturn(List.of(200L));
+        List<DocumentChunk> chunks = List.of(chunk(0), chunk(1), chunk(2));
+
+        List<DocumentChunk> inserted = operations.insertAll(chunks);
+
+        assertThat(inserted).extracting(DocumentChunk::getId).containsExactly(101L, 102L, 103L);
+        verify(jdbcTemplate).execute(any(ConnectionCallback.class));
+        verifyNoInteractions(entityManager);
+    }
+
+    @Test
+    void insertAllShouldNotCopyOutsidePostgres() {
+        DocumentChunkBulkOperationsImpl operations = new DocumentChunkBulkOperationsImpl(entityManager, jdbcTemplate, 1, "jdbc:h2:mem:aide");
+
+        operations.insertAll(List.of(chunk(0)));
+
+        verify(entityManager).flush();
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void toCsvShouldWriteOffsets() {
+        DocumentChunk chunk = chunk(4);
+        chunk.setId(9L);
+        chunk.setPending(true);
+
+        assertThat(DocumentChunkBulkOperationsImpl.toCsv(List.of(chunk)))
+                .isEqualTo("9,5,4,1800,2300,,,,true\n");
+    }
+
+    @Test
+    void toCsvShouldQuoteHeadingPaths() {
+        DocumentChunk chunk = chunk(0);
+        chunk.setId(1L);
+        chunk.setHeadingPath("Setup > Say \"hi\", then run");
+
+        assertThat(DocumentChunkBulkOperationsImpl.toCsv(List.of(chunk)))
+                .isEqualTo("1,5,0,0,500,\"Setup > Say \"\"hi\"\", then run\",,,false\n");
+    }
+
+    @Test
+    void toCsvShouldWriteSignaturesAsHexAndSharedPoints() {
+        DocumentChunk chunk = chunk(2);
+        chunk.setId(3L);
+        chunk.setMinhash(new byte[]{0x01, (byte) 0xab});
+        chunk.setPointId(1L);
+
+        assertThat(DocumentChunkBulkOperationsImpl.toCsv(List.of(chunk)))
+                .isEqualTo("3,5,2,900,1400,,\\x01ab,1,false\n");
+    }
+
+    private DocumentChunk chunk(int index) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setDocumentId(5L);
+        chunk.setChunkIndex(index);
+        chunk.setStartOffset(index * 450);
+        chunk.setEndOffset(index * 450 + 500);
+        return chunk;
+    }
+}
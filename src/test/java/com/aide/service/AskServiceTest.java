@@ -30,8 +30,8 @@ class AskServiceTest {
         String question = "How is the system architecture designed?";
         String project = "project-test";
         List<SearchContentResponse> searchResults = List.of(
-                new SearchContentResponse(1L, "doc1.txt", "/path/to/doc1.txt", 1L, "The system consists of an API layer.", 0.7D),
-                new SearchContentResponse(2L, "doc1.txt", "/path/to/doc2.txt", 2L, "The backend is implemented using Spring Boot.", 0.8D)
+                new SearchContentResponse(1L, "doc1.txt", "/path/to/doc1.txt", 1L, "Architecture", "The system consists of an API layer.", 0.7D),
+                new SearchContentResponse(2L, "doc1.txt", "/path/to/doc2.txt", 2L, null, "The backend is implemented using Spring Boot.", 0.8D)
         );
         when(searchService.searchContent(question, project)).thenReturn(searchResults);
         when(geminiChatService.generateAnswer(anyString())).thenReturn("The system architecture consists of an API layer and a Spring Boot backend.");
@@ -53,9 +53,9 @@ class AskServiceTest {
         // Prompt grounding assertions
         assertThat(prompt)
                 .contains("ONLY the provided context")
-                .contains("[Chunk 1]")
+                .contains("[Chunk 1] Architecture\nThe system consists of an API layer.")
                 .contains("The system consists of an API layer.")
-                .contains("[Chunk 2]")
+                .contains("[Chunk 2]\nThe backend is implemented using Spring Boot.")
                 .contains("The backend is implemented using Spring Boot.")
                 .contains(question);
 
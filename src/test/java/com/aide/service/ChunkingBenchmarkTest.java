@@ -0,0 +1,53 @@
+package com.aide.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Chunk counts and throughput of the chunking strategies on the same text. Skipped unless run
+ * with {@code -Dbenchmarks=true}; the numbers are printed, not asserted.
+ */
+@EnabledIfSystemProperty(named = "benchmarks", matches = "true")
+class ChunkingBenchmarkTest {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    @Test
+    void compareStrategies() {
+        // roughly 8 MB of prose with sentences and paragraphs
+        String text = ChunkingServiceTest.generateProse(100_000);
+
+        for (String strategy : List.of("fixed", "sentence", "token", "structure")) {
+            ChunkingService service = new ChunkingService(500, 50, 128, 16, 2000, strategy, "");
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                chunkCount(service, text);
+            }
+            long started = System.nanoTime();
+            long chunks = 0;
+            for (int i = 0; i < MEASURED_ROUNDS; i++) {
+                chunks = chunkCount(service, text);
+            }
+            double seconds = (System.nanoTime() - started) / 1e9 / MEASURED_ROUNDS;
+
+            System.out.printf("%-8s %,8d chunks  %6.1f avg chars  %8.1f MB/s%n",
+                    strategy, chunks, (double) text.length() / chunks, text.length() / seconds / 1_000_000);
+            assertThat(chunks).isPositive();
+        }
+    }
+
+    private static long chunkCount(ChunkingService service, String text) {
+        IncrementalChunker chunker = service.newChunker((start, end, content, headingPath) -> {
+        });
+        // fed in page-sized pieces, as extraction does
+        for (int from = 0; from < text.length(); from += 4096) {
+            chunker.append(text.subSequence(from, Math.min(from + 4096, text.length())));
+        }
+        chunker.finish();
+        return chunker.getChunkCount();
+    }
+}
@@ -2,9 +2,12 @@ package com.aide.service;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class ChunkingServiceTest {
 
@@ -42,6 +45,240 @@ class ChunkingServiceTest {
         assertThat(chunks.get(2)).isEqualTo(text.substring(900));
     }
 
+    @Test
+    void incrementalChunkerShouldMatchWholeTextChunkingAcrossPieces() {
+        String text = generateSequentialText(2345);
+
+        for (int pieceSize : new int[]{1, 7, 50, 500, 501, 2345}) {
+            List<String> streamed = new ArrayList<>();
+            IncrementalChunker chunker = chunkingService.newChunker((start, end, content, headingPath) -> streamed.add(content.toString()));
+            for (int from = 0; from < text.length(); from += pieceSize) {
+                chunker.append(text.substring(from, Math.min(from + pieceSize, text.length())));
+            }
+            chunker.finish();
+
+            assertThat(streamed).as("piece size %d", pieceSize).isEqualTo(chunkingService.chunk(text));
+            assertThat(chunker.getChunkCount()).isEqualTo(streamed.size());
+        }
+    }
+
+    @Test
+    void incrementalChunkerShouldReportOffsetsIntoWholeText() {
+        String text = generateSequentialText(1234);
+        List<int[]> offsets = new ArrayList<>();
+        IncrementalChunker chunker = chunkingService.newChunker((start, end, content, headingPath) -> {
+            assertThat(content.toString()).isEqualTo(text.substring(start, end));
+            offsets.add(new int[]{start, end});
+        });
+        for (int from = 0; from < text.length(); from += 97) {
+            chunker.append(text.substring(from, Math.min(from + 97, text.length())));
+        }
+        chunker.finish();
+
+        assertThat(offsets).containsExactly(new int[]{0, 500}, new int[]{450, 950}, new int[]{900, 1234});
+    }
+
+    @Test
+    void incrementalChunkerShouldEmitChunksBeforeInputEnds() {
+        List<String> streamed = new ArrayList<>();
+        IncrementalChunker chunker = chunkingService.newChunker((start, end, content, headingPath) -> streamed.add(content.toString()));
+
+        chunker.append(generateSequentialText(600));
+
+        assertThat(streamed).hasSize(1);
+        assertThat(streamed.get(0)).hasSize(500);
+    }
+
+    @Test
+    void incrementalChunkerShouldKeepLeadingWhitespaceAndIgnoreBlankInput() {
+        List<String> streamed = new ArrayList<>();
+        IncrementalChunker chunker = chunkingService.newChunker((start, end, content, headingPath) -> streamed.add(content.toString()));
+        chunker.append(" ".repeat(700));
+        chunker.finish();
+        assertThat(streamed).isEmpty();
+
+        String text = " ".repeat(700) + "content";
+        IncrementalChunker withContent = chunkingService.newChunker((start, end, content, headingPath) -> streamed.add(content.toString()));
+        withContent.append(" ".repeat(700));
+        withContent.append("content");
+        withContent.finish();
+        assertThat(streamed).isEqualTo(chunkingService.chunk(text));
+    }
+
+    @Test
+    void constructorShouldRejectOverlapNotSmallerThanChunkSize() {
+        assertThatThrownBy(() -> new ChunkingService(50, 50))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void sentenceStrategyShouldEndChunksAtSentencesAndParagraphs() {
+        ChunkingService sentences = new ChunkingService(60, 10, 128, 16, 2000, "sentence", "");
+
+        assertThat(sentences.chunk("One two three four. Five six seven eight nine ten. Eleven twelve thirteen. Fourteen."))
+                .containsExactly("One two three four. Five six seven eight nine ten. ", "nine ten. Eleven twelve thirteen. Fourteen.");
+        // a paragraph break wins over a later sentence end
+        assertThat(new ChunkingService(40, 0, 128, 16, 2000, "sentence", "").chunk("First paragraph is here.\n\nSecond one. And it goes on."))
+                .containsExactly("First paragraph is here.\n\n", "Second one. And it goes on.");
+    }
+
+    @Test
+    void tokenStrategyShouldKeepChunksWithinTokenBudgetAtWordBoundaries() {
+        ChunkingService tokens = new ChunkingService(500, 50, 6, 2, 2000, "token", "");
+
+        // alpha, gamma and epsilon cost two tokens each (one per four letters)
+        assertThat(tokens.chunk("alpha beta gamma delta epsilon zeta"))
+                .containsExactly("alpha beta gamma ", "gamma delta epsilon ", "epsilon zeta");
+        // a single word over budget is cut
+        assertThat(new ChunkingService(500, 50, 2, 0, 2000, "token", "").chunk("abcdefghijklmnop qr"))
+                .containsExactly("abcdefgh", "ijklmnop ", "qr");
+    }
+
+    @Test
+    void incrementalChunkerShouldMatchWholeTextChunkingForEveryStrategy() {
+        String text = generateMarkdown(60);
+
+        for (String strategy : List.of("fixed", "sentence", "token", "structure")) {
+            ChunkingService service = new ChunkingService(200, 20, 40, 6, 600, strategy, "");
+            List<String> whole = streamChunks(service, text, text.length());
+            assertThat(whole.stream().map(chunk -> chunk.substring(chunk.indexOf('|') + 1)).toList())
+                    .as(strategy)
+                    .isEqualTo(service.chunk(text));
+            for (int pieceSize : new int[]{1, 7, 199, 200, 201, 1000}) {
+                assertThat(streamChunks(service, text, pieceSize))
+                        .as("%s, piece size %d", strategy, pieceSize)
+                        .isEqualTo(whole);
+            }
+        }
+    }
+
+    @Test
+    void incrementalChunkerShouldReportHeadingPathsOutsideCodeFences() {
+        String text = "Preface.\n# Guide\nIntro text here.\n## Install\n```\n# not a heading\n```\nRun it now please.\n";
+        List<String> paths = new ArrayList<>();
+        IncrementalChunker chunker = new ChunkingService(30, 0).newChunker((start, end, content, headingPath) -> paths.add(headingPath));
+        chunker.append(text);
+        chunker.finish();
+
+        // the first chunk holds the top-level heading itself, the second starts under it
+        assertThat(paths).containsExactly(null, "Guide", "Guide > Install");
+    }
+
+    @Test
+    void incrementalChunkerShouldLeaveOutHeadingPathsOfTextWithoutHeadings() {
+        List<String> paths = new ArrayList<>();
+        IncrementalChunker chunker = new ChunkingService(30, 0).newChunker("demo", false, (start, end, content, headingPath) -> paths.add(headingPath));
+        chunker.append("# a shell comment\necho this is plain text\n");
+        chunker.finish();
+
+        assertThat(paths).isNotEmpty().containsOnlyNulls();
+    }
+
+    @Test
+    void structureStrategyShouldPackWholeSections() {
+        ChunkingService sections = new ChunkingService(500, 50, 128, 16, 60, "structure", "");
+        String text = "# Guide\nIntro text.\n## Install\nRun it.\n## Use\nCall it with care.\n# API\nSee below.\n";
+        List<String> paths = new ArrayList<>();
+        IncrementalChunker chunker = sections.newChunker((start, end, content, headingPath) -> paths.add(headingPath));
+        chunker.append(text);
+        chunker.finish();
+
+        assertThat(sections.chunk(text)).containsExactly(
+                "# Guide\nIntro text.\n## Install\nRun it.\n",
+                "## Use\nCall it with care.\n# API\nSee below.\n");
+        // a chunk packing sibling sections gets their parent's path
+        assertThat(paths).containsExactly("Guide", null);
+    }
+
+    @Test
+    void structureStrategyShouldNotEndAChunkBeforeLeadingHeading() {
+        ChunkingService sections = new ChunkingService(500, 50, 128, 16, 60, "structure", "");
+        String text = "\n# Guide\nIntro text that runs on for a while. It keeps going past the limit. And on.\n";
+
+        List<String> chunks = sections.chunk(text);
+
+        assertThat(chunks).isNotEmpty().allSatisfy(chunk -> assertThat(chunk).isNotBlank());
+        assertThat(chunks.getFirst()).startsWith("\n# Guide\nIntro text");
+    }
+
+    @Test
+    void headingMarkersShouldBeStrippedOutsideCodeFences() {
+        assertThat(HeadingTracker.stripMarkers("# Guide\nIntro.\n```\n# comment\n```\n## Install\nRun it."))
+                .isEqualTo("Guide\nIntro.\n```\n# comment\n```\nInstall\nRun it.");
+        assertThat(HeadingTracker.stripMarkers("#hashtag and C# text")).isEqualTo("#hashtag and C# text");
+        assertThat(HeadingTracker.stripMarkers("## ")).isEqualTo("## ");
+    }
+
+    @Test
+    void strategyShouldBeSelectablePerProject() {
+        ChunkingService service = new ChunkingService(500, 50, 128, 16, 2000, "fixed", "handbook=sentence, api = token");
+
+        assertThat(service.strategyFor("handbook").name()).isEqualTo("sentence");
+        assertThat(service.strategyFor("api").name()).isEqualTo("token");
+        assertThat(service.strategyFor("other").name()).isEqualTo("fixed");
+        assertThat(service.chunk("One. Two.", "handbook")).containsExactly("One. Two.");
+    }
+
+    @Test
+    void constructorShouldRejectUnknownStrategies() {
+        assertThatThrownBy(() -> new ChunkingService(500, 50, 128, 16, 2000, "semantic", ""))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("semantic");
+        assertThatThrownBy(() -> new ChunkingService(500, 50, 128, 16, 2000, "fixed", "handbook"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("handbook");
+    }
+
+    /**
+     * Sections of {@link #generateProse} under headings of levels 1 to 3, some followed by a code
+     * fence holding a line that looks like a heading.
+     */
+    static String generateMarkdown(int sections) {
+        Random random = new Random(2);
+        String prose = generateProse(sections * 4);
+        StringBuilder builder = new StringBuilder();
+        int from = 0;
+        for (int i = 0; i < sections; i++) {
+            builder.append("#".repeat(1 + random.nextInt(3))).append(" Section ").append(i).append('\n');
+            int length = 20 + random.nextInt(400);
+            builder.append(prose, from, from + length).append('\n');
+            from += length;
+            if (random.nextInt(6) == 0) {
+                builder.append("```\n# not a heading\n```\n");
+            }
+        }
+        return builder.toString();
+    }
+
+    private static List<String> streamChunks(ChunkingService service, String text, int pieceSize) {
+        List<String> chunks = new ArrayList<>();
+        IncrementalChunker chunker = service.newChunker((start, end, content, headingPath) -> {
+            assertThat(content.toString()).isEqualTo(text.substring(start, end));
+            chunks.add(start + "-" + end + " " + headingPath + "|" + content);
+        });
+        for (int from = 0; from < text.length(); from += pieceSize) {
+            chunker.append(text.substring(from, Math.min(from + pieceSize, text.length())));
+        }
+        chunker.finish();
+        return chunks;
+    }
+
+    static String generateProse(int sentences) {
+        Random random = new Random(1);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < sentences; i++) {
+            int words = 3 + random.nextInt(15);
+            for (int w = 0; w < words; w++) {
+                builder.append("documentation", 0, 2 + random.nextInt(10));
+                builder.append(w == words - 1 ? ". " : " ");
+            }
+            if (random.nextInt(5) == 0) {
+                builder.append("\n\n");
+            }
+        }
+        return builder.toString();
+    }
+
     private String generateSequentialText(int length) {
         StringBuilder builder = new StringBuilder();
         for (int i = 0; i < length; i++) {
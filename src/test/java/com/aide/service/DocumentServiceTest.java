@@ -1,110 +1,413 @@
 package com.aide.service;
 
-import com.aide.controller.dto.UploadResponse;
+import com.aide.controller.dto.IngestionJobResponse;
 import com.aide.model.Document;
-import com.aide.model.DocumentChunk;
-import com.aide.repository.DocumentChunkRepository;
 import com.aide.repository.DocumentRepository;
-import com.aide.service.dto.IngestionResult;
+import com.aide.service.dto.IngestionJob;
+import com.aide.service.dto.IngestionJobStatus;
+import com.aide.service.dto.StoredFile;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockMultipartFile;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 class DocumentServiceTest {
 
     private IngestionService ingestionService;
-    private ChunkingService chunkingService;
-    private EmbeddingService embeddingService;
-    private QdrantService qdrantService;
+    private IngestionPipeline ingestionPipeline;
     private DocumentRepository documentRepository;
-    private DocumentChunkRepository documentChunkRepository;
 
     private DocumentService documentService;
 
     @BeforeEach
     void setUp() {
-        chunkingService = mock(ChunkingService.class);
-        embeddingService = mock(EmbeddingService.class);
-        qdrantService = mock(QdrantService.class);
-        documentRepository = mock(DocumentRepository.class);
-        documentChunkRepository = mock(DocumentChunkRepository.class);
         ingestionService = mock(IngestionService.class);
+        ingestionPipeline = mock(IngestionPipeline.class);
+        documentRepository = mock(DocumentRepository.class);
 
         documentService = new DocumentService(
                 ingestionService,
-                chunkingService,
-                embeddingService,
-                qdrantService,
-                documentRepository,
-                documentChunkRepository
+                ingestionPipeline,
+                documentRepository
         );
     }
 
     @Test
-    void uploadDocumentShouldProcessAndReturnIds() {
+    void uploadDocumentShouldStoreAndQueueJob() {
         MockMultipartFile file = new MockMultipartFile("file", "sample.txt", "text/plain", "sample content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("sample.txt"), "sample.txt", "text/plain", "sha256", 14L);
 
-        when(ingestionService.ingest(file)).thenReturn(new IngestionResult("sample content", Path.of("sample.txt")));
-        when(chunkingService.chunk("sample content")).thenReturn(List.of("chunk-1", "chunk-2"));
+        when(ingestionService.store(file)).thenReturn(storedFile);
         when(documentRepository.save(any())).thenAnswer(invocation -> {
             Document document = invocation.getArgument(0);
             document.setId(100L);
             return document;
         });
-        when(documentChunkRepository.saveAll(any())).thenAnswer(invocation -> {
-            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
-            long id = 1;
-            for (DocumentChunk chunk : chunks) {
-                chunk.setId(id++);
-            }
-            return chunks;
-        });
-        when(embeddingService.embed(anyString())).thenReturn(List.of(0.1f, 0.2f));
+        when(ingestionPipeline.submit(any(), eq(storedFile)))
+                .thenAnswer(invocation -> new IngestionJob("job-1", 100L, "demo"));
 
-        UploadResponse response = documentService.uploadDocument(file, " demo ");
+        IngestionJobResponse response = documentService.uploadDocument(file, " demo ");
 
+        assertThat(response.jobId()).isEqualTo("job-1");
         assertThat(response.documentId()).isEqualTo(100L);
-        assertThat(response.chunkCount()).isEqualTo(2);
+        assertThat(response.status()).isEqualTo(IngestionJobStatus.QUEUED);
 
-        verify(chunkingService).chunk("sample content");
-        verify(documentChunkRepository).saveAll(any());
-        verify(embeddingService, times(2)).embed(anyString());
-        verify(qdrantService, times(2)).storeEmbedding(any(), eq(100L), eq("demo"), any());
+        verify(ingestionService, never()).extract(any(), any());
 
         ArgumentCaptor<Document> documentCaptor = ArgumentCaptor.forClass(Document.class);
         verify(documentRepository).save(documentCaptor.capture());
         assertThat(documentCaptor.getValue().getProject()).isEqualTo("demo");
         assertThat(documentCaptor.getValue().getFilePath()).endsWith("sample.txt");
+        assertThat(documentCaptor.getValue().getContentHash()).isEqualTo("sha256");
+        assertThat(documentCaptor.getValue().getJobId()).isNotNull();
+        assertThat(documentCaptor.getValue().getJobStatus()).isEqualTo(IngestionJobStatus.QUEUED);
+        verify(ingestionPipeline).submit(documentCaptor.getValue(), storedFile);
     }
 
     @Test
-    void uploadDocumentShouldHandleEmptyChunks() {
-        MockMultipartFile file = new MockMultipartFile("file", "sample.txt", "text/plain", "   ".getBytes());
+    void uploadDocumentShouldReuseIdenticalDocumentOfSameProject() {
+        MockMultipartFile file = new MockMultipartFile("file", "copy.txt", "text/plain", "sample content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/sha256"), "copy.txt", "text/plain", "sha256", 14L);
+        Document existing = ingested(5L, "other");
+        Document sameProject = ingested(6L, "demo");
+        when(ingestionService.store(file)).thenReturn(storedFile);
+        when(documentRepository.findByContentHashOrderByIdAsc("sha256")).thenReturn(List.of(existing, sameProject));
+        IngestionJob reused = new IngestionJob("job-3", 6L, "demo");
+        reused.complete();
+        when(ingestionPipeline.reuse(sameProject)).thenReturn(reused);
+
+        IngestionJobResponse response = documentService.uploadDocument(file, "demo");
+
+        assertThat(response.documentId()).isEqualTo(6L);
+        assertThat(response.status()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(response.duplicateOf()).isEqualTo(6L);
+        verify(documentRepository, never()).save(any());
+        verify(ingestionPipeline, never()).submit(any(), any());
+    }
 
-        when(ingestionService.ingest(file)).thenReturn(new IngestionResult("   ", Path.of("sample.txt")));
-        when(chunkingService.chunk("   ")).thenReturn(List.of());
+    @Test
+    void uploadDocumentShouldCopyIdenticalDocumentOfOtherProject() {
+        MockMultipartFile file = new MockMultipartFile("file", "copy.txt", "text/plain", "sample content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/sha256"), "copy.txt", "text/plain", "sha256", 14L);
+        Document existing = ingested(5L, "other");
+        existing.setTextId(50L);
+        when(ingestionService.store(file)).thenReturn(storedFile);
+        when(documentRepository.findByContentHashOrderByIdAsc("sha256")).thenReturn(List.of(existing));
         when(documentRepository.save(any())).thenAnswer(invocation -> {
             Document document = invocation.getArgument(0);
-            document.setId(55L);
+            document.setId(101L);
             return document;
         });
+        when(ingestionPipeline.submitCopy(any(), eq(existing)))
+                .thenAnswer(invocation -> new IngestionJob("job-4", 101L, "demo"));
+
+        IngestionJobResponse response = documentService.uploadDocument(file, "demo");
+
+        assertThat(response.documentId()).isEqualTo(101L);
+        assertThat(response.duplicateOf()).isNull();
+        verify(ingestionPipeline, never()).submit(any(), any());
+    }
+
+    @Test
+    void uploadDocumentShouldExtractAgainWhenIdenticalDocumentHasNoStoredText() {
+        MockMultipartFile file = new MockMultipartFile("file", "copy.txt", "text/plain", "sample content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/sha256"), "copy.txt", "text/plain", "sha256", 14L);
+        when(ingestionService.store(file)).thenReturn(storedFile);
+        when(documentRepository.findByContentHashOrderByIdAsc("sha256")).thenReturn(List.of(ingested(5L, "other")));
+        when(documentRepository.save(any())).thenAnswer(invocation -> {
+            Document document = invocation.getArgument(0);
+            document.setId(102L);
+            return document;
+        });
+        when(ingestionPipeline.submit(any(), eq(storedFile)))
+                .thenAnswer(invocation -> new IngestionJob("job-7", 102L, "demo"));
+
+        IngestionJobResponse response = documentService.uploadDocument(file, "demo");
+
+        assertThat(response.documentId()).isEqualTo(102L);
+        verify(ingestionPipeline, never()).submitCopy(any(), any());
+    }
+
+    @Test
+    void uploadDocumentShouldReturnTheRunningJobOfAnIdenticalDocumentStillBeingIngested() {
+        MockMultipartFile file = new MockMultipartFile("file", "copy.txt", "text/plain", "sample content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/sha256"), "copy.txt", "text/plain", "sha256", 14L);
+        Document running = document(6L, "demo");
+        running.setJobId("job-8");
+        running.setJobStatus(IngestionJobStatus.QUEUED);
+        when(ingestionService.store(file)).thenReturn(storedFile);
+        when(documentRepository.findByContentHashOrderByIdAsc("sha256")).thenReturn(List.of(running));
+        IngestionJob job = new IngestionJob("job-8", 6L, "demo");
+        job.advanceTo(IngestionJobStatus.EMBEDDING);
+        when(ingestionPipeline.findJob("job-8")).thenReturn(Optional.of(job));
+
+        IngestionJobResponse response = documentService.uploadDocument(file, "demo");
 
-        UploadResponse response = documentService.uploadDocument(file, "demo");
+        assertThat(response.jobId()).isEqualTo("job-8");
+        assertThat(response.status()).isEqualTo(IngestionJobStatus.EMBEDDING);
+        assertThat(response.duplicateOf()).isEqualTo(6L);
+        verify(documentRepository, never()).save(any());
+        verify(ingestionPipeline, never()).reuse(any());
+    }
+
+    @Test
+    void uploadDocumentShouldIngestAnIdenticalDocumentAgainWhenItsJobFailed() {
+        MockMultipartFile file = new MockMultipartFile("file", "copy.txt", "text/plain", "sample content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/sha256"), "copy.txt", "text/plain", "sha256", 14L);
+        Document failed = document(5L, "demo");
+        failed.setJobId("job-1");
+        failed.setJobStatus(IngestionJobStatus.FAILED);
+        failed.setJobError("Ingestion queue is full, try again later");
+        when(ingestionService.store(file)).thenReturn(storedFile);
+        when(documentRepository.findByContentHashOrderByIdAsc("sha256")).thenReturn(List.of(failed));
+        when(documentRepository.retryFailedJob(eq(5L), any(), any())).thenReturn(1);
+        when(ingestionPipeline.submit(failed, storedFile))
+                .thenAnswer(invocation -> new IngestionJob(failed.getJobId(), 5L, "demo"));
+
+        IngestionJobResponse response = documentService.uploadDocument(file, "demo");
+
+        assertThat(response.documentId()).isEqualTo(5L);
+        assertThat(response.jobId()).isNotEqualTo("job-1");
+        assertThat(response.status()).isEqualTo(IngestionJobStatus.QUEUED);
+        assertThat(response.duplicateOf()).isNull();
+        verify(documentRepository).retryFailedJob(eq(5L), eq(response.jobId()), any());
+        verify(documentRepository, never()).save(any());
+    }
+
+    @Test
+    void concurrentIdenticalUploadsShouldIngestTheFileOnce() throws Exception {
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/sha256"), "copy.txt", "text/plain", "sha256", 14L);
+        when(ingestionService.store(any())).thenReturn(storedFile);
+        // both uploads look for an identical document before either has saved one
+        CyclicBarrier lookedUp = new CyclicBarrier(2);
+        List<Document> saved = new CopyOnWriteArrayList<>();
+        when(documentRepository.findByContentHashOrderByIdAsc("sha256")).thenAnswer(invocation -> {
+            List<Document> found = List.copyOf(saved);
+            lookedUp.await(5, TimeUnit.SECONDS);
+            return found;
+        });
+        // the unique key on project and content hash
+        when(documentRepository.save(any())).thenAnswer(invocation -> {
+            Document document = invocation.getArgument(0);
+            synchronized (saved) {
+                if (saved.stream().anyMatch(existing -> existing.getProject().equals(document.getProject())
+                        && existing.getContentHash().equals(document.getContentHash()))) {
+                    throw new DataIntegrityViolationException("uk_documents_project_content_hash");
+                }
+                document.setId(100L);
+                saved.add(document);
+            }
+            return document;
+        });
+        when(documentRepository.findByProjectAndContentHash("demo", "sha256"))
+                .thenAnswer(invocation -> saved.stream().findFirst());
+        Map<String, IngestionJob> submitted = new ConcurrentHashMap<>();
+        when(ingestionPipeline.submit(any(), eq(storedFile))).thenAnswer(invocation -> {
+            Document document = invocation.getArgument(0);
+            IngestionJob job = new IngestionJob(document.getJobId(), document.getId(), document.getProject());
+            submitted.put(job.getId(), job);
+            return job;
+        });
+        when(ingestionPipeline.findJob(any())).thenAnswer(invocation -> Optional.ofNullable(submitted.get(invocation.<String>getArgument(0))));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<IngestionJobResponse>> uploads = executor.invokeAll(List.of(
+                    () -> documentService.uploadDocument(new MockMultipartFile("file", "a.txt", "text/plain", "same".getBytes()), "demo"),
+                    () -> documentService.uploadDocument(new MockMultipartFile("file", "b.txt", "text/plain", "same".getBytes()), "demo")
+            ));
+            List<IngestionJobResponse> responses = new ArrayList<>();
+            for (Future<IngestionJobResponse> upload : uploads) {
+                responses.add(upload.get(5, TimeUnit.SECONDS));
+            }
+
+            assertThat(responses).extracting(IngestionJobResponse::jobId).containsOnly(saved.get(0).getJobId());
+            assertThat(responses).extracting(IngestionJobResponse::status).containsOnly(IngestionJobStatus.QUEUED);
+            assertThat(responses).extracting(IngestionJobResponse::duplicateOf).containsExactlyInAnyOrder(null, 100L);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(saved).hasSize(1);
+        verify(ingestionPipeline, times(1)).submit(any(), any());
+        verify(ingestionPipeline, never()).reuse(any());
+    }
+
+    @Test
+    void downloadDocumentShouldResolveStoredBlob(@TempDir Path tempDir) throws IOException {
+        Path blob = Files.writeString(tempDir.resolve("blob"), "content");
+        Document document = document(8L, "demo");
+        document.setName("README.txt");
+        document.setFilePath("ab/cd/blob");
+        when(documentRepository.findById(8L)).thenReturn(Optional.of(document));
+        when(ingestionService.resolve("ab/cd/blob")).thenReturn(blob);
 
-        assertThat(response.documentId()).isEqualTo(55L);
-        assertThat(response.chunkCount()).isZero();
+        ResponseEntity<Resource> response = documentService.downloadDocument(8L);
+
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION)).contains("README.txt");
+        assertThat(response.getBody().getContentAsString(StandardCharsets.UTF_8)).isEqualTo("content");
+    }
+
+    @Test
+    void uploadDocumentShouldRejectBlankProject() {
+        MockMultipartFile file = new MockMultipartFile("file", "sample.txt", "text/plain", "sample content".getBytes());
+
+        assertThatThrownBy(() -> documentService.uploadDocument(file, "  "))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("project must not be null or blank");
+
+        verifyNoInteractions(ingestionService, ingestionPipeline, documentRepository);
+    }
+
+    @Test
+    void updateDocumentShouldSubmitNewVersion() {
+        MockMultipartFile file = new MockMultipartFile("file", "guide.txt", "text/plain", "new content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("ef/gh/new"), "guide.txt", "text/plain", "new", 11L);
+        Document document = document(7L, "demo");
+        document.setContentHash("old");
+        document.setIngestedAt(Instant.now());
+        when(documentRepository.findById(7L)).thenReturn(Optional.of(document));
+        when(ingestionService.store(file)).thenReturn(storedFile);
+        when(ingestionPipeline.submitUpdate(document, storedFile)).thenReturn(new IngestionJob("job-5", 7L, "demo"));
+
+        IngestionJobResponse response = documentService.updateDocument(7L, file);
+
+        assertThat(response.jobId()).isEqualTo("job-5");
+        assertThat(response.documentId()).isEqualTo(7L);
+        verify(documentRepository, never()).save(any());
+    }
+
+    @Test
+    void updateDocumentShouldReuseUnchangedFile() {
+        MockMultipartFile file = new MockMultipartFile("file", "guide.txt", "text/plain", "same content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/same"), "guide.txt", "text/plain", "same", 12L);
+        Document document = document(7L, "demo");
+        document.setContentHash("same");
+        document.setIngestedAt(Instant.now());
+        when(documentRepository.findById(7L)).thenReturn(Optional.of(document));
+        when(ingestionService.store(file)).thenReturn(storedFile);
+        IngestionJob reused = new IngestionJob("job-6", 7L, "demo");
+        reused.complete();
+        when(ingestionPipeline.reuse(document)).thenReturn(reused);
+
+        IngestionJobResponse response = documentService.updateDocument(7L, file);
+
+        assertThat(response.status()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(response.duplicateOf()).isEqualTo(7L);
+        verify(ingestionPipeline, never()).submitUpdate(any(), any());
+    }
+
+    @Test
+    void updateDocumentShouldRejectAVersionIdenticalToAnotherDocumentOfTheProject() {
+        MockMultipartFile file = new MockMultipartFile("file", "guide.txt", "text/plain", "new content".getBytes());
+        StoredFile storedFile = new StoredFile(Path.of("ef/gh/new"), "guide.txt", "text/plain", "new", 11L);
+        Document document = document(7L, "demo");
+        document.setContentHash("old");
+        document.setIngestedAt(Instant.now());
+        when(documentRepository.findById(7L)).thenReturn(Optional.of(document));
+        when(ingestionService.store(file)).thenReturn(storedFile);
+        when(documentRepository.findByProjectAndContentHash("demo", "new")).thenReturn(Optional.of(document(8L, "demo")));
+
+        assertThatThrownBy(() -> documentService.updateDocument(7L, file))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("identical to document 8");
+
+        verify(ingestionPipeline, never()).submitUpdate(any(), any());
+    }
+
+    @Test
+    void updateDocumentShouldRejectDocumentStillBeingIngested() {
+        MockMultipartFile file = new MockMultipartFile("file", "guide.txt", "text/plain", "content".getBytes());
+        when(documentRepository.findById(7L)).thenReturn(Optional.of(document(7L, "demo")));
+
+        assertThatThrownBy(() -> documentService.updateDocument(7L, file))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("has not finished ingesting");
+
+        verifyNoInteractions(ingestionService, ingestionPipeline);
+    }
+
+    @Test
+    void getJobShouldReportProgress() {
+        IngestionJob job = new IngestionJob("job-2", 7L, "demo");
+        job.advanceTo(IngestionJobStatus.EMBEDDING);
+        job.chunked(4);
+        job.embedded(2, 1);
+        when(ingestionPipeline.findJob("job-2")).thenReturn(Optional.of(job));
+
+        IngestionJobResponse response = documentService.getJob("job-2");
+
+        assertThat(response.status()).isEqualTo(IngestionJobStatus.EMBEDDING);
+        assertThat(response.totalChunks()).isEqualTo(4);
+        assertThat(response.embeddedChunks()).isEqualTo(2);
+        assertThat(response.cachedChunks()).isEqualTo(1);
+        assertThat(response.storedChunks()).isZero();
+    }
+
+    @Test
+    void getJobShouldReportTheOutcomeStoredOnTheDocumentOnceTheJobIsNoLongerInMemory() {
+        Document document = document(7L, "demo");
+        document.setJobId("job-3");
+        document.setJobStatus(IngestionJobStatus.FAILED);
+        document.setJobError("Interrupted by a restart");
+        when(ingestionPipeline.findJob("job-3")).thenReturn(Optional.empty());
+        when(documentRepository.findByJobId("job-3")).thenReturn(Optional.of(document));
+
+        IngestionJobResponse response = documentService.getJob("job-3");
+
+        assertThat(response.jobId()).isEqualTo("job-3");
+        assertThat(response.documentId()).isEqualTo(7L);
+        assertThat(response.status()).isEqualTo(IngestionJobStatus.FAILED);
+        assertThat(response.error()).isEqualTo("Interrupted by a restart");
+        assertThat(response.totalChunks()).isNull();
+    }
+
+    @Test
+    void getJobShouldFailForUnknownId() {
+        when(ingestionPipeline.findJob("missing")).thenReturn(Optional.empty());
+        when(documentRepository.findByJobId("missing")).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> documentService.getJob("missing"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("missing");
+    }
+
+    private Document ingested(Long id, String project) {
+        Document document = document(id, project);
+        document.setIngestedAt(Instant.now());
+        return document;
+    }
 
-        verify(documentChunkRepository, never()).saveAll(any());
-        verify(embeddingService, never()).embed(anyString());
-        verify(qdrantService, never()).storeEmbedding(any(), any(), anyString(), any());
+    private Document document(Long id, String project) {
+        Document document = new Document();
+        document.setId(id);
+        document.setProject(project);
+        return document;
     }
-}
\ No newline at end of file
+}
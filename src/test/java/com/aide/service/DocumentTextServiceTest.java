@@ -0,0 +1,189 @@
+package com.aide.service;
+
+import com.aide.model.DocumentChunk;
+import com.aide.model.DocumentText;
+import com.aide.model.DocumentTextBlock;
+import com.aide.repository.DocumentTextBlockRepository;
+import com.aide.repository.DocumentTextRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.aide.service.DocumentTextService.BLOCK_CHARS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DocumentTextServiceTest {
+
+    private DocumentTextRepository documentTextRepository;
+    private DocumentTextBlockRepository documentTextBlockRepository;
+    private final Map<Long, DocumentText> texts = new ConcurrentHashMap<>();
+    private final List<DocumentTextBlock> blocks = new ArrayList<>();
+
+    private DocumentTextService documentTextService;
+
+    @BeforeEach
+    void setUp() {
+        documentTextRepository = mock(DocumentTextRepository.class);
+        AtomicLong ids = new AtomicLong();
+        when(documentTextRepository.save(any())).thenAnswer(invocation -> {
+            DocumentText text = invocation.getArgument(0);
+            text.setId(ids.incrementAndGet());
+            texts.put(text.getId(), text);
+            return text;
+        });
+        when(documentTextRepository.findById(any())).thenAnswer(invocation -> Optional.ofNullable(texts.get(invocation.<Long>getArgument(0))));
+
+        documentTextBlockRepository = mock(DocumentTextBlockRepository.class);
+        when(documentTextBlockRepository.saveAll(any())).thenAnswer(invocation -> {
+            invocation.<Iterable<DocumentTextBlock>>getArgument(0).forEach(blocks::add);
+            return invocation.getArgument(0);
+        });
+        when(documentTextBlockRepository.findByTextIdOrderByBlockIndexAsc(any())).thenAnswer(invocation -> blocks.stream()
+                .filter(block -> block.getTextId().equals(invocation.getArgument(0)))
+                .sorted(Comparator.comparing(DocumentTextBlock::getBlockIndex))
+                .toList());
+        when(documentTextBlockRepository.findByTextIdInAndBlockIndexIn(any(), any())).thenAnswer(invocation -> blocks.stream()
+                .filter(block -> invocation.<Collection<Long>>getArgument(0).contains(block.getTextId())
+                        && invocation.<Collection<Integer>>getArgument(1).contains(block.getBlockIndex()))
+                .toList());
+
+        documentTextService = new DocumentTextService(documentTextRepository, documentTextBlockRepository, 4L * BLOCK_CHARS);
+    }
+
+    @Test
+    void saveShouldCompressTextInBlocksAndLoadShouldRestoreIt() {
+        // the emoji's surrogate pair straddles the first block boundary
+        String content = "a".repeat(BLOCK_CHARS - 1) + "😀" + "Grüße aus der Ingestion. ".repeat(1_900);
+        DocumentTextService.TextWriter writer = documentTextService.newWriter();
+        writer.append(content.substring(0, 10));
+        writer.append(content.substring(10));
+
+        DocumentText saved = documentTextService.save(7L, writer);
+
+        assertThat(saved.getDocumentId()).isEqualTo(7L);
+        assertThat(saved.getLength()).isEqualTo(content.length());
+        assertThat(blocks).extracting(DocumentTextBlock::getBlockIndex).containsExactly(0, 1, 2, 3);
+        assertThat(blocks).allSatisfy(block -> assertThat(block.getTextId()).isEqualTo(saved.getId()));
+        assertThat(blocks.stream().mapToInt(block -> block.getContent().length).sum()).isLessThan(content.length() / 10);
+        assertThat(documentTextService.load(saved.getId())).isEqualTo(content);
+        DocumentTextService.Slice emoji = new DocumentTextService.Slice(saved.getId(), BLOCK_CHARS - 1, BLOCK_CHARS + 1);
+        assertThat(documentTextService.loadSlices(List.of(emoji))).containsEntry(emoji, "😀");
+    }
+
+    @Test
+    void copyShouldReuseCompressedBlocksForAnotherDocument() {
+        DocumentText source = save(3L, "shared text");
+
+        DocumentText copy = documentTextService.copy(source.getId(), 4L);
+
+        assertThat(copy.getId()).isNotEqualTo(source.getId());
+        assertThat(copy.getDocumentId()).isEqualTo(4L);
+        assertThat(copy.getLength()).isEqualTo(source.getLength());
+        assertThat(blocks).hasSize(2);
+        assertThat(blocks.get(1).getTextId()).isEqualTo(copy.getId());
+        assertThat(blocks.get(1).getContent()).isEqualTo(blocks.get(0).getContent());
+        assertThat(documentTextService.load(copy.getId())).isEqualTo("shared text");
+    }
+
+    @Test
+    void loadSlicesShouldOnlyDecompressTheBlocksASliceOverlaps() {
+        String content = "a".repeat(BLOCK_CHARS) + "b".repeat(BLOCK_CHARS) + "c".repeat(BLOCK_CHARS);
+        DocumentText saved = save(1L, content);
+        DocumentTextService.Slice inside = new DocumentTextService.Slice(saved.getId(), BLOCK_CHARS + 10, BLOCK_CHARS + 15);
+        DocumentTextService.Slice across = new DocumentTextService.Slice(saved.getId(), 2 * BLOCK_CHARS - 2, 2 * BLOCK_CHARS + 2);
+
+        Map<DocumentTextService.Slice, String> slices = documentTextService.loadSlices(List.of(inside));
+
+        assertThat(slices).containsExactly(Map.entry(inside, "bbbbb"));
+        verify(documentTextBlockRepository).findByTextIdInAndBlockIndexIn(Set.of(saved.getId()), Set.of(1));
+        // block 1 is cached, only block 2 is read
+        assertThat(documentTextService.loadSlices(List.of(across))).containsExactly(Map.entry(across, "bbcc"));
+        verify(documentTextBlockRepository).findByTextIdInAndBlockIndexIn(Set.of(saved.getId()), Set.of(2));
+        verify(documentTextBlockRepository, never()).findByTextIdOrderByBlockIndexAsc(any());
+    }
+
+    @Test
+    void loadSlicesShouldCacheBlocksUpToCharLimit() {
+        documentTextService = new DocumentTextService(documentTextRepository, documentTextBlockRepository, 2L * BLOCK_CHARS);
+        DocumentText first = save(1L, "0".repeat(BLOCK_CHARS));
+        DocumentText second = save(2L, "1".repeat(BLOCK_CHARS));
+        DocumentText third = save(3L, "2".repeat(BLOCK_CHARS));
+
+        loadFirstChar(first);
+        loadFirstChar(second);
+        loadFirstChar(first);
+        // three blocks exceed the limit of two: the least recently used one is evicted
+        loadFirstChar(third);
+        loadFirstChar(first);
+        loadFirstChar(second);
+
+        verify(documentTextBlockRepository, times(1)).findByTextIdInAndBlockIndexIn(Set.of(first.getId()), Set.of(0));
+        verify(documentTextBlockRepository, times(2)).findByTextIdInAndBlockIndexIn(Set.of(second.getId()), Set.of(0));
+        verify(documentTextBlockRepository, times(1)).findByTextIdInAndBlockIndexIn(Set.of(third.getId()), Set.of(0));
+    }
+
+    @Test
+    void loadSlicesShouldSkipSlicesOfMissingTexts() {
+        DocumentText saved = save(1L, "hello world");
+        DocumentTextService.Slice present = new DocumentTextService.Slice(saved.getId(), 6, 11);
+        DocumentTextService.Slice missing = new DocumentTextService.Slice(99L, 0, 4);
+
+        Map<DocumentTextService.Slice, String> slices = documentTextService.loadSlices(List.of(present, missing));
+
+        assertThat(slices).containsExactly(Map.entry(present, "world"));
+    }
+
+    @Test
+    void deleteShouldRemoveTheBlocksAndEvictThem() {
+        DocumentText saved = save(1L, "cached");
+        loadFirstChar(saved);
+
+        documentTextService.delete(saved.getId());
+
+        verify(documentTextBlockRepository).deleteByText(saved.getId());
+        verify(documentTextRepository).deleteById(saved.getId());
+        blocks.clear();
+        assertThat(documentTextService.loadSlices(List.of(new DocumentTextService.Slice(saved.getId(), 0, 1)))).isEmpty();
+    }
+
+    @Test
+    void loadShouldFailForMissingText() {
+        assertThatThrownBy(() -> documentTextService.load(99L))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("99");
+    }
+
+    @Test
+    void sliceShouldPreferInlineContentOfOlderChunks() {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setStartOffset(6);
+        chunk.setEndOffset(11);
+        assertThat(DocumentTextService.slice("hello world", chunk)).isEqualTo("world");
+
+        DocumentChunk legacy = new DocumentChunk();
+        legacy.setContent("inline");
+        assertThat(DocumentTextService.slice(null, legacy)).isEqualTo("inline");
+    }
+
+    private void loadFirstChar(DocumentText text) {
+        documentTextService.loadSlices(List.of(new DocumentTextService.Slice(text.getId(), 0, 1)));
+    }
+
+    private DocumentText save(Long documentId, String content) {
+        DocumentTextService.TextWriter writer = documentTextService.newWriter();
+        writer.append(content);
+        return documentTextService.save(documentId, writer);
+    }
+}
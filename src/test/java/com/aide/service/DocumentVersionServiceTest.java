@@ -0,0 +1,89 @@
+package com.aide.service;
+
+import com.aide.model.Document;
+import com.aide.model.DocumentChunk;
+import com.aide.repository.DocumentChunkRepository;
+import com.aide.repository.DocumentRepository;
+import com.aide.service.dto.DocumentVersion;
+import com.aide.service.dto.StoredFile;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class DocumentVersionServiceTest {
+
+    private DocumentRepository documentRepository;
+    private DocumentChunkRepository documentChunkRepository;
+    private DocumentTextService documentTextService;
+
+    private DocumentVersionService documentVersionService;
+
+    @BeforeEach
+    void setUp() {
+        documentRepository = mock(DocumentRepository.class);
+        documentChunkRepository = mock(DocumentChunkRepository.class);
+        documentTextService = mock(DocumentTextService.class);
+
+        documentVersionService = new DocumentVersionService(documentRepository, documentChunkRepository, documentTextService);
+    }
+
+    @Test
+    void swapShouldReplacePreviousVersion() {
+        Document document = new Document();
+        document.setId(7L);
+        document.setName("guide-v1.txt");
+        document.setTextId(40L);
+        when(documentRepository.findById(7L)).thenReturn(Optional.of(document));
+        DocumentChunk kept = new DocumentChunk();
+        kept.setId(3L);
+        kept.setChunkIndex(2);
+        kept.setContent("legacy content");
+        when(documentChunkRepository.findAllById(Set.of(3L))).thenReturn(List.of(kept));
+        StoredFile storedFile = new StoredFile(Path.of("/docs/ab/cd/v2"), "guide-v2.txt", "text/plain", "v2", 18L);
+
+        documentVersionService.swap(new DocumentVersion(7L, storedFile, 41L, Map.of(3L, new DocumentVersion.ChunkPosition(1, 450, 950, "Setup")), List.of(2L)));
+
+        assertThat(document.getName()).isEqualTo("guide-v2.txt");
+        assertThat(document.getFilePath()).isEqualTo(storedFile.path().toString());
+        assertThat(document.getContentHash()).isEqualTo("v2");
+        assertThat(document.getIngestedAt()).isNotNull();
+        assertThat(document.getTextId()).isEqualTo(41L);
+        assertThat(kept.getChunkIndex()).isEqualTo(1);
+        assertThat(kept.getStartOffset()).isEqualTo(450);
+        assertThat(kept.getEndOffset()).isEqualTo(950);
+        assertThat(kept.getHeadingPath()).isEqualTo("Setup");
+        assertThat(kept.getContent()).isNull();
+        verify(documentChunkRepository).deleteAllByIdInBatch(List.of(2L));
+        verify(documentChunkRepository).publishPending(7L);
+        verify(documentTextService).delete(40L);
+    }
+
+    @Test
+    void publishShouldMarkDocumentIngestedAndPublishItsChunks() {
+        documentVersionService.publish(8L, 42L);
+
+        verify(documentRepository).markIngested(eq(8L), eq(42L), any());
+        verify(documentChunkRepository).publishPending(8L);
+        verifyNoInteractions(documentTextService);
+    }
+
+    @Test
+    void swapShouldFailForMissingDocument() {
+        when(documentRepository.findById(7L)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> documentVersionService.swap(new DocumentVersion(7L, null, null, Map.of(), List.of())))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("7");
+        verify(documentChunkRepository, never()).publishPending(anyLong());
+    }
+}
@@ -0,0 +1,94 @@
+package com.aide.service;
+
+import com.aide.model.EmbeddingCacheEntry;
+import com.aide.repository.EmbeddingCacheRepository;
+import com.aide.service.dto.CachedEmbeddings;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class EmbeddingCacheServiceTest {
+
+    private static final String MODEL = "gemini-embedding-001";
+    private static final int DIMENSIONS = 2;
+
+    private EmbeddingService embeddingService;
+    private EmbeddingCacheRepository embeddingCacheRepository;
+    private SimpleMeterRegistry meterRegistry;
+
+    private EmbeddingCacheService embeddingCacheService;
+
+    @BeforeEach
+    void setUp() {
+        embeddingService = mock(EmbeddingService.class);
+        embeddingCacheRepository = mock(EmbeddingCacheRepository.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        embeddingCacheService = new EmbeddingCacheService(embeddingService, embeddingCacheRepository, meterRegistry, MODEL, DIMENSIONS);
+    }
+
+    @Test
+    void embedAllShouldOnlyEmbedMissesAndCacheThem() {
+        EmbeddingCacheEntry cached = new EmbeddingCacheEntry();
+        cached.setModel(MODEL);
+        cached.setContentHash(EmbeddingCacheService.contentHash("cached text"));
+        cached.setVector(EmbeddingCacheService.toBytes(new float[]{1f, 2f}));
+        when(embeddingCacheRepository.findByModelAndDimensionsAndContentHashIn(eq(MODEL), eq(DIMENSIONS), anyCollection())).thenReturn(List.of(cached));
+        when(embeddingService.embedBatch(List.of("new text"))).thenReturn(List.of(new float[]{3f, 4f}));
+
+        CachedEmbeddings result = embeddingCacheService.embedAll(List.of("new text", "cached   text", "new text"));
+
+        assertThat(result.vectors()).containsExactly(new float[]{3f, 4f}, new float[]{1f, 2f}, new float[]{3f, 4f});
+        assertThat(result.hits()).isEqualTo(1);
+        assertThat(result.misses()).isEqualTo(2);
+        assertThat(meterRegistry.get("aide.embedding.cache.requests").tag("result", "hit").counter().count()).isEqualTo(1d);
+        assertThat(meterRegistry.get("aide.embedding.cache.requests").tag("result", "miss").counter().count()).isEqualTo(2d);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<EmbeddingCacheEntry>> saved = ArgumentCaptor.forClass(List.class);
+        verify(embeddingCacheRepository).saveAll(saved.capture());
+        assertThat(saved.getValue()).singleElement().satisfies(entry -> {
+            assertThat(entry.getModel()).isEqualTo(MODEL);
+            assertThat(entry.getContentHash()).isEqualTo(EmbeddingCacheService.contentHash("new text"));
+            assertThat(entry.getDimensions()).isEqualTo(2);
+        });
+    }
+
+    @Test
+    void embedAllShouldSkipGeminiWhenEverythingIsCached() {
+        EmbeddingCacheEntry cached = new EmbeddingCacheEntry();
+        cached.setContentHash(EmbeddingCacheService.contentHash("cached"));
+        cached.setVector(EmbeddingCacheService.toBytes(new float[]{0.5f}));
+        when(embeddingCacheRepository.findByModelAndDimensionsAndContentHashIn(eq(MODEL), eq(DIMENSIONS), anyCollection())).thenReturn(List.of(cached));
+
+        CachedEmbeddings result = embeddingCacheService.embedAll(List.of("cached"));
+
+        assertThat(result.vectors()).containsExactly(new float[]{0.5f});
+        assertThat(result.hits()).isEqualTo(1);
+        verifyNoInteractions(embeddingService);
+        verify(embeddingCacheRepository, never()).saveAll(any());
+    }
+
+    @Test
+    void evictOtherModelsShouldDropEntriesOfPreviousModelsAndDimensions() {
+        when(embeddingCacheRepository.deleteByModelNotOrDimensionsNot(MODEL, DIMENSIONS)).thenReturn(3);
+
+        embeddingCacheService.evictOtherModels();
+
+        verify(embeddingCacheRepository).deleteByModelNotOrDimensionsNot(MODEL, DIMENSIONS);
+    }
+
+    @Test
+    void contentHashShouldIgnoreWhitespaceDifferences() {
+        assertThat(EmbeddingCacheService.contentHash("  reset\n your   password "))
+                .isEqualTo(EmbeddingCacheService.contentHash("reset your password"))
+                .hasSize(64);
+    }
+}
@@ -5,14 +5,21 @@ import com.google.genai.errors.ApiException;
 import com.google.genai.types.ContentEmbedding;
 import com.google.genai.types.EmbedContentConfig;
 import com.google.genai.types.EmbedContentResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -24,13 +31,13 @@ class EmbeddingServiceTest {
     @BeforeEach
     void setUp() {
         models = mock(Models.class);
-        embeddingService = new EmbeddingService(models, "gemini-embedding-001");
+        embeddingService = new EmbeddingService(geminiClient(models), "gemini-embedding-001", 2, 3072);
     }
 
     @Test
     void embedShouldReturnEmbeddingOnSuccess() {
         ContentEmbedding embedding = ContentEmbedding.builder()
-                .values(List.of(0.1f, 0.2f, 0.3f))
+                .values(fullSize(0.1f, 0.2f, 0.3f))
                 .build();
         EmbedContentResponse response = EmbedContentResponse.builder()
                 .embeddings(List.of(embedding))
@@ -39,12 +46,44 @@ class EmbeddingServiceTest {
         when(models.embedContent(eq("gemini-embedding-001"), eq("hello world"), any(EmbedContentConfig.class)))
                 .thenReturn(response);
 
-        List<Float> result = embeddingService.embed("hello world");
+        float[] result = embeddingService.embed("hello world");
 
-        assertThat(result).containsExactly(0.1f, 0.2f, 0.3f);
+        assertThat(result).hasSize(EmbeddingService.FULL_DIMENSIONS).startsWith(0.1f, 0.2f, 0.3f);
         verify(models).embedContent(eq("gemini-embedding-001"), eq("hello world"), any(EmbedContentConfig.class));
     }
 
+    @Test
+    void embedShouldRequestFewerDimensionsAndRenormalize() {
+        EmbeddingService truncating = new EmbeddingService(geminiClient(models), "gemini-embedding-001", 2, 2);
+        when(models.embedContent(eq("gemini-embedding-001"), eq("hello world"), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(List.of(3f, 4f, 12f)));
+
+        float[] result = truncating.embed("hello world");
+
+        assertThat(result).containsExactly(0.6f, 0.8f);
+        ArgumentCaptor<EmbedContentConfig> config = ArgumentCaptor.forClass(EmbedContentConfig.class);
+        verify(models).embedContent(eq("gemini-embedding-001"), eq("hello world"), config.capture());
+        assertThat(config.getValue().outputDimensionality()).contains(2);
+    }
+
+    @Test
+    void embedShouldRejectEmbeddingsShorterThanTheConfiguredDimensions() {
+        EmbeddingService reduced = new EmbeddingService(geminiClient(models), "gemini-embedding-001", 2, 4);
+        when(models.embedContent(eq("gemini-embedding-001"), eq("hello world"), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(List.of(3f, 4f, 12f)));
+
+        assertThatThrownBy(() -> reduced.embed("hello world"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("3 values, expected 4");
+    }
+
+    @Test
+    void constructorShouldRejectUnsupportedDimensions() {
+        assertThatThrownBy(() -> new EmbeddingService(geminiClient(models), "gemini-embedding-001", 2, 4096))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("3072");
+    }
+
     @Test
     void embedShouldThrowWhenTextIsBlank() {
         assertThatThrownBy(() -> embeddingService.embed("  "))
@@ -61,4 +100,103 @@ class EmbeddingServiceTest {
                 .isInstanceOf(IllegalStateException.class)
                 .hasMessageContaining("bad");
     }
+
+    @Test
+    void embedBatchShouldSplitByBatchSizeAndPreserveOrder() {
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("a", "b")), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(fullSize(1f), fullSize(2f)));
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("c")), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(fullSize(3f)));
+
+        List<float[]> result = embeddingService.embedBatch(List.of("a", "b", "c"));
+
+        assertThat(result).containsExactly(vector(1f), vector(2f), vector(3f));
+        verify(models, times(2)).embedContent(eq("gemini-embedding-001"), anyList(), any(EmbedContentConfig.class));
+    }
+
+    @Test
+    void embedBatchShouldRetryRejectedBatchInHalves() {
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("a", "b")), any(EmbedContentConfig.class)))
+                .thenThrow(new ApiException(400, "INVALID_ARGUMENT", "bad batch"));
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("a")), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(fullSize(1f)));
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("b")), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(fullSize(2f)));
+
+        List<float[]> result = embeddingService.embedBatch(List.of("a", "b"));
+
+        assertThat(result).containsExactly(vector(1f), vector(2f));
+    }
+
+    @Test
+    void embedBatchShouldReportTheRejectedTextAndEmbedTheOthers() {
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("a", "b")), any(EmbedContentConfig.class)))
+                .thenThrow(new ApiException(400, "INVALID_ARGUMENT", "bad batch"));
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("a")), any(EmbedContentConfig.class)))
+                .thenThrow(new ApiException(400, "INVALID_ARGUMENT", "bad text"));
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("b")), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(fullSize(2f)));
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("c")), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(fullSize(3f)));
+        List<Integer> rejected = new ArrayList<>();
+
+        List<float[]> result = embeddingService.embedBatch(List.of("a", "b", "c"), GeminiClient.Lane.INTERACTIVE,
+                (failure, index) -> rejected.add(index));
+
+        assertThat(result).containsExactly(null, vector(2f), vector(3f));
+        assertThat(rejected).containsExactly(0);
+    }
+
+    @Test
+    void embedBatchShouldRetryIncompleteResponseAndFailOnSingleText() {
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("a", "b")), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(fullSize(1f)));
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("a")), any(EmbedContentConfig.class)))
+                .thenReturn(responseOf(fullSize(1f)));
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("b")), any(EmbedContentConfig.class)))
+                .thenReturn(EmbedContentResponse.builder().embeddings(List.of()).build());
+
+        assertThatThrownBy(() -> embeddingService.embedBatch(List.of("a", "b")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Empty embedding response");
+    }
+
+    @Test
+    void embedBatchShouldNotSplitOnServerErrors() {
+        when(models.embedContent(eq("gemini-embedding-001"), eq(List.of("a", "b")), any(EmbedContentConfig.class)))
+                .thenThrow(new ApiException(500, "INTERNAL", "down"));
+
+        assertThatThrownBy(() -> embeddingService.embedBatch(List.of("a", "b")))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("down");
+        verify(models, times(1)).embedContent(eq("gemini-embedding-001"), anyList(), any(EmbedContentConfig.class));
+    }
+
+    /**
+     * Without rate limit and retries, so every test sees exactly the calls it stubs.
+     */
+    private static GeminiClient geminiClient(Models models) {
+        return new GeminiClient(models, new SimpleMeterRegistry(), 0, 1, 4, 4, 4, 1, 1, Duration.ZERO, Duration.ZERO);
+    }
+
+    @SafeVarargs
+    private EmbedContentResponse responseOf(List<Float>... vectors) {
+        return EmbedContentResponse.builder()
+                .embeddings(Arrays.stream(vectors)
+                        .map(values -> ContentEmbedding.builder().values(values).build())
+                        .toList())
+                .build();
+    }
+
+    private static List<Float> fullSize(float... leading) {
+        List<Float> values = new ArrayList<>(Collections.nCopies(EmbeddingService.FULL_DIMENSIONS, 0f));
+        for (int i = 0; i < leading.length; i++) {
+            values.set(i, leading[i]);
+        }
+        return values;
+    }
+
+    private static float[] vector(float... leading) {
+        return Arrays.copyOf(leading, EmbeddingService.FULL_DIMENSIONS);
+    }
 }
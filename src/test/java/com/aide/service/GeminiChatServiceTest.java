@@ -1,10 +1,14 @@
 package com.aide.service;
 
 import com.google.genai.Models;
+import com.google.genai.errors.ApiException;
 import com.google.genai.types.GenerateContentConfig;
 import com.google.genai.types.GenerateContentResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.anyString;
@@ -28,7 +32,7 @@ class GeminiChatServiceTest {
                 any(GenerateContentConfig.class)
         )).thenReturn(response);
 
-        GeminiChatService service = new GeminiChatService(models, modelName);
+        GeminiChatService service = chatService(models, modelName);
 
         // when
         String result = service.generateAnswer(prompt);
@@ -39,7 +43,7 @@ class GeminiChatServiceTest {
 
     @Test
     void shouldThrowExceptionWhenPromptIsNull() {
-        GeminiChatService service = new GeminiChatService(mock(Models.class), "gemini-pro");
+        GeminiChatService service = chatService(mock(Models.class), "gemini-pro");
 
         assertThatThrownBy(() -> service.generateAnswer(null))
                 .isInstanceOf(IllegalArgumentException.class)
@@ -48,7 +52,7 @@ class GeminiChatServiceTest {
 
     @Test
     void shouldThrowExceptionWhenPromptIsBlank() {
-        GeminiChatService service = new GeminiChatService(mock(Models.class), "gemini-pro");
+        GeminiChatService service = chatService(mock(Models.class), "gemini-pro");
 
         assertThatThrownBy(() -> service.generateAnswer("   "))
                 .isInstanceOf(IllegalArgumentException.class)
@@ -64,11 +68,33 @@ class GeminiChatServiceTest {
         when(response.text()).thenReturn(null);
         when(models.generateContent(anyString(), anyString(), any(GenerateContentConfig.class))).thenReturn(response);
 
-        GeminiChatService service = new GeminiChatService(models, "gemini-pro");
+        GeminiChatService service = chatService(models, "gemini-pro");
 
         // when / then
         assertThatThrownBy(() -> service.generateAnswer("test prompt"))
                 .isInstanceOf(IllegalStateException.class)
                 .hasMessageContaining("Empty response from Gemini");
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldNotRetryGenerationWhenGeminiIsThrottling() {
+        Models models = mock(Models.class);
+        when(models.generateContent(anyString(), anyString(), any(GenerateContentConfig.class)))
+                .thenThrow(new ApiException(429, "RESOURCE_EXHAUSTED", "quota"));
+        GeminiChatService service = new GeminiChatService(
+                new GeminiClient(models, new SimpleMeterRegistry(), 0, 1, 4, 4, 4, 1, 3, Duration.ZERO, Duration.ZERO),
+                "gemini-pro"
+        );
+
+        assertThatThrownBy(() -> service.generateAnswer("test prompt"))
+                .isInstanceOf(ApiException.class);
+        verify(models, times(1)).generateContent(anyString(), anyString(), any(GenerateContentConfig.class));
+    }
+
+    private static GeminiChatService chatService(Models models, String modelName) {
+        return new GeminiChatService(
+                new GeminiClient(models, new SimpleMeterRegistry(), 0, 1, 4, 4, 4, 1, 1, Duration.ZERO, Duration.ZERO),
+                modelName
+        );
+    }
+}
@@ -0,0 +1,204 @@
+package com.aide.service;
+
+import com.google.genai.Models;
+import com.google.genai.errors.ApiException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.aide.service.GeminiClient.Lane.BULK;
+import static com.aide.service.GeminiClient.Lane.INTERACTIVE;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+
+class GeminiClientTest {
+
+    private static final String MODEL = "gemini-embedding-001";
+
+    private SimpleMeterRegistry meterRegistry;
+    private GeminiClient geminiClient;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        geminiClient = new GeminiClient(mock(Models.class), meterRegistry, 0, 1, 4, 8, 4, 1, 3, Duration.ofMillis(1), Duration.ofMillis(5));
+    }
+
+    @Test
+    void callShouldRetryThrottledIdempotentCallsAndLowerTheLimit() {
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = geminiClient.call(MODEL, BULK, true, models -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new ApiException(429, "RESOURCE_EXHAUSTED", "quota");
+            }
+            return "vector";
+        });
+
+        assertThat(result).isEqualTo("vector");
+        assertThat(calls).hasValue(3);
+        assertThat(meterRegistry.get("aide.gemini.calls.throttled").tag("model", MODEL).counter().count()).isEqualTo(2d);
+        assertThat(geminiClient.concurrencyLimit(MODEL)).isLessThan(4);
+        assertThat(meterRegistry.get("aide.gemini.concurrency.limit").tag("model", MODEL).gauge().value())
+                .isEqualTo(geminiClient.concurrencyLimit(MODEL));
+        assertThat(meterRegistry.get("aide.gemini.queue.depth").tags("model", MODEL, "lane", "bulk").gauge().value()).isZero();
+        assertThat(meterRegistry.get("aide.gemini.queue.wait").tags("model", MODEL, "lane", "bulk").timer().count()).isEqualTo(3);
+    }
+
+    @Test
+    void callShouldGiveUpAfterTheLastAttempt() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> geminiClient.call(MODEL, BULK, true, models -> {
+            calls.incrementAndGet();
+            throw new ApiException(503, "UNAVAILABLE", "overloaded");
+        }))
+                .isInstanceOf(ApiException.class)
+                .hasMessageContaining("overloaded");
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test
+    void callShouldNotRetryClientErrorsOrNonIdempotentCalls() {
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> geminiClient.call(MODEL, BULK, true, models -> {
+            calls.incrementAndGet();
+            throw new ApiException(400, "INVALID_ARGUMENT", "bad");
+        })).isInstanceOf(ApiException.class);
+        assertThatThrownBy(() -> geminiClient.call("gemini-2.5-flash", INTERACTIVE, false, models -> {
+            calls.incrementAndGet();
+            throw new ApiException(429, "RESOURCE_EXHAUSTED", "quota");
+        })).isInstanceOf(ApiException.class);
+
+        assertThat(calls).hasValue(2);
+        assertThat(geminiClient.concurrencyLimit(MODEL)).isEqualTo(4);
+    }
+
+    @Test
+    void callShouldRaiseTheLimitWithSuccessesUpToTheMaximum() {
+        for (int i = 0; i < 100; i++) {
+            geminiClient.call(MODEL, BULK, true, models -> "vector");
+        }
+
+        assertThat(geminiClient.concurrencyLimit(MODEL)).isEqualTo(8);
+    }
+
+    @Test
+    void adaptiveLimitShouldHalveOnceForCallsSentUnderTheSameLimit() {
+        GeminiClient.AdaptiveLimit limit = new GeminiClient.AdaptiveLimit(8, 8, 4, 1);
+        long first = limit.acquire(BULK);
+        long second = limit.acquire(INTERACTIVE);
+
+        limit.onThrottled(first);
+        limit.onThrottled(second);
+        assertThat(limit.limit()).isEqualTo(4);
+
+        limit.onThrottled(limit.acquire(BULK));
+        assertThat(limit.limit()).isEqualTo(2);
+    }
+
+    @Test
+    void adaptiveLimitShouldMakeCallsWaitForAFreeSlot() throws Exception {
+        GeminiClient.AdaptiveLimit limit = new GeminiClient.AdaptiveLimit(1, 1, 4, 0);
+        limit.acquire(INTERACTIVE);
+
+        CompletableFuture<Long> waiting = new CompletableFuture<>();
+        Thread thread = Thread.ofPlatform().start(() -> waiting.complete(limit.acquire(INTERACTIVE)));
+        awaitWaiting(List.of(thread));
+        assertThat(waiting).isNotDone();
+
+        limit.onFailure();
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isZero();
+    }
+
+    @Test
+    void adaptiveLimitShouldKeepTheReserveFreeForInteractiveCalls() throws Exception {
+        GeminiClient.AdaptiveLimit limit = new GeminiClient.AdaptiveLimit(3, 3, 4, 1);
+        limit.acquire(BULK);
+        limit.acquire(BULK);
+
+        CompletableFuture<Long> bulk = new CompletableFuture<>();
+        Thread thread = Thread.ofPlatform().start(() -> bulk.complete(limit.acquire(BULK)));
+        awaitWaiting(List.of(thread));
+        assertThat(bulk).isNotDone();
+
+        limit.acquire(INTERACTIVE);
+        limit.onFailure();
+        limit.onFailure();
+        assertThat(bulk.get(5, TimeUnit.SECONDS)).isZero();
+    }
+
+    @Test
+    void adaptiveLimitShouldShareContendedSlotsByWeight() throws Exception {
+        GeminiClient.AdaptiveLimit limit = new GeminiClient.AdaptiveLimit(1, 1, 3, 0);
+        limit.acquire(INTERACTIVE);
+
+        List<GeminiClient.Lane> granted = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (GeminiClient.Lane lane : List.of(BULK, BULK, BULK, BULK, INTERACTIVE, INTERACTIVE, INTERACTIVE, INTERACTIVE)) {
+            threads.add(Thread.ofPlatform().start(() -> {
+                limit.acquire(lane);
+                granted.add(lane);
+                limit.onSuccess();
+            }));
+        }
+        awaitWaiting(threads);
+        limit.onSuccess();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertThat(granted).hasSize(8);
+        assertThat(granted.subList(0, 4)).filteredOn(lane -> lane == INTERACTIVE).hasSize(3);
+    }
+
+    @Test
+    void tokenBucketShouldSpaceCallsBeyondTheBurst() {
+        AtomicLong now = new AtomicLong();
+        GeminiClient.TokenBucket bucket = new GeminiClient.TokenBucket(10, 2, now::get);
+
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isZero();
+        assertThat(bucket.reserve()).isCloseTo(TimeUnit.MILLISECONDS.toNanos(100), within(1L));
+        assertThat(bucket.reserve()).isCloseTo(TimeUnit.MILLISECONDS.toNanos(200), within(1L));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        assertThat(bucket.reserve()).isZero();
+    }
+
+    @Test
+    void constructorShouldRejectInvalidSettings() {
+        assertThatThrownBy(() -> new GeminiClient(mock(Models.class), meterRegistry, 10, 0, 4, 8, 4, 1, 3, Duration.ZERO, Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new GeminiClient(mock(Models.class), meterRegistry, 0, 1, 16, 8, 4, 1, 3, Duration.ZERO, Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new GeminiClient(mock(Models.class), meterRegistry, 0, 1, 4, 8, 4, 1, 0, Duration.ZERO, Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new GeminiClient(mock(Models.class), meterRegistry, 0, 1, 4, 8, 4, 8, 3, Duration.ZERO, Duration.ZERO))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Waits until the threads are parked, i.e. queued for a slot.
+     */
+    private static void awaitWaiting(List<Thread> threads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+    }
+}
@@ -0,0 +1,687 @@
+package com.aide.service;
+
+import com.aide.model.Document;
+import com.aide.model.DocumentChunk;
+import com.aide.model.DocumentText;
+import com.aide.model.DocumentTextBlock;
+import com.aide.repository.DocumentChunkRepository;
+import com.aide.repository.DocumentRepository;
+import com.aide.repository.DocumentTextBlockRepository;
+import com.aide.repository.DocumentTextRepository;
+import com.aide.service.dto.CachedEmbeddings;
+import com.aide.service.dto.ChunkEmbedding;
+import com.aide.service.dto.DocumentVersion;
+import com.aide.service.dto.IngestionJob;
+import com.aide.service.dto.IngestionJobStatus;
+import com.aide.service.dto.StoredFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IngestionPipelineTest {
+
+    private IngestionService ingestionService;
+    private ChunkingService chunkingService;
+    private EmbeddingCacheService embeddingCacheService;
+    private VectorStore vectorStore;
+    private DocumentChunkRepository documentChunkRepository;
+    private DocumentRepository documentRepository;
+    private DocumentVersionService documentVersionService;
+    private DocumentTextRepository documentTextRepository;
+    private DocumentTextService documentTextService;
+    private NearDuplicateIndex nearDuplicateIndex;
+
+    private IngestionPipeline pipeline;
+
+    @BeforeEach
+    void setUp() {
+        ingestionService = mock(IngestionService.class);
+        chunkingService = new ChunkingService(6, 0);
+        embeddingCacheService = mock(EmbeddingCacheService.class);
+        vectorStore = mock(VectorStore.class);
+        documentChunkRepository = mock(DocumentChunkRepository.class);
+        documentRepository = mock(DocumentRepository.class);
+        documentVersionService = mock(DocumentVersionService.class);
+        documentTextRepository = mock(DocumentTextRepository.class);
+        Map<Long, DocumentText> texts = new ConcurrentHashMap<>();
+        AtomicLong textIds = new AtomicLong(100);
+        when(documentTextRepository.save(any())).thenAnswer(invocation -> {
+            DocumentText text = invocation.getArgument(0);
+            text.setId(textIds.incrementAndGet());
+            texts.put(text.getId(), text);
+            return text;
+        });
+        when(documentTextRepository.findById(any())).thenAnswer(invocation -> Optional.ofNullable(texts.get(invocation.<Long>getArgument(0))));
+        DocumentTextBlockRepository documentTextBlockRepository = mock(DocumentTextBlockRepository.class);
+        List<DocumentTextBlock> blocks = new CopyOnWriteArrayList<>();
+        when(documentTextBlockRepository.saveAll(any())).thenAnswer(invocation -> {
+            invocation.<Iterable<DocumentTextBlock>>getArgument(0).forEach(blocks::add);
+            return invocation.getArgument(0);
+        });
+        when(documentTextBlockRepository.findByTextIdOrderByBlockIndexAsc(any())).thenAnswer(invocation -> blocks.stream()
+                .filter(block -> block.getTextId().equals(invocation.getArgument(0)))
+                .toList());
+        documentTextService = new DocumentTextService(documentTextRepository, documentTextBlockRepository, 1000);
+        nearDuplicateIndex = new NearDuplicateIndex(documentChunkRepository, true, 0.8);
+
+        pipeline = newPipeline();
+    }
+
+    private IngestionPipeline newPipeline() {
+        return new IngestionPipeline(
+                ingestionService,
+                chunkingService,
+                embeddingCacheService,
+                vectorStore,
+                documentChunkRepository,
+                documentRepository,
+                documentVersionService,
+                documentTextService,
+                nearDuplicateIndex,
+                2, 4, 1, 1, 2, 1,
+                Duration.ofHours(1)
+        );
+    }
+
+    @AfterEach
+    void tearDown() {
+        pipeline.shutdown();
+    }
+
+    @Test
+    void submitShouldRunAllStagesAndComplete() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("sample.txt"), "sample.txt", "text/plain", "sha256", 14L);
+        // "sample", " conte", "nt"
+        streamText(storedFile, 12L, "sample ", "content");
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            long id = 1;
+            for (DocumentChunk chunk : chunks) {
+                chunk.setId(id++);
+            }
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f, 0.2f}).toList(), 1, texts.size() - 1);
+        });
+
+        IngestionJob job = pipeline.submit(document(100L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(job.getTotalChunks()).isEqualTo(3);
+        assertThat(job.getEmbeddedChunks()).isEqualTo(3);
+        assertThat(job.getCachedChunks()).isEqualTo(2);
+        assertThat(job.getStoredChunks()).isEqualTo(3);
+        assertThat(job.getRemovedChars()).isEqualTo(12L);
+        assertThat(pipeline.findJob(job.getId())).contains(job);
+
+        // batch size 2: chunks 1-2 and chunk 3
+        verify(embeddingCacheService, times(2)).embedAll(anyList());
+        verify(vectorStore, times(2)).storeEmbeddings(anyList(), eq(false));
+        verify(vectorStore).awaitApplied(any());
+        ArgumentCaptor<Long> textId = ArgumentCaptor.forClass(Long.class);
+        verify(documentVersionService).publish(eq(100L), textId.capture());
+        verify(documentRepository).endJob(eq(100L), eq(job.getId()), eq(IngestionJobStatus.COMPLETED), isNull(), any());
+        assertThat(documentTextService.load(textId.getValue())).isEqualTo("sample content");
+    }
+
+    @Test
+    void submitShouldCompleteWithoutChunks() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("blank.txt"), "blank.txt", "text/plain", "sha256", 14L);
+        streamText(storedFile, "   ");
+
+        IngestionJob job = pipeline.submit(document(55L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(job.getTotalChunks()).isZero();
+        verify(documentChunkRepository, never()).insertAll(any());
+        verify(documentVersionService).publish(eq(55L), any());
+        verifyNoInteractions(embeddingCacheService, vectorStore);
+    }
+
+    @Test
+    void submitShouldReportStageFailure() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("broken.pdf"), "broken.pdf", "application/pdf", "sha256", 14L);
+        doThrow(new IllegalStateException("Failed to extract text from file: broken.pdf"))
+                .when(ingestionService).extract(eq(storedFile), any());
+
+        IngestionJob job = pipeline.submit(document(9L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.FAILED);
+        assertThat(job.getError()).contains("broken.pdf");
+        verify(documentChunkRepository, timeout(1000)).deletePending(9L);
+        verify(documentChunkRepository, never()).insertAll(any());
+        verify(documentRepository).recordJob(eq(9L), eq(job.getId()), eq(IngestionJobStatus.QUEUED), isNull(), any());
+        verify(documentRepository).endJob(eq(9L), eq(job.getId()), eq(IngestionJobStatus.FAILED), contains("broken.pdf"), any());
+        verifyNoInteractions(documentVersionService, documentTextRepository, embeddingCacheService, vectorStore);
+    }
+
+    @Test
+    void submitCopyShouldChunkCopiedTextWithoutExtracting() throws InterruptedException {
+        Document source = document(5L, "demo");
+        source.setTextId(storeText("onetwothreefour"));
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            for (DocumentChunk chunk : chunks) {
+                chunk.setId((long) chunk.getChunkIndex() + 10);
+            }
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), texts.size(), 0);
+        });
+
+        IngestionJob job = pipeline.submitCopy(document(6L, "other"), source);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(job.getTotalChunks()).isEqualTo(3);
+        assertThat(job.getCachedChunks()).isEqualTo(3);
+        verifyNoInteractions(ingestionService);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DocumentChunk>> saved = ArgumentCaptor.forClass(List.class);
+        verify(documentChunkRepository, times(2)).insertAll(saved.capture());
+        assertThat(saved.getAllValues().stream().flatMap(List::stream))
+                .allSatisfy(chunk -> assertThat(chunk.getDocumentId()).isEqualTo(6L))
+                .extracting(DocumentChunk::getStartOffset)
+                .containsExactlyInAnyOrder(0, 6, 12);
+        verify(embeddingCacheService).embedAll(List.of("onetwo", "threef"));
+        verify(embeddingCacheService).embedAll(List.of("our"));
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ChunkEmbedding>> upserted = ArgumentCaptor.forClass(List.class);
+        verify(vectorStore, times(2)).storeEmbeddings(upserted.capture(), eq(false));
+        assertThat(upserted.getAllValues().stream().flatMap(List::stream))
+                .allSatisfy(point -> assertThat(point.project()).isEqualTo("other"));
+        ArgumentCaptor<Long> textId = ArgumentCaptor.forClass(Long.class);
+        verify(documentVersionService).publish(eq(6L), textId.capture());
+        assertThat(textId.getValue()).isNotEqualTo(source.getTextId());
+        assertThat(documentTextService.load(textId.getValue())).isEqualTo("onetwothreefour");
+    }
+
+    @Test
+    void submitUpdateShouldOnlyEmbedChangedChunksAndSwapVersion() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/v2"), "guide.txt", "text/plain", "v2", 18L);
+        // previous version: "aaaaaa", "bbbbbb", "cccccc"; new version replaces the middle chunk
+        streamText(storedFile, "aaaaaaxxxxxx", "cccccc");
+        Document document = document(7L, "demo");
+        document.setTextId(storeText("aaaaaabbbbbbcccccc"));
+        DocumentChunk first = chunk(7L, 0, 0, 6);
+        first.setId(1L);
+        DocumentChunk second = chunk(7L, 1, 6, 12);
+        second.setId(2L);
+        // stored before offsets existed
+        DocumentChunk third = new DocumentChunk();
+        third.setId(3L);
+        third.setDocumentId(7L);
+        third.setChunkIndex(2);
+        third.setContent("cccccc");
+        when(documentChunkRepository.findByDocumentIdAndPendingFalse(7L)).thenReturn(List.of(first, second, third));
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            chunks.forEach(chunk -> chunk.setId(40L));
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), 0, texts.size());
+        });
+
+        IngestionJob job = pipeline.submitUpdate(document, storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(job.getTotalChunks()).isEqualTo(3);
+        assertThat(job.getUnchangedChunks()).isEqualTo(2);
+        assertThat(job.getEmbeddedChunks()).isEqualTo(1);
+        assertThat(job.getStoredChunks()).isEqualTo(3);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DocumentChunk>> saved = ArgumentCaptor.forClass(List.class);
+        verify(documentChunkRepository).insertAll(saved.capture());
+        assertThat(saved.getValue()).singleElement().satisfies(chunk -> {
+            assertThat(chunk.getContent()).isNull();
+            assertThat(chunk.getStartOffset()).isEqualTo(6);
+            assertThat(chunk.getEndOffset()).isEqualTo(12);
+            assertThat(chunk.getChunkIndex()).isEqualTo(1);
+            assertThat(chunk.isPending()).isTrue();
+        });
+        verify(embeddingCacheService).embedAll(List.of("xxxxxx"));
+        verify(vectorStore).storeEmbeddings(anyList(), eq(true));
+
+        ArgumentCaptor<DocumentVersion> version = ArgumentCaptor.forClass(DocumentVersion.class);
+        verify(documentVersionService).swap(version.capture());
+        assertThat(version.getValue().storedFile()).isEqualTo(storedFile);
+        assertThat(version.getValue().chunkPositions()).isEqualTo(Map.of(
+                1L, new DocumentVersion.ChunkPosition(0, 0, 6, null),
+                3L, new DocumentVersion.ChunkPosition(2, 12, 18, null)));
+        assertThat(version.getValue().removedChunkIds()).containsExactly(2L);
+        assertThat(documentTextService.load(version.getValue().textId())).isEqualTo("aaaaaaxxxxxxcccccc");
+        verify(vectorStore).deletePoints(List.of(2L));
+        verify(documentVersionService, never()).publish(any(), any());
+    }
+
+    @Test
+    void submitUpdateShouldDiscardPendingChunksWhenItFails() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/v2"), "guide.txt", "text/plain", "v2", 6L);
+        streamText(storedFile, "zzzzzz");
+        when(documentChunkRepository.findByDocumentIdAndPendingFalse(7L)).thenReturn(List.of());
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            chunks.forEach(chunk -> chunk.setId(41L));
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenThrow(new IllegalStateException("Gemini unavailable"));
+        when(documentChunkRepository.findPendingPointIds(7L)).thenReturn(List.of(41L));
+
+        IngestionJob job = pipeline.submitUpdate(document(7L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.FAILED);
+        verify(documentChunkRepository, timeout(1000).times(2)).deletePending(7L);
+        verify(documentTextRepository, timeout(1000)).deleteById(101L);
+        verify(vectorStore, timeout(1000)).deletePoints(List.of(41L));
+        verifyNoInteractions(documentVersionService);
+    }
+
+    @Test
+    void submitShouldDiscardChunksAndPointsOfANewDocumentWhenItFails() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("guide.txt"), "guide.txt", "text/plain", "sha256", 12L);
+        streamText(storedFile, "aaaaaabbbbbb");
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            for (DocumentChunk chunk : chunks) {
+                chunk.setId((long) chunk.getChunkIndex() + 60);
+            }
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), 0, texts.size());
+        });
+        doThrow(new IllegalStateException("Qdrant unavailable")).when(vectorStore).awaitApplied(any());
+        when(documentChunkRepository.findPendingPointIds(8L)).thenReturn(List.of(60L, 61L));
+
+        IngestionJob job = pipeline.submit(document(8L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.FAILED);
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DocumentChunk>> saved = ArgumentCaptor.forClass(List.class);
+        verify(documentChunkRepository).insertAll(saved.capture());
+        assertThat(saved.getValue()).allSatisfy(chunk -> assertThat(chunk.isPending()).isTrue());
+        verify(documentChunkRepository, timeout(1000)).deletePending(8L);
+        verify(vectorStore, timeout(1000)).deletePoints(List.of(60L, 61L));
+        verify(documentTextRepository, timeout(1000)).deleteById(101L);
+        verifyNoInteractions(documentVersionService);
+    }
+
+    @Test
+    void submitShouldRejectNewJobsInsteadOfWaitingWhenTheExtractQueueIsFull() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("slow.txt"), "slow.txt", "text/plain", "sha256", 3L);
+        CountDownLatch extracting = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            extracting.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return 0L;
+        }).when(ingestionService).extract(eq(storedFile), any());
+        try {
+            // one job extracting and four queued fill the extract stage
+            pipeline.submit(document(1L, "demo"), storedFile);
+            assertThat(extracting.await(5, TimeUnit.SECONDS)).isTrue();
+            for (long id = 2; id <= 5; id++) {
+                pipeline.submit(document(id, "demo"), storedFile);
+            }
+
+            assertThatThrownBy(() -> pipeline.submit(document(6L, "demo"), storedFile))
+                    .isInstanceOf(RejectedExecutionException.class)
+                    .hasMessageContaining("queue is full");
+            verify(documentRepository).endJob(eq(6L), any(), eq(IngestionJobStatus.FAILED), contains("queue is full"), any());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void upsertShouldDeleteThePointsItStoredAfterTheJobFailed() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("guide.txt"), "guide.txt", "text/plain", "sha256", 12L);
+        streamText(storedFile, "aaaaaabbbbbb");
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            for (DocumentChunk chunk : chunks) {
+                chunk.setId((long) chunk.getChunkIndex() + 60);
+            }
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), 0, texts.size());
+        });
+        AtomicReference<IngestionJob> submitted = new AtomicReference<>();
+        CountDownLatch stored = new CountDownLatch(1);
+        // the job fails, and its discard finds no pending chunk left, while the upsert is still in flight
+        doAnswer(invocation -> {
+            while (submitted.get() == null) {
+                Thread.onSpinWait();
+            }
+            submitted.get().fail("another batch failed");
+            stored.countDown();
+            return null;
+        }).when(vectorStore).storeEmbeddings(anyList(), anyBoolean());
+
+        submitted.set(pipeline.submit(document(8L, "demo"), storedFile));
+        assertThat(stored.await(5, TimeUnit.SECONDS)).isTrue();
+
+        verify(vectorStore, timeout(1000)).deletePoints(List.of(60L, 61L));
+        assertThat(submitted.get().getStoredChunks()).isZero();
+        verify(vectorStore, never()).awaitApplied(any());
+        verifyNoInteractions(documentVersionService);
+    }
+
+    @Test
+    void resumeInterruptedJobsShouldIngestNewDocumentsAgainAndFailInterruptedUpdates() throws InterruptedException {
+        Document fresh = document(11L, "demo");
+        fresh.setName("guide.txt");
+        fresh.setFilePath("ab/cd/abcd");
+        fresh.setContentHash("abcd");
+        fresh.setJobId("lost-job");
+        fresh.setJobStatus(IngestionJobStatus.QUEUED);
+        Document updated = document(12L, "demo");
+        updated.setTextId(70L);
+        updated.setIngestedAt(Instant.now());
+        updated.setJobId("lost-update");
+        updated.setJobStatus(IngestionJobStatus.QUEUED);
+        when(documentRepository.findInterrupted()).thenReturn(List.of(fresh, updated));
+        when(documentChunkRepository.findPointIds(11L)).thenReturn(List.of(80L));
+        when(documentChunkRepository.findPendingPointIds(12L)).thenReturn(List.of(90L));
+        StoredFile storedFile = new StoredFile(Path.of("ab/cd/abcd"), "guide.txt", null, "abcd", 3L);
+        when(ingestionService.reopen("ab/cd/abcd", "guide.txt", "abcd")).thenReturn(storedFile);
+        streamText(storedFile, "   ");
+
+        pipeline.resumeInterruptedJobs();
+
+        verify(documentChunkRepository).deleteByDocument(11L);
+        verify(vectorStore).deletePoints(List.of(80L));
+        verify(documentTextRepository).deleteOthers(11L, null);
+        ArgumentCaptor<String> jobId = ArgumentCaptor.forClass(String.class);
+        verify(documentRepository).recordJob(eq(11L), jobId.capture(), eq(IngestionJobStatus.QUEUED), isNull(), any());
+        IngestionJob job = pipeline.findJob(jobId.getValue()).orElseThrow();
+        awaitTerminal(job);
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+
+        verify(documentChunkRepository).deletePending(12L);
+        verify(documentChunkRepository, never()).deleteByDocument(12L);
+        verify(vectorStore).deletePoints(List.of(90L));
+        verify(documentTextRepository).deleteOthers(12L, 70L);
+        verify(documentRepository).endJob(eq(12L), eq("lost-update"), eq(IngestionJobStatus.FAILED), contains("restart"), any());
+    }
+
+    @Test
+    void reuseShouldReportCompletedJobForExistingDocument() {
+        when(documentChunkRepository.countByDocumentId(5L)).thenReturn(4L);
+
+        IngestionJob job = pipeline.reuse(document(5L, "demo"));
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(job.getDocumentId()).isEqualTo(5L);
+        assertThat(job.getTotalChunks()).isEqualTo(4);
+        assertThat(job.getStoredChunks()).isEqualTo(4);
+        assertThat(pipeline.findJob(job.getId())).contains(job);
+        verify(documentRepository, never()).recordJob(any(), any(), any(), any(), any());
+        verifyNoInteractions(ingestionService, embeddingCacheService, vectorStore);
+    }
+
+    @Test
+    void submitShouldPersistChunkBatchesInOrder() throws InterruptedException {
+        StoredFile storedFile = new StoredFile(Path.of("long.txt"), "long.txt", "text/plain", "sha256", 14L);
+        // 5 chunks of 6 characters -> batches of 2, 2 and 1
+        streamText(storedFile, "aaaaaabbbbbb", "ccccccdddddd", "eeeeee");
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            for (DocumentChunk chunk : chunks) {
+                chunk.setId((long) chunk.getChunkIndex() + 1);
+            }
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), 0, texts.size());
+        });
+
+        IngestionJob job = pipeline.submit(document(1L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(job.getTotalChunks()).isEqualTo(5);
+        assertThat(job.getStoredChunks()).isEqualTo(5);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DocumentChunk>> saved = ArgumentCaptor.forClass(List.class);
+        verify(documentChunkRepository, times(3)).insertAll(saved.capture());
+        assertThat(saved.getAllValues().stream().flatMap(List::stream).map(DocumentChunk::getChunkIndex))
+                .containsExactlyInAnyOrder(0, 1, 2, 3, 4);
+        assertThat(saved.getAllValues().stream().flatMap(List::stream))
+                .allSatisfy(chunk -> {
+                    assertThat(chunk.getStartOffset()).isEqualTo(chunk.getChunkIndex() * 6);
+                    assertThat(chunk.getEndOffset()).isEqualTo(chunk.getStartOffset() + 6);
+                });
+        verify(embeddingCacheService).embedAll(List.of("aaaaaa", "bbbbbb"));
+        verify(embeddingCacheService).embedAll(List.of("cccccc", "dddddd"));
+        verify(embeddingCacheService).embedAll(List.of("eeeeee"));
+    }
+
+    @Test
+    void submitShouldEmbedChunksWithoutHeadingMarkersButKeepThemInTheText() throws InterruptedException {
+        pipeline.shutdown();
+        chunkingService = new ChunkingService(60, 0);
+        pipeline = newPipeline();
+        StoredFile storedFile = new StoredFile(Path.of("guide.pdf"), "guide.pdf", "application/pdf", "sha256", 120L);
+        streamText(storedFile, "# Guide\n", "Install it.\n");
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            for (DocumentChunk chunk : chunks) {
+                chunk.setId((long) chunk.getChunkIndex() + 1);
+            }
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), 0, texts.size());
+        });
+
+        IngestionJob job = pipeline.submit(document(4L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        verify(embeddingCacheService).embedAll(List.of("Guide\nInstall it.\n"));
+        ArgumentCaptor<Long> textId = ArgumentCaptor.forClass(Long.class);
+        verify(documentVersionService).publish(eq(4L), textId.capture());
+        assertThat(documentTextService.load(textId.getValue())).isEqualTo("# Guide\nInstall it.\n");
+    }
+
+    @Test
+    void submitShouldKeepHashLinesOfPlainTextAsContentWithoutHeadingPaths() throws InterruptedException {
+        pipeline.shutdown();
+        chunkingService = new ChunkingService(60, 0);
+        pipeline = newPipeline();
+        StoredFile storedFile = new StoredFile(Path.of("setup.txt"), "setup.txt", "text/plain", "sha256", 120L);
+        streamText(storedFile, "# install the agent\n", "apt install agent\n");
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            for (DocumentChunk chunk : chunks) {
+                chunk.setId((long) chunk.getChunkIndex() + 1);
+            }
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), 0, texts.size());
+        });
+
+        IngestionJob job = pipeline.submit(document(4L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        verify(embeddingCacheService).embedAll(List.of("# install the agent\napt install agent\n"));
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DocumentChunk>> saved = ArgumentCaptor.forClass(List.class);
+        verify(documentChunkRepository).insertAll(saved.capture());
+        assertThat(saved.getValue()).extracting(DocumentChunk::getHeadingPath).containsOnlyNulls();
+    }
+
+    @Test
+    void submitShouldShareThePointOfANearDuplicateChunkInsteadOfEmbeddingIt() throws InterruptedException {
+        pipeline.shutdown();
+        chunkingService = new ChunkingService(60, 0);
+        pipeline = newPipeline();
+        String known = "Install the agent on every build node before the first run. ";
+        String fresh = "Rotate the signing keys each quarter and revoke the old ones";
+        byte[] knownSignature = NearDuplicateIndex.signature("install the agent on EVERY build node, before the first run");
+        when(documentChunkRepository.findFingerprints("demo")).thenReturn(List.of(new DocumentChunkRepository.Fingerprint() {
+            @Override
+            public Long getPointId() {
+                return 500L;
+            }
+
+            @Override
+            public byte[] getMinhash() {
+                return knownSignature;
+            }
+        }));
+        StoredFile storedFile = new StoredFile(Path.of("keys.txt"), "keys.txt", "text/plain", "sha256", 120L);
+        streamText(storedFile, known, fresh);
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            for (DocumentChunk chunk : chunks) {
+                chunk.setId((long) chunk.getChunkIndex() + 1);
+            }
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), 0, texts.size());
+        });
+
+        IngestionJob job = pipeline.submit(document(3L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.COMPLETED);
+        assertThat(job.getTotalChunks()).isEqualTo(2);
+        assertThat(job.getDuplicateChunks()).isEqualTo(1);
+        assertThat(job.getEmbeddedChunks()).isEqualTo(1);
+        assertThat(job.getStoredChunks()).isEqualTo(2);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<DocumentChunk>> saved = ArgumentCaptor.forClass(List.class);
+        verify(documentChunkRepository).insertAll(saved.capture());
+        assertThat(saved.getValue()).extracting(DocumentChunk::getPointId).containsExactly(500L, null);
+        assertThat(saved.getValue()).allSatisfy(chunk -> assertThat(chunk.getMinhash()).isNotNull());
+        verify(embeddingCacheService).embedAll(List.of(fresh));
+        verify(vectorStore).awaitApplied(any());
+        verify(documentVersionService).publish(eq(3L), any());
+        // the embedded chunk is indexed once its point is stored
+        assertThat(nearDuplicateIndex.findPoint("demo", null, NearDuplicateIndex.signature(fresh))).isEqualTo(2L);
+    }
+
+    @Test
+    void submitShouldNotLetOtherJobsShareThePointsOfAJobThatFailedToCommit() throws InterruptedException {
+        pipeline.shutdown();
+        chunkingService = new ChunkingService(60, 0);
+        pipeline = newPipeline();
+        String fresh = "Rotate the signing keys each quarter and revoke the old ones";
+        when(documentChunkRepository.findFingerprints("demo")).thenReturn(List.of());
+        StoredFile storedFile = new StoredFile(Path.of("keys.txt"), "keys.txt", "text/plain", "sha256", 60L);
+        streamText(storedFile, fresh);
+        when(documentChunkRepository.insertAll(any())).thenAnswer(invocation -> {
+            List<DocumentChunk> chunks = new ArrayList<>(invocation.getArgument(0));
+            chunks.forEach(chunk -> chunk.setId((long) chunk.getChunkIndex() + 1));
+            return chunks;
+        });
+        when(embeddingCacheService.embedAll(anyList())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return new CachedEmbeddings(texts.stream().map(text -> new float[]{0.1f}).toList(), 0, texts.size());
+        });
+        doThrow(new IllegalStateException("db down")).when(documentVersionService).publish(eq(3L), any());
+
+        IngestionJob job = pipeline.submit(document(3L, "demo"), storedFile);
+        awaitTerminal(job);
+
+        assertThat(job.getStatus()).isEqualTo(IngestionJobStatus.FAILED);
+        verify(vectorStore).storeEmbeddings(anyList(), eq(false));
+        verify(documentChunkRepository, timeout(1000)).deletePending(3L);
+        assertThat(nearDuplicateIndex.findPoint("demo", null, NearDuplicateIndex.signature(fresh))).isNull();
+        assertThat(nearDuplicateIndex.findPoint("demo", job.getId(), NearDuplicateIndex.signature(fresh))).isNull();
+    }
+
+    private void streamText(StoredFile storedFile, String... pieces) {
+        streamText(storedFile, 0L, pieces);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void streamText(StoredFile storedFile, long removedChars, String... pieces) {
+        doAnswer(invocation -> {
+            Consumer<String> sink = invocation.getArgument(1);
+            for (String piece : pieces) {
+                sink.accept(piece);
+            }
+            return removedChars;
+        }).when(ingestionService).extract(eq(storedFile), any(Consumer.class));
+    }
+
+    private Long storeText(String text) {
+        DocumentTextService.TextWriter writer = documentTextService.newWriter();
+        writer.append(text);
+        return documentTextService.save(1L, writer).getId();
+    }
+
+    private DocumentChunk chunk(Long documentId, int index, int start, int end) {
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setDocumentId(documentId);
+        chunk.setChunkIndex(index);
+        chunk.setStartOffset(start);
+        chunk.setEndOffset(end);
+        return chunk;
+    }
+
+    private Document document(Long id, String project) {
+        Document document = new Document();
+        document.setId(id);
+        document.setProject(project);
+        return document;
+    }
+
+    private void awaitTerminal(IngestionJob job) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!job.getStatus().isTerminal() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
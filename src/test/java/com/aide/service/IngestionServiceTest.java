@@ -1,11 +1,14 @@
 package com.aide.service;
 
-import com.aide.service.dto.IngestionResult;
+import com.aide.service.dto.StoredFile;
+import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
@@ -16,6 +19,11 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -29,58 +37,316 @@ class IngestionServiceTest {
 
     @BeforeEach
     void setUp() {
-        ingestionService = new IngestionService(tempDir.resolve("docs").toString());
+        ingestionService = new IngestionService(tempDir.resolve("docs").toString(), 2, 1, true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        ingestionService.shutdown();
     }
 
     @Test
-    void ingestPlainTextShouldReturnContentAndSaveFile() throws IOException {
+    void extractPlainTextShouldStreamContentOfStoredFile() throws Exception {
         String content = "Hello text file";
-        MockMultipartFile file = new MockMultipartFile(
-                "file", "sample.txt", "text/plain", content.getBytes(StandardCharsets.UTF_8));
-
-        IngestionResult result = ingestionService.ingest(file);
+        StoredFile storedFile = ingestionService.store(new MockMultipartFile(
+                "file", "sample.txt", "text/plain", content.getBytes(StandardCharsets.UTF_8)));
 
-        Path savedFile = tempDir.resolve("docs").resolve("sample.txt");
-        assertThat(result.text()).isEqualTo(content);
-        assertThat(result.storedPath()).isEqualTo(savedFile);
-        assertThat(Files.exists(savedFile)).isTrue();
+        Path savedFile = blobPath(content.getBytes(StandardCharsets.UTF_8));
+        assertThat(extractText(ingestionService, storedFile)).isEqualTo(content);
+        assertThat(storedFile.path()).isEqualTo(savedFile);
         assertThat(Files.readString(savedFile)).isEqualTo(content);
     }
 
     @Test
-    void ingestPdfShouldExtractText() throws IOException {
+    void extractPdfShouldStreamTextOfStoredFile() throws Exception {
         byte[] pdfBytes = createPdf("Hello PDF content");
+        StoredFile storedFile = ingestionService.store(new MockMultipartFile(
+                "file", "sample.pdf", "application/pdf", pdfBytes));
+
+        assertThat(extractText(ingestionService, storedFile)).contains("Hello PDF content");
+        assertThat(storedFile.path()).isEqualTo(blobPath(pdfBytes));
+        assertThat(Files.exists(storedFile.path())).isTrue();
+    }
+
+    @Test
+    void storeShouldSaveFileForLaterExtraction() throws Exception {
+        String content = "Stored for later";
         MockMultipartFile file = new MockMultipartFile(
-                "file", "sample.pdf", "application/pdf", pdfBytes);
+                "file", "later.txt", "text/plain", content.getBytes(StandardCharsets.UTF_8));
 
-        IngestionResult result = ingestionService.ingest(file);
+        StoredFile storedFile = ingestionService.store(file);
 
-        Path savedFile = tempDir.resolve("docs").resolve("sample.pdf");
-        assertThat(result.text()).contains("Hello PDF content");
-        assertThat(result.storedPath()).isEqualTo(savedFile);
-        assertThat(Files.exists(savedFile)).isTrue();
+        assertThat(storedFile.path()).isEqualTo(blobPath(content.getBytes(StandardCharsets.UTF_8)));
+        assertThat(storedFile.fileName()).isEqualTo("later.txt");
+        assertThat(storedFile.size()).isEqualTo(content.length());
+        assertThat(storedFile.sha256()).isEqualTo(sha256(content.getBytes(StandardCharsets.UTF_8)));
+        assertThat(Files.readString(storedFile.path())).isEqualTo(content);
+        assertThat(extractText(ingestionService, storedFile)).isEqualTo(content);
+        try (Stream<Path> files = Files.walk(tempDir.resolve("docs"))) {
+            assertThat(files.filter(Files::isRegularFile)).containsExactly(storedFile.path());
+        }
     }
 
     @Test
-    void ingestUnsupportedFileShouldThrow() {
-        MockMultipartFile file = new MockMultipartFile(
-                "file", "image.png", "image/png", new byte[]{1, 2, 3});
+    void storeShouldKeepOneBlobForIdenticalUploads() throws IOException {
+        byte[] content = "Same bytes".getBytes(StandardCharsets.UTF_8);
+
+        StoredFile first = ingestionService.store(new MockMultipartFile("file", "README.txt", "text/plain", content));
+        StoredFile second = ingestionService.store(new MockMultipartFile("file", "copy.txt", "text/plain", content));
+        StoredFile other = ingestionService.store(new MockMultipartFile("file", "README.txt", "text/plain", "Other bytes".getBytes(StandardCharsets.UTF_8)));
+
+        assertThat(second.path()).isEqualTo(first.path());
+        assertThat(second.fileName()).isEqualTo("copy.txt");
+        assertThat(other.path()).isNotEqualTo(first.path());
+        assertThat(Files.readString(first.path())).isEqualTo("Same bytes");
+        try (Stream<Path> files = Files.walk(tempDir.resolve("docs"))) {
+            assertThat(files.filter(Files::isRegularFile)).containsExactlyInAnyOrder(first.path(), other.path());
+        }
+    }
 
-        assertThatThrownBy(() -> ingestionService.ingest(file))
+    @Test
+    void resolveShouldRejectPathsOutsideStorage() {
+        assertThat(ingestionService.resolve("ab/cd/abcd")).isEqualTo(tempDir.resolve("docs").resolve("ab/cd/abcd"));
+        assertThatThrownBy(() -> ingestionService.resolve("../secret.txt"))
                 .isInstanceOf(IllegalArgumentException.class)
-                .hasMessageContaining("Unsupported file type");
+                .hasMessageContaining("Invalid file path");
+    }
+
+    @Test
+    void extractShouldDecodeLargeTextAcrossBuffers() throws IOException {
+        String content = "Grüße aus der Ingestion. ".repeat(10_000);
+        StoredFile storedFile = ingestionService.store(new MockMultipartFile(
+                "file", "large.txt", "text/plain", content.getBytes(StandardCharsets.UTF_8)));
+
+        List<String> pieces = new ArrayList<>();
+        ingestionService.extract(storedFile, pieces::add);
+
+        assertThat(pieces).hasSizeGreaterThan(1);
+        // the trailing space is dropped
+        assertThat(String.join("", pieces)).isEqualTo(content.stripTrailing());
+    }
+
+    @Test
+    void extractShouldCollapseWhitespaceAndReportRemovedChars() {
+        String content = "Title  \r\n\n\n\nsome   words\there\n    indented code\n";
+        StoredFile storedFile = ingestionService.store(new MockMultipartFile(
+                "file", "notes.md", "application/octet-stream", content.getBytes(StandardCharsets.UTF_8)));
+
+        List<String> pieces = new ArrayList<>();
+        long removedChars = ingestionService.extract(storedFile, pieces::add);
+
+        assertThat(String.join("", pieces)).isEqualTo("Title\n\nsome words here\n    indented code\n");
+        assertThat(removedChars).isEqualTo(7);
+    }
+
+    @Test
+    void extractShouldKeepTextAsIsWhenNormalizationIsOff() {
+        IngestionService rawService = new IngestionService(tempDir.resolve("raw").toString(), 2, 1, false);
+        try {
+            String content = "Title  \n\n\nbody ";
+            StoredFile storedFile = rawService.store(new MockMultipartFile(
+                    "file", "notes.txt", "text/plain", content.getBytes(StandardCharsets.UTF_8)));
+
+            assertThat(extractText(rawService, storedFile)).isEqualTo(content);
+        } finally {
+            rawService.shutdown();
+        }
+    }
+
+    @Test
+    void extractShouldRejectMalformedUtf8() {
+        StoredFile storedFile = ingestionService.store(new MockMultipartFile(
+                "file", "broken.txt", "text/plain", new byte[]{'o', 'k', (byte) 0xC3, (byte) 0x28}));
+
+        assertThatThrownBy(() -> extractText(ingestionService, storedFile))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("broken.txt");
+    }
+
+    @Test
+    void extractShouldStreamPdfInPageRangesWithSameTextAsSinglePass() throws IOException {
+        byte[] pdfBytes = createPdf("Page one", "Page two", "Page three", "Page four", "Page five");
+        StoredFile storedFile = ingestionService.store(new MockMultipartFile(
+                "file", "pages.pdf", "application/pdf", pdfBytes));
+
+        List<String> pieces = new ArrayList<>();
+        ingestionService.extract(storedFile, pieces::add);
+
+        String singlePass;
+        try (PDDocument document = Loader.loadPDF(pdfBytes)) {
+            singlePass = new PDFTextStripper().getText(document);
+        }
+        // 5 pages, 2 pages per range
+        assertThat(pieces).hasSize(3);
+        assertThat(pieces.get(0)).contains("Page one", "Page two").doesNotContain("Page three");
+        assertThat(String.join("", pieces)).isEqualTo(singlePass);
     }
 
-    private byte[] createPdf(String text) throws IOException {
+    @Test
+    void extractShouldProduceIdenticalPdfTextInParallel() throws IOException {
+        String[] pages = new String[11];
+        for (int i = 0; i < pages.length; i++) {
+            // no digits: lines that only differ in numbers would be dropped as page footers
+            pages[i] = "Chapter " + (char) ('A' + i);
+        }
+        byte[] pdfBytes = createPdf(pages);
+        IngestionService parallelService = new IngestionService(tempDir.resolve("parallel").toString(), 1, 3, true);
+        try {
+            StoredFile storedFile = parallelService.store(new MockMultipartFile(
+                    "file", "pages.pdf", "application/pdf", pdfBytes));
+
+            List<String> pieces = new ArrayList<>();
+            parallelService.extract(storedFile, pieces::add);
+
+            String singlePass;
+            try (PDDocument document = Loader.loadPDF(pdfBytes)) {
+                singlePass = new PDFTextStripper().getText(document);
+            }
+            assertThat(pieces).hasSize(11);
+            for (int i = 0; i < pieces.size(); i++) {
+                assertThat(pieces.get(i)).contains("Chapter " + (char) ('A' + i) + System.lineSeparator());
+            }
+            assertThat(String.join("", pieces)).isEqualTo(singlePass);
+        } finally {
+            parallelService.shutdown();
+        }
+    }
+
+    @Test
+    void extractShouldMarkPdfHeadingsByFontSizeAndWeight() throws IOException {
+        byte[] pdfBytes;
         try (PDDocument document = new PDDocument()) {
             PDPage page = new PDPage();
             document.addPage(page);
+            PDType1Font regular = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            PDType1Font bold = new PDType1Font(Standard14Fonts.FontName.HELVETICA_BOLD);
             try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
-                contentStream.beginText();
-                contentStream.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
-                contentStream.newLineAtOffset(25, 700);
-                contentStream.showText(text);
-                contentStream.endText();
+                showLine(contentStream, bold, 20, 700, "Installation");
+                showLine(contentStream, bold, 12, 660, "Linux");
+                showLine(contentStream, regular, 12, 640, "Download the archive and unpack it into the install directory.");
+                showLine(contentStream, regular, 12, 625, "Then start the service and open the dashboard.");
+            }
+            try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+                document.save(output);
+                pdfBytes = output.toByteArray();
+            }
+        }
+        StoredFile storedFile = ingestionService.store(new MockMultipartFile(
+                "file", "guide.pdf", "application/pdf", pdfBytes));
+
+        String text = extractText(ingestionService, storedFile);
+
+        assertThat(text).startsWith("# Installation" + System.lineSeparator())
+                .contains(System.lineSeparator() + "## Linux" + System.lineSeparator())
+                .contains("Download the archive")
+                .doesNotContain("# Download", "# Then");
+    }
+
+    @Test
+    void extractShouldDropPdfHeadersAndFootersRepeatedAcrossPages() throws IOException {
+        String[] bodies = {"Overview of the system", "Installing the agent", "Configuring projects", "Troubleshooting"};
+        byte[] pdfBytes = createPdfWithHeaderAndFooter(bodies);
+        // ranges of 3 pages and 1 page: the short trailing range is cleaned like the first
+        IngestionService rangedService = new IngestionService(tempDir.resolve("ranged").toString(), 3, 1, true);
+        try {
+            StoredFile storedFile = rangedService.store(new MockMultipartFile(
+                    "file", "manual.pdf", "application/pdf", pdfBytes));
+
+            List<String> pieces = new ArrayList<>();
+            long removedChars = rangedService.extract(storedFile, pieces::add);
+
+            assertThat(pieces).hasSize(2);
+            assertThat(String.join("", pieces)).contains(bodies).doesNotContain("ACME Manual", "Page 1 of 4", "Page 4 of 4");
+            assertThat(removedChars).isGreaterThanOrEqualTo(4L * ("ACME Manual v2" + "Page 1 of 4").length());
+        } finally {
+            rangedService.shutdown();
+        }
+    }
+
+    @Test
+    void extractShouldDropPdfHeadersAndFootersOfATwoPageDocument() throws IOException {
+        String[] bodies = {"Overview of the system", "Installing the agent"};
+        StoredFile storedFile = ingestionService.store(new MockMultipartFile(
+                "file", "leaflet.pdf", "application/pdf", createPdfWithHeaderAndFooter(bodies)));
+
+        String text = extractText(ingestionService, storedFile);
+
+        assertThat(text).contains(bodies).doesNotContain("ACME Manual", "Page 1 of 2", "Page 2 of 2");
+    }
+
+    @Test
+    void storeUnsupportedFileShouldThrow() {
+        MockMultipartFile file = new MockMultipartFile(
+                "file", "image.png", "image/png", new byte[]{1, 2, 3});
+
+        assertThatThrownBy(() -> ingestionService.store(file))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unsupported file type");
+    }
+
+    @Test
+    void extractUnsupportedFileShouldThrow() {
+        StoredFile storedFile = new StoredFile(tempDir.resolve("image.png"), "image.png", "image/png", "sha256", 3L);
+
+        assertThatThrownBy(() -> extractText(ingestionService, storedFile))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unsupported file type");
+    }
+
+    private static String extractText(IngestionService service, StoredFile storedFile) {
+        StringBuilder text = new StringBuilder();
+        service.extract(storedFile, text::append);
+        return text.toString();
+    }
+
+    private Path blobPath(byte[] content) throws Exception {
+        String sha256 = sha256(content);
+        return tempDir.resolve("docs").resolve(sha256.substring(0, 2)).resolve(sha256.substring(2, 4)).resolve(sha256);
+    }
+
+    private static String sha256(byte[] content) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+
+    private static void showLine(PDPageContentStream contentStream, PDType1Font font, float size, float y, String text) throws IOException {
+        contentStream.beginText();
+        contentStream.setFont(font, size);
+        contentStream.newLineAtOffset(25, y);
+        contentStream.showText(text);
+        contentStream.endText();
+    }
+
+    private static byte[] createPdfWithHeaderAndFooter(String... bodies) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            for (int i = 0; i < bodies.length; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    showLine(contentStream, font, 12, 750, "ACME Manual v2");
+                    showLine(contentStream, font, 12, 700, bodies[i]);
+                    showLine(contentStream, font, 12, 40, "Page " + (i + 1) + " of " + bodies.length);
+                }
+            }
+            try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+                document.save(output);
+                return output.toByteArray();
+            }
+        }
+    }
+
+    private byte[] createPdf(String... pageTexts) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (String text : pageTexts) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
+                    contentStream.beginText();
+                    contentStream.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
+                    contentStream.newLineAtOffset(25, 700);
+                    contentStream.showText(text);
+                    contentStream.endText();
+                }
             }
             try (ByteArrayOutputStream output = new ByteArrayOutputStream()) {
                 document.save(output);
@@ -88,4 +354,4 @@ class IngestionServiceTest {
             }
         }
     }
-}
\ No newline at end of file
+}
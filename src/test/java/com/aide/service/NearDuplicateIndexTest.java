@@ -0,0 +1,157 @@
+package com.aide.service;
+
+import com.aide.repository.DocumentChunkRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class NearDuplicateIndexTest {
+
+    private static final String TEXT = "The ingestion pipeline extracts text page by page, splits it into chunks, "
+            + "embeds every chunk with Gemini and stores the vectors in Qdrant so that search can find them later. "
+            + "Each stage has its own worker pool and a bounded queue, which keeps memory use flat for large uploads.";
+
+    private DocumentChunkRepository documentChunkRepository;
+    private NearDuplicateIndex index;
+
+    @BeforeEach
+    void setUp() {
+        documentChunkRepository = mock(DocumentChunkRepository.class);
+        when(documentChunkRepository.findFingerprints("demo")).thenReturn(List.of());
+        index = new NearDuplicateIndex(documentChunkRepository, true, 0.8);
+    }
+
+    @Test
+    void signatureShouldIgnoreCasePunctuationAndWhitespace() {
+        String reformatted = TEXT.toUpperCase().replace(",", "").replace(" ", "  \n");
+
+        assertThat(NearDuplicateIndex.signature(reformatted)).isEqualTo(NearDuplicateIndex.signature(TEXT));
+        assertThat(NearDuplicateIndex.signature(TEXT)).hasSize(NearDuplicateIndex.SIGNATURE_SIZE * Integer.BYTES);
+    }
+
+    @Test
+    void signatureShouldBeNullForShortTexts() {
+        assertThat(NearDuplicateIndex.signature("only seven words in this short text")).isNull();
+        assertThat(NearDuplicateIndex.signature("")).isNull();
+    }
+
+    @Test
+    void findPointShouldReturnNearDuplicatesOnly() {
+        commit(index, "demo", Map.of(1L, NearDuplicateIndex.signature(TEXT)));
+
+        assertThat(index.findPoint("demo", null, NearDuplicateIndex.signature(TEXT.replace("flat", "low")))).isEqualTo(1L);
+        assertThat(index.findPoint("demo", null, NearDuplicateIndex.signature(
+                "Rotate the signing keys each quarter, revoke the old ones and audit who still holds a copy of them.")))
+                .isNull();
+        assertThat(index.findPoint("other", null, NearDuplicateIndex.signature(TEXT))).isNull();
+        assertThat(index.findPoint("demo", null, null)).isNull();
+    }
+
+    @Test
+    void findPointShouldLoadTheProjectOnceAndForgetRemovedPoints() {
+        DocumentChunkRepository.Fingerprint fingerprint = mock(DocumentChunkRepository.Fingerprint.class);
+        when(fingerprint.getPointId()).thenReturn(7L);
+        when(fingerprint.getMinhash()).thenReturn(NearDuplicateIndex.signature(TEXT));
+        when(documentChunkRepository.findFingerprints("docs")).thenReturn(List.of(fingerprint));
+
+        assertThat(index.findPoint("docs", null, NearDuplicateIndex.signature(TEXT))).isEqualTo(7L);
+        index.remove("docs", List.of(7L));
+
+        assertThat(index.findPoint("docs", null, NearDuplicateIndex.signature(TEXT))).isNull();
+        verify(documentChunkRepository, times(1)).findFingerprints("docs");
+    }
+
+    @Test
+    void stagedPointsShouldOnlyBeFoundByTheirJobUntilItIsPublished() {
+        byte[] signature = NearDuplicateIndex.signature(TEXT);
+        index.stage("job-1", Map.of(3L, signature));
+
+        assertThat(index.findPoint("demo", "job-1", signature)).isEqualTo(3L);
+        assertThat(index.findPoint("demo", "job-2", signature)).isNull();
+        assertThat(index.findPoint("demo", null, signature)).isNull();
+
+        index.publish("demo", "job-1");
+
+        assertThat(index.findPoint("demo", "job-2", signature)).isEqualTo(3L);
+        assertThat(index.findPoint("other", null, signature)).isNull();
+    }
+
+    @Test
+    void discardShouldDropThePointsStagedByAFailedJob() {
+        byte[] signature = NearDuplicateIndex.signature(TEXT);
+        index.stage("job-1", Map.of(3L, signature));
+
+        index.discard("job-1");
+        index.publish("demo", "job-1");
+
+        assertThat(index.findPoint("demo", "job-1", signature)).isNull();
+        assertThat(index.findPoint("demo", null, signature)).isNull();
+    }
+
+    @Test
+    void loadingAProjectShouldNotHoldUpOtherProjectsNorKeepPointsRemovedMeanwhile() throws Exception {
+        byte[] signature = NearDuplicateIndex.signature(TEXT);
+        DocumentChunkRepository.Fingerprint fingerprint = mock(DocumentChunkRepository.Fingerprint.class);
+        when(fingerprint.getPointId()).thenReturn(7L);
+        when(fingerprint.getMinhash()).thenReturn(signature);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(documentChunkRepository.findFingerprints("slow")).thenAnswer(invocation -> {
+            loading.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of(fingerprint);
+        });
+        commit(index, "demo", Map.of(1L, signature));
+
+        CompletableFuture<Long> slow = CompletableFuture.supplyAsync(() -> index.findPoint("slow", null, signature));
+        assertThat(loading.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(index.findPoint("demo", null, signature)).isEqualTo(1L);
+        // deleted while the stale fingerprints were being read
+        index.remove("slow", List.of(7L));
+        release.countDown();
+
+        assertThat(slow.get(5, TimeUnit.SECONDS)).isNull();
+        assertThat(index.findPoint("slow", null, signature)).isNull();
+        verify(documentChunkRepository, times(1)).findFingerprints("slow");
+    }
+
+    @Test
+    void findPointShouldPreferTheMostSimilarPoint() {
+        String edited = TEXT.replace("flat", "low").replace("later", "quickly");
+        commit(index, "demo", Map.of(1L, NearDuplicateIndex.signature(edited), 2L, NearDuplicateIndex.signature(TEXT)));
+
+        assertThat(index.findPoint("demo", null, NearDuplicateIndex.signature(TEXT))).isEqualTo(2L);
+    }
+
+    @Test
+    void disabledIndexShouldFindNothing() {
+        NearDuplicateIndex disabled = new NearDuplicateIndex(documentChunkRepository, false, 0.8);
+        commit(disabled, "demo", Map.of(1L, NearDuplicateIndex.signature(TEXT)));
+
+        assertThat(disabled.findPoint("demo", null, NearDuplicateIndex.signature(TEXT))).isNull();
+        verifyNoInteractions(documentChunkRepository);
+    }
+
+    @Test
+    void constructorShouldRejectInvalidSimilarity() {
+        assertThatThrownBy(() -> new NearDuplicateIndex(documentChunkRepository, true, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new NearDuplicateIndex(documentChunkRepository, true, 1.5))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static void commit(NearDuplicateIndex index, String project, Map<Long, byte[]> signaturesByPoint) {
+        index.stage("committed-job", signaturesByPoint);
+        index.publish(project, "committed-job");
+    }
+}
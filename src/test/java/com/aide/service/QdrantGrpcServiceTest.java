@@ -0,0 +1,353 @@
+package com.aide.service;
+
+import com.aide.service.dto.ChunkEmbedding;
+import com.aide.service.dto.qdrant.QdrantIndexSettings;
+import com.aide.service.dto.qdrant.search.SearchResult;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import io.qdrant.client.QdrantClient;
+import io.qdrant.client.QdrantGrpcClient;
+import io.qdrant.client.grpc.Collections.CollectionConfig;
+import io.qdrant.client.grpc.Collections.CollectionExists;
+import io.qdrant.client.grpc.Collections.CollectionExistsRequest;
+import io.qdrant.client.grpc.Collections.CollectionExistsResponse;
+import io.qdrant.client.grpc.Collections.CollectionInfo;
+import io.qdrant.client.grpc.Collections.CollectionOperationResponse;
+import io.qdrant.client.grpc.Collections.CollectionParams;
+import io.qdrant.client.grpc.Collections.CreateCollection;
+import io.qdrant.client.grpc.Collections.Distance;
+import io.qdrant.client.grpc.Collections.GetCollectionInfoRequest;
+import io.qdrant.client.grpc.Collections.GetCollectionInfoResponse;
+import io.qdrant.client.grpc.Collections.HnswConfigDiff;
+import io.qdrant.client.grpc.Collections.QuantizationType;
+import io.qdrant.client.grpc.Collections.UpdateCollection;
+import io.qdrant.client.grpc.Collections.VectorParams;
+import io.qdrant.client.grpc.Collections.VectorsConfig;
+import io.qdrant.client.grpc.CollectionsGrpc;
+import io.qdrant.client.grpc.Points.DeletePoints;
+import io.qdrant.client.grpc.Points.PointsOperationResponse;
+import io.qdrant.client.grpc.Points.ScoredPoint;
+import io.qdrant.client.grpc.Points.SearchPoints;
+import io.qdrant.client.grpc.Points.SearchResponse;
+import io.qdrant.client.grpc.Points.UpdateResult;
+import io.qdrant.client.grpc.Points.UpdateStatus;
+import io.qdrant.client.grpc.Points.UpsertPoints;
+import io.qdrant.client.grpc.PointsGrpc;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static io.qdrant.client.PointIdFactory.id;
+import static io.qdrant.client.ValueFactory.value;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs against an in-process stand-in for Qdrant's Collections and Points gRPC services.
+ */
+class QdrantGrpcServiceTest {
+
+    private static final String COLLECTION = "aide";
+    private static final double APP_SEARCH_SCORE_THRESHOLD = 0.65D;
+    private static final int VECTOR_SIZE = 4;
+
+    private final List<CreateCollection> creates = Collections.synchronizedList(new ArrayList<>());
+    private final List<UpdateCollection> updates = Collections.synchronizedList(new ArrayList<>());
+    private final List<UpsertPoints> upserts = Collections.synchronizedList(new ArrayList<>());
+    private final List<DeletePoints> deletes = Collections.synchronizedList(new ArrayList<>());
+    private final List<SearchPoints> searches = Collections.synchronizedList(new ArrayList<>());
+    private volatile Long collectionSize;
+    private volatile HnswConfigDiff collectionHnsw;
+    private volatile List<ScoredPoint> searchResults = List.of();
+    private volatile Status searchStatus;
+
+    private Server server;
+    private QdrantClient client;
+    private QdrantGrpcService qdrantService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(new FakeCollections())
+                .addService(new FakePoints())
+                .build()
+                .start();
+        ManagedChannel channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        client = new QdrantClient(QdrantGrpcClient.newBuilder(channel, true).build());
+        qdrantService = new QdrantGrpcService(client, COLLECTION, VECTOR_SIZE, APP_SEARCH_SCORE_THRESHOLD, 2, 2, true, QdrantIndexSettings.DEFAULTS);
+    }
+
+    @AfterEach
+    void tearDown() {
+        client.close();
+        server.shutdownNow();
+    }
+
+    @Test
+    void storeEmbeddingShouldCreateCollectionAndUpsertBinaryVector() {
+        qdrantService.storeEmbedding(1L, 10L, " demo ", new float[]{0.1f, 0.2f, 0.3f, 0.4f});
+
+        assertThat(creates).singleElement().satisfies(create -> {
+            assertThat(create.getCollectionName()).isEqualTo(COLLECTION);
+            assertThat(create.getVectorsConfig().getParams().getSize()).isEqualTo(VECTOR_SIZE);
+            assertThat(create.getVectorsConfig().getParams().getDistance()).isEqualTo(Distance.Cosine);
+            assertThat(create.getShardNumber()).isEqualTo(1);
+        });
+        assertThat(upserts).singleElement().satisfies(upsert -> {
+            assertThat(upsert.getWait()).isTrue();
+            assertThat(upsert.getPointsList()).singleElement().satisfies(point -> {
+                assertThat(point.getId()).isEqualTo(id(1L));
+                assertThat(point.getVectors().getVector().getDataList()).containsExactly(0.1f, 0.2f, 0.3f, 0.4f);
+                assertThat(point.getPayloadMap())
+                        .containsEntry("chunkId", value(1L))
+                        .containsEntry("documentId", value(10L))
+                        .containsEntry("project", value("demo"));
+            });
+        });
+    }
+
+    @Test
+    void storeEmbeddingsShouldUpsertInBatchesAndFinishWithBarrier() {
+        collectionSize = (long) VECTOR_SIZE;
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        qdrantService.storeEmbeddings(List.of(
+                new ChunkEmbedding(1L, 10L, "demo", vector),
+                new ChunkEmbedding(2L, 10L, "demo", vector),
+                new ChunkEmbedding(3L, 10L, "demo", vector)
+        ));
+
+        assertThat(creates).isEmpty();
+        assertThat(upserts).hasSize(3);
+        assertThat(upserts.get(0).getWait()).isFalse();
+        assertThat(upserts.get(0).getPointsList()).extracting(point -> point.getId().getNum()).containsExactly(1L, 2L);
+        assertThat(upserts.get(1).getWait()).isFalse();
+        assertThat(upserts.get(1).getPointsList()).extracting(point -> point.getId().getNum()).containsExactly(3L);
+        assertThat(upserts.get(2).getWait()).isTrue();
+        assertThat(upserts.get(2).getPointsList()).extracting(point -> point.getId().getNum()).containsExactly(3L);
+    }
+
+    @Test
+    void storeEmbeddingsShouldRejectCollectionOfAnotherSize() {
+        collectionSize = 3072L;
+
+        assertThatThrownBy(() -> qdrantService.storeEmbeddings(List.of(new ChunkEmbedding(1L, 10L, "demo", vectorWithLength(VECTOR_SIZE)))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("vectors of size 3072")
+                .hasMessageContaining("gemini.embeddings.dimensions is " + VECTOR_SIZE);
+        assertThat(upserts).isEmpty();
+    }
+
+    @Test
+    void deletePointsShouldDeleteInBatchesAndWait() {
+        collectionSize = (long) VECTOR_SIZE;
+
+        qdrantService.deletePoints(List.of(4L, 5L, 6L));
+
+        assertThat(deletes).hasSize(2);
+        assertThat(deletes).allSatisfy(delete -> assertThat(delete.getWait()).isTrue());
+        assertThat(deletes.get(0).getPoints().getPoints().getIdsList()).containsExactly(id(4L), id(5L));
+        assertThat(deletes.get(1).getPoints().getPoints().getIdsList()).containsExactly(id(6L));
+    }
+
+    @Test
+    void searchSimilarShouldFilterByProjectAndDropWeakMatches() {
+        collectionSize = (long) VECTOR_SIZE;
+        searchResults = List.of(
+                scoredPoint(1L, 10L, "demo", 0.9f),
+                scoredPoint(2L, 10L, "demo", 0.5f)
+        );
+
+        List<SearchResult> results = qdrantService.searchSimilar(new float[]{0.5f, 0.5f, 0.5f, 0.5f}, 2, " demo ");
+
+        assertThat(searches).singleElement().satisfies(search -> {
+            assertThat(search.getVectorList()).containsExactly(0.5f, 0.5f, 0.5f, 0.5f);
+            assertThat(search.getLimit()).isEqualTo(2);
+            assertThat(search.getFilter().getMust(0).getField().getKey()).isEqualTo("project");
+            assertThat(search.getFilter().getMust(0).getField().getMatch().getKeyword()).isEqualTo("demo");
+            assertThat(search.getWithPayload().getEnable()).isTrue();
+            assertThat(search.hasParams()).isFalse();
+        });
+        assertThat(results).singleElement().satisfies(result -> {
+            assertThat(result.chunkId()).isEqualTo(1L);
+            assertThat(result.documentId()).isEqualTo(10L);
+            assertThat(result.project()).isEqualTo("demo");
+            assertThat(result.score()).isEqualTo((double) 0.9f);
+        });
+    }
+
+    @Test
+    void searchSimilarShouldReturnNothingForMissingCollectionAndSurfaceOtherErrors() {
+        collectionSize = (long) VECTOR_SIZE;
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        searchStatus = Status.NOT_FOUND.withDescription("Collection aide not found");
+        assertThat(qdrantService.searchSimilar(vector, 2, "demo")).isEmpty();
+
+        searchStatus = Status.UNAVAILABLE.withDescription("boom");
+        assertThatThrownBy(() -> qdrantService.searchSimilar(vector, 2, "demo"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("UNAVAILABLE")
+                .hasMessageContaining("boom");
+    }
+
+    @Test
+    void ensureCollectionShouldCreateQuantizedCollectionAndSearchWithRescoring() {
+        QdrantGrpcService quantizedService = new QdrantGrpcService(client, COLLECTION, VECTOR_SIZE, APP_SEARCH_SCORE_THRESHOLD, 2, 2, true,
+                new QdrantIndexSettings(QdrantIndexSettings.Quantization.SCALAR, true, true, 32, 200, 3.0, true));
+
+        assertThat(quantizedService.searchSimilar(vectorWithLength(VECTOR_SIZE), 2, "demo")).isEmpty();
+
+        assertThat(creates).singleElement().satisfies(create -> {
+            assertThat(create.getVectorsConfig().getParams().getOnDisk()).isTrue();
+            assertThat(create.getHnswConfig().getM()).isEqualTo(32);
+            assertThat(create.getHnswConfig().getEfConstruct()).isEqualTo(200);
+            assertThat(create.getQuantizationConfig().getScalar().getType()).isEqualTo(QuantizationType.Int8);
+            assertThat(create.getQuantizationConfig().getScalar().getAlwaysRam()).isTrue();
+        });
+        assertThat(searches).singleElement().satisfies(search -> {
+            assertThat(search.getParams().getQuantization().getRescore()).isTrue();
+            assertThat(search.getParams().getQuantization().getOversampling()).isEqualTo(3.0);
+        });
+    }
+
+    @Test
+    void ensureCollectionShouldUpdateIndexSettingsOfExistingCollectionOnce() {
+        collectionSize = (long) VECTOR_SIZE;
+        collectionHnsw = HnswConfigDiff.newBuilder().setM(16).setEfConstruct(100).build();
+        QdrantGrpcService quantizedService = new QdrantGrpcService(client, COLLECTION, VECTOR_SIZE, APP_SEARCH_SCORE_THRESHOLD, 2, 2, true,
+                new QdrantIndexSettings(QdrantIndexSettings.Quantization.BINARY, true, true, 16, 100, 2.0, true));
+
+        quantizedService.deletePoints(List.of(1L));
+        quantizedService.deletePoints(List.of(2L));
+
+        assertThat(updates).singleElement().satisfies(update -> {
+            assertThat(update.getCollectionName()).isEqualTo(COLLECTION);
+            assertThat(update.getVectorsConfig().getParams().getOnDisk()).isTrue();
+            assertThat(update.getHnswConfig().getM()).isEqualTo(16);
+            assertThat(update.getQuantizationConfig().getBinary().getAlwaysRam()).isTrue();
+        });
+        assertThat(deletes).hasSize(2);
+    }
+
+    @Test
+    void ensureCollectionShouldLeaveMatchingIndexSettingsAlone() {
+        collectionSize = (long) VECTOR_SIZE;
+        collectionHnsw = HnswConfigDiff.newBuilder().setM(16).setEfConstruct(100).build();
+
+        qdrantService.deletePoints(List.of(1L));
+
+        assertThat(updates).isEmpty();
+        assertThat(creates).isEmpty();
+    }
+
+    @Test
+    void searchSimilarShouldRejectWrongVectorLength() {
+        assertThatThrownBy(() -> qdrantService.searchSimilar(vectorWithLength(2), 2, "demo"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("vector must have size " + VECTOR_SIZE);
+        assertThat(searches).isEmpty();
+    }
+
+    private static ScoredPoint scoredPoint(long chunkId, long documentId, String project, float score) {
+        return ScoredPoint.newBuilder()
+                .setId(id(chunkId))
+                .putPayload("chunkId", value(chunkId))
+                .putPayload("documentId", value(documentId))
+                .putPayload("project", value(project))
+                .setScore(score)
+                .build();
+    }
+
+    private static float[] vectorWithLength(int length) {
+        float[] vector = new float[length];
+        Arrays.fill(vector, 0.5f);
+        return vector;
+    }
+
+    private static PointsOperationResponse completed() {
+        return PointsOperationResponse.newBuilder()
+                .setResult(UpdateResult.newBuilder().setStatus(UpdateStatus.Completed))
+                .build();
+    }
+
+    private class FakeCollections extends CollectionsGrpc.CollectionsImplBase {
+
+        @Override
+        public void collectionExists(CollectionExistsRequest request, StreamObserver<CollectionExistsResponse> responseObserver) {
+            responseObserver.onNext(CollectionExistsResponse.newBuilder()
+                    .setResult(CollectionExists.newBuilder().setExists(collectionSize != null))
+                    .build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void get(GetCollectionInfoRequest request, StreamObserver<GetCollectionInfoResponse> responseObserver) {
+            VectorParams params = VectorParams.newBuilder().setSize(collectionSize).setDistance(Distance.Cosine).build();
+            CollectionConfig.Builder config = CollectionConfig.newBuilder()
+                    .setParams(CollectionParams.newBuilder().setVectorsConfig(VectorsConfig.newBuilder().setParams(params)));
+            if (collectionHnsw != null) {
+                config.setHnswConfig(collectionHnsw);
+            }
+            responseObserver.onNext(GetCollectionInfoResponse.newBuilder()
+                    .setResult(CollectionInfo.newBuilder().setConfig(config))
+                    .build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void create(CreateCollection request, StreamObserver<CollectionOperationResponse> responseObserver) {
+            creates.add(request);
+            collectionSize = request.getVectorsConfig().getParams().getSize();
+            responseObserver.onNext(CollectionOperationResponse.newBuilder().setResult(true).build());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void update(UpdateCollection request, StreamObserver<CollectionOperationResponse> responseObserver) {
+            updates.add(request);
+            responseObserver.onNext(CollectionOperationResponse.newBuilder().setResult(true).build());
+            responseObserver.onCompleted();
+        }
+    }
+
+    private class FakePoints extends PointsGrpc.PointsImplBase {
+
+        @Override
+        public void upsert(UpsertPoints request, StreamObserver<PointsOperationResponse> responseObserver) {
+            upserts.add(request);
+            responseObserver.onNext(completed());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void delete(DeletePoints request, StreamObserver<PointsOperationResponse> responseObserver) {
+            deletes.add(request);
+            responseObserver.onNext(completed());
+            responseObserver.onCompleted();
+        }
+
+        @Override
+        public void search(SearchPoints request, StreamObserver<SearchResponse> responseObserver) {
+            searches.add(request);
+            if (searchStatus != null) {
+                responseObserver.onError(searchStatus.asRuntimeException());
+                return;
+            }
+            responseObserver.onNext(SearchResponse.newBuilder().addAllResult(searchResults).build());
+            responseObserver.onCompleted();
+        }
+    }
+}
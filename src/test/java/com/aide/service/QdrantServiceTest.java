@@ -1,6 +1,8 @@
 package com.aide.service;
 
+import com.aide.service.dto.ChunkEmbedding;
 import com.aide.service.dto.qdrant.QdrantConstants;
+import com.aide.service.dto.qdrant.QdrantIndexSettings;
 import com.aide.service.dto.qdrant.search.SearchResult;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,14 +12,16 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.client.MockRestServiceServer;
 import org.springframework.web.client.RestTemplate;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
 import static org.springframework.test.web.client.ExpectedCount.once;
+import static org.springframework.test.web.client.ExpectedCount.times;
 import static org.springframework.test.web.client.match.MockRestRequestMatchers.*;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
 import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
@@ -27,6 +31,7 @@ class QdrantServiceTest {
     private static final String BASE_URL = "http://localhost:6333";
     private static final String COLLECTION = "aide";
     private static final double APP_SEARCH_SCORE_THRESHOLD = 0.65D;
+    private static final int VECTOR_SIZE = 768;
 
     private RestTemplate restTemplate;
     private MockRestServiceServer server;
@@ -36,12 +41,12 @@ class QdrantServiceTest {
     void setUp() {
         restTemplate = new RestTemplate();
         server = MockRestServiceServer.createServer(restTemplate);
-        qdrantService = new QdrantService(restTemplate, BASE_URL, COLLECTION, APP_SEARCH_SCORE_THRESHOLD);
+        qdrantService = new QdrantService(restTemplate, BASE_URL, COLLECTION, VECTOR_SIZE, APP_SEARCH_SCORE_THRESHOLD, 2, 1, true, QdrantIndexSettings.DEFAULTS);
     }
 
     @Test
     void storeEmbeddingShouldCreateCollectionAndUpsert() {
-        List<Float> vector = vectorWithLength(QdrantConstants.VECTOR_SIZE);
+        float[] vector = vectorWithLength(VECTOR_SIZE);
 
         server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
                 .andExpect(method(HttpMethod.GET))
@@ -49,17 +54,18 @@ class QdrantServiceTest {
 
         server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
                 .andExpect(method(HttpMethod.PUT))
-                .andExpect(jsonPath("$.vectors.size", is(QdrantConstants.VECTOR_SIZE)))
+                .andExpect(jsonPath("$.vectors.size", is(VECTOR_SIZE)))
                 .andExpect(jsonPath("$.vectors.distance", is(QdrantConstants.DISTANCE_COSINE)))
+                .andExpect(jsonPath("$.shard_number", is(1)))
                 .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
 
-        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points"))
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=true"))
                 .andExpect(method(HttpMethod.PUT))
                 .andExpect(jsonPath("$.points", hasSize(1)))
                 .andExpect(jsonPath("$.points[0].payload.chunkId", is(1)))
                 .andExpect(jsonPath("$.points[0].payload.documentId", is(10)))
                 .andExpect(jsonPath("$.points[0].payload.project", is("demo")))
-                .andExpect(jsonPath("$.points[0].vector", hasSize(QdrantConstants.VECTOR_SIZE)))
+                .andExpect(jsonPath("$.points[0].vector", hasSize(VECTOR_SIZE)))
                 .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
 
         qdrantService.storeEmbedding(1L, 10L, "demo", vector);
@@ -67,9 +73,128 @@ class QdrantServiceTest {
         server.verify();
     }
 
+    @Test
+    void deletePointsShouldDeleteInBatches() {
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points/delete?wait=true"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.points", hasSize(2)))
+                .andExpect(jsonPath("$.points[0]", is(4)))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points/delete?wait=true"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.points", hasSize(1)))
+                .andExpect(jsonPath("$.points[0]", is(6)))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        qdrantService.deletePoints(List.of(4L, 5L, 6L));
+
+        server.verify();
+    }
+
+    @Test
+    void storeEmbeddingsShouldUpsertInBatchesAndFinishWithBarrier() {
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+        List<ChunkEmbedding> embeddings = List.of(
+                new ChunkEmbedding(1L, 10L, "demo", vector),
+                new ChunkEmbedding(2L, 10L, "demo", vector),
+                new ChunkEmbedding(3L, 10L, "demo", vector)
+        );
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=false"))
+                .andExpect(method(HttpMethod.PUT))
+                .andExpect(jsonPath("$.points", hasSize(2)))
+                .andExpect(jsonPath("$.points[0].payload.chunkId", is(1)))
+                .andExpect(jsonPath("$.points[1].payload.chunkId", is(2)))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=false"))
+                .andExpect(method(HttpMethod.PUT))
+                .andExpect(jsonPath("$.points", hasSize(1)))
+                .andExpect(jsonPath("$.points[0].payload.chunkId", is(3)))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=true"))
+                .andExpect(method(HttpMethod.PUT))
+                .andExpect(jsonPath("$.points", hasSize(1)))
+                .andExpect(jsonPath("$.points[0].payload.chunkId", is(3)))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        qdrantService.storeEmbeddings(embeddings);
+
+        server.verify();
+    }
+
+    @Test
+    void storeEmbeddingsShouldWaitOnEveryBatchWhenAsyncIsDisabled() {
+        QdrantService waitingService = new QdrantService(restTemplate, BASE_URL, COLLECTION, VECTOR_SIZE, APP_SEARCH_SCORE_THRESHOLD, 2, 1, false, QdrantIndexSettings.DEFAULTS);
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        server.expect(times(2), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=true"))
+                .andExpect(method(HttpMethod.PUT))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        waitingService.storeEmbeddings(List.of(
+                new ChunkEmbedding(1L, 10L, "demo", vector),
+                new ChunkEmbedding(2L, 10L, "demo", vector),
+                new ChunkEmbedding(3L, 10L, "demo", vector)
+        ));
+
+        server.verify();
+    }
+
+    @Test
+    void storeEmbeddingsShouldWaitOnEveryBatchWhenCollectionHasSeveralShards() {
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(collectionInfo(VECTOR_SIZE).replace("\"shard_number\":1", "\"shard_number\":3"), MediaType.APPLICATION_JSON));
+
+        server.expect(times(2), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=true"))
+                .andExpect(method(HttpMethod.PUT))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        qdrantService.storeEmbeddings(List.of(
+                new ChunkEmbedding(1L, 10L, "demo", vector),
+                new ChunkEmbedding(2L, 10L, "demo", vector),
+                new ChunkEmbedding(3L, 10L, "demo", vector)
+        ));
+
+        server.verify();
+    }
+
+    @Test
+    void storeEmbeddingsShouldSurfaceBatchFailure() {
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=false"))
+                .andExpect(method(HttpMethod.PUT))
+                .andRespond(withStatus(HttpStatus.INTERNAL_SERVER_ERROR).body("boom"));
+
+        assertThatThrownBy(() -> qdrantService.storeEmbeddings(List.of(new ChunkEmbedding(1L, 10L, "demo", vector))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("500")
+                .hasMessageContaining("boom");
+    }
+
     @Test
     void searchSimilarShouldReturnResults() {
-        List<Float> vector = vectorWithLength(QdrantConstants.VECTOR_SIZE);
+        float[] vector = vectorWithLength(VECTOR_SIZE);
 
         server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
                 .andExpect(method(HttpMethod.GET))
@@ -77,10 +202,11 @@ class QdrantServiceTest {
 
         server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points/search"))
                 .andExpect(method(HttpMethod.POST))
-                .andExpect(jsonPath("$.vector", hasSize(QdrantConstants.VECTOR_SIZE)))
+                .andExpect(jsonPath("$.vector", hasSize(VECTOR_SIZE)))
                 .andExpect(jsonPath("$.limit", is(2)))
                 .andExpect(jsonPath("$.filter.must[0].key", is("project")))
                 .andExpect(jsonPath("$.filter.must[0].match.value", is("demo")))
+                .andExpect(jsonPath("$.params").doesNotExist())
                 .andRespond(withSuccess("{\"result\":[{\"id\":1,\"score\":0.9,\"payload\":{\"chunkId\":1,\"documentId\":10,\"project\":\"demo\"}}]}", MediaType.APPLICATION_JSON));
 
         List<SearchResult> results = qdrantService.searchSimilar(vector, 2, " demo ");
@@ -95,16 +221,16 @@ class QdrantServiceTest {
 
     @Test
     void storeEmbeddingShouldRejectWrongVectorLength() {
-        List<Float> vector = vectorWithLength(2);
+        float[] vector = vectorWithLength(2);
 
         assertThatThrownBy(() -> qdrantService.storeEmbedding(1L, 10L, "demo", vector))
                 .isInstanceOf(IllegalArgumentException.class)
-                .hasMessageContaining(String.valueOf(QdrantConstants.VECTOR_SIZE));
+                .hasMessageContaining(String.valueOf(VECTOR_SIZE));
     }
 
     @Test
     void searchShouldReturnEmptyOnNotFound() {
-        List<Float> vector = vectorWithLength(QdrantConstants.VECTOR_SIZE);
+        float[] vector = vectorWithLength(VECTOR_SIZE);
 
         server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
                 .andExpect(method(HttpMethod.GET))
@@ -121,7 +247,7 @@ class QdrantServiceTest {
 
     @Test
     void ensureCollectionShouldSurfaceCreationFailure() {
-        List<Float> vector = vectorWithLength(QdrantConstants.VECTOR_SIZE);
+        float[] vector = vectorWithLength(VECTOR_SIZE);
 
         server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
                 .andExpect(method(HttpMethod.GET))
@@ -138,9 +264,110 @@ class QdrantServiceTest {
                 .hasMessageContaining("boom");
     }
 
+    @Test
+    void ensureCollectionShouldRejectCollectionOfAnotherVectorSize() {
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(collectionInfo(3072), MediaType.APPLICATION_JSON));
+
+        assertThatThrownBy(() -> qdrantService.storeEmbedding(1L, 10L, "demo", vector))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("3072")
+                .hasMessageContaining(String.valueOf(VECTOR_SIZE));
+        server.verify();
+    }
+
+    @Test
+    void ensureCollectionShouldAcceptCollectionOfTheConfiguredVectorSize() {
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(collectionInfo(VECTOR_SIZE), MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=true"))
+                .andExpect(method(HttpMethod.PUT))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        qdrantService.storeEmbedding(1L, 10L, "demo", vector);
+
+        server.verify();
+    }
+
+    @Test
+    void ensureCollectionShouldCreateQuantizedCollectionAndSearchWithRescoring() {
+        QdrantService quantizedService = new QdrantService(restTemplate, BASE_URL, COLLECTION, VECTOR_SIZE, APP_SEARCH_SCORE_THRESHOLD, 2, 1, true,
+                new QdrantIndexSettings(QdrantIndexSettings.Quantization.BINARY, true, true, 32, 200, 3.0, true));
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withStatus(HttpStatus.NOT_FOUND));
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.PUT))
+                .andExpect(jsonPath("$.vectors.size", is(VECTOR_SIZE)))
+                .andExpect(jsonPath("$.vectors.on_disk", is(true)))
+                .andExpect(jsonPath("$.hnsw_config.m", is(32)))
+                .andExpect(jsonPath("$.hnsw_config.ef_construct", is(200)))
+                .andExpect(jsonPath("$.quantization_config.binary.always_ram", is(true)))
+                .andExpect(jsonPath("$.quantization_config.scalar").doesNotExist())
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points/search"))
+                .andExpect(method(HttpMethod.POST))
+                .andExpect(jsonPath("$.params.quantization.rescore", is(true)))
+                .andExpect(jsonPath("$.params.quantization.oversampling", is(3.0)))
+                .andRespond(withSuccess("{\"result\":[]}", MediaType.APPLICATION_JSON));
+
+        assertThat(quantizedService.searchSimilar(vector, 2, "demo")).isEmpty();
+
+        server.verify();
+    }
+
+    @Test
+    void ensureCollectionShouldUpdateIndexSettingsOfExistingCollection() {
+        QdrantService quantizedService = new QdrantService(restTemplate, BASE_URL, COLLECTION, VECTOR_SIZE, APP_SEARCH_SCORE_THRESHOLD, 2, 1, true,
+                new QdrantIndexSettings(QdrantIndexSettings.Quantization.SCALAR, true, true, 16, 100, 2.0, true));
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(collectionInfo(VECTOR_SIZE, ",\"hnsw_config\":{\"m\":16,\"ef_construct\":100}"), MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.PATCH))
+                .andExpect(jsonPath("$.vectors.*.on_disk", contains(true)))
+                .andExpect(jsonPath("$.hnsw_config.m", is(16)))
+                .andExpect(jsonPath("$.quantization_config.scalar.type", is("int8")))
+                .andExpect(jsonPath("$.quantization_config.scalar.always_ram", is(true)))
+                .andRespond(withSuccess("{\"result\":true}", MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=true"))
+                .andExpect(method(HttpMethod.PUT))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        quantizedService.storeEmbedding(1L, 10L, "demo", vector);
+
+        server.verify();
+    }
+
+    @Test
+    void ensureCollectionShouldLeaveMatchingIndexSettingsAlone() {
+        float[] vector = vectorWithLength(VECTOR_SIZE);
+
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
+                .andExpect(method(HttpMethod.GET))
+                .andRespond(withSuccess(collectionInfo(VECTOR_SIZE, ",\"hnsw_config\":{\"m\":16,\"ef_construct\":100}"), MediaType.APPLICATION_JSON));
+        server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION + "/points?wait=true"))
+                .andExpect(method(HttpMethod.PUT))
+                .andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+
+        qdrantService.storeEmbedding(1L, 10L, "demo", vector);
+
+        server.verify();
+    }
+
     @Test
     void searchShouldDropResultsMissingPayloadFields() {
-        List<Float> vector = vectorWithLength(QdrantConstants.VECTOR_SIZE);
+        float[] vector = vectorWithLength(VECTOR_SIZE);
 
         server.expect(once(), requestTo(BASE_URL + "/collections/" + COLLECTION))
                 .andExpect(method(HttpMethod.GET))
@@ -161,11 +388,18 @@ class QdrantServiceTest {
         assertThat(results).isEmpty();
     }
 
-    private List<Float> vectorWithLength(int size) {
-        List<Float> vector = new ArrayList<>(size);
-        for (int i = 0; i < size; i++) {
-            vector.add(0.1f);
-        }
+    private String collectionInfo(int vectorSize) {
+        return collectionInfo(vectorSize, "");
+    }
+
+    private String collectionInfo(int vectorSize, String moreConfig) {
+        return "{\"result\":{\"status\":\"green\",\"config\":{\"params\":{\"vectors\":{\"size\":" + vectorSize
+                + ",\"distance\":\"Cosine\"},\"shard_number\":1}" + moreConfig + "}},\"status\":\"ok\",\"time\":0.001}";
+    }
+
+    private float[] vectorWithLength(int size) {
+        float[] vector = new float[size];
+        Arrays.fill(vector, 0.1f);
         return vector;
     }
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+package com.aide.service;
+
+import com.google.genai.errors.ApiException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class QueryEmbeddingBatcherTest {
+
+    private EmbeddingService embeddingService;
+    private SimpleMeterRegistry meterRegistry;
+    private QueryEmbeddingBatcher batcher;
+
+    @BeforeEach
+    void setUp() {
+        embeddingService = mock(EmbeddingService.class);
+        meterRegistry = new SimpleMeterRegistry();
+        // one vector per text, telling the texts apart by length
+        when(embeddingService.embedBatch(anyList(), eq(GeminiClient.Lane.INTERACTIVE), any())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            return texts.stream().map(text -> new float[]{text.length()}).toList();
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+    }
+
+    @Test
+    void embedShouldSendConcurrentQueriesInOneBatch() throws Exception {
+        batcher = new QueryEmbeddingBatcher(embeddingService, meterRegistry, Duration.ofSeconds(10), 3, 1);
+
+        List<CompletableFuture<float[]>> results = new ArrayList<>();
+        for (String query : List.of("a", "bb", "ccc")) {
+            results.add(embedAsync(query));
+        }
+
+        // the batch is full before the window closes
+        assertThat(results.get(0).get(5, TimeUnit.SECONDS)).containsExactly(1f);
+        assertThat(results.get(1).get(5, TimeUnit.SECONDS)).containsExactly(2f);
+        assertThat(results.get(2).get(5, TimeUnit.SECONDS)).containsExactly(3f);
+        verify(embeddingService, times(1)).embedBatch(anyList(), eq(GeminiClient.Lane.INTERACTIVE), any());
+        verify(embeddingService, never()).embed(any());
+        assertThat(meterRegistry.get("aide.query.embedding.batch.size").summary().max()).isEqualTo(3d);
+    }
+
+    @Test
+    void embedShouldSendALoneQueryOnceTheWindowCloses() {
+        batcher = new QueryEmbeddingBatcher(embeddingService, meterRegistry, Duration.ofMillis(20), 32, 1);
+
+        assertThat(batcher.embed("dddd")).containsExactly(4f);
+        verify(embeddingService).embedBatch(eq(List.of("dddd")), eq(GeminiClient.Lane.INTERACTIVE), any());
+    }
+
+    @Test
+    void embedShouldOnlyFailTheQueryGeminiRejects() throws Exception {
+        reset(embeddingService);
+        when(embeddingService.embedBatch(anyList(), eq(GeminiClient.Lane.INTERACTIVE), any())).thenAnswer(invocation -> {
+            List<String> texts = invocation.getArgument(0);
+            ObjIntConsumer<RuntimeException> onRejected = invocation.getArgument(2);
+            List<float[]> vectors = new ArrayList<>();
+            for (int i = 0; i < texts.size(); i++) {
+                if (texts.get(i).equals("bad")) {
+                    onRejected.accept(new IllegalStateException("Gemini embeddings request failed: bad"), i);
+                    vectors.add(null);
+                } else {
+                    vectors.add(new float[]{1f});
+                }
+            }
+            return vectors;
+        });
+        batcher = new QueryEmbeddingBatcher(embeddingService, meterRegistry, Duration.ofSeconds(10), 2, 1);
+
+        CompletableFuture<float[]> good = embedAsync("good");
+        CompletableFuture<float[]> bad = embedAsync("bad");
+
+        assertThat(good.get(5, TimeUnit.SECONDS)).containsExactly(1f);
+        assertThatThrownBy(() -> bad.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        verify(embeddingService, times(1)).embedBatch(anyList(), eq(GeminiClient.Lane.INTERACTIVE), any());
+        verify(embeddingService, never()).embed(any());
+    }
+
+    @Test
+    void embedShouldFailTheWholeBatchWhenGeminiIsUnavailable() {
+        reset(embeddingService);
+        when(embeddingService.embedBatch(anyList(), eq(GeminiClient.Lane.INTERACTIVE), any()))
+                .thenThrow(new IllegalStateException("Gemini embeddings request failed: down", new ApiException(503, "UNAVAILABLE", "down")));
+        batcher = new QueryEmbeddingBatcher(embeddingService, meterRegistry, Duration.ofMillis(1), 8, 1);
+
+        assertThatThrownBy(() -> batcher.embed("query"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("down");
+        verify(embeddingService, never()).embed(any());
+    }
+
+    @Test
+    void embedShouldCallGeminiDirectlyWithoutAWindow() {
+        when(embeddingService.embed("query")).thenReturn(new float[]{0.5f});
+        batcher = new QueryEmbeddingBatcher(embeddingService, meterRegistry, Duration.ZERO, 32, 1);
+
+        assertThat(batcher.embed("query")).containsExactly(0.5f);
+        verify(embeddingService, never()).embedBatch(anyList(), eq(GeminiClient.Lane.INTERACTIVE), any());
+    }
+
+    @Test
+    void constructorShouldRejectInvalidSettings() {
+        assertThatThrownBy(() -> new QueryEmbeddingBatcher(embeddingService, meterRegistry, Duration.ofMillis(-1), 32, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new QueryEmbeddingBatcher(embeddingService, meterRegistry, Duration.ofMillis(5), 0, 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private CompletableFuture<float[]> embedAsync(String query) {
+        CompletableFuture<float[]> result = new CompletableFuture<>();
+        Thread.ofPlatform().start(() -> {
+            try {
+                result.complete(batcher.embed(query));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+}
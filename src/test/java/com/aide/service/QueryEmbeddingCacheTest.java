@@ -0,0 +1,114 @@
+package com.aide.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.*;
+
+class QueryEmbeddingCacheTest {
+
+    private static final String MODEL = "gemini-embedding-001";
+
+    private QueryEmbeddingBatcher queryEmbeddingBatcher;
+    private SimpleMeterRegistry meterRegistry;
+    private Clock clock;
+
+    @BeforeEach
+    void setUp() {
+        queryEmbeddingBatcher = mock(QueryEmbeddingBatcher.class);
+        meterRegistry = new SimpleMeterRegistry();
+        clock = mock(Clock.class);
+        when(queryEmbeddingBatcher.embed("how do I reset my password")).thenReturn(new float[]{1f, 2f});
+        when(queryEmbeddingBatcher.embed("where are the logs")).thenReturn(new float[]{3f, 4f});
+        when(queryEmbeddingBatcher.embed("what is aide")).thenReturn(new float[]{5f, 6f});
+    }
+
+    @Test
+    void embedShouldServeRepeatedQueriesFromTheCache() {
+        QueryEmbeddingCache cache = newCache(10, 1_000_000, Duration.ofHours(1));
+
+        assertThat(cache.embed("how do I reset my password")).containsExactly(1f, 2f);
+        assertThat(cache.embed("  how do I\treset my   password\n")).containsExactly(1f, 2f);
+
+        verify(queryEmbeddingBatcher, times(1)).embed("how do I reset my password");
+        assertThat(meterRegistry.get("aide.query.embedding.cache.requests").tag("result", "hit").counter().count()).isEqualTo(1d);
+        assertThat(meterRegistry.get("aide.query.embedding.cache.requests").tag("result", "miss").counter().count()).isEqualTo(1d);
+        assertThat(meterRegistry.get("aide.query.embedding.cache.size").gauge().value()).isEqualTo(1d);
+        assertThat(meterRegistry.get("aide.query.embedding.cache.bytes").gauge().value()).isPositive();
+    }
+
+    @Test
+    void embedShouldHandOutCopiesOfTheCachedVector() {
+        QueryEmbeddingCache cache = newCache(10, 1_000_000, Duration.ofHours(1));
+
+        cache.embed("how do I reset my password")[0] = 9f;
+        float[] hit = cache.embed("how do I reset my password");
+        hit[1] = 9f;
+
+        assertThat(cache.embed("how do I reset my password")).containsExactly(1f, 2f);
+        verify(queryEmbeddingBatcher, times(1)).embed("how do I reset my password");
+    }
+
+    @Test
+    void embedShouldEmbedAgainOnceTheEntryExpired() {
+        QueryEmbeddingCache cache = newCache(10, 1_000_000, Duration.ofMinutes(5));
+        when(clock.millis()).thenReturn(0L, Duration.ofMinutes(4).toMillis(), Duration.ofMinutes(5).toMillis());
+
+        cache.embed("where are the logs");
+        cache.embed("where are the logs");
+        cache.embed("where are the logs");
+
+        verify(queryEmbeddingBatcher, times(2)).embed("where are the logs");
+    }
+
+    @Test
+    void embedShouldEvictTheLeastRecentlyUsedQuery() {
+        QueryEmbeddingCache cache = newCache(2, 1_000_000, Duration.ofHours(1));
+
+        cache.embed("how do I reset my password");
+        cache.embed("where are the logs");
+        cache.embed("how do I reset my password");
+        cache.embed("what is aide");
+        cache.embed("how do I reset my password");
+        cache.embed("where are the logs");
+
+        assertThat(cache.size()).isEqualTo(2);
+        verify(queryEmbeddingBatcher, times(1)).embed("how do I reset my password");
+        verify(queryEmbeddingBatcher, times(2)).embed("where are the logs");
+    }
+
+    @Test
+    void embedShouldStayWithinTheMemoryLimit() {
+        QueryEmbeddingCache small = newCache(10, 200, Duration.ofHours(1));
+
+        small.embed("how do I reset my password");
+        small.embed("where are the logs");
+
+        assertThat(small.size()).isEqualTo(1);
+        assertThat(small.bytes()).isLessThanOrEqualTo(200);
+
+        QueryEmbeddingCache tiny = newCache(10, 10, Duration.ofHours(1));
+        tiny.embed("what is aide");
+        assertThat(tiny.size()).isZero();
+    }
+
+    @Test
+    void embedShouldRejectBlankQueries() {
+        QueryEmbeddingCache cache = newCache(10, 1_000_000, Duration.ofHours(1));
+
+        assertThatThrownBy(() -> cache.embed("  "))
+                .isInstanceOf(IllegalArgumentException.class);
+        verifyNoInteractions(queryEmbeddingBatcher);
+    }
+
+    private QueryEmbeddingCache newCache(int maxEntries, long maxBytes, Duration ttl) {
+        return new QueryEmbeddingCache(queryEmbeddingBatcher, meterRegistry, MODEL, maxEntries, maxBytes, ttl, clock);
+    }
+}
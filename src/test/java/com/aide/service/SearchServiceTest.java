@@ -6,11 +6,14 @@ import com.aide.model.DocumentChunk;
 import com.aide.repository.DocumentChunkRepository;
 import com.aide.repository.DocumentRepository;
 import com.aide.service.dto.qdrant.search.SearchResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -20,33 +23,37 @@ import static org.mockito.Mockito.*;
 
 class SearchServiceTest {
 
-    private EmbeddingService embeddingService;
-    private QdrantService qdrantService;
+    private QueryEmbeddingBatcher queryEmbeddingBatcher;
+    private VectorStore vectorStore;
     private DocumentChunkRepository documentChunkRepository;
     private DocumentRepository documentRepository;
+    private DocumentTextService documentTextService;
 
     private SearchService searchService;
 
     @BeforeEach
     void setUp() {
-        embeddingService = mock(EmbeddingService.class);
-        qdrantService = mock(QdrantService.class);
+        queryEmbeddingBatcher = mock(QueryEmbeddingBatcher.class);
+        vectorStore = mock(VectorStore.class);
         documentChunkRepository = mock(DocumentChunkRepository.class);
         documentRepository = mock(DocumentRepository.class);
+        documentTextService = mock(DocumentTextService.class);
 
-        searchService = new SearchService(embeddingService, qdrantService, documentChunkRepository, documentRepository, 5);
+        QueryEmbeddingCache queryEmbeddingCache = new QueryEmbeddingCache(
+                queryEmbeddingBatcher, new SimpleMeterRegistry(), "gemini-embedding-001", 100, 1_000_000, Duration.ofHours(1));
+        searchService = new SearchService(queryEmbeddingCache, vectorStore, documentChunkRepository, documentRepository, documentTextService, 5);
     }
 
     @Test
     void searchContentShouldReturnRankedResults() {
-        when(embeddingService.embed("hello world"))
-                .thenReturn(List.of(0.1f, 0.2f, 0.3f));
+        when(queryEmbeddingBatcher.embed("hello world"))
+                .thenReturn(new float[]{0.1f, 0.2f, 0.3f});
 
         List<SearchResult> matches = List.of(
                 new SearchResult(1L, 10L, "demo", 0.9d),
                 new SearchResult(2L, 11L, "demo", 0.8d)
         );
-        when(qdrantService.searchSimilar(any(), eq(5), eq("demo"))).thenReturn(matches);
+        when(vectorStore.searchSimilar(any(), eq(5), eq("demo"))).thenReturn(matches);
 
         DocumentChunk chunk1 = new DocumentChunk();
         chunk1.setId(1L);
@@ -60,7 +67,7 @@ class SearchServiceTest {
         chunk2.setChunkIndex(1);
         chunk2.setContent("chunk-2");
 
-        when(documentChunkRepository.findAllById(any())).thenReturn(List.of(chunk1, chunk2));
+        when(documentChunkRepository.findByIdInOrPointIdIn(any(), any())).thenReturn(List.of(chunk1, chunk2));
 
         Document doc1 = new Document();
         doc1.setId(10L);
@@ -94,27 +101,185 @@ class SearchServiceTest {
         assertThat(results.get(1).content()).isEqualTo("chunk-2");
         assertThat(results.get(1).score()).isEqualTo(0.8d);
 
-        verify(embeddingService).embed("hello world");
-        verify(qdrantService).searchSimilar(any(), eq(5), eq("demo"));
+        verify(queryEmbeddingBatcher).embed("hello world");
+        verify(vectorStore).searchSimilar(any(), eq(5), eq("demo"));
     }
 
     @Test
     void searchContentShouldSkipResultsWithoutChunks() {
-        when(embeddingService.embed("hello"))
-                .thenReturn(List.of(0.1f, 0.2f, 0.3f));
+        when(queryEmbeddingBatcher.embed("hello"))
+                .thenReturn(new float[]{0.1f, 0.2f, 0.3f});
 
         List<SearchResult> matches = List.of(
                 new SearchResult(5L, 20L, "demo", 0.7d)
         );
-        when(qdrantService.searchSimilar(any(), eq(5), eq("demo"))).thenReturn(matches);
+        when(vectorStore.searchSimilar(any(), eq(5), eq("demo"))).thenReturn(matches);
 
-        when(documentChunkRepository.findAllById(any())).thenReturn(List.of());
+        when(documentChunkRepository.findByIdInOrPointIdIn(any(), any())).thenReturn(List.of());
 
         List<SearchContentResponse> results = searchService.searchContent("hello", "demo");
 
         assertThat(results).isEmpty();
     }
 
+    @Test
+    void searchContentShouldSkipPendingChunks() {
+        when(queryEmbeddingBatcher.embed("hello"))
+                .thenReturn(new float[]{0.1f, 0.2f, 0.3f});
+        when(vectorStore.searchSimilar(any(), eq(5), eq("demo")))
+                .thenReturn(List.of(new SearchResult(6L, 20L, "demo", 0.7d)));
+
+        DocumentChunk pending = new DocumentChunk();
+        pending.setId(6L);
+        pending.setDocumentId(20L);
+        pending.setChunkIndex(0);
+        pending.setContent("next version");
+        pending.setPending(true);
+        when(documentChunkRepository.findByIdInOrPointIdIn(any(), any())).thenReturn(List.of(pending));
+
+        Document document = new Document();
+        document.setId(20L);
+        when(documentRepository.findAllById(any())).thenReturn(List.of(document));
+
+        assertThat(searchService.searchContent("hello", "demo")).isEmpty();
+    }
+
+    @Test
+    void searchContentShouldSliceChunkContentFromDocumentTextWithSection() {
+        when(queryEmbeddingBatcher.embed("hello"))
+                .thenReturn(new float[]{0.1f, 0.2f, 0.3f});
+        when(vectorStore.searchSimilar(any(), eq(5), eq("demo")))
+                .thenReturn(List.of(new SearchResult(7L, 20L, "demo", 0.7d)));
+
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(7L);
+        chunk.setDocumentId(20L);
+        chunk.setChunkIndex(1);
+        chunk.setStartOffset(6);
+        chunk.setEndOffset(11);
+        chunk.setHeadingPath("Greetings");
+        when(documentChunkRepository.findByIdInOrPointIdIn(any(), any())).thenReturn(List.of(chunk));
+
+        Document document = new Document();
+        document.setId(20L);
+        document.setTextId(30L);
+        when(documentRepository.findAllById(any())).thenReturn(List.of(document));
+        DocumentTextService.Slice slice = new DocumentTextService.Slice(30L, 6, 11);
+        when(documentTextService.loadSlices(List.of(slice))).thenReturn(Map.of(slice, "world"));
+
+        List<SearchContentResponse> results = searchService.searchContent("hello", "demo");
+
+        assertThat(results).singleElement()
+                .satisfies(result -> {
+                    assertThat(result.content()).isEqualTo("world");
+                    assertThat(result.section()).isEqualTo("Greetings");
+                });
+    }
+
+    @Test
+    void searchContentShouldShowChunkContentWithoutHeadingMarkers() {
+        when(queryEmbeddingBatcher.embed("hello"))
+                .thenReturn(new float[]{0.1f, 0.2f, 0.3f});
+        when(vectorStore.searchSimilar(any(), eq(5), eq("demo")))
+                .thenReturn(List.of(new SearchResult(7L, 20L, "demo", 0.7d)));
+
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(7L);
+        chunk.setDocumentId(20L);
+        chunk.setChunkIndex(0);
+        chunk.setStartOffset(0);
+        chunk.setEndOffset(33);
+        chunk.setHeadingPath("Greetings > World");
+        when(documentChunkRepository.findByIdInOrPointIdIn(any(), any())).thenReturn(List.of(chunk));
+
+        Document document = new Document();
+        document.setId(20L);
+        document.setName("greetings.md");
+        document.setTextId(30L);
+        when(documentRepository.findAllById(any())).thenReturn(List.of(document));
+        DocumentTextService.Slice slice = new DocumentTextService.Slice(30L, 0, 33);
+        when(documentTextService.loadSlices(List.of(slice))).thenReturn(Map.of(slice, "# Greetings\nhello\n## World\nworld\n"));
+
+        List<SearchContentResponse> results = searchService.searchContent("hello", "demo");
+
+        assertThat(results).singleElement()
+                .satisfies(result -> assertThat(result.content()).isEqualTo("Greetings\nhello\nWorld\nworld\n"));
+    }
+
+    @Test
+    void searchContentShouldShowPlainTextChunksAsTheyAre() {
+        when(queryEmbeddingBatcher.embed("hello"))
+                .thenReturn(new float[]{0.1f, 0.2f, 0.3f});
+        when(vectorStore.searchSimilar(any(), eq(5), eq("demo")))
+                .thenReturn(List.of(new SearchResult(7L, 20L, "demo", 0.7d)));
+
+        DocumentChunk chunk = new DocumentChunk();
+        chunk.setId(7L);
+        chunk.setDocumentId(20L);
+        chunk.setChunkIndex(0);
+        chunk.setStartOffset(0);
+        chunk.setEndOffset(24);
+        when(documentChunkRepository.findByIdInOrPointIdIn(any(), any())).thenReturn(List.of(chunk));
+
+        Document document = new Document();
+        document.setId(20L);
+        document.setName("setup.txt");
+        document.setTextId(30L);
+        when(documentRepository.findAllById(any())).thenReturn(List.of(document));
+        DocumentTextService.Slice slice = new DocumentTextService.Slice(30L, 0, 24);
+        when(documentTextService.loadSlices(List.of(slice))).thenReturn(Map.of(slice, "# say hello\necho hello\n"));
+
+        List<SearchContentResponse> results = searchService.searchContent("hello", "demo");
+
+        assertThat(results).singleElement()
+                .satisfies(result -> assertThat(result.content()).isEqualTo("# say hello\necho hello\n"));
+    }
+
+    @Test
+    void searchContentShouldShowASharedPointOnceAsItsOwnChunkWhileSearchable() {
+        when(queryEmbeddingBatcher.embed("hello"))
+                .thenReturn(new float[]{0.1f, 0.2f, 0.3f});
+        when(vectorStore.searchSimilar(any(), eq(5), eq("demo")))
+                .thenReturn(List.of(new SearchResult(8L, 20L, "demo", 0.9d), new SearchResult(9L, 20L, "demo", 0.8d)));
+
+        DocumentChunk owner = new DocumentChunk();
+        owner.setId(8L);
+        owner.setDocumentId(20L);
+        owner.setChunkIndex(0);
+        owner.setContent("original");
+        DocumentChunk duplicate = new DocumentChunk();
+        duplicate.setId(4L);
+        duplicate.setDocumentId(21L);
+        duplicate.setChunkIndex(0);
+        duplicate.setContent("near-duplicate");
+        duplicate.setPointId(8L);
+        // the chunk of point 9 is in a version not swapped in yet, so its near-duplicate stands in
+        DocumentChunk pendingOwner = new DocumentChunk();
+        pendingOwner.setId(9L);
+        pendingOwner.setDocumentId(20L);
+        pendingOwner.setChunkIndex(1);
+        pendingOwner.setPending(true);
+        DocumentChunk otherDuplicate = new DocumentChunk();
+        otherDuplicate.setId(12L);
+        otherDuplicate.setDocumentId(21L);
+        otherDuplicate.setChunkIndex(1);
+        otherDuplicate.setContent("copy");
+        otherDuplicate.setPointId(9L);
+        when(documentChunkRepository.findByIdInOrPointIdIn(List.of(8L, 9L), List.of(8L, 9L)))
+                .thenReturn(List.of(duplicate, owner, otherDuplicate, pendingOwner));
+
+        Document first = new Document();
+        first.setId(20L);
+        Document second = new Document();
+        second.setId(21L);
+        when(documentRepository.findAllById(any())).thenReturn(List.of(first, second));
+
+        List<SearchContentResponse> results = searchService.searchContent("hello", "demo");
+
+        assertThat(results).extracting(SearchContentResponse::chunkId).containsExactly(8L, 12L);
+        assertThat(results).extracting(SearchContentResponse::content).containsExactly("original", "copy");
+    }
+
     @Test
     void searchContentShouldValidateInputs() {
         assertThatThrownBy(() -> searchService.searchContent("   ", "demo"))
@@ -0,0 +1,123 @@
+package com.aide.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>("test");
+
+    @Test
+    void concurrentCallsWithTheSameKeyShareOneComputation() throws Exception {
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> leader = call("q", () -> {
+            computations.incrementAndGet();
+            started.countDown();
+            await(release);
+            return "answer";
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        List<CompletableFuture<String>> followers = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            CompletableFuture<String> follower = new CompletableFuture<>();
+            threads.add(Thread.ofPlatform().start(() -> follower.complete(singleFlight.run("q", () -> {
+                computations.incrementAndGet();
+                return "own answer";
+            }))));
+            followers.add(follower);
+        }
+        awaitWaiting(threads);
+        release.countDown();
+
+        assertThat(leader.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        for (CompletableFuture<String> follower : followers) {
+            assertThat(follower.get(5, TimeUnit.SECONDS)).isEqualTo("answer");
+        }
+        assertThat(computations).hasValue(1);
+        assertThat(singleFlight.inFlight()).isZero();
+    }
+
+    @Test
+    void failuresReachEveryWaiterAndAreNotRemembered() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> leader = call("q", () -> {
+            started.countDown();
+            await(release);
+            throw new IllegalStateException("Gemini unavailable");
+        });
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> follower = new CompletableFuture<>();
+        Thread thread = Thread.ofPlatform().start(() -> {
+            try {
+                follower.complete(singleFlight.run("q", () -> "own answer"));
+            } catch (RuntimeException e) {
+                follower.completeExceptionally(e);
+            }
+        });
+        awaitWaiting(List.of(thread));
+        release.countDown();
+
+        assertThatThrownBy(() -> leader.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> follower.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .cause().hasMessage("Gemini unavailable");
+        assertThat(singleFlight.run("q", () -> "retried")).isEqualTo("retried");
+    }
+
+    @Test
+    void differentKeysDoNotWaitForEachOther() {
+        String outer = singleFlight.run("a", () -> singleFlight.run("b", () -> "inner") + "+outer");
+
+        assertThat(outer).isEqualTo("inner+outer");
+    }
+
+    private CompletableFuture<String> call(String key, Supplier<String> computation) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        Thread.ofPlatform().start(() -> {
+            try {
+                result.complete(singleFlight.run(key, computation));
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits until the threads are parked, i.e. joined the call in flight.
+     */
+    private static void awaitWaiting(List<Thread> threads) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Thread thread : threads) {
+            while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}